@@ -1,11 +1,12 @@
 plugins {
     id("java")
-    id("io.ktor.plugin") version "2.2.4"
+    id("io.ktor.plugin") version "2.3.7"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "tv.ender"
 version = "1.0.0-SNAPSHOT"
-java.sourceCompatibility = JavaVersion.VERSION_17
+java.sourceCompatibility = JavaVersion.VERSION_21
 
 tasks.withType<JavaCompile> {
     options.encoding = "UTF-8"
@@ -21,8 +22,8 @@ repositories {
 
 dependencies {
     /* lombok */
-    compileOnly("org.projectlombok:lombok:1.18.26")
-    annotationProcessor("org.projectlombok:lombok:1.18.26")
+    compileOnly("org.projectlombok:lombok:1.18.30")
+    annotationProcessor("org.projectlombok:lombok:1.18.30")
 
     /* testing */
     testImplementation("junit:junit:4.13.2")
@@ -38,6 +39,17 @@ dependencies {
     implementation("com.google.firebase:firebase-admin:9.1.1")
 }
 
+jmh {
+    jmhVersion.set("1.36")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    /* machine readable results, compare runs with jmhCompare */
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("reports/jmh/results.json"))
+    (project.findProperty("jmhIncludes") as String?)?.let { includes.add(it) }
+}
+
 application {
     mainClass.set("tv.ender.App")
 }
@@ -60,4 +72,64 @@ tasks {
     test {
         useJUnitPlatform()
     }
+
+    /* ./gradlew simulate -Pseed=42 -Pspeed=0 */
+    val simulate by registering(JavaExec::class) {
+        group = "verification"
+        description = "Replays a seeded bet storm against an in-memory guild and checks ticket invariants"
+        classpath = sourceSets["main"].runtimeClasspath
+        mainClass.set("tv.ender.simulation.LoadSimulator")
+        args(
+            project.findProperty("seed") ?: "42",
+            project.findProperty("users") ?: "5000",
+            project.findProperty("clients") ?: "8",
+            project.findProperty("speed") ?: "1",
+            project.findProperty("dispatch") ?: "mailbox"
+        )
+    }
+
+    /* ./gradlew jmhCompare -PjmhBaseline=old-results.json [-PjmhTolerance=0.10] */
+    val jmhCompare by registering {
+        group = "benchmark"
+        description = "Compares the last jmh results against a baseline and fails on regressions"
+
+        doLast {
+            val baselinePath = project.findProperty("jmhBaseline") as String?
+                ?: throw GradleException("Pass the baseline results with -PjmhBaseline=<file>")
+            val tolerance = (project.findProperty("jmhTolerance") as String?)?.toDouble() ?: 0.10
+
+            fun load(file: File): Map<String, Pair<Double, String>> =
+                (groovy.json.JsonSlurper().parse(file) as List<*>).associate { entry ->
+                    val run = entry as Map<*, *>
+                    val params = (run["params"] as Map<*, *>?)?.entries
+                        ?.sortedBy { it.key.toString() }
+                        ?.joinToString(",") { "${it.key}=${it.value}" } ?: ""
+                    val metric = run["primaryMetric"] as Map<*, *>
+
+                    "${run["benchmark"]}($params)" to Pair((metric["score"] as Number).toDouble(), metric["scoreUnit"] as String)
+                }
+
+            val current = load(layout.buildDirectory.file("reports/jmh/results.json").get().asFile)
+            val baseline = load(file(baselinePath))
+            val regressions = mutableListOf<String>()
+
+            for ((name, result) in current) {
+                val previous = baseline[name] ?: continue
+                val change = (result.first - previous.first) / previous.first
+
+                /* throughput is ops per time so higher is better, every other mode is time per op */
+                val worse = if (result.second.startsWith("ops/")) -change else change
+                val line = "%s: %.3f -> %.3f %s (%+.1f%%)".format(name, previous.first, result.first, result.second, change * 100)
+
+                println(line)
+                if (worse > tolerance) {
+                    regressions.add(line)
+                }
+            }
+
+            if (regressions.isNotEmpty()) {
+                throw GradleException("Benchmarks regressed more than %.0f%%:\n%s".format(tolerance * 100, regressions.joinToString("\n")))
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,129 @@
+package discord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import tv.ender.common.Result;
+import tv.ender.discord.backend.activities.Prediction;
+import tv.ender.discord.backend.activities.Raffle;
+import tv.ender.firebase.backend.UserData;
+
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Activity hot paths that {@link TicketLedgerBenchmark} does not cover: settling at realistic
+ * entrant counts, reading totals while entries land, and the result objects every call returns.
+ * {@code UserData.fromDocument} is covered by {@link DocumentCodecBenchmark}, it only unwraps the
+ * snapshot around the codec measured there.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ActivityBenchmark {
+    private static final int USERS = 4096;
+    private static final String[] OPTIONS = new String[]{"Option1", "Option2", "Option3", "Option4"};
+
+    @State(Scope.Group)
+    public static class Open {
+        Prediction prediction;
+        UserData[] users;
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            this.prediction = new Prediction();
+            this.users = users(USERS, Integer.MAX_VALUE);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Settle {
+        @Param({"1000", "100000"})
+        public int entrants;
+
+        Prediction prediction;
+        Raffle raffle;
+        SplittableRandom random = new SplittableRandom(42);
+
+        /* settling consumes the activity, rebuild it before every measured call */
+        @Setup(Level.Invocation)
+        public void setup() {
+            UserData[] users = users(this.entrants, 1000);
+            this.prediction = new Prediction();
+            this.raffle = new Raffle();
+
+            for (int i = 0; i < users.length; i++) {
+                this.prediction.enter(users[i], 1 + i % 100, OPTIONS[i % OPTIONS.length]);
+                this.raffle.enter(users[i], 1 + i % 100);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Entry {
+        UserData user = UserData.of("user", "100000000000000000", "1", 1000, 0);
+        int tickets = 25;
+        String option = OPTIONS[1];
+    }
+
+    @Benchmark
+    @Group("totals")
+    @GroupThreads(3)
+    public int totalTickets(Open open) {
+        return open.prediction.getTotalTickets();
+    }
+
+    @Benchmark
+    @Group("totals")
+    @GroupThreads(1)
+    public Result<UserData> enterWhileReading(Open open) {
+        UserData user = open.users[open.next++ & (USERS - 1)];
+
+        return open.prediction.enter(user, 1, OPTIONS[user.hashCode() & 3]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Result<Set<UserData>> predictionEnd(Settle settle) {
+        return settle.prediction.end(OPTIONS[1]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Result<List<UserData>> raffleEnd(Settle settle) {
+        return settle.raffle.end(10, settle.random);
+    }
+
+    @Benchmark
+    public Result<UserData> resultConstant(Entry entry) {
+        return Result.pass(entry.user, "Entered");
+    }
+
+    @Benchmark
+    public Result<UserData> resultFormatted(Entry entry) {
+        /* the message enter builds on every accepted bet */
+        return Result.pass(entry.user, "Bet %d tickets on %s".formatted(entry.tickets, entry.option));
+    }
+
+    private static UserData[] users(int count, int tickets) {
+        UserData[] users = new UserData[count];
+
+        for (int i = 0; i < count; i++) {
+            users[i] = UserData.of("user" + i, String.valueOf(100000000000000000L + i), "1", tickets, 0);
+        }
+
+        return users;
+    }
+}
@@ -0,0 +1,145 @@
+package discord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import tv.ender.firebase.backend.GuildData;
+import tv.ender.firebase.backend.UserData;
+import tv.ender.firebase.codec.GuildDataCodec;
+import tv.ender.firebase.codec.UserDataCodec;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the hand-written codecs against reflective bean mapping on encode, and against the
+ * old map-and-cast parsing on decode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DocumentCodecBenchmark {
+    private final BeanEncoder userEncoder = new BeanEncoder(UserData.class);
+    private final BeanEncoder guildEncoder = new BeanEncoder(GuildData.class);
+
+    private UserData user;
+    private GuildData guild;
+    private Map<String, Object> userFields;
+    private Map<String, Object> guildFields;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.user = UserData.of("ItWasEnder", "125681531824898049", "1090379681330630748", 200, 3);
+        this.guild = GuildData.of("1090379681330630748", "Ender", "!", "online", "PLAYING",
+                new ArrayList<>(List.of("1090379681330630749", "1090379681330630750", "1090379681330630751")), false);
+
+        /* stored documents hand back plain maps, reuse them as the decode input */
+        this.userFields = new HashMap<>(UserDataCodec.INSTANCE.encode(this.user));
+        this.guildFields = new HashMap<>(GuildDataCodec.INSTANCE.encode(this.guild));
+    }
+
+    @Benchmark
+    public Map<String, Object> encodeUserCodec() {
+        return UserDataCodec.INSTANCE.encode(this.user);
+    }
+
+    @Benchmark
+    public Map<String, Object> encodeUserReflective() {
+        return this.userEncoder.encode(this.user);
+    }
+
+    @Benchmark
+    public Map<String, Object> encodeGuildCodec() {
+        return GuildDataCodec.INSTANCE.encode(this.guild);
+    }
+
+    @Benchmark
+    public Map<String, Object> encodeGuildReflective() {
+        return this.guildEncoder.encode(this.guild);
+    }
+
+    @Benchmark
+    public UserData decodeUserCodec() {
+        return UserDataCodec.INSTANCE.decode(this.userFields);
+    }
+
+    @Benchmark
+    public UserData decodeUserCasting() {
+        /* the parsing fromDocument did before the codecs */
+        Map<String, Object> data = new HashMap<>(this.userFields);
+
+        String name = (String) data.get("name");
+        String discordId = (String) data.get("discordId");
+        String guildId = (String) data.get("guildId");
+        int tickets = ((Long) data.get("tickets")).intValue();
+        int losses = ((Long) data.get("losses")).intValue();
+
+        return UserData.of(name, discordId, guildId, tickets, losses);
+    }
+
+    @Benchmark
+    public GuildData decodeGuildCodec() {
+        return GuildDataCodec.INSTANCE.decode(this.guildFields);
+    }
+
+    /**
+     * Getter-driven encoding the way the firestore bean mapper does it, with properties cached
+     * per class and every value read through reflection
+     */
+    private static class BeanEncoder {
+        private final List<PropertyDescriptor> properties;
+
+        private BeanEncoder(Class<?> type) {
+            try {
+                this.properties = Arrays.stream(Introspector.getBeanInfo(type, Object.class).getPropertyDescriptors())
+                        .filter(property -> property.getReadMethod() != null)
+                        .toList();
+            } catch (IntrospectionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private Map<String, Object> encode(Object bean) {
+            Map<String, Object> fields = new HashMap<>();
+
+            for (PropertyDescriptor property : this.properties) {
+                Method getter = property.getReadMethod();
+
+                try {
+                    fields.put(property.getName(), this.plain(getter.invoke(bean)));
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            return fields;
+        }
+
+        private Object plain(Object value) {
+            if (value instanceof Collection<?> collection) {
+                List<Object> copy = new ArrayList<>(collection.size());
+                collection.forEach(element -> copy.add(this.plain(element)));
+
+                return copy;
+            } else if (value instanceof Integer number) {
+                return number.longValue();
+            }
+
+            return value;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package discord;
+
+import tv.ender.discord.backend.ledger.TicketLedger;
+import tv.ender.firebase.backend.UserData;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Retained heap per entrant of the ledger against the original entrant maps. The users themselves
+ * are allocated up front and shared, so only the structure holding them is counted. Run the main
+ * method from the jmh classpath, e.g. {@code java -cp build/libs/*-jmh.jar discord.EntrantFootprint}.
+ */
+public class EntrantFootprint {
+    private static final int ENTRANTS = 1_000_000;
+    private static final String[] OPTIONS = new String[]{"Option1", "Option2", "Option3", "Option4"};
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    public static void main(String[] args) {
+        int entrants = args.length > 0 ? Integer.parseInt(args[0]) : ENTRANTS;
+        UserData[] users = new UserData[entrants];
+
+        for (int i = 0; i < entrants; i++) {
+            users[i] = UserData.of("user" + i, String.valueOf(1090379681330630748L + i * 4194304L), "1", Integer.MAX_VALUE, 0);
+        }
+
+        report("ConcurrentHashMap<UserData,Integer>", entrants, () -> {
+            Map<UserData, Integer> tickets = new ConcurrentHashMap<>();
+            for (int i = 0; i < entrants; i++) {
+                tickets.put(users[i], 1000 + i % 1000);
+            }
+            return tickets;
+        });
+
+        report("ConcurrentHashMap<UserData,Integer> + picks map", entrants, () -> {
+            Map<UserData, Integer> tickets = new ConcurrentHashMap<>();
+            Map<UserData, String> picks = new ConcurrentHashMap<>();
+            for (int i = 0; i < entrants; i++) {
+                tickets.put(users[i], 1000 + i % 1000);
+                picks.put(users[i], OPTIONS[i % OPTIONS.length]);
+            }
+            return new Object[]{tickets, picks};
+        });
+
+        report("TicketLedger", entrants, () -> {
+            TicketLedger ledger = new TicketLedger(new AtomicBoolean(true));
+            for (int i = 0; i < entrants; i++) {
+                ledger.deposit(users[i], 1000 + i % 1000, OPTIONS[i % OPTIONS.length]);
+            }
+            return ledger;
+        });
+
+        /* keep the users reachable until every structure was measured */
+        System.out.println("Users: " + users.length);
+    }
+
+    private static void report(String name, int entrants, Supplier<Object> build) {
+        long before = settledHeap();
+        Object structure = build.get();
+        long after = settledHeap();
+
+        long bytes = after - before;
+        System.out.printf("%-48s %,14d bytes %8.1f bytes/entrant%n", name, bytes, bytes / (double) entrants);
+
+        /* measured, now it can go */
+        if (structure.hashCode() == 42) {
+            System.out.println();
+        }
+    }
+
+    private static long settledHeap() {
+        long used = Long.MAX_VALUE;
+
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, MEMORY.getHeapMemoryUsage().getUsed());
+        }
+
+        return used;
+    }
+}
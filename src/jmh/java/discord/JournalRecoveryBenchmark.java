@@ -0,0 +1,97 @@
+package discord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import tv.ender.discord.backend.journal.ActivityJournal;
+import tv.ender.discord.backend.journal.JournalEvent;
+import tv.ender.discord.backend.journal.JournalState;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Time to rebuild activity state from a journal of 1M events, straight from the log and after
+ * the log was folded into a snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JournalRecoveryBenchmark {
+    private static final String[] OPTIONS = new String[]{"Option1", "Option2", "Option3", "Option4"};
+
+    @Param({"1000000"})
+    public int events;
+
+    @Param({"100"})
+    public int activities;
+
+    private Path logDirectory;
+    private Path snapshotDirectory;
+    private ActivityJournal log;
+    private ActivityJournal snapshot;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.logDirectory = Files.createTempDirectory("journal-log");
+        this.snapshotDirectory = Files.createTempDirectory("journal-snapshot");
+
+        this.log = this.fill(this.logDirectory);
+        this.snapshot = this.fill(this.snapshotDirectory);
+        this.snapshot.snapshot();
+    }
+
+    private ActivityJournal fill(Path directory) throws IOException {
+        ActivityJournal journal = new ActivityJournal(directory, ActivityJournal.DEFAULT_SEGMENT_SIZE, 0, Duration.ofSeconds(1));
+        UUID[] ids = new UUID[this.activities];
+
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = UUID.randomUUID();
+            journal.append(JournalEvent.open(i % 2 == 0 ? JournalEvent.Type.PREDICTION : JournalEvent.Type.RAFFLE, ids[i], "123456789012345678"));
+        }
+
+        for (int i = ids.length; i < this.events; i++) {
+            int activity = i % ids.length;
+            String option = activity % 2 == 0 ? OPTIONS[i % OPTIONS.length] : null;
+
+            journal.append(JournalEvent.enter(ids[activity], String.valueOf(100000000000000000L + i % 50_000), 1 + i % 100, option));
+        }
+
+        return journal;
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        this.log.close();
+        this.snapshot.close();
+
+        for (Path directory : new Path[]{this.logDirectory, this.snapshotDirectory}) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    public JournalState replayLog() throws IOException {
+        return this.log.recover();
+    }
+
+    @Benchmark
+    public JournalState replaySnapshot() throws IOException {
+        return this.snapshot.recover();
+    }
+}
@@ -0,0 +1,100 @@
+package discord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import tv.ender.discord.backend.Leaderboard;
+import tv.ender.firebase.backend.UserData;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares answering !top and !rank from the incremental leaderboard against sorting every
+ * cached user on demand, and measures the cost of re-indexing a user after a balance change.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LeaderboardBenchmark {
+    private static final Comparator<UserData> BY_TICKETS = Comparator.comparingInt(UserData::getTickets).reversed()
+            .thenComparing(UserData::getDiscordId);
+
+    @Param({"1000", "200000"})
+    public int users;
+
+    @Param({"10"})
+    public int top;
+
+    private List<UserData> members;
+    private Leaderboard leaderboard;
+    private SplittableRandom random;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        SplittableRandom seed = new SplittableRandom(7);
+        this.members = new ArrayList<>(this.users);
+        this.leaderboard = new Leaderboard();
+
+        for (int i = 0; i < this.users; i++) {
+            /* skewed balances, most users hold little and a few hold a lot */
+            int tickets = (int) (Math.pow(seed.nextDouble(), 4) * 100_000);
+            UserData user = UserData.of("user" + i, String.valueOf(100_000_000_000_000_000L + i), "guild", tickets, seed.nextInt(50));
+
+            this.members.add(user);
+            this.leaderboard.update(user);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void reseed() {
+        this.random = new SplittableRandom(42);
+    }
+
+    @Benchmark
+    public List<Leaderboard.Standing> topIndexed() {
+        return this.leaderboard.top(Leaderboard.Metric.TICKETS, this.top);
+    }
+
+    @Benchmark
+    public List<UserData> topSorted() {
+        List<UserData> sorted = new ArrayList<>(this.members);
+        sorted.sort(BY_TICKETS);
+
+        return new ArrayList<>(sorted.subList(0, Math.min(this.top, sorted.size())));
+    }
+
+    @Benchmark
+    public int rankIndexed() {
+        UserData user = this.members.get(this.random.nextInt(this.users));
+
+        return this.leaderboard.rank(Leaderboard.Metric.TICKETS, user.getDiscordId());
+    }
+
+    @Benchmark
+    public int rankSorted() {
+        UserData user = this.members.get(this.random.nextInt(this.users));
+        List<UserData> sorted = new ArrayList<>(this.members);
+        sorted.sort(BY_TICKETS);
+
+        return sorted.indexOf(user) + 1;
+    }
+
+    @Benchmark
+    public int update() {
+        UserData user = this.members.get(this.random.nextInt(this.users));
+        user.credit(1);
+        this.leaderboard.update(user);
+
+        return user.getTickets();
+    }
+}
@@ -0,0 +1,67 @@
+package discord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import tv.ender.common.ReadWriteLock;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-mostly lookups, the shape of guild instance lookups, under the reentrant lock against
+ * optimistic stamped reads with an occasional writer.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadWriteLockBenchmark {
+    @Param({"REENTRANT", "STAMPED"})
+    public ReadWriteLock.Mode mode;
+
+    private ReadWriteLock lock;
+    private Map<Integer, String> guilds;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.lock = new ReadWriteLock("benchmark-" + this.mode, this.mode);
+        this.guilds = new HashMap<>();
+
+        for (int i = 0; i < 1024; i++) {
+            this.guilds.put(i, "guild-" + i);
+        }
+    }
+
+    @Benchmark
+    @Group("lookup")
+    @GroupThreads(7)
+    public String read() {
+        int key = (int) (Thread.currentThread().threadId() & 1023);
+
+        return this.lock.read(() -> this.guilds.get(key));
+    }
+
+    @Benchmark
+    @Group("lookup")
+    @GroupThreads(1)
+    public void write() {
+        this.lock.writeLock();
+        try {
+            /* replace in place so optimistic readers never see a resize */
+            int key = this.next++ & 1023;
+            this.guilds.put(key, "guild-" + key);
+        } finally {
+            this.lock.writeUnlock();
+        }
+    }
+}
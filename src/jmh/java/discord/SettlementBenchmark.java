@@ -0,0 +1,79 @@
+package discord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import tv.ender.common.Result;
+import tv.ender.discord.backend.activities.Prediction;
+import tv.ender.firebase.backend.UserData;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link Prediction#end(String)} against the previous settlement path, which scanned
+ * the pick map to validate the option, streamed the pot total and did a lookup per entrant.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SettlementBenchmark {
+    private static final String[] OPTIONS = new String[]{"Option1", "Option2", "Option3", "Option4"};
+
+    @Param({"100000"})
+    public int entrants;
+
+    private Prediction prediction;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.prediction = new Prediction();
+
+        for (int i = 0; i < this.entrants; i++) {
+            UserData user = UserData.of("user" + i, String.valueOf(100000000000000000L + i), "1", 1000, 0);
+            this.prediction.enter(user, 1 + i % 100, OPTIONS[i % OPTIONS.length]);
+        }
+    }
+
+    @Benchmark
+    public Result<Set<UserData>> incremental() {
+        return this.prediction.end("Option2");
+    }
+
+    @Benchmark
+    public Result<Set<UserData>> scan() {
+        Map<UserData, Integer> tickets = this.prediction.getEntrantsTicketsMap();
+        Map<UserData, String> picks = this.prediction.getEntrantPick();
+        String winning = "Option2";
+
+        if (!picks.containsValue(winning)) {
+            return Result.fail("Invalid winning option");
+        }
+
+        Set<UserData> winners = new HashSet<>();
+        int winningBets = 0;
+        int totalBets = tickets.values().stream().mapToInt(Integer::intValue).sum();
+        for (var entry : tickets.entrySet()) {
+            if (Objects.equals(picks.get(entry.getKey()), winning)) {
+                winners.add(entry.getKey());
+                winningBets += entry.getValue();
+            }
+        }
+
+        for (UserData winner : winners) {
+            int viewerBet = tickets.get(winner);
+            winner.credit((int) Math.round(totalBets * (viewerBet / (double) winningBets)));
+        }
+
+        return Result.pass(winners, "scan");
+    }
+}
@@ -0,0 +1,102 @@
+package discord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import tv.ender.common.Result;
+import tv.ender.discord.backend.activities.Prediction;
+import tv.ender.discord.backend.activities.Raffle;
+import tv.ender.firebase.backend.UserData;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures entries/sec on a single activity as the number of entering threads grows.
+ * Run with {@code ./gradlew jmh} and compare the score of each thread count.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TicketLedgerBenchmark {
+    private static final int USERS = 4096;
+    private static final String[] OPTIONS = new String[]{"Option1", "Option2"};
+
+    @State(Scope.Benchmark)
+    public static class Activities {
+        Prediction prediction;
+        Raffle raffle;
+        UserData[] users;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            this.prediction = new Prediction();
+            this.raffle = new Raffle();
+            this.users = new UserData[USERS];
+
+            for (int i = 0; i < USERS; i++) {
+                this.users[i] = UserData.of("user" + i, String.valueOf(100000000000000000L + i), "1", Integer.MAX_VALUE, 0);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            this.next = (int) (Thread.currentThread().threadId() * 7919);
+        }
+
+        UserData user(Activities activities) {
+            return activities.users[(this.next++ & Integer.MAX_VALUE) % USERS];
+        }
+    }
+
+    private static Result<UserData> bet(Activities activities, Cursor cursor) {
+        UserData user = cursor.user(activities);
+
+        return activities.prediction.enter(user, 1, OPTIONS[user.hashCode() & 1]);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Result<UserData> predictionEnter1(Activities activities, Cursor cursor) {
+        return bet(activities, cursor);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public Result<UserData> predictionEnter2(Activities activities, Cursor cursor) {
+        return bet(activities, cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Result<UserData> predictionEnter4(Activities activities, Cursor cursor) {
+        return bet(activities, cursor);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Result<UserData> predictionEnterMax(Activities activities, Cursor cursor) {
+        return bet(activities, cursor);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Result<UserData> raffleEnter1(Activities activities, Cursor cursor) {
+        return activities.raffle.enter(cursor.user(activities), 1);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Result<UserData> raffleEnterMax(Activities activities, Cursor cursor) {
+        return activities.raffle.enter(cursor.user(activities), 1);
+    }
+}
@@ -0,0 +1,109 @@
+package discord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import tv.ender.common.TimingWheel;
+
+import java.time.Duration;
+import java.util.SplittableRandom;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedule/cancel and reschedule throughput of the timing wheel against a scheduled future per
+ * timer, with {@code pending} timers already queued as a busy bot would have.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TimingWheelBenchmark {
+    private static final Runnable NOOP = () -> {};
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @State(Scope.Benchmark)
+    public static class Timers {
+        @Param({"10000", "100000"})
+        public int pending;
+
+        TimingWheel wheel;
+        ScheduledThreadPoolExecutor executor;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            this.wheel = new TimingWheel(Duration.ofMillis(100), 512, 4, Runnable::run).start();
+            this.executor = new ScheduledThreadPoolExecutor(1);
+            this.executor.setRemoveOnCancelPolicy(true);
+
+            SplittableRandom random = new SplittableRandom(1);
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < this.pending; i++) {
+                long delay = random.nextLong(HOUR, 24 * HOUR);
+                this.wheel.schedule(now + delay, NOOP);
+                this.executor.schedule(NOOP, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() {
+            this.wheel.close();
+            this.executor.shutdownNow();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Deadlines {
+        final SplittableRandom random = new SplittableRandom();
+        TimingWheel.Timeout timeout;
+
+        long next() {
+            return System.currentTimeMillis() + this.random.nextLong(HOUR, 24 * HOUR);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean wheelScheduleCancel(Timers timers, Deadlines deadlines) {
+        return timers.wheel.schedule(deadlines.next(), NOOP).cancel();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean wheelScheduleCancelContended(Timers timers, Deadlines deadlines) {
+        return timers.wheel.schedule(deadlines.next(), NOOP).cancel();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean wheelReschedule(Timers timers, Deadlines deadlines) {
+        if (deadlines.timeout == null) {
+            deadlines.timeout = timers.wheel.schedule(deadlines.next(), NOOP);
+        }
+
+        return deadlines.timeout.reschedule(deadlines.next());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean futureScheduleCancel(Timers timers, Deadlines deadlines) {
+        ScheduledFuture<?> future = timers.executor.schedule(NOOP, deadlines.next() - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+
+        return future.cancel(false);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean futureScheduleCancelContended(Timers timers, Deadlines deadlines) {
+        ScheduledFuture<?> future = timers.executor.schedule(NOOP, deadlines.next() - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+
+        return future.cancel(false);
+    }
+}
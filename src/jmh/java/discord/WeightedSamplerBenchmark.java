@@ -0,0 +1,91 @@
+package discord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import tv.ender.common.WeightedSampler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares drawing raffle winners through the fenwick sampler against rebuilding
+ * a cumulative array for every draw.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WeightedSamplerBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int entrants;
+
+    @Param({"1", "10"})
+    public int winners;
+
+    private List<Integer> items;
+    private long[] weights;
+    private SplittableRandom random;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        SplittableRandom seed = new SplittableRandom(7);
+        this.items = new ArrayList<>(this.entrants);
+        this.weights = new long[this.entrants];
+
+        for (int i = 0; i < this.entrants; i++) {
+            this.items.add(i);
+            /* skewed ticket counts, most entrants bet little and a few bet a lot */
+            this.weights[i] = 1 + (long) Math.pow(seed.nextDouble(), 4) * 10000;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void reseed() {
+        this.random = new SplittableRandom(42);
+    }
+
+    @Benchmark
+    public List<Integer> fenwick() {
+        return new WeightedSampler<>(this.items, this.weights).sample(this.winners, this.random);
+    }
+
+    @Benchmark
+    public List<Integer> cumulativeRebuild() {
+        long[] remaining = this.weights.clone();
+        List<Integer> drawn = new ArrayList<>(this.winners);
+
+        for (int draw = 0; draw < this.winners; draw++) {
+            long[] cumulative = new long[remaining.length];
+            long total = 0;
+            for (int i = 0; i < remaining.length; i++) {
+                total += remaining[i];
+                cumulative[i] = total;
+            }
+
+            long target = this.random.nextLong(total);
+            int low = 0;
+            int high = cumulative.length - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (cumulative[mid] <= target) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            remaining[low] = 0;
+            drawn.add(this.items.get(low));
+        }
+
+        return drawn;
+    }
+}
@@ -1,15 +1,58 @@
 package tv.ender;
 
+import com.google.firebase.cloud.FirestoreClient;
+import reactor.core.publisher.Flux;
+import tv.ender.common.Result;
+import tv.ender.common.metrics.MetricRegistry;
+import tv.ender.common.metrics.MetricsServer;
 import tv.ender.discord.Discord;
+import tv.ender.discord.backend.BotInstance;
+import tv.ender.discord.backend.GuildConfigSync;
+import tv.ender.discord.backend.GuildWarmup;
+import tv.ender.discord.backend.UserCache;
+import tv.ender.discord.backend.interfaces.IActivity;
+import tv.ender.discord.backend.journal.ActivityJournal;
+import tv.ender.discord.backend.journal.ActivityRecovery;
+import tv.ender.discord.backend.journal.JournalState;
+import tv.ender.discord.cluster.ActivityHandoff;
+import tv.ender.discord.cluster.FirestoreLeaseStore;
+import tv.ender.discord.cluster.GuildHost;
+import tv.ender.discord.cluster.GuildPartitioner;
+import tv.ender.discord.gateway.ShardConfig;
 import tv.ender.firebase.Firebase;
+import tv.ender.firebase.Projection;
+import tv.ender.firebase.backend.GuildData;
+import tv.ender.firebase.backend.UserData;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class App {
+    /* startup warm-up tuning */
+    private static final int WARMUP_THREADS = 8;
+    private static final int WARMUP_PREFETCH_USERS = 250;
+
+    /* prometheus scrape port, overridden by METRICS_PORT */
+    private static final int DEFAULT_METRICS_PORT = 9464;
+
+    /* guild change feed tuning */
+    private static final Duration GUILD_FEED_DEBOUNCE = Duration.ofMillis(250);
+    private static final Duration GUILD_FEED_REPORT_INTERVAL = Duration.ofMinutes(1);
+
+    /* cluster lease tuning, nodes rebalance three times per ttl */
+    private static final Duration CLUSTER_LEASE_TTL = Duration.ofSeconds(15);
+
     public static void main(String[] args) {
         try {
             System.out.println(new String(Files.readAllBytes(Paths.get("src/main/resources/banner.txt"))));
@@ -20,13 +63,190 @@ public class App {
         /* load env properties */
         loadEnv();
 
+        /* expose metrics for scraping */
+        startMetrics();
+
         /* init firebase */
         Firebase.get();
 
+        /* warm up guilds before taking commands, or lease this node's share when clustered */
+        if (System.getProperty("CLUSTER_NODE") != null) {
+            joinCluster();
+        } else {
+            warmup();
+        }
+
+        /* bring back activities that were open when the process stopped */
+        recoverActivities();
+
+        /* keep guild config current without polling */
+        watchGuilds();
+
         /* startup discord bot */
         Discord.get().connect();
     }
 
+    private static void startMetrics() {
+        int port = Integer.parseInt(System.getProperty("METRICS_PORT", String.valueOf(DEFAULT_METRICS_PORT)));
+
+        try {
+            MetricsServer server = new MetricsServer(MetricRegistry.get(), new InetSocketAddress(port)).start();
+            System.out.println("Serving metrics on port " + server.getPort());
+        } catch (IOException e) {
+            System.out.println("Failed to start metrics server, continuing without it: " + e.getMessage());
+        }
+    }
+
+    private static void warmup() {
+        System.out.println("Warming up guilds...");
+
+        try {
+            GuildWarmup warmup = new GuildWarmup(Firebase.get(), BotInstance::create, WARMUP_THREADS, WARMUP_PREFETCH_USERS);
+            ShardConfig shards = Discord.get().getShardConfig();
+            GuildWarmup.Report report = warmup.run(guild -> shards.owns(guild.getGuildId()), Discord.get()::register);
+
+            System.out.printf("Warmed up %d guilds (%d failed) and %d users in %dms%n",
+                    report.getGuilds(), report.getFailed(), report.getUsersPrefetched(), report.getElapsedMillis());
+        } catch (Exception e) {
+            System.out.println("Guild warm-up failed, continuing without warmed guilds");
+            e.printStackTrace();
+        }
+    }
+
+    private static void joinCluster() {
+        String nodeId = System.getProperty("CLUSTER_NODE");
+        ActivityHandoff.Mode mode = ActivityHandoff.Mode.valueOf(System.getProperty("CLUSTER_HANDOFF", "migrate").toUpperCase());
+        System.out.println("Joining cluster as %s...".formatted(nodeId));
+
+        try {
+            Map<String, GuildData> guilds = new ConcurrentHashMap<>();
+            Firebase.get().streamGuilds(guild -> guilds.put(guild.getGuildId(), guild));
+
+            GuildHost host = new GuildHost() {
+                @Override
+                public BotInstance open(String guildId) {
+                    GuildData guild = guilds.get(guildId);
+                    if (guild == null) {
+                        throw new NoSuchElementException("Unknown guild " + guildId);
+                    }
+
+                    BotInstance instance = BotInstance.create(guild);
+                    Discord.get().register(instance);
+
+                    return instance;
+                }
+
+                @Override
+                public void close(BotInstance instance) {
+                    Discord.get().unregister(instance.getGuildData().getGuildId());
+                    instance.getUserCache().close();
+                }
+            };
+
+            GuildPartitioner partitioner = new GuildPartitioner(nodeId, new FirestoreLeaseStore(FirestoreClient.getFirestore()), host, mode,
+                    CLUSTER_LEASE_TTL, ActivityJournal.get());
+            partitioner.track(guilds.keySet());
+            Discord.get().setPartitioner(partitioner);
+
+            GuildPartitioner.Rebalance rebalance = partitioner.rebalance();
+            partitioner.start();
+
+            /* hand guilds over on the way out instead of leaving them until the leases expire */
+            Runtime.getRuntime().addShutdownHook(new Thread(partitioner::close, "cluster-leave"));
+            MetricRegistry.get().gauge("curator_owned_guilds", "Guilds leased to this node",
+                    () -> partitioner.getOwnedGuilds().size(), "node", nodeId);
+
+            System.out.printf("Node %s owns %d of %d guilds%n", nodeId, rebalance.getOwned(), guilds.size());
+        } catch (Exception e) {
+            System.out.println("Failed to join the cluster. Exiting...");
+            e.printStackTrace();
+
+            Runtime.getRuntime().exit(1);
+        }
+    }
+
+    private static void recoverActivities() {
+        System.out.println("Recovering activities...");
+
+        try {
+            ActivityJournal journal = ActivityJournal.get();
+            JournalState state = journal.recover();
+            int recovered = 0;
+
+            /* entrants can be in several activities of a guild, their debits are replayed together */
+            Map<String, List<JournalState.ActivityRecord>> byGuild = new LinkedHashMap<>();
+            for (JournalState.ActivityRecord record : state.getActivities()) {
+                byGuild.computeIfAbsent(record.getGuildId(), key -> new ArrayList<>()).add(record);
+            }
+
+            for (var guild : byGuild.entrySet()) {
+                Result<BotInstance> instance = Discord.get().getBotInstance(guild.getKey());
+
+                if (!instance.isSuccessful()) {
+                    guild.getValue().forEach(record -> System.out.println("Skipping activity %s: %s".formatted(record.getId(), instance.getMessage())));
+                    continue;
+                }
+
+                UserCache users = instance.getHolder().getUserCache();
+                guild.getValue().forEach(record -> prefetchEntrants(record, users));
+
+                List<IActivity> activities = ActivityRecovery.restore(guild.getValue(), users::get, journal);
+                for (IActivity activity : activities) {
+                    instance.getHolder().getActivities().put(activity.getIdentifier(), activity);
+
+                    /* replayed debits only live in memory until flushed */
+                    for (UserData user : activity.getParticipants()) {
+                        users.markDirty(user);
+                    }
+                }
+
+                recovered += activities.size();
+            }
+
+            /* start from a compact log */
+            journal.snapshot();
+
+            System.out.printf("Recovered %d activities from %d journal events%n", recovered, state.getEvents());
+        } catch (Exception e) {
+            System.out.println("Activity recovery failed, continuing without open activities");
+            e.printStackTrace();
+        }
+    }
+
+    private static void watchGuilds() {
+        GuildConfigSync sync = new GuildConfigSync(guildId -> {
+            Result<BotInstance> instance = Discord.get().getBotInstance(guildId);
+            return instance.isSuccessful() ? instance.getHolder() : null;
+        }, GUILD_FEED_DEBOUNCE);
+
+        Firebase.get().watchGuilds(sync);
+        Flux.interval(GUILD_FEED_REPORT_INTERVAL).subscribe(tick -> {
+            GuildConfigSync.Stats stats = sync.sample();
+
+            System.out.printf("Guild feed: %d received, %d coalesced, %d applied, lag avg %.0fms max %dms%n",
+                    stats.getReceived(), stats.getCoalesced(), stats.getApplied(), stats.getAverageLagMillis(), stats.getMaxLagMillis());
+        });
+    }
+
+    /**
+     * Load every entrant the cache is missing in batched gets instead of one read per entrant
+     */
+    private static void prefetchEntrants(JournalState.ActivityRecord record, UserCache users) {
+        List<String> missing = record.getEntries().keySet().stream()
+                .filter(discordId -> users.getIfPresent(discordId) == null)
+                .toList();
+
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        try {
+            Firebase.get().getUsers(missing, Projection.USER).values().forEach(users::put);
+        } catch (Exception e) {
+            System.out.println("Failed to prefetch entrants of %s, loading them one by one: %s".formatted(record.getId(), e.getMessage()));
+        }
+    }
+
     public static void loadEnv() {
         /* load env properties */
         if (Files.exists(Paths.get(".env"))) {
@@ -0,0 +1,133 @@
+package tv.ender.common;
+
+import tv.ender.common.metrics.Counter;
+import tv.ender.common.metrics.Histogram;
+import tv.ender.common.metrics.MetricRegistry;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Wait and hold time of every {@link ReadWriteLock} created for one call site, such as all raffle
+ * locks. Also resolves which implementation a site's locks use, so a contended site can be switched
+ * with the {@code LOCK_MODES} property, e.g. {@code discord=stamped,raffle=reentrant}, without
+ * touching callers.
+ */
+public class LockSite {
+    private static final Map<String, LockSite> SITES = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final ReadWriteLock.Mode configuredMode;
+
+    /* wait covers contended acquires only, an uncontended acquire is a try that succeeds. acquires
+       and hold times are sampled, see ReadWriteLock.SAMPLE_RATE */
+    final Histogram readWait;
+    final Histogram writeWait;
+    final Histogram readHold;
+    final Histogram writeHold;
+    final Counter readAcquires;
+    final Counter writeAcquires;
+    final Counter optimisticHits;
+    final Counter optimisticMisses;
+
+    private LockSite(String name) {
+        MetricRegistry registry = MetricRegistry.get();
+
+        this.name = name;
+        this.configuredMode = configuredMode(name);
+        this.readWait = registry.timer("curator_lock_wait_seconds", "Time spent waiting for contended locks", "site", name, "mode", "read");
+        this.writeWait = registry.timer("curator_lock_wait_seconds", "Time spent waiting for contended locks", "site", name, "mode", "write");
+        this.readHold = registry.timer("curator_lock_hold_seconds", "Time locks were held", "site", name, "mode", "read");
+        this.writeHold = registry.timer("curator_lock_hold_seconds", "Time locks were held", "site", name, "mode", "write");
+        this.readAcquires = registry.counter("curator_lock_acquires_total", "Lock acquisitions", "site", name, "mode", "read");
+        this.writeAcquires = registry.counter("curator_lock_acquires_total", "Lock acquisitions", "site", name, "mode", "write");
+        this.optimisticHits = registry.counter("curator_lock_optimistic_reads_total", "Optimistic reads by outcome", "site", name, "outcome", "validated");
+        this.optimisticMisses = registry.counter("curator_lock_optimistic_reads_total", "Optimistic reads by outcome", "site", name, "outcome", "retried");
+    }
+
+    /**
+     * @param name The call site, shared by every lock guarding the same kind of state
+     * @return The site
+     */
+    public static LockSite of(String name) {
+        LockSite site = SITES.get(name);
+
+        return site != null ? site : SITES.computeIfAbsent(name, LockSite::new);
+    }
+
+    /**
+     * @return Every site, the one whose threads waited longest in total first
+     */
+    public static List<LockSite> getSites() {
+        List<LockSite> sites = new ArrayList<>(SITES.values());
+        sites.sort(Comparator.comparingDouble(LockSite::getTotalWaitSeconds).reversed());
+
+        return sites;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return The implementation configured for the site, or null if the lock's default applies
+     */
+    public ReadWriteLock.Mode getConfiguredMode() {
+        return this.configuredMode;
+    }
+
+    public double getTotalWaitSeconds() {
+        return this.readWait.getSum() + this.writeWait.getSum();
+    }
+
+    /**
+     * @return The share of acquisitions that had to wait, 0 - 1, estimated as acquisitions are sampled
+     */
+    public double getContention() {
+        long waits = this.readWait.getCount() + this.writeWait.getCount();
+        long acquires = this.readAcquires.get() + this.writeAcquires.get();
+
+        return waits == 0 ? 0 : waits / (double) Math.max(waits, acquires);
+    }
+
+    public Histogram getReadWait() {
+        return this.readWait;
+    }
+
+    public Histogram getWriteWait() {
+        return this.writeWait;
+    }
+
+    public Histogram getReadHold() {
+        return this.readHold;
+    }
+
+    public Histogram getWriteHold() {
+        return this.writeHold;
+    }
+
+    private static ReadWriteLock.Mode configuredMode(String name) {
+        String modes = System.getProperty("LOCK_MODES");
+        if (modes == null) {
+            return null;
+        }
+
+        for (String entry : modes.split(",")) {
+            String[] parts = entry.trim().split("=");
+
+            if (parts.length == 2 && parts[0].trim().equals(name)) {
+                try {
+                    return ReadWriteLock.Mode.valueOf(parts[1].trim().toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Ignoring unknown lock mode %s for site %s".formatted(parts[1], name));
+                }
+            }
+        }
+
+        return null;
+    }
+}
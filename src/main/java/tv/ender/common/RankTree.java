@@ -0,0 +1,226 @@
+package tv.ender.common;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Order-statistic treap. Every node tracks the size of its subtree, so besides O(log n) insert
+ * and remove it can answer the rank of a key and the key at a rank in O(log n) expected time,
+ * and list the first k keys in O(log n + k). Not thread-safe.
+ *
+ * @param <K> The type of key, distinct keys must not compare as equal
+ */
+public class RankTree<K> {
+    private final Comparator<? super K> comparator;
+    private final SplittableRandom random = new SplittableRandom();
+    private Node<K> root;
+
+    /**
+     * @param comparator The order keys are ranked in
+     */
+    public RankTree(Comparator<? super K> comparator) {
+        this.comparator = comparator;
+    }
+
+    /**
+     * @param key The key to add, ignored if an equal key is present
+     * @return Whether the key was added
+     */
+    public boolean insert(K key) {
+        int before = this.size();
+        this.root = this.insert(this.root, new Node<>(key, this.random.nextInt()));
+
+        return this.size() != before;
+    }
+
+    /**
+     * @param key The key to remove
+     * @return Whether the key was present
+     */
+    public boolean remove(K key) {
+        int before = this.size();
+        this.root = this.remove(this.root, key);
+
+        return this.size() != before;
+    }
+
+    /**
+     * @param key The key
+     * @return The number of keys ordered before it, or -1 if it is not present
+     */
+    public int rank(K key) {
+        Node<K> node = this.root;
+        int rank = 0;
+
+        while (node != null) {
+            int compare = this.comparator.compare(key, node.key);
+
+            if (compare < 0) {
+                node = node.left;
+            } else if (compare > 0) {
+                rank += size(node.left) + 1;
+                node = node.right;
+            } else {
+                return rank + size(node.left);
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param rank The zero based rank
+     * @return The key at the rank
+     * @throws IndexOutOfBoundsException If the rank is outside the tree
+     */
+    public K select(int rank) {
+        if (rank < 0 || rank >= this.size()) {
+            throw new IndexOutOfBoundsException("Rank %d outside %d keys".formatted(rank, this.size()));
+        }
+
+        Node<K> node = this.root;
+        while (true) {
+            int left = size(node.left);
+
+            if (rank < left) {
+                node = node.left;
+            } else if (rank > left) {
+                rank -= left + 1;
+                node = node.right;
+            } else {
+                return node.key;
+            }
+        }
+    }
+
+    /**
+     * @param count The number of keys
+     * @return Up to count keys from the front of the order
+     */
+    public List<K> first(int count) {
+        List<K> keys = new ArrayList<>(Math.max(0, Math.min(count, this.size())));
+        this.collect(this.root, keys, count);
+
+        return keys;
+    }
+
+    public int size() {
+        return size(this.root);
+    }
+
+    public void clear() {
+        this.root = null;
+    }
+
+    private void collect(Node<K> node, List<K> keys, int count) {
+        if (node == null || keys.size() >= count) {
+            return;
+        }
+
+        this.collect(node.left, keys, count);
+        if (keys.size() < count) {
+            keys.add(node.key);
+            this.collect(node.right, keys, count);
+        }
+    }
+
+    private Node<K> insert(Node<K> node, Node<K> created) {
+        if (node == null) {
+            return created;
+        }
+
+        int compare = this.comparator.compare(created.key, node.key);
+        if (compare == 0) {
+            return node;
+        }
+
+        if (compare < 0) {
+            node.left = this.insert(node.left, created);
+            if (node.left.priority > node.priority) {
+                node = rotateRight(node);
+            }
+        } else {
+            node.right = this.insert(node.right, created);
+            if (node.right.priority > node.priority) {
+                node = rotateLeft(node);
+            }
+        }
+
+        return node.update();
+    }
+
+    private Node<K> remove(Node<K> node, K key) {
+        if (node == null) {
+            return null;
+        }
+
+        int compare = this.comparator.compare(key, node.key);
+        if (compare < 0) {
+            node.left = this.remove(node.left, key);
+        } else if (compare > 0) {
+            node.right = this.remove(node.right, key);
+        } else {
+            return merge(node.left, node.right);
+        }
+
+        return node.update();
+    }
+
+    private static <K> Node<K> merge(Node<K> left, Node<K> right) {
+        if (left == null) {
+            return right;
+        }
+
+        if (right == null) {
+            return left;
+        }
+
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            return left.update();
+        }
+
+        right.left = merge(left, right.left);
+        return right.update();
+    }
+
+    private static <K> Node<K> rotateRight(Node<K> node) {
+        Node<K> left = node.left;
+        node.left = left.right;
+        left.right = node.update();
+
+        return left.update();
+    }
+
+    private static <K> Node<K> rotateLeft(Node<K> node) {
+        Node<K> right = node.right;
+        node.right = right.left;
+        right.left = node.update();
+
+        return right.update();
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static class Node<K> {
+        private final K key;
+        private final int priority;
+        private int size = 1;
+        private Node<K> left;
+        private Node<K> right;
+
+        private Node(K key, int priority) {
+            this.key = key;
+            this.priority = priority;
+        }
+
+        private Node<K> update() {
+            this.size = 1 + size(this.left) + size(this.right);
+            return this;
+        }
+    }
+}
@@ -1,43 +1,484 @@
 package tv.ender.common;
 
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
 
 /**
- * Generic ReadWrite Reentrant Lock
+ * Generic ReadWrite Reentrant Lock. Backed by either a {@link ReentrantReadWriteLock} or a
+ * {@link StampedLock}, whose optimistic reads suit read-mostly state, chosen per {@link LockSite}.
+ * Reentrancy is tracked here so both modes allow nested reads, reads under the write lock and
+ * downgrading. Contended waits are always recorded against the lock's site, acquisitions and hold
+ * times are sampled so an uncontended acquire stays as cheap as the underlying lock.
  */
 public class ReadWriteLock {
-    private final java.util.concurrent.locks.ReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * One in this many acquisitions of a thread is counted, as this many, and has its hold timed
+     */
+    public static final int SAMPLE_RATE = 64;
 
+    /* a single table per thread for every lock, it only references the locks the thread holds */
+    private static final ThreadLocal<Holds> HOLDS = ThreadLocal.withInitial(Holds::new);
+
+    private final LockSite site;
+    private final Mode mode;
+    private final Backend backend;
+
+    /* written by the write owner only */
+    private volatile Thread writer;
+    private int writeDepth;
+    private boolean writeTimed;
+    private long writeSince;
+
+    public ReadWriteLock() {
+        this("unnamed");
+    }
+
+    /**
+     * @param site The call site the lock's statistics are grouped under
+     */
+    public ReadWriteLock(String site) {
+        this(site, Mode.REENTRANT);
+    }
+
+    /**
+     * @param site        The call site the lock's statistics are grouped under
+     * @param defaultMode The implementation used unless the site is configured otherwise
+     */
+    public ReadWriteLock(String site, Mode defaultMode) {
+        this.site = LockSite.of(site);
+        this.mode = this.site.getConfiguredMode() != null ? this.site.getConfiguredMode() : defaultMode;
+        this.backend = this.mode == Mode.STAMPED ? new Stamped() : new Reentrant();
+    }
+
+    /**
+     * @return The raw read lock, which bypasses reentrancy tracking and statistics
+     */
     public Lock getReadLock() {
-        return this.lock.readLock();
+        return this.backend.readView();
     }
 
+    /**
+     * @return The raw write lock, which bypasses reentrancy tracking and statistics
+     */
     public Lock getWriteLock() {
-        return this.lock.writeLock();
+        return this.backend.writeView();
+    }
+
+    public LockSite getSite() {
+        return this.site;
+    }
+
+    public Mode getMode() {
+        return this.mode;
     }
 
     public void readLock() {
-        this.lock.readLock().lock();
+        Holds holds = HOLDS.get();
+        Hold hold = holds.find(this);
+        if (hold != null) {
+            hold.depth++;
+            return;
+        }
+
+        hold = holds.add(this);
+
+        /* the write lock already excludes everyone else */
+        if (this.writer == Thread.currentThread()) {
+            return;
+        }
+
+        if (!this.backend.tryReadLock()) {
+            long start = System.nanoTime();
+            this.backend.readLock();
+            this.site.readWait.recordSince(start);
+        }
+
+        hold.acquired = true;
+        this.sampleRead(holds, hold);
     }
 
     public void readUnlock() {
-        this.lock.readLock().unlock();
+        Holds holds = HOLDS.get();
+        Hold hold = holds.find(this);
+        if (hold == null) {
+            throw new IllegalMonitorStateException("Read lock is not held by this thread");
+        }
+
+        if (--hold.depth > 0) {
+            return;
+        }
+
+        boolean acquired = hold.acquired;
+        if (acquired && hold.timed) {
+            this.site.readHold.recordSince(hold.since);
+        }
+
+        holds.remove(hold);
+
+        if (acquired) {
+            this.backend.unlockRead();
+        }
     }
 
     public void writeLock() {
-        this.lock.writeLock().lock();
+        Thread current = Thread.currentThread();
+        if (this.writer == current) {
+            this.writeDepth++;
+            return;
+        }
+
+        /* upgrading would wait on our own read hold forever */
+        Holds holds = HOLDS.get();
+        if (holds.find(this) != null) {
+            throw new IllegalStateException("Cannot take the write lock while holding the read lock");
+        }
+
+        if (!this.backend.tryWriteLock()) {
+            long start = System.nanoTime();
+            this.backend.writeLock();
+            this.site.writeWait.recordSince(start);
+        }
+
+        this.writer = current;
+        this.writeDepth = 1;
+        this.writeTimed = holds.sample();
+
+        if (this.writeTimed) {
+            this.site.writeAcquires.add(SAMPLE_RATE);
+            this.writeSince = System.nanoTime();
+        }
     }
 
     public void writeUnlock() {
-        this.lock.writeLock().unlock();
+        if (this.writer != Thread.currentThread()) {
+            throw new IllegalMonitorStateException("Write lock is not held by this thread");
+        }
+
+        if (--this.writeDepth > 0) {
+            return;
+        }
+
+        if (this.writeTimed) {
+            this.site.writeHold.recordSince(this.writeSince);
+        }
+
+        this.writer = null;
+
+        Holds holds = HOLDS.get();
+        Hold hold = holds.find(this);
+        if (hold != null) {
+            /* reads taken under the write lock keep going, downgrade instead of releasing */
+            this.backend.downgrade();
+            hold.acquired = true;
+            this.sampleRead(holds, hold);
+        } else {
+            this.backend.unlockWrite();
+        }
     }
 
+    /**
+     * Release every read hold the calling thread has on this lock
+     */
     public void releaseAnyReadLocks() {
-        ReentrantReadWriteLock rwLock = (ReentrantReadWriteLock) this.lock;
+        Hold hold = HOLDS.get().find(this);
+
+        if (hold != null) {
+            hold.depth = 1;
+            this.readUnlock();
+        }
+    }
+
+    private void sampleRead(Holds holds, Hold hold) {
+        hold.timed = holds.sample();
+
+        if (hold.timed) {
+            this.site.readAcquires.add(SAMPLE_RATE);
+            hold.since = System.nanoTime();
+        }
+    }
+
+    /**
+     * Run a read-only section. In stamped mode it first runs without locking and is re-run under
+     * the read lock only if a writer got in meanwhile, so it must not write anything and must cope
+     * with seeing inconsistent state before validation. Other modes always take the read lock.
+     *
+     * @param reader The section
+     * @return What the section returned
+     */
+    public <T> T read(Supplier<T> reader) {
+        long stamp = this.backend.tryOptimisticRead();
+
+        if (stamp != 0) {
+            try {
+                T value = reader.get();
+
+                if (this.backend.validate(stamp)) {
+                    this.site.optimisticHits.increment();
+                    return value;
+                }
+            } catch (RuntimeException e) {
+                /* torn state can throw, only trust the failure once validated */
+                if (this.backend.validate(stamp)) {
+                    throw e;
+                }
+            }
+
+            this.site.optimisticMisses.increment();
+        }
+
+        this.readLock();
+        try {
+            return reader.get();
+        } finally {
+            this.readUnlock();
+        }
+    }
+
+    /**
+     * How a lock is implemented
+     */
+    public enum Mode {
+        /* fair-ish reader writer lock, best when writes are frequent */
+        REENTRANT,
+        /* stamped lock with optimistic reads, best for read-mostly state */
+        STAMPED
+    }
+
+    /**
+     * The read holds of one thread. A thread holds few locks at once so a linear scan beats
+     * hashing, and released slots are reused so steady state acquires allocate nothing.
+     */
+    private static class Holds {
+        private Hold[] held = new Hold[0];
+        private int size;
+        private int acquires;
+
+        private Hold find(ReadWriteLock lock) {
+            for (int i = 0; i < this.size; i++) {
+                if (this.held[i].lock == lock) {
+                    return this.held[i];
+                }
+            }
+
+            return null;
+        }
+
+        private Hold add(ReadWriteLock lock) {
+            if (this.size == this.held.length) {
+                this.held = Arrays.copyOf(this.held, Math.max(4, this.size * 2));
+
+                for (int i = this.size; i < this.held.length; i++) {
+                    this.held[i] = new Hold();
+                }
+            }
+
+            Hold hold = this.held[this.size++];
+            hold.lock = lock;
+            hold.depth = 1;
+            hold.acquired = false;
+            hold.timed = false;
+
+            return hold;
+        }
+
+        private void remove(Hold hold) {
+            for (int i = 0; i < this.size; i++) {
+                if (this.held[i] == hold) {
+                    /* keep the live slots in front, the released one goes to the back for reuse */
+                    this.held[i] = this.held[--this.size];
+                    this.held[this.size] = hold;
+                    hold.lock = null;
+                    return;
+                }
+            }
+        }
+
+        private boolean sample() {
+            return this.acquires++ % SAMPLE_RATE == 0;
+        }
+    }
+
+    private static class Hold {
+        private ReadWriteLock lock;
+        private int depth;
+        /* whether the outermost read took the underlying lock, not when nested in our own write */
+        private boolean acquired;
+        private boolean timed;
+        private long since;
+    }
+
+    /**
+     * The underlying lock, every method acts once per outermost hold
+     */
+    private interface Backend {
+        boolean tryReadLock();
+
+        void readLock();
+
+        void unlockRead();
+
+        boolean tryWriteLock();
+
+        void writeLock();
+
+        void unlockWrite();
+
+        /**
+         * Swap the held write lock for a read lock without letting another writer in
+         */
+        void downgrade();
+
+        /**
+         * @return A stamp to validate, or 0 if optimistic reads are unsupported or a writer holds the lock
+         */
+        long tryOptimisticRead();
+
+        boolean validate(long stamp);
+
+        Lock readView();
+
+        Lock writeView();
+    }
+
+    private static class Reentrant implements Backend {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        @Override
+        public boolean tryReadLock() {
+            return tryAcquire(this.lock.readLock());
+        }
+
+        @Override
+        public void readLock() {
+            this.lock.readLock().lock();
+        }
+
+        @Override
+        public void unlockRead() {
+            this.lock.readLock().unlock();
+        }
+
+        @Override
+        public boolean tryWriteLock() {
+            return tryAcquire(this.lock.writeLock());
+        }
+
+        @Override
+        public void writeLock() {
+            this.lock.writeLock().lock();
+        }
+
+        @Override
+        public void unlockWrite() {
+            this.lock.writeLock().unlock();
+        }
+
+        @Override
+        public void downgrade() {
+            this.lock.readLock().lock();
+            this.lock.writeLock().unlock();
+        }
+
+        @Override
+        public long tryOptimisticRead() {
+            return 0;
+        }
+
+        @Override
+        public boolean validate(long stamp) {
+            return false;
+        }
+
+        @Override
+        public Lock readView() {
+            return this.lock.readLock();
+        }
+
+        @Override
+        public Lock writeView() {
+            return this.lock.writeLock();
+        }
+
+        private static boolean tryAcquire(Lock lock) {
+            try {
+                /* the timed try honours queued writers, unlike the barging tryLock() */
+                return lock.tryLock(0, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                /* lock() is not interruptible, keep the flag for the caller */
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    private static class Stamped implements Backend {
+        private final StampedLock lock = new StampedLock();
+        /* written by the write owner only */
+        private long writeStamp;
+
+        @Override
+        public boolean tryReadLock() {
+            return this.lock.tryReadLock() != 0;
+        }
+
+        @Override
+        public void readLock() {
+            this.lock.readLock();
+        }
+
+        @Override
+        public void unlockRead() {
+            this.lock.tryUnlockRead();
+        }
+
+        @Override
+        public boolean tryWriteLock() {
+            long stamp = this.lock.tryWriteLock();
+            if (stamp == 0) {
+                return false;
+            }
+
+            this.writeStamp = stamp;
+            return true;
+        }
+
+        @Override
+        public void writeLock() {
+            this.writeStamp = this.lock.writeLock();
+        }
+
+        @Override
+        public void unlockWrite() {
+            this.lock.unlockWrite(this.writeStamp);
+        }
+
+        @Override
+        public void downgrade() {
+            this.lock.tryConvertToReadLock(this.writeStamp);
+        }
+
+        @Override
+        public long tryOptimisticRead() {
+            return this.lock.tryOptimisticRead();
+        }
+
+        @Override
+        public boolean validate(long stamp) {
+            return this.lock.validate(stamp);
+        }
+
+        @Override
+        public Lock readView() {
+            return this.lock.asReadLock();
+        }
 
-        while (rwLock.getReadHoldCount() > 0) {
-            rwLock.readLock().unlock();
+        @Override
+        public Lock writeView() {
+            return this.lock.asWriteLock();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,362 @@
+package tv.ender.common;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Hierarchical timing wheel. Level 0 has one slot per tick, every level above covers a full turn
+ * of the level below per slot, and timers cascade down a level each time the lower wheel wraps.
+ * Scheduling, cancelling and rescheduling are O(1) no matter how many timers are pending, and
+ * one driver thread serves all of them instead of a scheduled future per timer.
+ */
+public class TimingWheel implements AutoCloseable {
+    private final long tickMillis;
+    private final int bits;
+    private final int mask;
+    private final Timeout[][] wheels;
+    private final long startMillis;
+    private final LongSupplier clock;
+    private final Executor executor;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private long currentTick;
+    private int size;
+    private volatile Thread driver;
+    private volatile boolean running = true;
+
+    /**
+     * @param tick      The resolution of the wheel
+     * @param wheelSize The slots per level, a power of two
+     * @param levels    The number of levels, timers beyond the last level's span wait in its slots for another turn
+     * @param executor  Runs expired timers
+     */
+    public TimingWheel(Duration tick, int wheelSize, int levels, Executor executor) {
+        this(tick, wheelSize, levels, executor, System::currentTimeMillis);
+    }
+
+    /**
+     * @param tick      The resolution of the wheel
+     * @param wheelSize The slots per level, a power of two
+     * @param levels    The number of levels
+     * @param executor  Runs expired timers
+     * @param clock     The current time in epoch millis
+     */
+    public TimingWheel(Duration tick, int wheelSize, int levels, Executor executor, LongSupplier clock) {
+        if (Integer.bitCount(wheelSize) != 1 || wheelSize < 2 || levels < 1 || (long) Integer.numberOfTrailingZeros(wheelSize) * levels > 62) {
+            throw new IllegalArgumentException("Invalid wheel of %d levels with %d slots".formatted(levels, wheelSize));
+        }
+
+        this.tickMillis = Math.max(1, tick.toMillis());
+        this.bits = Integer.numberOfTrailingZeros(wheelSize);
+        this.mask = wheelSize - 1;
+        this.wheels = new Timeout[levels][wheelSize];
+        this.executor = executor;
+        this.clock = clock;
+        this.startMillis = clock.getAsLong();
+    }
+
+    /**
+     * Start a daemon thread that advances the wheel in real time
+     *
+     * @return This wheel
+     */
+    public TimingWheel start() {
+        Thread thread = new Thread(this::run, "timing-wheel");
+        thread.setDaemon(true);
+        this.driver = thread;
+        thread.start();
+
+        return this;
+    }
+
+    /**
+     * @param deadline When to run the task, in epoch millis. Past deadlines run on the next tick
+     * @param task     The task
+     * @return A handle to cancel or move the timer
+     */
+    public Timeout schedule(long deadline, Runnable task) {
+        Timeout timeout = new Timeout(this, task);
+
+        this.lock.lock();
+        try {
+            timeout.deadlineTick = this.toTick(deadline);
+            this.insert(timeout);
+            this.size++;
+        } finally {
+            this.lock.unlock();
+        }
+
+        return timeout;
+    }
+
+    /**
+     * @param delay How long from now to run the task
+     * @param task  The task
+     * @return A handle to cancel or move the timer
+     */
+    public Timeout schedule(Duration delay, Runnable task) {
+        return this.schedule(this.clock.getAsLong() + delay.toMillis(), task);
+    }
+
+    /**
+     * Run every timer due up to a time, the driver thread calls this on each tick
+     *
+     * @param now The time to advance to, in epoch millis
+     * @return The number of timers run
+     */
+    public int advanceTo(long now) {
+        List<Timeout> expired = new ArrayList<>();
+
+        this.lock.lock();
+        try {
+            long target = (now - this.startMillis) / this.tickMillis;
+
+            while (this.currentTick < target) {
+                this.currentTick++;
+                this.cascade();
+
+                Timeout[] wheel = this.wheels[0];
+                int slot = (int) (this.currentTick & this.mask);
+                Timeout timeout = wheel[slot];
+                wheel[slot] = null;
+
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    timeout.unlinked();
+
+                    if (timeout.deadlineTick <= this.currentTick) {
+                        timeout.state = Timeout.EXPIRED;
+                        this.size--;
+                        expired.add(timeout);
+                    } else {
+                        /* beyond the top level's span, go around again */
+                        this.insert(timeout);
+                    }
+
+                    timeout = next;
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        for (Timeout timeout : expired) {
+            try {
+                this.executor.execute(timeout.task);
+            } catch (Exception e) {
+                System.out.println("Failed to run timer: " + e.getMessage());
+            }
+        }
+
+        return expired.size();
+    }
+
+    /**
+     * @return The number of pending timers
+     */
+    public int size() {
+        this.lock.lock();
+        try {
+            return this.size;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long getTickMillis() {
+        return this.tickMillis;
+    }
+
+    /**
+     * Stop the driver thread, pending timers never run
+     */
+    @Override
+    public void close() {
+        this.running = false;
+
+        Thread thread = this.driver;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void run() {
+        while (this.running) {
+            long now = this.clock.getAsLong();
+            this.advanceTo(now);
+
+            long nextTick = this.startMillis + (this.lockedCurrentTick() + 1) * this.tickMillis;
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.max(1, nextTick - now)));
+        }
+    }
+
+    private long lockedCurrentTick() {
+        this.lock.lock();
+        try {
+            return this.currentTick;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private long toTick(long deadline) {
+        /* round up so a timer never fires early */
+        long tick = Math.floorDiv(deadline - this.startMillis + this.tickMillis - 1, this.tickMillis);
+
+        return Math.max(tick, this.currentTick + 1);
+    }
+
+    /**
+     * Move the timers of every higher level slot whose span starts at the current tick down
+     */
+    private void cascade() {
+        for (int level = this.wheels.length - 1; level > 0; level--) {
+            if ((this.currentTick & ((1L << (this.bits * level)) - 1)) != 0) {
+                continue;
+            }
+
+            Timeout[] wheel = this.wheels[level];
+            int slot = (int) ((this.currentTick >>> (this.bits * level)) & this.mask);
+            Timeout timeout = wheel[slot];
+            wheel[slot] = null;
+
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                timeout.unlinked();
+                this.insert(timeout);
+                timeout = next;
+            }
+        }
+    }
+
+    private void insert(Timeout timeout) {
+        long delta = timeout.deadlineTick - this.currentTick;
+        int level = 0;
+
+        while (level < this.wheels.length - 1 && delta >= 1L << (this.bits * (level + 1))) {
+            level++;
+        }
+
+        int slot = (int) ((timeout.deadlineTick >>> (this.bits * level)) & this.mask);
+        if (level == this.wheels.length - 1 && delta >= 1L << (this.bits * (level + 1))) {
+            /* past the top span, park one slot behind the current one so it is seen again after a full turn */
+            slot = (int) (((this.currentTick >>> (this.bits * level)) - 1) & this.mask);
+        }
+
+        Timeout[] wheel = this.wheels[level];
+        timeout.level = level;
+        timeout.slot = slot;
+        timeout.next = wheel[slot];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        wheel[slot] = timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            this.wheels[timeout.level][timeout.slot] = timeout.next;
+        }
+
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+
+        timeout.unlinked();
+    }
+
+    /**
+     * A pending timer, linked into the slot it is waiting in
+     */
+    public static class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private long deadlineTick;
+        private int level;
+        private int slot;
+        private Timeout prev;
+        private Timeout next;
+        private int state = PENDING;
+
+        private Timeout(TimingWheel wheel, Runnable task) {
+            this.wheel = wheel;
+            this.task = task;
+        }
+
+        /**
+         * @return Whether the timer was pending and will no longer run
+         */
+        public boolean cancel() {
+            this.wheel.lock.lock();
+            try {
+                if (this.state != PENDING) {
+                    return false;
+                }
+
+                this.wheel.unlink(this);
+                this.wheel.size--;
+                this.state = CANCELLED;
+
+                return true;
+            } finally {
+                this.wheel.lock.unlock();
+            }
+        }
+
+        /**
+         * Move a pending timer to a new deadline without allocating a new one
+         *
+         * @param deadline The new deadline in epoch millis
+         * @return Whether the timer was still pending
+         */
+        public boolean reschedule(long deadline) {
+            this.wheel.lock.lock();
+            try {
+                if (this.state != PENDING) {
+                    return false;
+                }
+
+                this.wheel.unlink(this);
+                this.deadlineTick = this.wheel.toTick(deadline);
+                this.wheel.insert(this);
+
+                return true;
+            } finally {
+                this.wheel.lock.unlock();
+            }
+        }
+
+        /**
+         * @return The deadline rounded up to the wheel's tick, in epoch millis
+         */
+        public long getDeadline() {
+            return this.wheel.startMillis + this.deadlineTick * this.wheel.tickMillis;
+        }
+
+        public boolean isPending() {
+            this.wheel.lock.lock();
+            try {
+                return this.state == PENDING;
+            } finally {
+                this.wheel.lock.unlock();
+            }
+        }
+
+        private void unlinked() {
+            this.prev = null;
+            this.next = null;
+        }
+    }
+}
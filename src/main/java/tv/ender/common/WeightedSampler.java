@@ -0,0 +1,142 @@
+package tv.ender.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.random.RandomGenerator;
+
+/**
+ * Weighted random selection without replacement backed by a Fenwick tree.
+ * Building is O(n) and each draw is O(log n), so picking k winners costs O(n + k log n)
+ * instead of rebuilding a cumulative array for every draw.
+ *
+ * @param <T> The type of item being drawn
+ */
+public class WeightedSampler<T> {
+    private final List<T> items;
+    private final long[] weights;
+    private final long[] tree;
+    private final int topStep;
+    private long total;
+    private int remaining;
+
+    /**
+     * @param items   The items to draw from
+     * @param weights The weight of each item, in the same order as the items
+     * @throws IllegalArgumentException If the sizes differ or a weight is negative
+     */
+    public WeightedSampler(List<T> items, long[] weights) {
+        if (items.size() != weights.length) {
+            throw new IllegalArgumentException("Expected %d weights but got %d".formatted(items.size(), weights.length));
+        }
+
+        int size = weights.length;
+        this.items = items;
+        this.weights = weights.clone();
+        this.tree = new long[size + 1];
+        this.topStep = size == 0 ? 0 : Integer.highestOneBit(size);
+
+        /* linear-time fenwick build */
+        for (int i = 1; i <= size; i++) {
+            long weight = this.weights[i - 1];
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight %d at index %d".formatted(weight, i - 1));
+            }
+
+            if (weight > 0) {
+                this.remaining++;
+            }
+
+            this.total += weight;
+            this.tree[i] += weight;
+
+            int parent = i + (i & -i);
+            if (parent <= size) {
+                this.tree[parent] += this.tree[i];
+            }
+        }
+    }
+
+    /**
+     * Draw one item and remove it from further draws
+     *
+     * @param random The random source, seed it to make draws replayable
+     * @return The drawn item
+     * @throws NoSuchElementException If every weighted item has been drawn
+     */
+    public T next(RandomGenerator random) {
+        if (this.total <= 0) {
+            throw new NoSuchElementException("No weighted items left to draw");
+        }
+
+        int index = this.find(random.nextLong(this.total));
+        this.remove(index);
+
+        return this.items.get(index);
+    }
+
+    /**
+     * Draw distinct items, stopping early if the weighted items run out
+     *
+     * @param count  The number of items to draw
+     * @param random The random source, seed it to make draws replayable
+     * @return The drawn items in draw order
+     */
+    public List<T> sample(int count, RandomGenerator random) {
+        int draws = Math.min(count, this.remaining);
+        if (draws <= 0) {
+            return Collections.emptyList();
+        }
+
+        List<T> drawn = new ArrayList<>(draws);
+        for (int i = 0; i < draws; i++) {
+            drawn.add(this.next(random));
+        }
+
+        return drawn;
+    }
+
+    /**
+     * @return The total weight still available to draw
+     */
+    public long getTotal() {
+        return this.total;
+    }
+
+    /**
+     * @return The number of items with weight still available to draw
+     */
+    public int getRemaining() {
+        return this.remaining;
+    }
+
+    /**
+     * Binary lift to the item whose cumulative range contains the target
+     */
+    private int find(long target) {
+        int position = 0;
+
+        for (int step = this.topStep; step > 0; step >>= 1) {
+            int next = position + step;
+
+            if (next < this.tree.length && this.tree[next] <= target) {
+                position = next;
+                target -= this.tree[next];
+            }
+        }
+
+        return position;
+    }
+
+    private void remove(int index) {
+        long weight = this.weights[index];
+        this.weights[index] = 0;
+        this.total -= weight;
+        this.remaining--;
+
+        for (int i = index + 1; i < this.tree.length; i += i & -i) {
+            this.tree[i] -= weight;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package tv.ender.common.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic count, striped so concurrent increments do not contend
+ */
+public class Counter implements Metric {
+    private final LongAdder value = new LongAdder();
+
+    Counter() {
+    }
+
+    public void increment() {
+        this.value.increment();
+    }
+
+    /**
+     * @param amount The amount to add, must not be negative
+     */
+    public void add(long amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Counters cannot decrease: " + amount);
+        }
+
+        this.value.add(amount);
+    }
+
+    public long get() {
+        return this.value.sum();
+    }
+
+    @Override
+    public void write(StringBuilder out, String name, String labels) {
+        Metric.sample(out, name, labels, this.get());
+    }
+}
@@ -0,0 +1,160 @@
+package tv.ender.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear histogram in the style of HdrHistogram. Every power of two is split into 32 linear
+ * sub-buckets, so any recorded value is reported within about 3% of its true value across the whole
+ * long range. Recording is a few atomic adds into preallocated arrays and never allocates.
+ * Exported as a prometheus summary with fixed quantiles.
+ */
+public class Histogram implements Metric {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+    private final double scale;
+
+    /**
+     * @param scale What one recorded unit is worth when exported, 1e-9 for nanoseconds as seconds
+     */
+    Histogram(double scale) {
+        this.scale = scale;
+    }
+
+    /**
+     * @param value The value in recorded units, negative values count as zero
+     */
+    public void record(long value) {
+        long clamped = Math.max(0, value);
+
+        this.counts.incrementAndGet(index(clamped));
+        this.count.increment();
+        this.sum.add(clamped);
+
+        /* plain read first, most values are not a new max */
+        if (clamped > this.max.get()) {
+            this.max.accumulateAndGet(clamped, Math::max);
+        }
+    }
+
+    /**
+     * Record the time elapsed since a {@link System#nanoTime()} reading
+     *
+     * @param startNanos When the timed work started
+     */
+    public void recordSince(long startNanos) {
+        this.record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * @return The sum of recorded values in exported units
+     */
+    public double getSum() {
+        return this.sum.sum() * this.scale;
+    }
+
+    /**
+     * @return The largest recorded value in recorded units
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * @param quantile 0 - 1
+     * @return The highest value in the bucket holding the quantile, in recorded units, 0 if empty
+     */
+    public long valueAt(double quantile) {
+        long[] snapshot = this.snapshot();
+
+        return this.valueAt(snapshot, total(snapshot), quantile);
+    }
+
+    @Override
+    public void write(StringBuilder out, String name, String labels) {
+        long[] snapshot = this.snapshot();
+        long total = total(snapshot);
+
+        String separator = labels.isEmpty() ? "" : ",";
+        for (double quantile : QUANTILES) {
+            Metric.sample(out, name, labels + separator + "quantile=\"" + quantile + "\"",
+                    this.valueAt(snapshot, total, quantile) * this.scale);
+        }
+
+        Metric.sample(out, name + "_sum", labels, this.getSum());
+        Metric.sample(out, name + "_count", labels, total);
+    }
+
+    private long[] snapshot() {
+        long[] snapshot = new long[BUCKETS];
+
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = this.counts.get(i);
+        }
+
+        return snapshot;
+    }
+
+    private static long total(long[] snapshot) {
+        long total = 0;
+
+        for (long count : snapshot) {
+            total += count;
+        }
+
+        return total;
+    }
+
+    private long valueAt(long[] snapshot, long total, double quantile) {
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+
+            if (seen >= rank) {
+                return Math.min(highestEquivalent(i), this.max.get());
+            }
+        }
+
+        return this.max.get();
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int mantissa = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+
+        return (shift + 1) * SUB_BUCKETS + mantissa;
+    }
+
+    static long highestEquivalent(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+
+        return lowest + (1L << shift) - 1;
+    }
+}
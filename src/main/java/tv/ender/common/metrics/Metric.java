@@ -0,0 +1,31 @@
+package tv.ender.common.metrics;
+
+/**
+ * A single labelled time series, or group of series, in a metric family
+ */
+interface Metric {
+    /**
+     * Append the metric's samples in the prometheus text format
+     *
+     * @param out    The scrape being written
+     * @param name   The family name
+     * @param labels The rendered labels without braces, empty for none
+     */
+    void write(StringBuilder out, String name, String labels);
+
+    static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+
+        out.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+
+        out.append('\n');
+    }
+}
@@ -0,0 +1,178 @@
+package tv.ender.common.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide set of metrics rendered in the prometheus text format. Metrics are looked up once,
+ * usually into static fields, so recording on hot paths is a striped add with no map lookup,
+ * label formatting or allocation. Registering the same name and labels again returns the existing
+ * counter or histogram, while function metrics are replaced.
+ */
+public class MetricRegistry {
+    private static MetricRegistry instance;
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param name   The metric name, counters should end in _total
+     * @param help   What is counted
+     * @param labels Label names and values, alternating
+     * @return The counter
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return this.register(name, help, Type.COUNTER, labels, Counter.class, Counter::new, false);
+    }
+
+    /**
+     * Export a count kept elsewhere, read on every scrape
+     *
+     * @param name   The metric name, should end in _total
+     * @param help   What is counted
+     * @param value  Reads the current count
+     * @param labels Label names and values, alternating
+     */
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        Metric metric = (out, family, rendered) -> Metric.sample(out, family, rendered, value.getAsLong());
+        this.register(name, help, Type.COUNTER, labels, Metric.class, () -> metric, true);
+    }
+
+    /**
+     * @param name   The metric name
+     * @param help   What is measured
+     * @param value  Reads the current value on every scrape
+     * @param labels Label names and values, alternating
+     */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        Metric metric = (out, family, rendered) -> Metric.sample(out, family, rendered, value.getAsDouble());
+        this.register(name, help, Type.GAUGE, labels, Metric.class, () -> metric, true);
+    }
+
+    /**
+     * A histogram of durations recorded in nanoseconds and exported in seconds
+     *
+     * @param name   The metric name, should end in _seconds
+     * @param help   What is timed
+     * @param labels Label names and values, alternating
+     * @return The histogram
+     */
+    public Histogram timer(String name, String help, String... labels) {
+        return this.histogram(name, help, 1e-9, labels);
+    }
+
+    /**
+     * @param name   The metric name, suffixed with the exported unit
+     * @param help   What is measured
+     * @param scale  What one recorded unit is worth when exported
+     * @param labels Label names and values, alternating
+     * @return The histogram
+     */
+    public Histogram histogram(String name, String help, double scale, String... labels) {
+        return this.register(name, help, Type.SUMMARY, labels, Histogram.class, () -> new Histogram(scale), false);
+    }
+
+    /**
+     * @param name   The metric name
+     * @param labels Label names and values, alternating
+     * @return Whether a metric was removed
+     */
+    public boolean remove(String name, String... labels) {
+        Family family = this.families.get(name);
+
+        return family != null && family.metrics.remove(render(labels)) != null;
+    }
+
+    /**
+     * @return Every metric in the prometheus text exposition format
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+
+        for (Family family : this.families.values()) {
+            if (family.metrics.isEmpty()) {
+                continue;
+            }
+
+            out.append("# HELP ").append(family.name).append(' ').append(family.help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type.name().toLowerCase()).append('\n');
+
+            for (var entry : family.metrics.entrySet()) {
+                entry.getValue().write(out, family.name, entry.getKey());
+            }
+        }
+
+        return out.toString();
+    }
+
+    private <T extends Metric> T register(String name, String help, Type type, String[] labels, Class<T> kind,
+                                          Supplier<T> factory, boolean replace) {
+        if (!name.matches("[a-zA-Z_:][a-zA-Z0-9_:]*")) {
+            throw new IllegalArgumentException("Invalid metric name " + name);
+        }
+
+        Family family = this.families.computeIfAbsent(name, key -> new Family(name, help, type));
+        if (family.type != type) {
+            throw new IllegalArgumentException("Metric %s is a %s, not a %s".formatted(name, family.type, type));
+        }
+
+        String rendered = render(labels);
+        if (replace) {
+            T metric = factory.get();
+            family.metrics.put(rendered, metric);
+            return metric;
+        }
+
+        Metric metric = family.metrics.computeIfAbsent(rendered, key -> factory.get());
+        if (!kind.isInstance(metric)) {
+            throw new IllegalArgumentException("Metric %s{%s} is not a %s".formatted(name, rendered, kind.getSimpleName()));
+        }
+
+        return kind.cast(metric);
+    }
+
+    private static String render(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name and value pairs");
+        }
+
+        StringBuilder rendered = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                rendered.append(',');
+            }
+
+            String value = labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+            rendered.append(labels[i]).append("=\"").append(value).append('"');
+        }
+
+        return rendered.toString();
+    }
+
+    public static synchronized MetricRegistry get() {
+        if (MetricRegistry.instance == null) {
+            MetricRegistry.instance = new MetricRegistry();
+        }
+
+        return MetricRegistry.instance;
+    }
+
+    private enum Type {
+        COUNTER, GAUGE, SUMMARY
+    }
+
+    private static class Family {
+        private final String name;
+        private final String help;
+        private final Type type;
+        private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+        private Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
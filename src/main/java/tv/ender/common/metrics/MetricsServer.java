@@ -0,0 +1,75 @@
+package tv.ender.common.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves a registry at {@code /metrics} for prometheus to scrape, on the JDK's built-in http server
+ */
+public class MetricsServer implements AutoCloseable {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricRegistry registry;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param registry The metrics to serve
+     * @param address  Where to listen, port 0 picks a free port
+     * @throws IOException If the address could not be bound
+     */
+    public MetricsServer(MetricRegistry registry, InetSocketAddress address) throws IOException {
+        this.registry = registry;
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.server.createContext("/metrics", this::handle);
+        this.server.setExecutor(this.executor);
+    }
+
+    public MetricsServer start() {
+        this.server.start();
+        return this;
+    }
+
+    /**
+     * @return The port being listened on
+     */
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] body = this.registry.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
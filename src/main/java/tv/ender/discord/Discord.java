@@ -2,67 +2,261 @@ package tv.ender.discord;
 
 import discord4j.core.DiscordClient;
 import discord4j.core.GatewayDiscordClient;
+import discord4j.core.event.domain.Event;
 import discord4j.core.event.domain.message.MessageCreateEvent;
-import discord4j.core.object.entity.Message;
-import discord4j.core.object.entity.channel.MessageChannel;
+import discord4j.core.shard.ShardingStrategy;
+import lombok.Getter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import tv.ender.common.ReadWriteLock;
 import tv.ender.common.Result;
+import tv.ender.common.metrics.MetricRegistry;
 import tv.ender.discord.backend.BotInstance;
+import tv.ender.discord.backend.Leaderboard;
+import tv.ender.discord.cluster.GuildPartitioner;
+import tv.ender.discord.command.CommandContext;
+import tv.ender.discord.command.CommandDispatcher;
+import tv.ender.discord.command.CommandRegistry;
+import tv.ender.discord.gateway.ShardConfig;
+import tv.ender.discord.gateway.ShardMetrics;
+import tv.ender.discord.gateway.ShardStats;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class Discord {
+    /* command pipeline tuning */
+    private static final int PER_GUILD_CONCURRENCY = 4;
+    private static final Duration COMMAND_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration SHARD_METRICS_INTERVAL = Duration.ofMinutes(1);
+    private static final int DEFAULT_TOP = 10;
+    private static final int MAX_TOP = 25;
+    private static final String PARTIAL_RANKING = "Still counting every member, these standings are partial.";
+
     private static Discord instance;
     private final Map<String, BotInstance> botInstances = new ConcurrentHashMap<>();
-    private final ReadWriteLock lock = new ReadWriteLock();
+    /* looked up for every command, registered once per guild */
+    private final ReadWriteLock lock = new ReadWriteLock("discord", ReadWriteLock.Mode.STAMPED);
     private final DiscordClient client;
+    @Getter
+    private final ShardMetrics shardMetrics = new ShardMetrics();
+    @Getter
+    private volatile ShardConfig shardConfig;
+    @Getter
+    private volatile GuildPartitioner partitioner;
 
     private Discord() {
         System.out.println("Initializing Discord Bot...");
 
         this.client = DiscordClient.create(System.getProperty("BOT_TOKEN"));
+        this.shardConfig = ShardConfig.fromProperties();
 
         System.out.println("Discord initialized!");
     }
 
     public void connect() {
-        System.out.println("Connecting Discord Bot...");
+        System.out.println("Connecting Discord Bot with shards " + this.shardConfig + "...");
 
-        GatewayDiscordClient gateway = this.client.login().block();
+        GatewayDiscordClient gateway = this.client.gateway()
+                .setSharding(this.createShardingStrategy())
+                .login()
+                .block();
 
         if (gateway == null) {
             System.out.println("Failed to connect to Discord!");
             return;
         }
 
-        gateway.on(MessageCreateEvent.class).subscribe(event -> {
-            Message message = event.getMessage();
-            if ("!ping".equals(message.getContent())) {
-                MessageChannel channel = message.getChannel().block();
-                channel.createMessage("Pong!").block();
-            } else if ("!die".equals(message.getContent())) {
-                gateway.logout().block();
-            }
-        });
+        /* the gateway picked the count, this process runs all of it */
+        if (this.shardConfig.isAuto()) {
+            int count = gateway.getGatewayClientGroup().getShardCount();
+            this.shardConfig = new ShardConfig(count, 0, count - 1);
+            System.out.println("Using recommended shard count " + count);
+        }
+
+        gateway.on(Event.class)
+                .subscribe(this::recordEvent);
+        Flux.interval(SHARD_METRICS_INTERVAL)
+                .subscribe(tick -> this.reportShards(gateway));
+
+        CommandRegistry registry = new CommandRegistry()
+                .register("ping", context -> context.reply("Pong!"))
+                .register("top", this::top)
+                .register("rank", this::rank)
+                .register("die", context -> gateway.logout());
+        CommandDispatcher dispatcher = new CommandDispatcher(registry, guildId -> this.getBotInstance(guildId).getHolder(),
+                PER_GUILD_CONCURRENCY, COMMAND_TIMEOUT);
+
+        gateway.on(MessageCreateEvent.class)
+                .transform(dispatcher::dispatch)
+                .subscribe();
 
         gateway.onDisconnect().block();
     }
 
+    private ShardingStrategy createShardingStrategy() {
+        var builder = ShardingStrategy.builder();
+
+        if (!this.shardConfig.isAuto()) {
+            builder.count(this.shardConfig.getCount());
+            builder.indices(this.shardConfig.getIndices());
+        }
+
+        return builder.build();
+    }
+
+    private void recordEvent(Event event) {
+        int shard = event.getShardInfo().getIndex();
+
+        if (event instanceof MessageCreateEvent message) {
+            this.shardMetrics.recordEvent(shard, message.getMessage().getId().getTimestamp().toEpochMilli());
+        } else {
+            this.shardMetrics.recordEvent(shard);
+        }
+    }
+
+    private void reportShards(GatewayDiscordClient gateway) {
+        for (int shard : this.shardConfig.getIndices()) {
+            gateway.getGatewayClient(shard).ifPresent(client -> this.shardMetrics.recordLatency(shard, client.getResponseTime()));
+        }
+
+        for (ShardStats stats : this.shardMetrics.sample()) {
+            System.out.printf("Shard %d: %d events (%.1f/s), lag avg %.0fms max %dms, latency %dms%n",
+                    stats.getShard(), stats.getEvents(), stats.getEventsPerSecond(), stats.getAverageLagMillis(),
+                    stats.getMaxLagMillis(), stats.getLatencyMillis());
+        }
+    }
+
+    /**
+     * !top [count] [losses], the guild's highest balances or most losses
+     */
+    private Mono<Void> top(CommandContext context) {
+        if (context.getBotInstance() == null) {
+            return context.reply("Leaderboards are only available in servers.");
+        }
+
+        List<String> args = context.getCommand().getArgs();
+        int count = DEFAULT_TOP;
+        Leaderboard.Metric metric = Leaderboard.Metric.TICKETS;
+
+        for (String arg : args) {
+            if (arg.equalsIgnoreCase("losses")) {
+                metric = Leaderboard.Metric.LOSSES;
+            } else {
+                try {
+                    count = Math.max(1, Math.min(MAX_TOP, Integer.parseInt(arg)));
+                } catch (NumberFormatException e) {
+                    return context.reply("Usage: !top [count] [losses]");
+                }
+            }
+        }
+
+        Leaderboard leaderboard = context.getBotInstance().getLeaderboard();
+        List<Leaderboard.Standing> standings = leaderboard.top(metric, count);
+        if (standings.isEmpty()) {
+            return context.reply("Nobody is ranked yet.");
+        }
+
+        StringBuilder reply = new StringBuilder();
+        for (Leaderboard.Standing standing : standings) {
+            reply.append("%d. <@%s> - %d %s%n".formatted(standing.getRank(), standing.getDiscordId(), standing.getScore(),
+                    metric == Leaderboard.Metric.TICKETS ? "tickets" : "losses"));
+        }
+
+        /* served from whatever the balance scan has ranked so far */
+        if (!leaderboard.isSeeded()) {
+            reply.append(PARTIAL_RANKING);
+        }
+
+        return context.reply(reply.toString());
+    }
+
+    /**
+     * !rank, the author's place on both leaderboards
+     */
+    private Mono<Void> rank(CommandContext context) {
+        if (context.getBotInstance() == null) {
+            return context.reply("Leaderboards are only available in servers.");
+        }
+
+        Leaderboard leaderboard = context.getBotInstance().getLeaderboard();
+        String discordId = context.getMessage().getAuthor().map(user -> user.getId().asString()).orElse("");
+        int tickets = leaderboard.rank(Leaderboard.Metric.TICKETS, discordId);
+
+        if (tickets < 0) {
+            return context.reply("You are not ranked yet.");
+        }
+
+        return context.reply("You are #%d by tickets and #%d by losses of %d.%s".formatted(tickets,
+                leaderboard.rank(Leaderboard.Metric.LOSSES, discordId), leaderboard.size(), leaderboard.isSeeded() ? "" : "\n" + PARTIAL_RANKING));
+    }
+
     public Result<BotInstance> getBotInstance(String guildId) {
-        try {
-            this.lock.readLock();
+        return this.lock.read(() -> {
+            if (!this.shardConfig.owns(guildId)) {
+                return Result.fail("Guild %s is on shard %d, not served by this process".formatted(guildId, this.shardConfig.shardFor(guildId)));
+            }
+
+            /* in a cluster only the lease holder serves the guild */
+            if (this.partitioner != null) {
+                return this.partitioner.getBotInstance(guildId);
+            }
 
-            if (!this.botInstances.containsKey(guildId)) {
+            BotInstance instance = this.botInstances.get(guildId);
+            if (instance == null) {
                 return Result.fail("No bot instance registered for guild " + guildId);
             } else {
-                return Result.pass(this.botInstances.get(guildId), "Bot instance is available");
+                return Result.pass(instance, "Bot instance is available");
             }
+        });
+    }
+
+    /**
+     * Registers the bot instance for its guild, replacing any previous instance
+     *
+     * @param instance The bot instance
+     */
+    public void register(BotInstance instance) {
+        try {
+            this.lock.writeLock();
+
+            String guildId = instance.getGuildData().getGuildId();
+            this.botInstances.put(guildId, instance);
+
+            MetricRegistry.get().gauge("curator_active_activities", "Open activities per guild",
+                    () -> instance.getActivities().size(), "guild", guildId);
         } finally {
-            this.lock.readUnlock();
+            this.lock.writeUnlock();
         }
     }
 
+    /**
+     * Drops the bot instance of a guild this process no longer serves
+     *
+     * @param guildId The guild
+     */
+    public void unregister(String guildId) {
+        try {
+            this.lock.writeLock();
+
+            this.botInstances.remove(guildId);
+            MetricRegistry.get().remove("curator_active_activities", "guild", guildId);
+        } finally {
+            this.lock.writeUnlock();
+        }
+    }
+
+    /**
+     * Serve only the guilds this node holds leases for
+     *
+     * @param partitioner The partitioner, or null to serve every registered guild
+     */
+    public void setPartitioner(GuildPartitioner partitioner) {
+        this.partitioner = partitioner;
+    }
+
     public static Discord get() {
         if (Discord.instance == null) {
             Discord.instance = new Discord();
@@ -4,22 +4,129 @@ import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.experimental.Accessors;
 import tv.ender.common.ReadWriteLock;
+import tv.ender.common.Result;
+import tv.ender.discord.backend.activities.Prediction;
+import tv.ender.discord.backend.activities.Raffle;
 import tv.ender.discord.backend.interfaces.IActivity;
+import tv.ender.discord.backend.journal.ActivityJournal;
+import tv.ender.discord.backend.schedule.ActivityScheduler;
+import tv.ender.firebase.Firebase;
+import tv.ender.firebase.Projection;
 import tv.ender.firebase.backend.GuildData;
 import tv.ender.firebase.backend.UserData;
 
+import java.time.Duration;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 @Getter
 @Accessors(chain = true)
 @AllArgsConstructor(staticName = "of")
 public class BotInstance {
-    private final ReadWriteLock lock = new ReadWriteLock();
-    private final Map<String, UserData> userDataMap = new ConcurrentHashMap<>();
+    /* user cache tuning */
+    private static final long USER_CACHE_SIZE = 10_000;
+    private static final Duration USER_CACHE_IDLE = Duration.ofMinutes(30);
+    /* users per page when ranking the whole guild */
+    private static final int LEADERBOARD_SEED_PAGE = 1_000;
+
+    private final ReadWriteLock lock = new ReadWriteLock("bot-instance");
     private final Map<UUID, IActivity> activities = new ConcurrentHashMap<>();
+    private final Leaderboard leaderboard = new Leaderboard();
     private final GuildData guildData;
-    private final Thread botThread;
+    private final UserCache userCache;
+    private final GuildMailbox mailbox;
+
+    /**
+     * Creates a bot instance whose users are read through and persisted via Firebase
+     *
+     * @param guildData The guild
+     * @return The bot instance
+     */
+    public static BotInstance create(GuildData guildData) {
+        Firebase firebase = Firebase.get();
+        UserCache userCache = new UserCache(firebase::loadUser, firebase.getUserQueue(), USER_CACHE_SIZE, USER_CACHE_IDLE);
+
+        GuildMailbox mailbox = GuildExecutor.get().mailbox(guildData.getGuildId());
+
+        BotInstance instance = BotInstance.of(guildData, userCache, mailbox);
+        userCache.addChangeListener(instance.leaderboard::update);
+
+        /* rank every user of the guild, not only the ones this node has loaded, without holding up warm-up */
+        Thread.ofVirtual().name("leaderboard-seed-" + guildData.getGuildId()).start(() -> seedLeaderboard(firebase, instance));
+
+        return instance;
+    }
+
+    private static void seedLeaderboard(Firebase firebase, BotInstance instance) {
+        String guildId = instance.guildData.getGuildId();
+
+        try {
+            firebase.scanUsers(guildId, Projection.TICKETS, LEADERBOARD_SEED_PAGE, instance.leaderboard::seed);
+            instance.leaderboard.markSeeded();
+        } catch (Exception e) {
+            System.out.println("Failed to seed the leaderboard of %s, ranking loaded users only: %s".formatted(guildId, e.getMessage()));
+        }
+    }
+
+    /**
+     * Start a raffle in this guild that locks and draws itself on schedule
+     *
+     * @param scheduler Holds the raffle's deadlines
+     * @param journal   Where the raffle is journaled, or null to keep it in memory only
+     * @param lockAt    When entries close, in epoch millis
+     * @param settleAt  When the winner is drawn, in epoch millis
+     * @param onSettled Called with the draw's result on the guild's mailbox
+     * @return The raffle
+     */
+    public Raffle openRaffle(ActivityScheduler scheduler, ActivityJournal journal, long lockAt, long settleAt,
+                             Consumer<Result<UserData>> onSettled) {
+        Raffle raffle = journal != null ? Raffle.open(this.guildData.getGuildId(), journal) : new Raffle();
+
+        this.activities.put(raffle.getIdentifier(), raffle);
+        scheduler.schedule(this, raffle, lockAt, settleAt, onSettled);
+
+        return raffle;
+    }
+
+    /**
+     * Start a prediction in this guild that locks on schedule and is refunded if nobody resolves it
+     *
+     * @param scheduler Holds the prediction's deadlines
+     * @param journal   Where the prediction is journaled, or null to keep it in memory only
+     * @param lockAt    When entries close, in epoch millis
+     * @param expireAt  When an unresolved prediction is cancelled, in epoch millis
+     * @return The prediction
+     */
+    public Prediction openPrediction(ActivityScheduler scheduler, ActivityJournal journal, long lockAt, long expireAt) {
+        Prediction prediction = journal != null ? Prediction.open(this.guildData.getGuildId(), journal) : new Prediction();
+
+        this.activities.put(prediction.getIdentifier(), prediction);
+        scheduler.schedule(this, prediction, lockAt, expireAt);
+
+        return prediction;
+    }
+
+    /**
+     * Drop a finished activity and its pending deadlines
+     *
+     * @param scheduler Holds the activity's deadlines
+     * @param activity  The activity, ended or cancelled by a moderator
+     */
+    public void closeActivity(ActivityScheduler scheduler, IActivity activity) {
+        this.activities.remove(activity.getIdentifier(), activity);
+        scheduler.cancel(activity.getIdentifier());
+        this.settled();
+    }
 
+    /**
+     * Write the balances a settlement or refund just changed in one batch now rather than after the
+     * flush interval, the activity journal stops covering them once the activity is closed
+     */
+    public void settled() {
+        if (this.userCache != null) {
+            this.userCache.flushSoon();
+        }
+    }
 }
@@ -0,0 +1,173 @@
+package tv.ender.discord.backend;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import tv.ender.firebase.GuildChange;
+import tv.ender.firebase.backend.GuildData;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Applies guild change feed updates to the matching bot instance's config in place. Bursts of edits
+ * are coalesced per guild and applied once per debounce window, keeping only the newest version.
+ * Bans skip the window so the dispatcher stops serving a banned guild as soon as the feed delivers it.
+ */
+public class GuildConfigSync implements Consumer<GuildChange>, AutoCloseable {
+    private final Function<String, BotInstance> instances;
+    private final long debounceMillis;
+    private final LongSupplier clock;
+    private final Map<String, GuildChange> pending = new ConcurrentHashMap<>();
+    private final Map<String, Long> versions = new ConcurrentHashMap<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final ScheduledExecutorService executor;
+
+    /* metrics */
+    private final LongAdder received = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder lagTotal = new LongAdder();
+    private final LongAdder lagCount = new LongAdder();
+    private final AtomicLong maxLag = new AtomicLong();
+
+    /**
+     * @param instances Looks up the bot instance of a guild, returning null if this process does not serve it
+     * @param debounce  How long changes are collected before being applied
+     */
+    public GuildConfigSync(Function<String, BotInstance> instances, Duration debounce) {
+        this(instances, debounce, System::currentTimeMillis);
+    }
+
+    /**
+     * @param instances Looks up the bot instance of a guild, returning null if this process does not serve it
+     * @param debounce  How long changes are collected before being applied
+     * @param clock     Epoch millis, compared against commit times for lag
+     */
+    public GuildConfigSync(Function<String, BotInstance> instances, Duration debounce, LongSupplier clock) {
+        this.instances = instances;
+        this.debounceMillis = debounce.toMillis();
+        this.clock = clock;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "guild-config-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void accept(GuildChange change) {
+        this.received.increment();
+
+        String guildId = change.getGuild().getGuildId();
+        GuildChange merged = this.pending.merge(guildId, change, (queued, next) -> {
+            this.coalesced.increment();
+            return next.getUpdatedAt() >= queued.getUpdatedAt() ? next : queued;
+        });
+
+        if (merged.getGuild().isBanned()) {
+            this.flush(guildId);
+        } else if (this.scheduled.compareAndSet(false, true)) {
+            this.executor.schedule(() -> {
+                this.flush();
+            }, this.debounceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Apply every pending change now
+     *
+     * @return The number of guilds whose config changed
+     */
+    public int flush() {
+        this.scheduled.set(false);
+        int changed = 0;
+
+        for (String guildId : this.pending.keySet()) {
+            if (this.flush(guildId)) {
+                changed++;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * @return Change counts plus the average and worst commit-to-applied lag since the previous sample
+     */
+    public Stats sample() {
+        long count = this.lagCount.sumThenReset();
+        long total = this.lagTotal.sumThenReset();
+
+        return Stats.of(this.received.sum(), this.coalesced.sum(), this.applied.sum(), this.pending.size(),
+                count == 0 ? 0 : total / (double) count, this.maxLag.getAndSet(0));
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdown();
+        this.flush();
+    }
+
+    private boolean flush(String guildId) {
+        GuildChange change = this.pending.remove(guildId);
+        if (change == null) {
+            return false;
+        }
+
+        BotInstance instance = this.instances.apply(guildId);
+        if (instance == null) {
+            return false;
+        }
+
+        GuildData guild = instance.getGuildData();
+        List<String> changed;
+
+        synchronized (guild) {
+            /* a ban can overtake an older edit the window already took, never roll it back */
+            if (change.getUpdatedAt() < this.versions.getOrDefault(guildId, Long.MIN_VALUE)) {
+                return false;
+            }
+
+            this.versions.put(guildId, change.getUpdatedAt());
+            changed = guild.update(change.getGuild());
+        }
+
+        if (!change.isInitial()) {
+            long lag = Math.max(0, this.clock.getAsLong() - change.getUpdatedAt());
+            this.lagTotal.add(lag);
+            this.lagCount.increment();
+            this.maxLag.accumulateAndGet(lag, Math::max);
+        }
+
+        if (changed.isEmpty()) {
+            return false;
+        }
+
+        this.applied.increment();
+        System.out.println("Guild %s config updated: %s".formatted(guildId, String.join(", ", changed)));
+
+        return true;
+    }
+
+    @Data
+    @AllArgsConstructor(staticName = "of")
+    public static class Stats {
+        private final long received;
+        private final long coalesced;
+        private final long applied;
+        private final int pending;
+        private final double averageLagMillis;
+        private final long maxLagMillis;
+    }
+}
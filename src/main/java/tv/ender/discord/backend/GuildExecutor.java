@@ -0,0 +1,59 @@
+package tv.ender.discord.backend;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared executor every guild's {@link GuildMailbox} runs on. Backed by virtual threads, so
+ * thousands of guilds can block on Firestore or Discord at once while sharing a carrier pool the
+ * size of the machine.
+ */
+public class GuildExecutor implements AutoCloseable {
+    private static GuildExecutor instance;
+    private final ExecutorService carrier;
+
+    public GuildExecutor() {
+        this(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    /**
+     * @param carrier The executor mailboxes drain on
+     */
+    public GuildExecutor(ExecutorService carrier) {
+        this.carrier = carrier;
+    }
+
+    /**
+     * @param guildId The guild
+     * @return A new mailbox for the guild
+     */
+    public GuildMailbox mailbox(String guildId) {
+        return new GuildMailbox(this.carrier, guildId);
+    }
+
+    /**
+     * Stop accepting tasks and wait for queued ones to finish
+     */
+    @Override
+    public void close() {
+        this.carrier.shutdown();
+
+        try {
+            if (!this.carrier.awaitTermination(30, TimeUnit.SECONDS)) {
+                this.carrier.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            this.carrier.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static synchronized GuildExecutor get() {
+        if (GuildExecutor.instance == null) {
+            GuildExecutor.instance = new GuildExecutor();
+        }
+
+        return GuildExecutor.instance;
+    }
+}
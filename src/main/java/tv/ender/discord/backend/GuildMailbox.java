@@ -0,0 +1,103 @@
+package tv.ender.discord.backend;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Serial executor for a single guild. Tasks run one at a time in submission order on the shared
+ * {@link GuildExecutor}, so activity operations within a guild need no locks while guilds still
+ * run in parallel with each other.
+ */
+public class GuildMailbox implements Executor {
+    /* tasks drained per turn before yielding the carrier to other guilds */
+    private static final int BATCH = 64;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Executor carrier;
+    private final String guildId;
+
+    GuildMailbox(Executor carrier, String guildId) {
+        this.carrier = carrier;
+        this.guildId = guildId;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        this.tasks.add(task);
+        this.schedule();
+    }
+
+    /**
+     * Run a task on this guild's mailbox
+     *
+     * @param task The task
+     * @return Completes with the task's result
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        try {
+            this.execute(() -> {
+                try {
+                    future.complete(task.call());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * @return The number of tasks waiting to run
+     */
+    public int getBacklog() {
+        return this.tasks.size();
+    }
+
+    public String getGuildId() {
+        return this.guildId;
+    }
+
+    private void schedule() {
+        if (!this.tasks.isEmpty() && this.scheduled.compareAndSet(false, true)) {
+            try {
+                this.carrier.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                this.scheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            for (int i = 0; i < BATCH; i++) {
+                Runnable task = this.tasks.poll();
+                if (task == null) {
+                    break;
+                }
+
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    System.out.printf("Task failed in guild %s: %s%n", this.guildId, t);
+                }
+            }
+        } finally {
+            this.scheduled.set(false);
+
+            /* pick up anything submitted while draining */
+            this.schedule();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package tv.ender.discord.backend;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import tv.ender.firebase.GuildSource;
+import tv.ender.firebase.backend.GuildData;
+import tv.ender.firebase.backend.UserData;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Startup phase that streams every guild and builds its {@link BotInstance} on a bounded pool,
+ * optionally prefetching each guild's hottest users so a restart mid-stream does not turn into a
+ * burst of cold cache misses.
+ */
+public class GuildWarmup {
+    private final GuildSource source;
+    private final Function<GuildData, BotInstance> factory;
+    private final int parallelism;
+    private final int prefetchUsers;
+
+    /**
+     * @param source        Where guilds and users are read from
+     * @param factory       Builds the bot instance for a guild
+     * @param parallelism   The most guilds built at once
+     * @param prefetchUsers The number of top users to load per guild, 0 to skip
+     */
+    public GuildWarmup(GuildSource source, Function<GuildData, BotInstance> factory, int parallelism, int prefetchUsers) {
+        this.source = source;
+        this.factory = factory;
+        this.parallelism = parallelism;
+        this.prefetchUsers = prefetchUsers;
+    }
+
+    /**
+     * Build every guild's bot instance
+     *
+     * @param register Called with each built instance
+     * @return Timing and counts for the warm-up
+     * @throws Exception If the guild stream failed
+     */
+    public Report run(Consumer<BotInstance> register) throws Exception {
+        return this.run(guild -> true, register);
+    }
+
+    /**
+     * Build the bot instance of every guild this process owns
+     *
+     * @param owned    Whether a guild is served by this process, others are skipped
+     * @param register Called with each built instance
+     * @return Timing and counts for the warm-up
+     * @throws Exception If the guild stream failed
+     */
+    public Report run(Predicate<GuildData> owned, Consumer<BotInstance> register) throws Exception {
+        long start = System.nanoTime();
+        AtomicInteger guilds = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicLong users = new AtomicLong();
+
+        /* bounded queue, the streaming thread runs tasks itself when the pool falls behind */
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(this.parallelism, this.parallelism, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(this.parallelism * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+
+        try {
+            this.source.streamGuilds(guild -> {
+                if (!owned.test(guild)) {
+                    return;
+                }
+
+                executor.execute(() -> this.warm(guild, register, guilds, failed, users));
+            });
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.MINUTES);
+        }
+
+        return Report.of(guilds.get(), failed.get(), users.get(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void warm(GuildData guild, Consumer<BotInstance> register, AtomicInteger guilds, AtomicInteger failed, AtomicLong users) {
+        try {
+            BotInstance instance = this.factory.apply(guild);
+            users.addAndGet(this.prefetch(instance));
+
+            register.accept(instance);
+            guilds.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            System.out.println("Failed to warm up guild %s: %s".formatted(guild.getGuildId(), e.getMessage()));
+        }
+    }
+
+    private int prefetch(BotInstance instance) throws Exception {
+        if (this.prefetchUsers <= 0) {
+            return 0;
+        }
+
+        var top = this.source.loadTopUsers(instance.getGuildData().getGuildId(), this.prefetchUsers);
+        for (UserData user : top) {
+            instance.getUserCache().put(user);
+        }
+
+        return top.size();
+    }
+
+    @Data
+    @AllArgsConstructor(staticName = "of")
+    public static class Report {
+        private final int guilds;
+        private final int failed;
+        private final long usersPrefetched;
+        private final long elapsedMillis;
+    }
+}
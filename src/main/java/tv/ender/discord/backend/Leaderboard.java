@@ -0,0 +1,242 @@
+package tv.ender.discord.backend;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import tv.ender.common.RankTree;
+import tv.ender.common.ReadWriteLock;
+import tv.ender.firebase.Projection;
+import tv.ender.firebase.backend.UserData;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Incrementally maintained ranking of a guild's users by tickets and by losses. Each update
+ * re-indexes one user in O(log n), so top-k costs O(log n + k) and the rank of a user O(log n)
+ * instead of sorting every user on each request. Ties are broken by discord id so ranks are stable.
+ * <p>
+ * Only scores and ids are kept, never the users themselves, so every user of the guild can be
+ * ranked from a balance scan without defeating the bounded user cache. Until that scan is done the
+ * rankings only cover the users seen so far.
+ */
+public class Leaderboard {
+    private static final Comparator<Entry> ORDER = Comparator.comparingLong(Entry::getScore).reversed()
+            .thenComparing(Entry::getDiscordId);
+    private static final Metric[] METRICS = Metric.values();
+
+    private final ReadWriteLock lock = new ReadWriteLock("leaderboard");
+    /* the scores each user is indexed with, one per metric */
+    private final Map<String, long[]> indexed = new HashMap<>();
+    private final Map<Metric, RankTree<Entry>> trees = new EnumMap<>(Metric.class);
+    private volatile boolean seeded;
+
+    public Leaderboard() {
+        for (Metric metric : METRICS) {
+            this.trees.put(metric, new RankTree<>(ORDER));
+        }
+    }
+
+    /**
+     * Index a user's current balance and losses, replacing whatever was indexed before
+     *
+     * @param user The user
+     */
+    public void update(UserData user) {
+        long[] scores = new long[METRICS.length];
+
+        for (Metric metric : METRICS) {
+            scores[metric.ordinal()] = metric.score(user);
+        }
+
+        this.update(user.getDiscordId(), scores, true);
+    }
+
+    /**
+     * Rank users read from the store that are not ranked yet, anyone already ranked was indexed
+     * from memory and is at least as fresh
+     *
+     * @param balances A page of a balance scan
+     * @return The number of users newly ranked
+     */
+    public int seed(Collection<Projection.Balance> balances) {
+        int seeded = 0;
+
+        for (Projection.Balance balance : balances) {
+            long[] scores = new long[METRICS.length];
+            scores[Metric.TICKETS.ordinal()] = balance.getTickets();
+            scores[Metric.LOSSES.ordinal()] = balance.getLosses();
+
+            if (this.update(balance.getDiscordId(), scores, false)) {
+                seeded++;
+            }
+        }
+
+        return seeded;
+    }
+
+    /**
+     * Mark the balance scan finished, every user of the guild is ranked from now on
+     */
+    public void markSeeded() {
+        this.seeded = true;
+    }
+
+    /**
+     * @return Whether every user of the guild is ranked rather than only the ones seen so far
+     */
+    public boolean isSeeded() {
+        return this.seeded;
+    }
+
+    private boolean update(String discordId, long[] scores, boolean replace) {
+        this.lock.writeLock();
+        try {
+            long[] previous = this.indexed.get(discordId);
+            if (previous != null && !replace) {
+                return false;
+            }
+
+            this.indexed.put(discordId, scores);
+
+            for (Metric metric : METRICS) {
+                int i = metric.ordinal();
+
+                /* most updates move one metric, leave the other in place */
+                if (previous != null && previous[i] == scores[i]) {
+                    continue;
+                }
+
+                RankTree<Entry> tree = this.trees.get(metric);
+                if (previous != null) {
+                    tree.remove(Entry.of(previous[i], discordId));
+                }
+
+                tree.insert(Entry.of(scores[i], discordId));
+            }
+
+            return true;
+        } finally {
+            this.lock.writeUnlock();
+        }
+    }
+
+    /**
+     * @param discordId The user to drop from the rankings
+     * @return Whether the user was ranked
+     */
+    public boolean remove(String discordId) {
+        this.lock.writeLock();
+        try {
+            long[] previous = this.indexed.remove(discordId);
+            if (previous == null) {
+                return false;
+            }
+
+            for (Metric metric : METRICS) {
+                this.trees.get(metric).remove(Entry.of(previous[metric.ordinal()], discordId));
+            }
+
+            return true;
+        } finally {
+            this.lock.writeUnlock();
+        }
+    }
+
+    /**
+     * @param metric The ranking
+     * @param count  The number of users
+     * @return Up to count users from the top of the ranking, highest first
+     */
+    public List<Standing> top(Metric metric, int count) {
+        this.lock.readLock();
+        try {
+            List<Entry> entries = this.trees.get(metric).first(count);
+            List<Standing> standings = new ArrayList<>(entries.size());
+
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                standings.add(Standing.of(i + 1, entry.score, entry.discordId));
+            }
+
+            return standings;
+        } finally {
+            this.lock.readUnlock();
+        }
+    }
+
+    /**
+     * @param metric    The ranking
+     * @param discordId The user
+     * @return The user's one based rank, or -1 if they are not ranked
+     */
+    public int rank(Metric metric, String discordId) {
+        this.lock.readLock();
+        try {
+            long[] scores = this.indexed.get(discordId);
+            if (scores == null) {
+                return -1;
+            }
+
+            return this.trees.get(metric).rank(Entry.of(scores[metric.ordinal()], discordId)) + 1;
+        } finally {
+            this.lock.readUnlock();
+        }
+    }
+
+    /**
+     * @return The number of ranked users
+     */
+    public int size() {
+        this.lock.readLock();
+        try {
+            return this.indexed.size();
+        } finally {
+            this.lock.readUnlock();
+        }
+    }
+
+    /**
+     * What users can be ranked by
+     */
+    public enum Metric {
+        TICKETS(UserData::getTickets),
+        LOSSES(UserData::getLosses);
+
+        private final ToLongFunction<UserData> score;
+
+        Metric(ToLongFunction<UserData> score) {
+            this.score = score;
+        }
+
+        public long score(UserData user) {
+            return this.score.applyAsLong(user);
+        }
+    }
+
+    /**
+     * A user's place in a ranking
+     */
+    @Getter
+    @AllArgsConstructor(staticName = "of")
+    public static class Standing {
+        private final int rank;
+        private final long score;
+        private final String discordId;
+    }
+
+    /**
+     * The score a user was indexed with, which can lag their live balance until the next update
+     */
+    @Getter
+    @AllArgsConstructor(staticName = "of")
+    private static class Entry {
+        private final long score;
+        private final String discordId;
+    }
+}
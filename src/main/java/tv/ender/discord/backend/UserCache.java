@@ -0,0 +1,254 @@
+package tv.ender.discord.backend;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import tv.ender.common.Result;
+import tv.ender.firebase.WriteBehindQueue;
+import tv.ender.firebase.backend.UserData;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Bounded read-through cache of a guild's user records. Misses are loaded once per user no matter
+ * how many threads ask concurrently, and idle or excess entries are evicted. Every balance change of
+ * a user this cache handed out, a debit, refund or payout, marks them dirty on its own. Dirty users
+ * are pinned outside the cache until the write-behind queue reports them persisted, so an eviction
+ * can never drop an unsaved balance. A user evicted while something still holds them, such as an
+ * open stake waiting to be paid out or refunded, is handed out again instead of loading a second
+ * copy whose balance would drift from it. Change listeners see every user as they are loaded, put
+ * or dirtied.
+ */
+public class UserCache {
+    private final LoadingCache<String, UserData> cache;
+    private final Map<String, UserData> dirty = new ConcurrentHashMap<>();
+    /* every user handed out that is still reachable, held weakly so only the holders keep them alive */
+    private final Cache<String, UserData> held = CacheBuilder.newBuilder().weakValues().build();
+    private final WriteBehindQueue<UserData> queue;
+    private final Consumer<List<UserData>> writeListener = this::onWritten;
+    private final Consumer<UserData> balanceListener = this::balanceChanged;
+    private final List<Consumer<UserData>> changeListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param loader            Loads a user that is not cached, returning null if they do not exist
+     * @param queue             The queue dirty users are persisted through
+     * @param maximumSize       The most users kept in the cache
+     * @param expireAfterAccess How long an untouched user is kept
+     */
+    public UserCache(UserLoader loader, WriteBehindQueue<UserData> queue, long maximumSize, Duration expireAfterAccess) {
+        this.queue = queue;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(expireAfterAccess)
+                .recordStats()
+                .build(new CacheLoader<>() {
+                    @Override
+                    public UserData load(String discordId) throws Exception {
+                        return UserCache.this.loadThrough(loader, discordId);
+                    }
+                });
+
+        this.queue.addWriteListener(this.writeListener);
+    }
+
+    /**
+     * Get a user, loading them on a miss
+     *
+     * @param discordId The user's discord id
+     * @return A result holding the user
+     */
+    public Result<UserData> get(String discordId) {
+        try {
+            return Result.pass(this.cache.get(discordId), "User loaded");
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            return Result.fail("Failed to load user %s: %s".formatted(discordId, e.getCause().getMessage()));
+        }
+    }
+
+    /**
+     * @param discordId The user's discord id
+     * @return The user or null if they are not in memory
+     */
+    public UserData getIfPresent(String discordId) {
+        UserData user = this.cache.getIfPresent(discordId);
+        if (user == null) {
+            user = this.dirty.get(discordId);
+        }
+
+        return user != null ? user : this.held.getIfPresent(discordId);
+    }
+
+    /**
+     * Add a user that was created or loaded elsewhere
+     *
+     * @param user The user
+     */
+    public void put(UserData user) {
+        user.setBalanceListener(this.balanceListener);
+        this.cache.put(user.getDiscordId(), user);
+        this.held.put(user.getDiscordId(), user);
+        this.notifyChanged(user);
+    }
+
+    /**
+     * Pin a user in memory and queue them to be persisted
+     *
+     * @param user The changed user
+     * @throws InterruptedException If interrupted while the write queue is full
+     */
+    public void markDirty(UserData user) throws InterruptedException {
+        this.dirty.put(user.getDiscordId(), user);
+        this.queue.enqueue(user);
+        this.notifyChanged(user);
+    }
+
+    /**
+     * @param changeListener Called with a user whenever they are loaded, put or marked dirty, which includes every balance change
+     */
+    public void addChangeListener(Consumer<UserData> changeListener) {
+        this.changeListeners.add(changeListener);
+    }
+
+    public void removeChangeListener(Consumer<UserData> changeListener) {
+        this.changeListeners.remove(changeListener);
+    }
+
+    /**
+     * Write every queued user now on the calling thread
+     *
+     * @return The number of users written
+     */
+    public int flush() {
+        return this.queue.flush();
+    }
+
+    /**
+     * Have every queued user written as soon as possible without waiting for it, such as the
+     * balances a settlement just paid out
+     */
+    public void flushSoon() {
+        this.queue.flushSoon();
+    }
+
+    /**
+     * @param discordId The user's discord id
+     * @return Whether the user has changes not yet persisted
+     */
+    public boolean isDirty(String discordId) {
+        return this.dirty.containsKey(discordId);
+    }
+
+    /**
+     * @return The number of users not yet persisted
+     */
+    public int getDirtyCount() {
+        return this.dirty.size();
+    }
+
+    /**
+     * @return The number of users cached
+     */
+    public long size() {
+        return this.cache.size();
+    }
+
+    /**
+     * @return Hit, miss, load and eviction counts
+     */
+    public CacheStats getStats() {
+        return this.cache.stats();
+    }
+
+    /**
+     * @return The share of lookups served from memory, 0 - 1
+     */
+    public double getHitRate() {
+        return this.cache.stats().hitRate();
+    }
+
+    /**
+     * @return A live view of the cached users keyed by discord id
+     */
+    public Map<String, UserData> asMap() {
+        return this.cache.asMap();
+    }
+
+    /**
+     * Stop listening for persisted users, call when the guild is unloaded
+     */
+    public void close() {
+        this.queue.removeWriteListener(this.writeListener);
+    }
+
+    private UserData loadThrough(UserLoader loader, String discordId) throws Exception {
+        /* evicted while dirty, the in-memory copy is newer than the database */
+        UserData pinned = this.dirty.get(discordId);
+        if (pinned != null) {
+            return pinned;
+        }
+
+        UserData pending = this.queue.getPending(discordId);
+        if (pending != null) {
+            return pending;
+        }
+
+        /* persisted and evicted but still staked somewhere, a fresh copy would miss the payout */
+        UserData live = this.held.getIfPresent(discordId);
+        if (live != null) {
+            return live;
+        }
+
+        UserData loaded = loader.load(discordId);
+        if (loaded == null) {
+            throw new NoSuchElementException("No user with id " + discordId);
+        }
+
+        loaded.setBalanceListener(this.balanceListener);
+        this.held.put(discordId, loaded);
+        this.notifyChanged(loaded);
+        return loaded;
+    }
+
+    /* runs wherever the balance changed, often under a ledger stripe, so it must not block */
+    private void balanceChanged(UserData user) {
+        this.dirty.put(user.getDiscordId(), user);
+        this.queue.offer(user);
+        this.notifyChanged(user);
+    }
+
+    private void notifyChanged(UserData user) {
+        for (var listener : this.changeListeners) {
+            listener.accept(user);
+        }
+    }
+
+    private void onWritten(List<UserData> chunk) {
+        for (UserData user : chunk) {
+            /* stay pinned if the user was dirtied again while the chunk was in flight */
+            this.dirty.computeIfPresent(user.getDiscordId(), (key, pinned) -> this.queue.getPending(key) != null ? pinned : null);
+        }
+    }
+
+    /**
+     * Loads a single user from the backing store
+     */
+    @FunctionalInterface
+    public interface UserLoader {
+        /**
+         * @param discordId The user's discord id
+         * @return The user or null if they do not exist
+         * @throws Exception If the store could not be read
+         */
+        UserData load(String discordId) throws Exception;
+    }
+}
@@ -0,0 +1,11 @@
+package tv.ender.discord.backend.activities;
+
+/**
+ * Where an activity is in its life. Only an open activity can be ended, cancelled or reset, the
+ * pot is paid out or refunded exactly once.
+ */
+public enum ActivityState {
+    OPEN,
+    SETTLED,
+    CANCELLED
+}
@@ -0,0 +1,39 @@
+package tv.ender.discord.backend.activities;
+
+import tv.ender.common.Result;
+import tv.ender.common.metrics.Counter;
+import tv.ender.common.metrics.Histogram;
+import tv.ender.common.metrics.MetricRegistry;
+
+/**
+ * Entry rate and latency of one kind of activity
+ */
+final class EntryMetrics {
+    private final Counter accepted;
+    private final Counter rejected;
+    private final Histogram latency;
+
+    private EntryMetrics(String activity) {
+        MetricRegistry registry = MetricRegistry.get();
+
+        this.accepted = registry.counter("curator_activity_entries_total", "Activity entries by outcome", "activity", activity, "outcome", "accepted");
+        this.rejected = registry.counter("curator_activity_entries_total", "Activity entries by outcome", "activity", activity, "outcome", "rejected");
+        this.latency = registry.timer("curator_activity_enter_seconds", "Time taken to accept or reject an entry", "activity", activity);
+    }
+
+    static EntryMetrics of(String activity) {
+        return new EntryMetrics(activity);
+    }
+
+    /**
+     * @param startNanos When the entry started
+     * @param result     The outcome
+     * @return The outcome
+     */
+    <T> Result<T> record(long startNanos, Result<T> result) {
+        this.latency.recordSince(startNanos);
+        (result.isSuccessful() ? this.accepted : this.rejected).increment();
+
+        return result;
+    }
+}
@@ -5,121 +5,187 @@ import lombok.experimental.Accessors;
 import tv.ender.common.ReadWriteLock;
 import tv.ender.common.Result;
 import tv.ender.discord.backend.interfaces.IActivity;
+import tv.ender.discord.backend.journal.ActivityJournal;
+import tv.ender.discord.backend.journal.JournalEvent;
+import tv.ender.discord.backend.ledger.ActivityCounters;
+import tv.ender.discord.backend.ledger.BetBook;
+import tv.ender.discord.backend.ledger.OptionOdds;
+import tv.ender.discord.backend.ledger.ParticipantSnapshot;
+import tv.ender.discord.backend.ledger.TicketLedger;
 import tv.ender.firebase.backend.UserData;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 @Getter
 @Accessors(chain = true)
 public class Prediction implements IActivity {
-    private final ReadWriteLock lock = new ReadWriteLock();
-    private final Map<UserData, Integer> entrantsTicketsMap = new ConcurrentHashMap<>();
-    private final Map<UserData, String> entrantPick = new ConcurrentHashMap<>();
+    private static final EntryMetrics METRICS = EntryMetrics.of("prediction");
+
+    private final ReadWriteLock lock = new ReadWriteLock("prediction");
     private final AtomicBoolean running = new AtomicBoolean(true);
+    private volatile ActivityState state = ActivityState.OPEN;
+    private final TicketLedger ledger = new TicketLedger(this.running, this::deposited);
     private final AtomicLong endTime = new AtomicLong(-1);
-    private final UUID identifier = UUID.randomUUID();
+    private final UUID identifier;
+    private final ActivityJournal journal;
+
+    public Prediction() {
+        this(UUID.randomUUID(), null);
+    }
+
+    /**
+     * @param identifier The prediction id, reused when recovering from the journal
+     * @param journal    Where changes are journaled, or null to keep them in memory only
+     */
+    public Prediction(UUID identifier, ActivityJournal journal) {
+        this.identifier = identifier;
+        this.journal = journal;
+    }
+
+    /**
+     * Start a journaled prediction
+     *
+     * @param guildId The guild running the prediction
+     * @param journal Where changes are journaled
+     * @return The prediction
+     */
+    public static Prediction open(String guildId, ActivityJournal journal) {
+        Prediction prediction = new Prediction(UUID.randomUUID(), journal);
+        journal.tryWrite(JournalEvent.open(JournalEvent.Type.PREDICTION, prediction.identifier, guildId));
+
+        return prediction;
+    }
 
     @Override
-    public Set<UserData> getParticipants() {
-        try {
-            this.lock.readLock();
+    public ParticipantSnapshot snapshot() {
+        return this.ledger.snapshot();
+    }
 
-            return this.entrantsTicketsMap.keySet();
-        } finally {
-            this.lock.readUnlock();
-        }
+    @Override
+    public ActivityCounters getCounters() {
+        return this.ledger.getCounters();
     }
 
-    public int getTotalTickets() {
-        try {
-            this.lock.readLock();
+    public Map<UserData, Integer> getEntrantsTicketsMap() {
+        return this.ledger.getTickets();
+    }
 
-            return this.entrantsTicketsMap.values().stream().mapToInt(Integer::intValue).sum();
-        } finally {
-            this.lock.readUnlock();
-        }
+    public Map<UserData, String> getEntrantPick() {
+        return this.ledger.getPicks();
+    }
+
+    /**
+     * @return The live odds of every option, served from the bet book without touching entrants
+     */
+    public List<OptionOdds> getOdds() {
+        return this.ledger.getBook().getOdds();
     }
 
     /**
-     * End the prediction
+     * End the prediction, paying the pot out to the winning side. A prediction is settled exactly
+     * once, from the stakes taken out of the ledger as it closes.
      *
      * @param winning The winning option
      * @return A result containing the winners or null if failed
      */
     public Result<Set<UserData>> end(final String winning) {
-        /* shutdown raffle */
-        this.running.set(false);
-
-        /* Pick a random winner weighting to the number of tickets they have */
-        this.endTime.set(System.currentTimeMillis());
         try {
-            this.lock.readLock();
-            if (!this.entrantPick.containsValue(winning)) {
+            this.lock.writeLock();
+
+            if (this.state != ActivityState.OPEN) {
+                return Result.fail("Prediction \"%s\" was already %s".formatted(this.identifier, this.state.name().toLowerCase()));
+            }
+
+            if (!this.ledger.hasOption(winning)) {
                 return Result.fail("Invalid winning option \"%s\" for prediction \"%s\"".formatted(winning, this.identifier));
             }
 
-            Set<UserData> winners = new HashSet<>();
-            int winningBets = 0;
-            int totalBets = this.getTotalTickets();
-            for (var entry : this.entrantsTicketsMap.entrySet()) {
-                if (Objects.equals(this.entrantPick.get(entry.getKey()), winning)) {
-                    winners.add(entry.getKey());
-                    winningBets += entry.getValue();
+            BetBook.Option winningOption = this.ledger.getBook().getOption(winning);
+
+            /* shutdown prediction, a deposit racing the close lands before the totals are read or is rejected */
+            this.state = ActivityState.SETTLED;
+            this.running.set(false);
+            this.endTime.set(System.currentTimeMillis());
+            this.ledger.awaitDeposits();
+
+            /* the book's running totals are final now, no need to add up every stake */
+            long totalBets = this.ledger.getBook().getPool();
+            long winningBets = winningOption.getTotal();
+            int winningId = winningOption.getId();
+
+            /* payouts are worked out during the drain, only the winning side is kept */
+            List<UserData> entrants = new ArrayList<>();
+            List<Integer> payouts = new ArrayList<>();
+            this.ledger.drain((user, tickets, pick) -> {
+                if (pick == winningId) {
+                    entrants.add(user);
+                    payouts.add(payout(tickets, totalBets, winningBets));
                 }
-            }
+            });
 
-            /* payout */
-            for (UserData winner : winners) {
-                int viewerBet = this.entrantsTicketsMap.get(winner);
-                int viewerPayout;
+            this.journal(JournalEvent.of(JournalEvent.Type.END, this.identifier));
 
-                if (winningBets != 0) {
-                    viewerPayout = (int) Math.round(totalBets * (viewerBet / (double) winningBets));
-                } else {
-                    viewerPayout = viewerBet;
+            /* payout from the drained stakes, a full balance is topped up rather than failing everyone after it */
+            Set<UserData> winners = new HashSet<>((int) (entrants.size() / 0.75f) + 1);
+            for (int i = 0; i < entrants.size(); i++) {
+                UserData winner = entrants.get(i);
+                int payout = payouts.get(i);
+                int paid = winner.creditUpTo(payout);
+
+                if (paid < payout) {
+                    System.out.println("Prediction %s could only pay %d of %d tickets to %s, their balance is full"
+                            .formatted(this.identifier, paid, payout, winner.getDiscordId()));
                 }
 
-                winner.setTickets(winner.getTickets() + viewerPayout);
+                winners.add(winner);
             }
 
             return Result.pass(winners, "Prediction ended with %d winners and %d total bets"
                     .formatted(winners.size(), totalBets));
         } finally {
-            this.lock.releaseAnyReadLocks();
+            this.lock.writeUnlock();
         }
     }
 
     /**
-     * Reset the prediction
+     * @return A winner's share of the pot, proportional to their bet and capped to what a balance can hold
      */
-    public Result<Prediction> reset() {
-        if (!this.running.get()) {
-            return Result.fail(this, "Raffle is not running");
+    private static int payout(int bet, long totalBets, long winningBets) {
+        if (winningBets == 0) {
+            return bet;
         }
 
-        /* disable entries */
-        this.running.set(false);
+        return (int) Math.min(Integer.MAX_VALUE, Math.round(totalBets * (bet / (double) winningBets)));
+    }
 
+    /**
+     * Reset the prediction
+     */
+    public Result<Prediction> reset() {
         try {
-            /* refund all tickets */
             this.lock.writeLock();
-            this.entrantsTicketsMap.forEach((user, tickets) -> user.setTickets(user.getTickets() + tickets));
 
-            this.entrantsTicketsMap.clear();
+            if (this.state != ActivityState.OPEN || !this.running.get()) {
+                return Result.fail(this, "Prediction is not running");
+            }
+
+            /* disable entries while every ticket is refunded */
+            this.running.set(false);
+            this.ledger.refundAll();
+            this.journal(JournalEvent.of(JournalEvent.Type.RESET, this.identifier));
+            this.running.set(true);
         } finally {
             this.lock.writeUnlock();
         }
 
-        this.running.set(true);
-
-        return Result.pass(this, "Raffle reset successfully");
+        return Result.pass(this, "Prediction reset successfully");
     }
 
     /**
@@ -129,68 +195,82 @@ public class Prediction implements IActivity {
      * @param option The number of tickets to enter with
      */
     public Result<UserData> enter(UserData user, int tickets, String option) {
+        long start = System.nanoTime();
+
+        return METRICS.record(start, this.tryEnter(user, tickets, option));
+    }
+
+    private Result<UserData> tryEnter(UserData user, int tickets, String option) {
         if (!this.running.get()) {
             return Result.fail(user, "Prediction is not running");
         }
 
-        if (tickets > user.getTickets()) {
-            return Result.fail(user, "Insufficient tickets: %d > %d".formatted(tickets, user.getTickets()));
+        /* pick, deposit, debit & journal append in one step */
+        Result<UserData> result = this.ledger.deposit(user, tickets, option);
+        if (!result.isSuccessful()) {
+            return result;
         }
 
-        /* check user choice */
+        /* wait for the fsync without holding anything */
+        this.sync();
+
+        return Result.pass(user, "Bet %d tickets on %s".formatted(tickets, option));
+    }
+
+    @Override
+    public boolean lockEntries() {
         try {
-            this.lock.readLock();
-            if (this.entrantPick.containsKey(user) && !this.entrantPick.get(user).equals(option)) {
-                return Result.fail(user, "Cannot chance choice after entering");
-            } else {
-                this.lock.readUnlock();
-
-                try {
-                    this.lock.writeLock();
-                    this.entrantPick.put(user, option);
-                } finally {
-                    this.lock.writeUnlock();
-                }
+            this.lock.writeLock();
+
+            if (!this.running.compareAndSet(true, false)) {
+                return false;
             }
+
+            this.journal(JournalEvent.of(JournalEvent.Type.LOCK, this.identifier));
+            return true;
         } finally {
-            this.lock.releaseAnyReadLocks();
+            this.lock.writeUnlock();
         }
+    }
 
-        /* deposit tickets */
+    @Override
+    public boolean cancel() {
         try {
-            this.lock.readLock();
-            if (this.entrantsTicketsMap.containsKey(user)) {
-                this.lock.readUnlock();
-
-                try {
-                    this.lock.writeLock();
-                    this.entrantsTicketsMap.put(user, tickets + this.entrantsTicketsMap.get(user));
-                } finally {
-                    this.lock.writeUnlock();
-                }
-            } else {
-                this.lock.readUnlock();
-
-                try {
-                    this.lock.writeLock();
-                    this.entrantsTicketsMap.put(user, tickets);
-                } finally {
-                    this.lock.writeUnlock();
-                }
+            this.lock.writeLock();
+
+            /* the pot was already paid out or refunded */
+            if (this.state != ActivityState.OPEN) {
+                return false;
             }
+
+            /* refund even when entries were already locked */
+            this.state = ActivityState.CANCELLED;
+            this.running.set(false);
+            this.ledger.refundAll();
+            this.journal(JournalEvent.of(JournalEvent.Type.CANCEL, this.identifier));
+
+            return true;
         } finally {
-            this.lock.releaseAnyReadLocks();
+            this.lock.writeUnlock();
         }
+    }
 
-        /* subtract tickets */
-        user.setTickets(user.getTickets() - tickets);
+    private void journal(JournalEvent event) {
+        if (this.journal != null) {
+            this.journal.tryWrite(event);
+        }
+    }
 
-        return Result.pass(user, "Bet %d tickets on %s".formatted(tickets, option));
+    /* called under the entrant's stripe, so the entry is appended before a close can drain the stake */
+    private void deposited(UserData user, int tickets, String option, int debit) {
+        if (this.journal != null) {
+            this.journal.tryAppend(JournalEvent.enter(this.identifier, user.getDiscordId(), tickets, option, debit));
+        }
     }
 
-    @Override
-    public void cancel() {
-        this.reset();
-        this.running.set(false);
+    private void sync() {
+        if (this.journal != null) {
+            this.journal.trySync();
+        }
     }
 }
@@ -4,44 +4,77 @@ import lombok.Getter;
 import lombok.experimental.Accessors;
 import tv.ender.common.ReadWriteLock;
 import tv.ender.common.Result;
+import tv.ender.common.WeightedSampler;
 import tv.ender.discord.backend.interfaces.IActivity;
+import tv.ender.discord.backend.journal.ActivityJournal;
+import tv.ender.discord.backend.journal.JournalEvent;
+import tv.ender.discord.backend.ledger.ActivityCounters;
+import tv.ender.discord.backend.ledger.ParticipantSnapshot;
+import tv.ender.discord.backend.ledger.TicketLedger;
 import tv.ender.firebase.backend.UserData;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.SplittableRandom;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.random.RandomGenerator;
 
 @Getter
 @Accessors(chain = true)
 public class Raffle implements IActivity {
-    private final ReadWriteLock lock = new ReadWriteLock();
-    private final Map<UserData, Integer> entrantsTicketsMap = new ConcurrentHashMap<>();
+    private static final EntryMetrics METRICS = EntryMetrics.of("raffle");
+
+    private final ReadWriteLock lock = new ReadWriteLock("raffle");
     private final AtomicBoolean running = new AtomicBoolean(true);
+    private volatile ActivityState state = ActivityState.OPEN;
+    private final TicketLedger ledger = new TicketLedger(this.running, this::deposited);
     private final AtomicLong endTime = new AtomicLong(-1);
-    private final UUID identifier = UUID.randomUUID();
+    private final UUID identifier;
+    private final ActivityJournal journal;
 
-    @Override
-    public Set<UserData> getParticipants() {
-        try {
-            this.lock.readLock();
+    public Raffle() {
+        this(UUID.randomUUID(), null);
+    }
 
-            return this.entrantsTicketsMap.keySet();
-        } finally {
-            this.lock.readUnlock();
-        }
+    /**
+     * @param identifier The raffle id, reused when recovering from the journal
+     * @param journal    Where changes are journaled, or null to keep them in memory only
+     */
+    public Raffle(UUID identifier, ActivityJournal journal) {
+        this.identifier = identifier;
+        this.journal = journal;
     }
 
-    public int getTotalTickets() {
-        try {
-            this.lock.readLock();
+    /**
+     * Start a journaled raffle
+     *
+     * @param guildId The guild running the raffle
+     * @param journal Where changes are journaled
+     * @return The raffle
+     */
+    public static Raffle open(String guildId, ActivityJournal journal) {
+        Raffle raffle = new Raffle(UUID.randomUUID(), journal);
+        journal.tryWrite(JournalEvent.open(JournalEvent.Type.RAFFLE, raffle.identifier, guildId));
 
-            return this.entrantsTicketsMap.values().stream().mapToInt(Integer::intValue).sum();
-        } finally {
-            this.lock.readUnlock();
-        }
+        return raffle;
+    }
+
+    @Override
+    public ParticipantSnapshot snapshot() {
+        return this.ledger.snapshot();
+    }
+
+    @Override
+    public ActivityCounters getCounters() {
+        return this.ledger.getCounters();
+    }
+
+    public Map<UserData, Integer> getEntrantsTicketsMap() {
+        return this.ledger.getTickets();
     }
 
     /**
@@ -50,39 +83,88 @@ public class Raffle implements IActivity {
      * @return the winner of the raffle
      */
     public Result<UserData> end() {
-        /* shutdown raffle */
-        this.running.set(false);
-
-        /* Pick a random winner weighting to the number of tickets they have */
-        this.endTime.set(System.currentTimeMillis());
-        // TODO: Implement
+        Result<List<UserData>> result = this.end(1, new SplittableRandom());
 
+        if (!result.isSuccessful()) {
+            return Result.fail(result.getMessage());
+        }
 
-        return Result.fail("Not implemented");
+        return Result.pass(result.getHolder().get(0), result.getMessage());
     }
 
     /**
-     * Reset the raffle
+     * End the raffle, drawing distinct winners weighted by the number of tickets they have. The pot
+     * is spent on the draw, a raffle is drawn exactly once.
+     *
+     * @param count  The number of winners to draw, at least one
+     * @param random The random source, seed it to replay a draw
+     * @return The winners of the raffle in draw order
      */
-    public Result<Raffle> reset() {
-        if (!this.running.get()) {
-            return Result.fail(this, "Raffle is not running");
+    public Result<List<UserData>> end(int count, RandomGenerator random) {
+        if (count < 1) {
+            return Result.fail("Cannot draw %d winners from raffle \"%s\"".formatted(count, this.identifier));
         }
 
-        /* disable entries */
-        this.running.set(false);
-
         try {
-            /* refund all tickets */
             this.lock.writeLock();
-            this.entrantsTicketsMap.forEach((user, tickets) -> user.setTickets(user.getTickets() + tickets));
 
-            this.entrantsTicketsMap.clear();
+            if (this.state != ActivityState.OPEN) {
+                return Result.fail("Raffle \"%s\" was already %s".formatted(this.identifier, this.state.name().toLowerCase()));
+            }
+
+            /* shutdown raffle, a deposit racing the close lands before the drain or is rejected */
+            this.state = ActivityState.SETTLED;
+            this.running.set(false);
+            this.endTime.set(System.currentTimeMillis());
+
+            /* take the pot in a stable order so a seeded draw can be replayed */
+            List<Map.Entry<UserData, Integer>> entries = new ArrayList<>(this.ledger.drain().entrySet());
+            entries.sort(Comparator.comparing(entry -> entry.getKey().getDiscordId()));
+            this.journal(JournalEvent.of(JournalEvent.Type.END, this.identifier));
+
+            /* Pick a random winner weighting to the number of tickets they have */
+            List<UserData> entrants = new ArrayList<>(entries.size());
+            long[] weights = new long[entries.size()];
+            for (int i = 0; i < weights.length; i++) {
+                var entry = entries.get(i);
+                entrants.add(entry.getKey());
+                weights[i] = entry.getValue();
+            }
+
+            WeightedSampler<UserData> sampler = new WeightedSampler<>(entrants, weights);
+            if (sampler.getRemaining() == 0) {
+                return Result.fail("No entrants in raffle \"%s\"".formatted(this.identifier));
+            }
+
+            long totalTickets = sampler.getTotal();
+            List<UserData> winners = sampler.sample(count, random);
+
+            return Result.pass(winners, "Raffle ended with %d winners and %d total tickets"
+                    .formatted(winners.size(), totalTickets));
         } finally {
             this.lock.writeUnlock();
         }
+    }
+
+    /**
+     * Reset the raffle
+     */
+    public Result<Raffle> reset() {
+        try {
+            this.lock.writeLock();
 
-        this.running.set(true);
+            if (this.state != ActivityState.OPEN || !this.running.get()) {
+                return Result.fail(this, "Raffle is not running");
+            }
+
+            /* disable entries while every ticket is refunded */
+            this.running.set(false);
+            this.ledger.refundAll();
+            this.journal(JournalEvent.of(JournalEvent.Type.RESET, this.identifier));
+            this.running.set(true);
+        } finally {
+            this.lock.writeUnlock();
+        }
 
         return Result.pass(this, "Raffle reset successfully");
     }
@@ -94,49 +176,82 @@ public class Raffle implements IActivity {
      * @param tickets The number of tickets to enter with
      */
     public Result<UserData> enter(UserData user, int tickets) {
+        long start = System.nanoTime();
+
+        return METRICS.record(start, this.tryEnter(user, tickets));
+    }
+
+    private Result<UserData> tryEnter(UserData user, int tickets) {
         if (!this.running.get()) {
             return Result.fail(user, "Raffle is not running");
         }
 
-        if (tickets > user.getTickets()) {
-            Result.fail(user, "Insufficient tickets: %d > %d".formatted(tickets, user.getTickets()));
+        /* deposit, debit & journal append in one step */
+        Result<UserData> result = this.ledger.deposit(user, tickets);
+        if (!result.isSuccessful()) {
+            return result;
         }
 
-        /* deposit tickets */
+        /* wait for the fsync without holding anything */
+        this.sync();
+
+        return Result.pass(user, "Deposited %d tickets into raffle".formatted(tickets));
+    }
+
+    @Override
+    public boolean lockEntries() {
         try {
-            this.lock.readLock();
-            if (this.entrantsTicketsMap.containsKey(user)) {
-                this.lock.readUnlock();
-
-                try {
-                    this.lock.writeLock();
-                    this.entrantsTicketsMap.put(user, tickets + this.entrantsTicketsMap.get(user));
-                } finally {
-                    this.lock.writeUnlock();
-                }
-            } else {
-                this.lock.readUnlock();
-
-                try {
-                    this.lock.writeLock();
-                    this.entrantsTicketsMap.put(user, tickets);
-                } finally {
-                    this.lock.writeUnlock();
-                }
+            this.lock.writeLock();
+
+            if (!this.running.compareAndSet(true, false)) {
+                return false;
             }
+
+            this.journal(JournalEvent.of(JournalEvent.Type.LOCK, this.identifier));
+            return true;
         } finally {
-            this.lock.releaseAnyReadLocks();
+            this.lock.writeUnlock();
         }
+    }
+
+    @Override
+    public boolean cancel() {
+        try {
+            this.lock.writeLock();
 
-        /* subtract tickets */
-        user.setTickets(user.getTickets() - tickets);
+            /* the pot was already paid out or refunded */
+            if (this.state != ActivityState.OPEN) {
+                return false;
+            }
 
-        return Result.pass(user, "Deposited %d tickets into raffle".formatted(tickets));
+            /* refund even when entries were already locked */
+            this.state = ActivityState.CANCELLED;
+            this.running.set(false);
+            this.ledger.refundAll();
+            this.journal(JournalEvent.of(JournalEvent.Type.CANCEL, this.identifier));
+
+            return true;
+        } finally {
+            this.lock.writeUnlock();
+        }
     }
 
-    @Override
-    public void cancel() {
-        this.reset();
-        this.running.set(false);
+    private void journal(JournalEvent event) {
+        if (this.journal != null) {
+            this.journal.tryWrite(event);
+        }
+    }
+
+    /* called under the entrant's stripe, so the entry is appended before a close can drain the stake */
+    private void deposited(UserData user, int tickets, String option, int debit) {
+        if (this.journal != null) {
+            this.journal.tryAppend(JournalEvent.enter(this.identifier, user.getDiscordId(), tickets, option, debit));
+        }
+    }
+
+    private void sync() {
+        if (this.journal != null) {
+            this.journal.trySync();
+        }
     }
 }
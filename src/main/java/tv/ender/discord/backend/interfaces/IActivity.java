@@ -1,10 +1,67 @@
 package tv.ender.discord.backend.interfaces;
 
+import tv.ender.discord.backend.activities.ActivityState;
+import tv.ender.discord.backend.ledger.ActivityCounters;
+import tv.ender.discord.backend.ledger.ParticipantSnapshot;
 import tv.ender.firebase.backend.UserData;
 
 import java.util.Set;
+import java.util.UUID;
 
 public interface IActivity {
-    Set<UserData> getParticipants();
-    void cancel();
+    /**
+     * @return The activity id, stable across journal recovery and handoff
+     */
+    UUID getIdentifier();
+
+    /**
+     * @return Where the activity is in its life
+     */
+    ActivityState getState();
+
+    /**
+     * Refund every entrant and close the activity
+     *
+     * @return Whether the entrants were refunded, false once the activity was settled or cancelled
+     */
+    boolean cancel();
+
+    /**
+     * Stop taking entries, the activity can still be ended or cancelled. The lock is journaled so it
+     * survives a restart.
+     *
+     * @return Whether entries were open until now
+     */
+    boolean lockEntries();
+
+    /**
+     * @return A consistent, immutable copy of the entrants, cached until the next enter or reset
+     */
+    ParticipantSnapshot snapshot();
+
+    /**
+     * @return The entrants as of the latest snapshot
+     */
+    default Set<UserData> getParticipants() {
+        return this.snapshot().getParticipants();
+    }
+
+    /**
+     * @return The activity's running totals, kept up to date as entries come in
+     */
+    ActivityCounters getCounters();
+
+    /**
+     * @return The tickets currently in the pot, read without locking
+     */
+    default int getTotalTickets() {
+        return (int) Math.min(Integer.MAX_VALUE, this.getCounters().getTotalTickets());
+    }
+
+    /**
+     * @return The number of entrants, read without locking
+     */
+    default int getEntrantCount() {
+        return (int) this.getCounters().getEntrantCount();
+    }
 }
@@ -0,0 +1,610 @@
+package tv.ender.discord.backend.journal;
+
+import lombok.AllArgsConstructor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Append-only journal of activity events stored in fixed size memory-mapped segments. Appends
+ * land in the page cache so they survive a process crash immediately; {@link #sync(long)} waits
+ * for an fsync, and concurrent callers share a single fsync (group commit). Every few segments
+ * the closed segments are compacted into a snapshot holding only the open activities.
+ * <p>
+ * Positions handed out by {@link #append(JournalEvent)} are log sequence numbers,
+ * {@code segment * segmentSize + offset}, so they only grow.
+ */
+public class ActivityJournal implements AutoCloseable {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+    public static final int DEFAULT_SEGMENTS_PER_SNAPSHOT = 4;
+    public static final Duration DEFAULT_SYNC_INTERVAL = Duration.ofMillis(50);
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    private static ActivityJournal instance;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int segmentsPerSnapshot;
+    private final long syncIntervalNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition syncNeeded = this.lock.newCondition();
+    private final Condition synced = this.lock.newCondition();
+    private final Object snapshotLock = new Object();
+    private final AtomicBoolean snapshotting = new AtomicBoolean();
+    private final AtomicLong syncs = new AtomicLong();
+    private final Thread syncer;
+    private volatile boolean running = true;
+
+    private MappedByteBuffer segment;
+    private long segmentId;
+    /* filled segments the syncer has yet to force, oldest first */
+    private final List<Filled> filled = new ArrayList<>();
+    private long appended;
+    private long durable;
+    private long requested;
+    private int segmentsSinceSnapshot;
+
+    /**
+     * Open the journal in a directory, continuing after the last intact record
+     *
+     * @param directory           Where segments and snapshots are kept
+     * @param segmentSize         The size of each mapped segment in bytes
+     * @param segmentsPerSnapshot The number of filled segments that triggers a snapshot, 0 to only snapshot manually
+     * @param syncInterval        The longest an appended event waits for an fsync nobody asked for
+     * @throws IOException If the directory or the last segment could not be opened
+     */
+    public ActivityJournal(Path directory, int segmentSize, int segmentsPerSnapshot, Duration syncInterval) throws IOException {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.segmentsPerSnapshot = segmentsPerSnapshot;
+        this.syncIntervalNanos = syncInterval.toNanos();
+
+        Files.createDirectories(directory);
+
+        /* continue the newest segment, or start the one after the newest snapshot */
+        List<Long> segments = this.list(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+        long snapshot = this.latestSnapshot();
+
+        if (segments.isEmpty() || segments.get(segments.size() - 1) <= snapshot) {
+            this.openSegment(snapshot + 1);
+        } else {
+            this.openSegment(segments.get(segments.size() - 1));
+            while (JournalCodec.decode(this.segment) != null) {
+                /* skip to the first torn or empty record */
+            }
+
+            this.clearTail();
+        }
+
+        this.appended = this.position();
+        this.durable = this.appended;
+        this.requested = this.appended;
+
+        this.syncer = new Thread(this::runSyncer, "journal-sync");
+        this.syncer.setDaemon(true);
+        this.syncer.start();
+    }
+
+    /**
+     * Append an event, it survives a process crash as soon as this returns
+     *
+     * @param event The event
+     * @return The log sequence number to pass to {@link #sync(long)} for durability across power loss
+     * @throws IOException If a new segment could not be mapped
+     */
+    public long append(JournalEvent event) throws IOException {
+        int size = JournalCodec.size(event);
+        if (size > this.segmentSize) {
+            throw new IllegalArgumentException("Event of %d bytes does not fit in a segment".formatted(size));
+        }
+
+        this.lock.lock();
+        try {
+            if (!this.running) {
+                throw new IllegalStateException("Journal is closed");
+            }
+
+            if (this.segment.remaining() < size) {
+                this.roll();
+            }
+
+            JournalCodec.encode(this.segment, event);
+            this.appended = this.position();
+
+            return this.appended;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until everything up to a sequence number is on disk. Callers waiting at the same time
+     * are covered by one fsync.
+     *
+     * @param sequence The sequence number returned by {@link #append(JournalEvent)}
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void sync(long sequence) throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            while (this.durable < sequence) {
+                if (this.requested < sequence) {
+                    this.requested = sequence;
+                    this.syncNeeded.signal();
+                }
+
+                this.synced.await();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Append an event and wait for it to be on disk
+     *
+     * @param event The event
+     * @throws IOException          If a new segment could not be mapped
+     * @throws InterruptedException If interrupted while waiting for the fsync
+     */
+    public void write(JournalEvent event) throws IOException, InterruptedException {
+        this.sync(this.append(event));
+    }
+
+    /**
+     * Write an event, logging failures instead of throwing so a broken disk never blocks an activity
+     *
+     * @param event The event
+     * @return Whether the event reached the disk
+     */
+    public boolean tryWrite(JournalEvent event) {
+        try {
+            this.write(event);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.out.println("Failed to journal %s for activity %s: %s".formatted(event.getType(), event.getActivity(), e.getMessage()));
+        }
+
+        return false;
+    }
+
+    /**
+     * Append an event without waiting for the fsync, logging failures instead of throwing. Callers
+     * holding a lock append under it and {@link #trySync()} once it is released.
+     *
+     * @param event The event
+     * @return The sequence number, or -1 if the event was not appended
+     */
+    public long tryAppend(JournalEvent event) {
+        try {
+            return this.append(event);
+        } catch (Exception e) {
+            System.out.println("Failed to journal %s for activity %s: %s".formatted(event.getType(), event.getActivity(), e.getMessage()));
+        }
+
+        return -1;
+    }
+
+    /**
+     * Wait until everything appended so far is on disk, logging failures instead of throwing
+     *
+     * @return Whether it reached the disk
+     */
+    public boolean trySync() {
+        try {
+            this.sync(this.getAppended());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return false;
+    }
+
+    /**
+     * Read every event in the journal in order, call before appending anything
+     *
+     * @param consumer Called with each event
+     * @return The number of events read
+     * @throws IOException If a file could not be read
+     */
+    public long replay(Consumer<JournalEvent> consumer) throws IOException {
+        return this.replay(Long.MAX_VALUE, consumer);
+    }
+
+    /**
+     * @return The open activities rebuilt from the journal
+     * @throws IOException If a file could not be read
+     */
+    public JournalState recover() throws IOException {
+        JournalState state = new JournalState();
+        this.replay(state);
+
+        return state;
+    }
+
+    /**
+     * Fold every filled segment into a snapshot of the open activities and delete them
+     *
+     * @return The state written to the snapshot
+     * @throws IOException If the snapshot could not be written
+     */
+    public JournalState snapshot() throws IOException {
+        synchronized (this.snapshotLock) {
+            long upTo;
+
+            this.lock.lock();
+            try {
+                upTo = this.segmentId;
+                this.nextSegment();
+                this.segmentsSinceSnapshot = 0;
+            } finally {
+                this.lock.unlock();
+            }
+
+            JournalState state = new JournalState();
+            this.replay(upTo, state);
+
+            Path temporary = this.directory.resolve(SNAPSHOT_PREFIX + name(upTo) + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+                for (JournalEvent event : state.toEvents()) {
+                    if (buffer.remaining() < JournalCodec.size(event)) {
+                        this.drain(channel, buffer);
+
+                        if (buffer.capacity() < JournalCodec.size(event)) {
+                            buffer = ByteBuffer.allocate(JournalCodec.size(event));
+                        }
+                    }
+
+                    JournalCodec.encode(buffer, event);
+                }
+
+                this.drain(channel, buffer);
+                channel.force(true);
+            }
+
+            Files.move(temporary, this.directory.resolve(SNAPSHOT_PREFIX + name(upTo) + SNAPSHOT_SUFFIX),
+                    StandardCopyOption.ATOMIC_MOVE);
+
+            /* the new snapshot is durable, everything it covers can go */
+            for (long id : this.list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+                if (id < upTo) {
+                    Files.deleteIfExists(this.directory.resolve(SNAPSHOT_PREFIX + name(id) + SNAPSHOT_SUFFIX));
+                }
+            }
+
+            for (long id : this.list(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+                if (id <= upTo) {
+                    Files.deleteIfExists(this.segmentPath(id));
+                }
+            }
+
+            return state;
+        }
+    }
+
+    /**
+     * @return The sequence number after the last appended event
+     */
+    public long getAppended() {
+        this.lock.lock();
+        try {
+            return this.appended;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return The sequence number up to which events are on disk
+     */
+    public long getDurable() {
+        this.lock.lock();
+        try {
+            return this.durable;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of fsyncs issued, lower than the number of syncs waited on under load
+     */
+    public long getSyncCount() {
+        return this.syncs.get();
+    }
+
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Force everything appended to disk and stop accepting events
+     */
+    @Override
+    public void close() {
+        this.lock.lock();
+        try {
+            if (!this.running) {
+                return;
+            }
+
+            this.running = false;
+            this.syncNeeded.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+
+        try {
+            this.syncer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        this.lock.lock();
+        try {
+            for (Filled segment : this.filled) {
+                segment.buffer.force();
+            }
+
+            this.filled.clear();
+            this.segment.force();
+            this.durable = this.appended;
+            this.synced.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void runSyncer() {
+        while (true) {
+            List<Filled> rolled;
+            MappedByteBuffer buffer;
+            long since;
+            long target;
+            int from;
+            int to;
+
+            this.lock.lock();
+            try {
+                long remaining = this.syncIntervalNanos;
+                while (this.running && this.requested <= this.durable && remaining > 0) {
+                    remaining = this.syncNeeded.awaitNanos(remaining);
+                }
+
+                if (!this.running) {
+                    return;
+                }
+
+                if (this.appended <= this.durable) {
+                    continue;
+                }
+
+                /* segments filled since the last fsync go first, they hold the older events */
+                rolled = this.filled.isEmpty() ? List.of() : List.copyOf(this.filled);
+                this.filled.clear();
+
+                long base = this.segmentId * this.segmentSize;
+                buffer = this.segment;
+                since = this.durable;
+                target = this.appended;
+                from = (int) Math.max(0, since - base);
+                to = (int) (target - base);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                this.lock.unlock();
+            }
+
+            /* appenders keep going while the disk catches up, the next fsync covers them */
+            for (Filled segment : rolled) {
+                int start = (int) Math.max(0, since - segment.base);
+                segment.buffer.force(start, Math.max(0, segment.end - start));
+            }
+
+            buffer.force(from, to - from);
+            this.syncs.incrementAndGet();
+
+            this.lock.lock();
+            try {
+                this.durable = Math.max(this.durable, target);
+                this.synced.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    private void roll() throws IOException {
+        this.nextSegment();
+
+        if (this.segmentsPerSnapshot > 0 && ++this.segmentsSinceSnapshot >= this.segmentsPerSnapshot
+                && this.snapshotting.compareAndSet(false, true)) {
+            this.segmentsSinceSnapshot = 0;
+
+            Thread.ofVirtual().name("journal-snapshot").start(() -> {
+                try {
+                    this.snapshot();
+                } catch (Exception e) {
+                    System.out.println("Failed to snapshot activity journal: " + e.getMessage());
+                } finally {
+                    this.snapshotting.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Start appending to a new segment, call while holding the lock. The filled segment is handed
+     * to the syncer, so a roll never makes appenders wait for its fsync.
+     */
+    private void nextSegment() throws IOException {
+        long end = this.position();
+        this.filled.add(new Filled(this.segment, this.segmentId * this.segmentSize, this.segment.position()));
+
+        this.openSegment(this.segmentId + 1);
+        this.appended = this.position();
+
+        /* get the filled segment onto the disk now rather than after the sync interval */
+        if (this.requested < end) {
+            this.requested = end;
+            this.syncNeeded.signal();
+        }
+    }
+
+    /**
+     * Zero anything left after the last intact record so a torn write is never followed by a
+     * stale record that happened to reach the disk
+     */
+    private void clearTail() {
+        int start = this.segment.position();
+        int end = start;
+
+        for (int page = start; page < this.segmentSize; page += 4096) {
+            int limit = Math.min(page + 4096, this.segmentSize);
+
+            for (int i = page; i < limit; i++) {
+                if (this.segment.get(i) != 0) {
+                    end = limit;
+                    break;
+                }
+            }
+        }
+
+        for (int i = start; i < end; i++) {
+            this.segment.put(i, (byte) 0);
+        }
+    }
+
+    private void openSegment(long id) throws IOException {
+        try (FileChannel channel = FileChannel.open(this.segmentPath(id), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            this.segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+            this.segmentId = id;
+        }
+    }
+
+    private long position() {
+        return this.segmentId * this.segmentSize + this.segment.position();
+    }
+
+    private long replay(long upToSegment, Consumer<JournalEvent> consumer) throws IOException {
+        long snapshot = this.latestSnapshot();
+        long events = 0;
+
+        if (snapshot >= 0) {
+            events += read(this.directory.resolve(SNAPSHOT_PREFIX + name(snapshot) + SNAPSHOT_SUFFIX), consumer);
+        }
+
+        /* segments at or below the snapshot are leftovers of an interrupted delete */
+        for (long id : this.list(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            if (id > snapshot && id <= upToSegment) {
+                events += read(this.segmentPath(id), consumer);
+            }
+        }
+
+        return events;
+    }
+
+    private static long read(Path path, Consumer<JournalEvent> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            long events = 0;
+
+            JournalEvent event;
+            while ((event = JournalCodec.decode(buffer)) != null) {
+                consumer.accept(event);
+                events++;
+            }
+
+            return events;
+        }
+    }
+
+    private void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private long latestSnapshot() throws IOException {
+        List<Long> snapshots = this.list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+
+        return snapshots.isEmpty() ? -1 : snapshots.get(snapshots.size() - 1);
+    }
+
+    private List<Long> list(String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(this.directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+                    .map(name -> Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path segmentPath(long id) {
+        return this.directory.resolve(SEGMENT_PREFIX + name(id) + SEGMENT_SUFFIX);
+    }
+
+    private static String name(long id) {
+        return "%020d".formatted(id);
+    }
+
+    /**
+     * @return The process wide journal stored under the {@code JOURNAL_DIR} property, "journal" by default
+     */
+    public static synchronized ActivityJournal get() {
+        if (ActivityJournal.instance == null) {
+            try {
+                Path directory = Paths.get(System.getProperty("JOURNAL_DIR", "journal"));
+                ActivityJournal.instance = new ActivityJournal(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_SEGMENTS_PER_SNAPSHOT, DEFAULT_SYNC_INTERVAL);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open activity journal", e);
+            }
+        }
+        return ActivityJournal.instance;
+    }
+
+    @AllArgsConstructor
+    private static class Filled {
+        private final MappedByteBuffer buffer;
+        /* the sequence number of the segment's first byte */
+        private final long base;
+        /* the offset after its last record */
+        private final int end;
+    }
+}
@@ -0,0 +1,137 @@
+package tv.ender.discord.backend.journal;
+
+import lombok.AllArgsConstructor;
+import tv.ender.common.Result;
+import tv.ender.discord.backend.activities.Prediction;
+import tv.ender.discord.backend.activities.Raffle;
+import tv.ender.discord.backend.interfaces.IActivity;
+import tv.ender.discord.backend.ledger.TicketLedger;
+import tv.ender.firebase.backend.UserData;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Rebuilds open activities from a journal replay. An entrant's stored balance may or may not
+ * reflect the debits behind their deposits depending on whether the write-behind flush landed
+ * before the restart, so every journaled debit the stored balance is missing is taken again.
+ * Deposits without a debit number were persisted before they were journaled and are restored as is.
+ */
+public final class ActivityRecovery {
+    private ActivityRecovery() {
+    }
+
+    /**
+     * @param record  The open activity from the journal
+     * @param users   Looks up an entrant by discord id
+     * @param journal Where the restored activity keeps journaling
+     * @return The restored activity
+     */
+    public static IActivity restore(JournalState.ActivityRecord record, Function<String, Result<UserData>> users, ActivityJournal journal) {
+        return restore(List.of(record), users, journal).get(0);
+    }
+
+    /**
+     * Restore activities that may share entrants, their debits have to be replayed in the order
+     * they were taken
+     *
+     * @param records The open activities from the journal
+     * @param users   Looks up an entrant by discord id
+     * @param journal Where the restored activities keep journaling
+     * @return The restored activities in the order of the records
+     */
+    public static List<IActivity> restore(Collection<JournalState.ActivityRecord> records, Function<String, Result<UserData>> users,
+                                          ActivityJournal journal) {
+        Map<String, Result<UserData>> entrants = new HashMap<>();
+        Map<String, List<Replay>> replays = new HashMap<>();
+
+        for (JournalState.ActivityRecord record : records) {
+            for (var entry : record.getEntries().entrySet()) {
+                entrants.computeIfAbsent(entry.getKey(), users);
+
+                for (JournalState.Deposit deposit : entry.getValue().getDeposits()) {
+                    replays.computeIfAbsent(entry.getKey(), key -> new ArrayList<>()).add(new Replay(record, deposit));
+                }
+            }
+        }
+
+        /* tickets each entrant's balance could no longer cover, per activity */
+        Map<JournalState.ActivityRecord, Map<String, Integer>> shortfalls = new HashMap<>();
+        for (var entry : replays.entrySet()) {
+            Result<UserData> user = entrants.get(entry.getKey());
+            if (!user.isSuccessful()) {
+                continue;
+            }
+
+            /* debit numbers wrap, compare them by distance */
+            List<Replay> pending = entry.getValue();
+            pending.sort((a, b) -> Integer.compare(a.deposit.getDebit() - b.deposit.getDebit(), 0));
+
+            for (Replay replay : pending) {
+                if (!user.getHolder().replayDebit(replay.deposit.getTickets(), replay.deposit.getDebit())) {
+                    shortfalls.computeIfAbsent(replay.record, key -> new HashMap<>()).merge(entry.getKey(), replay.deposit.getTickets(), Integer::sum);
+                }
+            }
+        }
+
+        List<IActivity> activities = new ArrayList<>(records.size());
+        for (JournalState.ActivityRecord record : records) {
+            activities.add(restore(record, entrants, shortfalls.getOrDefault(record, Map.of()), journal));
+        }
+
+        return activities;
+    }
+
+    private static IActivity restore(JournalState.ActivityRecord record, Map<String, Result<UserData>> users, Map<String, Integer> shortfalls,
+                                     ActivityJournal journal) {
+        TicketLedger ledger;
+        IActivity activity;
+
+        if (record.getType() == JournalEvent.Type.PREDICTION) {
+            Prediction prediction = new Prediction(record.getId(), journal);
+            ledger = prediction.getLedger();
+            activity = prediction;
+        } else {
+            Raffle raffle = new Raffle(record.getId(), journal);
+            ledger = raffle.getLedger();
+            activity = raffle;
+        }
+
+        for (var entry : record.getEntries().entrySet()) {
+            Result<UserData> user = users.get(entry.getKey());
+            int tickets = entry.getValue().getTickets();
+
+            if (!user.isSuccessful()) {
+                System.out.println("Dropping %d tickets of %s in activity %s: %s".formatted(tickets, entry.getKey(), record.getId(), user.getMessage()));
+                continue;
+            }
+
+            int shortfall = shortfalls.getOrDefault(entry.getKey(), 0);
+            if (shortfall > 0) {
+                System.out.println("Dropping %d tickets of %s in activity %s: balance no longer covers them".formatted(shortfall,
+                        entry.getKey(), record.getId()));
+                tickets -= shortfall;
+            }
+
+            if (tickets > 0) {
+                ledger.restore(user.getHolder(), tickets, entry.getValue().getOption());
+            }
+        }
+
+        if (record.isLocked()) {
+            activity.lockEntries();
+        }
+
+        return activity;
+    }
+
+    @AllArgsConstructor
+    private static class Replay {
+        private final JournalState.ActivityRecord record;
+        private final JournalState.Deposit deposit;
+    }
+}
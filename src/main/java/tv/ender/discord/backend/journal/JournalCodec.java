@@ -0,0 +1,142 @@
+package tv.ender.discord.backend.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary framing for journal records:
+ * {@code [int length][int crc32c][byte type][long msb][long lsb][long timestamp][int tickets][string subject][string option][int debit]}
+ * where strings are an unsigned short length, {@code 0xFFFF} for null, followed by UTF-8 bytes.
+ * A zero length marks the end of the written records. Records written before the debit existed end
+ * after the option and read as debit 0.
+ */
+public final class JournalCodec {
+    public static final int HEADER_SIZE = 8;
+    public static final int MAX_STRING = 0xFFFE;
+    private static final int NULL_STRING = 0xFFFF;
+    private static final int FIXED_SIZE = 1 + 8 + 8 + 8 + 4 + 2 + 2;
+    private static final int DEBIT_SIZE = 4;
+
+    private JournalCodec() {
+    }
+
+    /**
+     * @param event The event
+     * @return The number of bytes the framed event takes
+     */
+    public static int size(JournalEvent event) {
+        return HEADER_SIZE + FIXED_SIZE + utf8Length(event.getSubject()) + utf8Length(event.getOption()) + DEBIT_SIZE;
+    }
+
+    /**
+     * Write a framed event at the buffer's position
+     *
+     * @param buffer The buffer, must have {@link #size(JournalEvent)} bytes remaining
+     * @param event  The event
+     */
+    public static void encode(ByteBuffer buffer, JournalEvent event) {
+        int start = buffer.position();
+        buffer.position(start + HEADER_SIZE);
+
+        buffer.put((byte) event.getType().ordinal());
+        buffer.putLong(event.getActivity().getMostSignificantBits());
+        buffer.putLong(event.getActivity().getLeastSignificantBits());
+        buffer.putLong(event.getTimestamp());
+        buffer.putInt(event.getTickets());
+        putString(buffer, event.getSubject());
+        putString(buffer, event.getOption());
+        buffer.putInt(event.getDebit());
+
+        int end = buffer.position();
+        int length = end - start - HEADER_SIZE;
+
+        /* checksum first, the length goes in last so a reader never sees a half written record as complete */
+        buffer.putInt(start + 4, checksum(buffer, start + HEADER_SIZE, length));
+        buffer.putInt(start, length);
+    }
+
+    /**
+     * Read the framed event at the buffer's position, advancing past it
+     *
+     * @param buffer The buffer
+     * @return The event, or null at the end of the records or at a torn or corrupt record
+     */
+    public static JournalEvent decode(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.remaining() < HEADER_SIZE) {
+            return null;
+        }
+
+        int length = buffer.getInt(start);
+        if (length < FIXED_SIZE || length > buffer.remaining() - HEADER_SIZE) {
+            return null;
+        }
+
+        if (buffer.getInt(start + 4) != checksum(buffer, start + HEADER_SIZE, length)) {
+            return null;
+        }
+
+        buffer.position(start + HEADER_SIZE);
+        JournalEvent.Type type = JournalEvent.Type.byId(buffer.get());
+        if (type == null) {
+            buffer.position(start);
+            return null;
+        }
+
+        UUID activity = new UUID(buffer.getLong(), buffer.getLong());
+        long timestamp = buffer.getLong();
+        int tickets = buffer.getInt();
+        String subject = getString(buffer);
+        String option = getString(buffer);
+        int debit = buffer.position() + DEBIT_SIZE <= start + HEADER_SIZE + length ? buffer.getInt() : 0;
+
+        buffer.position(start + HEADER_SIZE + length);
+
+        return JournalEvent.of(type, activity, timestamp, subject, tickets, option, debit);
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset, length));
+
+        return (int) crc.getValue();
+    }
+
+    private static int utf8Length(String value) {
+        if (value == null) {
+            return 0;
+        }
+
+        int length = value.getBytes(StandardCharsets.UTF_8).length;
+        if (length > MAX_STRING) {
+            throw new IllegalArgumentException("Journal string too long: %d bytes".formatted(length));
+        }
+
+        return length;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putShort((short) NULL_STRING);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length == NULL_STRING) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
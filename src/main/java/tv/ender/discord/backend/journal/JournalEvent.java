@@ -0,0 +1,58 @@
+package tv.ender.discord.backend.journal;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.UUID;
+
+/**
+ * A single change to an activity. Open events carry the guild id as their subject, enter events
+ * carry the user's discord id and the number of the debit that paid for the entry, 0 if unknown.
+ */
+@Data
+@AllArgsConstructor(staticName = "of")
+public class JournalEvent {
+    private final Type type;
+    private final UUID activity;
+    private final long timestamp;
+    private final String subject;
+    private final int tickets;
+    private final String option;
+    private final int debit;
+
+    public static JournalEvent of(Type type, UUID activity, long timestamp, String subject, int tickets, String option) {
+        return JournalEvent.of(type, activity, timestamp, subject, tickets, option, 0);
+    }
+
+    public static JournalEvent open(Type type, UUID activity, String guildId) {
+        return JournalEvent.of(type, activity, System.currentTimeMillis(), guildId, 0, null);
+    }
+
+    public static JournalEvent enter(UUID activity, String discordId, int tickets, String option) {
+        return JournalEvent.enter(activity, discordId, tickets, option, 0);
+    }
+
+    public static JournalEvent enter(UUID activity, String discordId, int tickets, String option, int debit) {
+        return JournalEvent.of(Type.ENTER, activity, System.currentTimeMillis(), discordId, tickets, option, debit);
+    }
+
+    public static JournalEvent of(Type type, UUID activity) {
+        return JournalEvent.of(type, activity, System.currentTimeMillis(), null, 0, null);
+    }
+
+    public enum Type {
+        RAFFLE,
+        PREDICTION,
+        ENTER,
+        RESET,
+        END,
+        CANCEL,
+        LOCK;
+
+        private static final Type[] VALUES = Type.values();
+
+        public static Type byId(int id) {
+            return id >= 0 && id < VALUES.length ? VALUES[id] : null;
+        }
+    }
+}
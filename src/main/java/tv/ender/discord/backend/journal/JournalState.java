@@ -0,0 +1,164 @@
+package tv.ender.discord.backend.journal;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * The open activities rebuilt from a journal replay. Ended and cancelled activities are dropped,
+ * a reset clears an activity's entries and a lock closes it to new entries.
+ */
+public class JournalState implements Consumer<JournalEvent> {
+    private final Map<UUID, ActivityRecord> activities = new LinkedHashMap<>();
+    @Getter
+    private long events;
+
+    @Override
+    public void accept(JournalEvent event) {
+        this.events++;
+
+        switch (event.getType()) {
+            case RAFFLE, PREDICTION -> this.activities.put(event.getActivity(), new ActivityRecord(event));
+            case ENTER -> {
+                /* an entry journaled after the end was already settled */
+                ActivityRecord record = this.activities.get(event.getActivity());
+                if (record != null) {
+                    record.enter(event.getSubject(), event.getTickets(), event.getOption(), event.getDebit());
+                }
+            }
+            case RESET -> {
+                ActivityRecord record = this.activities.get(event.getActivity());
+                if (record != null) {
+                    record.entries.clear();
+                }
+            }
+            case LOCK -> {
+                ActivityRecord record = this.activities.get(event.getActivity());
+                if (record != null) {
+                    record.locked = true;
+                }
+            }
+            case END, CANCEL -> this.activities.remove(event.getActivity());
+        }
+    }
+
+    /**
+     * @return The activities still open in journal order
+     */
+    public Collection<ActivityRecord> getActivities() {
+        return Collections.unmodifiableCollection(this.activities.values());
+    }
+
+    /**
+     * @param activity The activity id
+     * @return The activity or null if it is not open
+     */
+    public ActivityRecord getActivity(UUID activity) {
+        return this.activities.get(activity);
+    }
+
+    /**
+     * @return The fewest events that rebuild this state, one open event per activity followed by
+     * one enter event per numbered deposit plus one for the rest of each stake, and a lock event if it was locked
+     */
+    public List<JournalEvent> toEvents() {
+        List<JournalEvent> events = new ArrayList<>();
+
+        for (ActivityRecord record : this.activities.values()) {
+            events.add(JournalEvent.of(record.type, record.id, record.openedAt, record.guildId, 0, null));
+
+            for (var entry : record.entries.entrySet()) {
+                Entry value = entry.getValue();
+                int unnumbered = value.tickets;
+
+                for (Deposit deposit : value.deposits) {
+                    events.add(JournalEvent.of(JournalEvent.Type.ENTER, record.id, record.openedAt, entry.getKey(), deposit.tickets,
+                            value.option, deposit.debit));
+                    unnumbered -= deposit.tickets;
+                }
+
+                if (unnumbered > 0) {
+                    events.add(JournalEvent.of(JournalEvent.Type.ENTER, record.id, record.openedAt, entry.getKey(), unnumbered, value.option));
+                }
+            }
+
+            if (record.locked) {
+                events.add(JournalEvent.of(JournalEvent.Type.LOCK, record.id, record.openedAt, null, 0, null));
+            }
+        }
+
+        return events;
+    }
+
+    /**
+     * An open activity and its entrants
+     */
+    @Getter
+    public static class ActivityRecord {
+        private final UUID id;
+        private final JournalEvent.Type type;
+        private final String guildId;
+        private final long openedAt;
+        private final Map<String, Entry> entries = new LinkedHashMap<>();
+        private boolean locked;
+
+        private ActivityRecord(JournalEvent open) {
+            this.id = open.getActivity();
+            this.type = open.getType();
+            this.guildId = open.getSubject();
+            this.openedAt = open.getTimestamp();
+        }
+
+        private void enter(String discordId, int tickets, String option, int debit) {
+            Entry entry = this.entries.computeIfAbsent(discordId, key -> new Entry(option));
+            entry.tickets += tickets;
+
+            if (debit != 0) {
+                entry.deposits.add(Deposit.of(debit, tickets));
+            }
+        }
+
+        public Map<String, Entry> getEntries() {
+            return Collections.unmodifiableMap(this.entries);
+        }
+    }
+
+    /**
+     * An entrant's deposits
+     */
+    @Getter
+    public static class Entry {
+        private int tickets;
+        private final String option;
+        private final List<Deposit> deposits = new ArrayList<>(1);
+
+        private Entry(String option) {
+            this.option = option;
+        }
+
+        /**
+         * @return The deposits that carry the number of the debit that paid for them, in journal order
+         */
+        public List<Deposit> getDeposits() {
+            return Collections.unmodifiableList(this.deposits);
+        }
+    }
+
+    /**
+     * A deposit and the debit that paid for it
+     */
+    @Getter
+    @AllArgsConstructor(staticName = "of")
+    public static class Deposit {
+        private final int debit;
+        private final int tickets;
+    }
+}
@@ -0,0 +1,55 @@
+package tv.ender.discord.backend.ledger;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals of an activity, updated as entries are recorded or removed. Writers add to
+ * striped cells so concurrent entrants do not contend, and reads sum the cells without locking.
+ */
+public class ActivityCounters {
+    private final LongAdder tickets = new LongAdder();
+    private final LongAdder entrants = new LongAdder();
+    private final LongAdder deposits = new LongAdder();
+
+    /**
+     * @param amount     The tickets deposited
+     * @param newEntrant Whether this was the entrant's first deposit
+     */
+    public void recordDeposit(long amount, boolean newEntrant) {
+        this.tickets.add(amount);
+        this.deposits.increment();
+
+        if (newEntrant) {
+            this.entrants.increment();
+        }
+    }
+
+    /**
+     * @param amount The tickets the removed entrant had deposited
+     */
+    public void recordRemoval(long amount) {
+        this.tickets.add(-amount);
+        this.entrants.decrement();
+    }
+
+    /**
+     * @return The tickets currently in the pot
+     */
+    public long getTotalTickets() {
+        return this.tickets.sum();
+    }
+
+    /**
+     * @return The number of entrants currently in the activity
+     */
+    public long getEntrantCount() {
+        return this.entrants.sum();
+    }
+
+    /**
+     * @return The number of deposits accepted over the activity's lifetime, including ones since refunded
+     */
+    public long getDepositCount() {
+        return this.deposits.sum();
+    }
+}
@@ -0,0 +1,153 @@
+package tv.ender.discord.backend.ledger;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-option index of an activity's bets. Options are interned to small int ids on first use and
+ * each one keeps its own striped total and bettor count, so pool and odds queries never touch the
+ * entrant map.
+ */
+public class BetBook {
+    private final Map<String, Option> byName = new ConcurrentHashMap<>();
+    private volatile Option[] byId = new Option[0];
+
+    /**
+     * Get or create the option with the given name
+     *
+     * @param name The option name
+     * @return The interned option
+     */
+    public Option intern(String name) {
+        Option option = this.byName.get(name);
+        if (option != null) {
+            return option;
+        }
+
+        synchronized (this) {
+            return this.byName.computeIfAbsent(name, key -> {
+                Option created = new Option(this.byId.length, key);
+                Option[] grown = Arrays.copyOf(this.byId, created.id + 1);
+                grown[created.id] = created;
+                this.byId = grown;
+
+                return created;
+            });
+        }
+    }
+
+    /**
+     * @param name The option name
+     * @return The option or null if nobody has picked it
+     */
+    public Option getOption(String name) {
+        return this.byName.get(name);
+    }
+
+    /**
+     * @param id The interned option id
+     * @return The option or null if the id is unknown
+     */
+    public Option getOption(int id) {
+        Option[] options = this.byId;
+
+        return id >= 0 && id < options.length ? options[id] : null;
+    }
+
+    /**
+     * @return The number of options
+     */
+    public int size() {
+        return this.byId.length;
+    }
+
+    /**
+     * @return Every option in id order
+     */
+    public List<Option> getOptions() {
+        return List.of(this.byId);
+    }
+
+    /**
+     * @return The number of tickets across every option
+     */
+    public long getPool() {
+        long pool = 0;
+
+        for (Option option : this.byId) {
+            pool += option.getTotal();
+        }
+
+        return pool;
+    }
+
+    /**
+     * @return The current odds of every option in id order
+     */
+    public List<OptionOdds> getOdds() {
+        Option[] options = this.byId;
+        long[] totals = new long[options.length];
+        long pool = 0;
+
+        for (int i = 0; i < options.length; i++) {
+            totals[i] = options[i].getTotal();
+            pool += totals[i];
+        }
+
+        List<OptionOdds> odds = new ArrayList<>(options.length);
+        for (int i = 0; i < options.length; i++) {
+            double percentage = pool == 0 ? 0 : totals[i] * 100D / pool;
+            double multiplier = totals[i] == 0 ? 0 : pool / (double) totals[i];
+
+            odds.add(OptionOdds.of(options[i].getName(), totals[i], options[i].getBettorCount(), percentage, multiplier));
+        }
+
+        return odds;
+    }
+
+    /**
+     * Forget every option and bet
+     */
+    public synchronized void clear() {
+        this.byName.clear();
+        this.byId = new Option[0];
+    }
+
+    @Getter
+    public static class Option {
+        private final int id;
+        private final String name;
+        @Getter(AccessLevel.NONE)
+        private final LongAdder total = new LongAdder();
+        @Getter(AccessLevel.NONE)
+        private final LongAdder bettorCount = new LongAdder();
+
+        Option(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        void addBettor() {
+            this.bettorCount.increment();
+        }
+
+        void add(long amount) {
+            this.total.add(amount);
+        }
+
+        public long getTotal() {
+            return this.total.sum();
+        }
+
+        public long getBettorCount() {
+            return this.bettorCount.sum();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package tv.ender.discord.backend.ledger;
+
+import tv.ender.firebase.backend.UserData;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing table of entrants keyed by their discord snowflake. Keys, tickets and option ids
+ * live in parallel primitive arrays, so an entrant costs a few array slots instead of a map node,
+ * a boxed value and a hash of their id string. Not thread-safe, {@link TicketLedger} guards each
+ * table with its monitor.
+ */
+final class EntrantTable {
+    /* option ids are stored as shorts */
+    static final int MAX_OPTIONS = Short.MAX_VALUE;
+
+    /* snowflakes are never negative */
+    private static final long EMPTY = -1;
+    private static final float MAX_LOAD = 0.7F;
+
+    private long[] keys;
+    private int[] tickets;
+    private short[] options;
+    private UserData[] users;
+    private int mask;
+    private int size;
+    private int threshold;
+    /* bumped on every change, read without the lock to validate snapshots */
+    private volatile long version;
+
+    EntrantTable(int capacity) {
+        this.allocate(Integer.highestOneBit(Math.max(4, capacity - 1)) << 1);
+    }
+
+    /**
+     * @param user The user
+     * @return The user's discord id as a snowflake
+     * @throws IllegalArgumentException If the id is not a snowflake
+     */
+    static long snowflake(UserData user) {
+        long id;
+
+        try {
+            id = Long.parseLong(user.getDiscordId());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid discord id: " + user.getDiscordId(), e);
+        }
+
+        if (id < 0) {
+            throw new IllegalArgumentException("Invalid discord id: " + user.getDiscordId());
+        }
+
+        return id;
+    }
+
+    /**
+     * Spread the timestamp bits of a snowflake, its low bits are a nearly constant worker id and sequence
+     */
+    static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+
+        return key;
+    }
+
+    /**
+     * @return The slot of the key or -1 if it is not in the table
+     */
+    int find(long key) {
+        for (int slot = (int) mix(key) & this.mask; ; slot = (slot + 1) & this.mask) {
+            long current = this.keys[slot];
+
+            if (current == key) {
+                return slot;
+            }
+
+            if (current == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Add a key that is not in the table yet
+     *
+     * @return The slot the key was put in
+     */
+    int insert(long key, UserData user, int option) {
+        if (this.size >= this.threshold) {
+            this.grow();
+        }
+
+        int slot = this.place(key);
+        this.keys[slot] = key;
+        this.users[slot] = user;
+        this.options[slot] = (short) option;
+        this.tickets[slot] = 0;
+        this.size++;
+
+        return slot;
+    }
+
+    void add(int slot, int amount) {
+        this.tickets[slot] += amount;
+        this.version++;
+    }
+
+    int capacity() {
+        return this.keys.length;
+    }
+
+    boolean isOccupied(int slot) {
+        return this.keys[slot] != EMPTY;
+    }
+
+    UserData user(int slot) {
+        return this.users[slot];
+    }
+
+    int tickets(int slot) {
+        return this.tickets[slot];
+    }
+
+    int option(int slot) {
+        return this.options[slot];
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Remove every entrant, shrinking back to a small table
+     */
+    void clear() {
+        this.allocate(16);
+        this.size = 0;
+        this.version++;
+    }
+
+    long version() {
+        return this.version;
+    }
+
+    private int place(long key) {
+        int slot = (int) mix(key) & this.mask;
+
+        while (this.keys[slot] != EMPTY) {
+            slot = (slot + 1) & this.mask;
+        }
+
+        return slot;
+    }
+
+    private void grow() {
+        long[] keys = this.keys;
+        int[] tickets = this.tickets;
+        short[] options = this.options;
+        UserData[] users = this.users;
+
+        this.allocate(keys.length << 1);
+
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                int slot = this.place(keys[i]);
+                this.keys[slot] = keys[i];
+                this.tickets[slot] = tickets[i];
+                this.options[slot] = options[i];
+                this.users[slot] = users[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        Arrays.fill(this.keys, EMPTY);
+        this.tickets = new int[capacity];
+        this.options = new short[capacity];
+        this.users = new UserData[capacity];
+        this.mask = capacity - 1;
+        this.threshold = (int) (capacity * MAX_LOAD);
+    }
+}
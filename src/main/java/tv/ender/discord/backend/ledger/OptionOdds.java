@@ -0,0 +1,19 @@
+package tv.ender.discord.backend.ledger;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Point-in-time odds for a single prediction option
+ */
+@Data
+@AllArgsConstructor(staticName = "of")
+public class OptionOdds {
+    private final String option;
+    private final long tickets;
+    private final long bettors;
+    /* share of the pool on this option, 0 - 100 */
+    private final double percentage;
+    /* payout per ticket if this option wins */
+    private final double multiplier;
+}
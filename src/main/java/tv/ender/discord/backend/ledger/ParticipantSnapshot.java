@@ -0,0 +1,43 @@
+package tv.ender.discord.backend.ledger;
+
+import lombok.Getter;
+import tv.ender.firebase.backend.UserData;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable point-in-time copy of an activity's entrants. The epoch identifies the ledger state
+ * it was taken from, two snapshots with the same epoch hold the same entries.
+ */
+@Getter
+public class ParticipantSnapshot {
+    public static final ParticipantSnapshot EMPTY = new ParticipantSnapshot(0, Collections.emptyMap(), Collections.emptyMap(), 0);
+
+    private final long epoch;
+    private final Map<UserData, Integer> tickets;
+    private final Map<UserData, String> picks;
+    private final long totalTickets;
+
+    ParticipantSnapshot(long epoch, Map<UserData, Integer> tickets, Map<UserData, String> picks, long totalTickets) {
+        this.epoch = epoch;
+        this.tickets = Collections.unmodifiableMap(tickets);
+        this.picks = Collections.unmodifiableMap(picks);
+        this.totalTickets = totalTickets;
+    }
+
+    /**
+     * @return Every entrant at the time of the snapshot
+     */
+    public Set<UserData> getParticipants() {
+        return this.tickets.keySet();
+    }
+
+    /**
+     * @return The number of entrants
+     */
+    public int size() {
+        return this.tickets.size();
+    }
+}
@@ -0,0 +1,19 @@
+package tv.ender.discord.backend.ledger;
+
+import lombok.Getter;
+
+/**
+ * A single entrant's position in an activity, read from the {@link TicketLedger} at one point in time
+ */
+@Getter
+public class Stake {
+    public static final int NO_OPTION = -1;
+
+    private final int option;
+    private final int tickets;
+
+    Stake(int option, int tickets) {
+        this.option = option;
+        this.tickets = tickets;
+    }
+}
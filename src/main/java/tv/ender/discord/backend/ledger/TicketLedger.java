@@ -0,0 +1,612 @@
+package tv.ender.discord.backend.ledger;
+
+import tv.ender.common.Result;
+import tv.ender.firebase.backend.UserData;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-activity ticket ledger. Entrants are kept in primitive {@link EntrantTable}s keyed by their
+ * snowflake and striped by its hash. Every mutation for an entrant happens under their stripe's
+ * monitor, so the option pick, the deposit and the balance debit land as one atomic step while
+ * entrants on different stripes never contend. Per-option totals are indexed in the {@link BetBook}.
+ */
+public class TicketLedger {
+    private static final int STRIPES = Integer.highestOneBit(Math.max(16, Runtime.getRuntime().availableProcessors() * 4 - 1)) << 1;
+
+    private final EntrantTable[] tables = new EntrantTable[STRIPES];
+    private final BetBook book = new BetBook();
+    private final ActivityCounters counters = new ActivityCounters();
+    private final AtomicBoolean open;
+    private final DepositListener listener;
+    private volatile ParticipantSnapshot snapshot = ParticipantSnapshot.EMPTY;
+    /* the last copy of each stripe, written under the stripe's monitor */
+    private final StripeCopy[] lastCopies = new StripeCopy[STRIPES];
+    /* snapshots currently taking every stripe, deposits hold back until they are done */
+    private final AtomicInteger freezes = new AtomicInteger();
+    private final Object thaw = new Object();
+
+    /**
+     * @param open The owning activity's running flag, checked under the entrant's stripe so a
+     *             deposit racing a close is either recorded before the drain or rejected
+     */
+    public TicketLedger(AtomicBoolean open) {
+        this(open, (user, amount, option, debit) -> {
+        });
+    }
+
+    /**
+     * @param open     The owning activity's running flag
+     * @param listener Told of each deposit under the entrant's stripe, before a close can drain it
+     */
+    public TicketLedger(AtomicBoolean open, DepositListener listener) {
+        this.open = open;
+        this.listener = listener;
+
+        for (int i = 0; i < this.tables.length; i++) {
+            this.tables[i] = new EntrantTable(16);
+        }
+    }
+
+    /**
+     * Deposit tickets for a user without an option
+     *
+     * @param user    The user depositing
+     * @param amount  The number of tickets to deposit
+     * @return A result holding the user
+     */
+    public Result<UserData> deposit(UserData user, int amount) {
+        return this.deposit(user, amount, null);
+    }
+
+    /**
+     * Deposit tickets for a user, locking in their option on the first deposit
+     *
+     * @param user   The user depositing
+     * @param amount The number of tickets to deposit
+     * @param option The option picked, or null if the activity has no options
+     * @return A result holding the user
+     */
+    public Result<UserData> deposit(UserData user, int amount, String option) {
+        if (amount <= 0) {
+            return Result.fail(user, "Ticket amount must be positive: %d".formatted(amount));
+        }
+
+        long id;
+        try {
+            id = EntrantTable.snowflake(user);
+        } catch (IllegalArgumentException e) {
+            return Result.fail(user, e.getMessage());
+        }
+
+        /* stripe monitors are not fair, a deposit barging back in could starve a snapshot waiting on them */
+        if (this.freezes.get() != 0) {
+            this.awaitThaw();
+        }
+
+        EntrantTable table = this.table(id);
+        synchronized (table) {
+            if (!this.open.get()) {
+                return Result.fail(user, "Entries are closed");
+            }
+
+            int slot = table.find(id);
+            if (slot >= 0 && !this.isPick(table.option(slot), option)) {
+                return Result.fail(user, "Cannot change choice after entering");
+            }
+
+            if (slot < 0 && option != null && this.book.getOption(option) == null && this.book.size() >= EntrantTable.MAX_OPTIONS) {
+                return Result.fail(user, "Too many options");
+            }
+
+            int debit = user.debit(amount);
+            if (debit == 0) {
+                return Result.fail(user, "Insufficient tickets: %d > %d".formatted(amount, user.getTickets()));
+            }
+
+            this.record(table, slot, id, user, amount, option);
+            this.listener.deposited(user, amount, option, debit);
+        }
+
+        return Result.pass(user, "Deposited %d tickets".formatted(amount));
+    }
+
+    /**
+     * Put back a deposit whose tickets were already debited, used when replaying the activity journal
+     *
+     * @param user   The entrant
+     * @param amount The number of tickets deposited
+     * @param option The option picked, or null if the activity has no options
+     */
+    public void restore(UserData user, int amount, String option) {
+        long id = EntrantTable.snowflake(user);
+        EntrantTable table = this.table(id);
+
+        synchronized (table) {
+            this.record(table, table.find(id), id, user, amount, option);
+        }
+    }
+
+    private void record(EntrantTable table, int slot, long id, UserData user, int amount, String option) {
+        BetBook.Option picked = option == null ? null : this.book.intern(option);
+        boolean created = slot < 0;
+        if (created) {
+            slot = table.insert(id, user, picked == null ? Stake.NO_OPTION : picked.getId());
+
+            if (picked != null) {
+                picked.addBettor();
+            }
+        }
+
+        table.add(slot, amount);
+        if (picked != null) {
+            picked.add(amount);
+        }
+        this.counters.recordDeposit(amount, created);
+    }
+
+    private boolean isPick(int current, String option) {
+        if (option == null) {
+            return current == Stake.NO_OPTION;
+        }
+
+        BetBook.Option picked = this.book.getOption(current);
+
+        return picked != null && picked.getName().equals(option);
+    }
+
+    /**
+     * Wait out the deposits that passed the running check before it was cleared. Once the owning
+     * activity's running flag is cleared and this returns, the totals can no longer change.
+     */
+    public void awaitDeposits() {
+        for (EntrantTable table : this.tables) {
+            synchronized (table) {
+                /* a deposit in flight holds its stripe until it is recorded */
+            }
+        }
+    }
+
+    /**
+     * Removes every entrant from the ledger
+     *
+     * @return The tickets each removed entrant had deposited
+     */
+    public Map<UserData, Integer> drain() {
+        Map<UserData, Integer> drained = new HashMap<>();
+        this.drain((user, tickets, option) -> drained.put(user, tickets));
+
+        return drained;
+    }
+
+    /**
+     * Removes every entrant, visiting each one as their stripe is cleared. Option ids are only
+     * valid until the drain returns, resolve them before draining.
+     *
+     * @param visitor Called with each removed entrant, their tickets and their option id
+     */
+    public void drain(EntrantVisitor visitor) {
+        for (EntrantTable table : this.tables) {
+            synchronized (table) {
+                for (int slot = 0; slot < table.capacity(); slot++) {
+                    if (table.isOccupied(slot)) {
+                        this.counters.recordRemoval(table.tickets(slot));
+                        visitor.visit(table.user(slot), table.tickets(slot), table.option(slot));
+                    }
+                }
+
+                table.clear();
+            }
+        }
+
+        this.book.clear();
+    }
+
+    /**
+     * Removes every entrant and gives their deposits back
+     *
+     * @return The number of tickets refunded
+     */
+    public long refundAll() {
+        long refunded = 0;
+
+        for (var entry : this.drain().entrySet()) {
+            entry.getKey().credit(entry.getValue());
+            refunded += entry.getValue();
+        }
+
+        return refunded;
+    }
+
+    /**
+     * Visit every entrant, each stripe is locked while it is visited
+     *
+     * @param visitor Called with each entrant, their tickets and their option id
+     */
+    public void forEach(EntrantVisitor visitor) {
+        for (EntrantTable table : this.tables) {
+            synchronized (table) {
+                for (int slot = 0; slot < table.capacity(); slot++) {
+                    if (table.isOccupied(slot)) {
+                        visitor.visit(table.user(slot), table.tickets(slot), table.option(slot));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The ledger's version, it changes with every deposit and reset
+     */
+    public long getEpoch() {
+        long epoch = 0;
+
+        for (EntrantTable table : this.tables) {
+            epoch += table.version();
+        }
+
+        return epoch;
+    }
+
+    /**
+     * Take a consistent copy of every entrant without stopping deposits. Stripes are copied one at
+     * a time, reusing the last copy of any stripe whose version has not moved, and the copy is kept
+     * only if no stripe changed meanwhile. If a deposit raced it, new deposits are held back while
+     * every stripe is taken for a second pass, which again only copies the stripes that changed, so
+     * the snapshot only waits for the deposits already in flight. Repeated calls with nothing
+     * changed return the same cached snapshot.
+     *
+     * @return The entrants as of the snapshot's epoch
+     */
+    public ParticipantSnapshot snapshot() {
+        ParticipantSnapshot cached = this.snapshot;
+        if (cached.getEpoch() == this.getEpoch()) {
+            return cached;
+        }
+
+        StripeCopy[] copies = new StripeCopy[STRIPES];
+        if (this.copyStripes(copies)) {
+            return this.snapshot = this.assemble(copies);
+        }
+
+        this.freezes.incrementAndGet();
+        try {
+            return this.snapshot = this.copyLocked(0, copies);
+        } finally {
+            if (this.freezes.decrementAndGet() == 0) {
+                synchronized (this.thaw) {
+                    this.thaw.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void awaitThaw() {
+        boolean interrupted = false;
+
+        synchronized (this.thaw) {
+            while (this.freezes.get() != 0) {
+                try {
+                    this.thaw.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Copy every stripe one at a time
+     *
+     * @return Whether no stripe changed after it was copied, so the copies agree with each other
+     */
+    private boolean copyStripes(StripeCopy[] copies) {
+        for (int i = 0; i < STRIPES; i++) {
+            EntrantTable table = this.tables[i];
+
+            synchronized (table) {
+                StripeCopy copy = this.lastCopies[i];
+                if (copy == null || copy.version != table.version()) {
+                    this.lastCopies[i] = copy = new StripeCopy(table, this.book);
+                }
+
+                copies[i] = copy;
+            }
+        }
+
+        for (int i = 0; i < STRIPES; i++) {
+            if (this.tables[i].version() != copies[i].version) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Hold every stripe from the given one onwards, then copy them all
+     */
+    private ParticipantSnapshot copyLocked(int stripe, StripeCopy[] copies) {
+        if (stripe < this.tables.length) {
+            synchronized (this.tables[stripe]) {
+                return this.copyLocked(stripe + 1, copies);
+            }
+        }
+
+        this.copyStripes(copies);
+        return this.assemble(copies);
+    }
+
+    private ParticipantSnapshot assemble(StripeCopy[] copies) {
+        int size = 0;
+        for (StripeCopy copy : copies) {
+            size += copy.users.length;
+        }
+
+        Map<UserData, Integer> tickets = HashMap.newHashMap(size);
+        Map<UserData, String> picks = HashMap.newHashMap(size);
+        long epoch = 0;
+        long total = 0;
+
+        for (StripeCopy copy : copies) {
+            for (int i = 0; i < copy.users.length; i++) {
+                tickets.put(copy.users[i], copy.tickets[i]);
+                picks.put(copy.users[i], copy.picks[i]);
+            }
+
+            epoch += copy.version;
+            total += copy.total;
+        }
+
+        return new ParticipantSnapshot(epoch, tickets, picks, total);
+    }
+
+    /**
+     * @param user The entrant
+     * @return The entrant's stake or null if they have not entered
+     */
+    public Stake getStake(UserData user) {
+        long id;
+        try {
+            id = EntrantTable.snowflake(user);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        EntrantTable table = this.table(id);
+
+        synchronized (table) {
+            int slot = table.find(id);
+
+            return slot < 0 ? null : new Stake(table.option(slot), table.tickets(slot));
+        }
+    }
+
+    /**
+     * @return The number of entrants
+     */
+    public int size() {
+        int size = 0;
+
+        for (EntrantTable table : this.tables) {
+            synchronized (table) {
+                size += table.size();
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * @return A read-only live view of the stake per entrant
+     */
+    public Map<UserData, Stake> getStakes() {
+        return new View<>(Stake::new);
+    }
+
+    /**
+     * @return A read-only live view of the deposits per entrant
+     */
+    public Map<UserData, Integer> getTickets() {
+        return new View<>((option, tickets) -> tickets);
+    }
+
+    /**
+     * @return A read-only live view of the option picked per entrant
+     */
+    public Map<UserData, String> getPicks() {
+        return new View<>((option, tickets) -> {
+            BetBook.Option picked = this.book.getOption(option);
+
+            return picked == null ? null : picked.getName();
+        });
+    }
+
+    /**
+     * @return The per-option index of bets
+     */
+    public BetBook getBook() {
+        return this.book;
+    }
+
+    /**
+     * @param option The option to check
+     * @return Whether anyone has bet on the option
+     */
+    public boolean hasOption(String option) {
+        BetBook.Option indexed = this.book.getOption(option);
+
+        return indexed != null && indexed.getBettorCount() > 0;
+    }
+
+    /**
+     * @return The total number of tickets currently deposited
+     */
+    public long getTotal() {
+        return this.counters.getTotalTickets();
+    }
+
+    /**
+     * @return The running totals of the ledger
+     */
+    public ActivityCounters getCounters() {
+        return this.counters;
+    }
+
+    private EntrantTable table(long id) {
+        return this.tables[(int) (EntrantTable.mix(id) >>> 40) & (STRIPES - 1)];
+    }
+
+    /**
+     * Receives entrants from {@link #forEach(EntrantVisitor)}
+     */
+    @FunctionalInterface
+    public interface EntrantVisitor {
+        void visit(UserData user, int tickets, int option);
+    }
+
+    /**
+     * Told of each deposit while the entrant's stripe is held, keep it short
+     */
+    @FunctionalInterface
+    public interface DepositListener {
+        /**
+         * @param debit The number of the debit that paid for the deposit, see {@link UserData#debit(int)}
+         */
+        void deposited(UserData user, int amount, String option, int debit);
+    }
+
+    /**
+     * The entrants of one stripe at one version, never changed once built
+     */
+    private static final class StripeCopy {
+        private final long version;
+        private final UserData[] users;
+        private final int[] tickets;
+        private final String[] picks;
+        private final long total;
+
+        /* the caller holds the stripe's monitor */
+        private StripeCopy(EntrantTable table, BetBook book) {
+            this.version = table.version();
+            this.users = new UserData[table.size()];
+            this.tickets = new int[this.users.length];
+            this.picks = new String[this.users.length];
+
+            long total = 0;
+            int copied = 0;
+            for (int slot = 0; slot < table.capacity(); slot++) {
+                if (table.isOccupied(slot)) {
+                    BetBook.Option option = book.getOption(table.option(slot));
+
+                    this.users[copied] = table.user(slot);
+                    this.tickets[copied] = table.tickets(slot);
+                    this.picks[copied] = option == null ? null : option.getName();
+                    total += this.tickets[copied++];
+                }
+            }
+
+            this.total = total;
+        }
+    }
+
+    @FunctionalInterface
+    private interface EntryValue<V> {
+        V get(int option, int tickets);
+    }
+
+    /**
+     * Map view over the entrant tables, lookups go straight to the entrant's stripe and
+     * iteration copies one stripe at a time
+     */
+    private final class View<V> extends AbstractMap<UserData, V> {
+        private final EntryValue<V> value;
+
+        private View(EntryValue<V> value) {
+            this.value = value;
+        }
+
+        @Override
+        public V get(Object key) {
+            if (!(key instanceof UserData user)) {
+                return null;
+            }
+
+            Stake stake = TicketLedger.this.getStake(user);
+
+            return stake == null ? null : this.value.get(stake.getOption(), stake.getTickets());
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof UserData user && TicketLedger.this.getStake(user) != null;
+        }
+
+        @Override
+        public int size() {
+            return TicketLedger.this.size();
+        }
+
+        @Override
+        public Set<Entry<UserData, V>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<UserData, V>> iterator() {
+                    return new Iterator<>() {
+                        private final List<Entry<UserData, V>> buffer = new ArrayList<>();
+                        private int stripe;
+                        private int index;
+
+                        @Override
+                        public boolean hasNext() {
+                            while (this.index >= this.buffer.size() && this.stripe < STRIPES) {
+                                this.buffer.clear();
+                                this.index = 0;
+
+                                EntrantTable table = TicketLedger.this.tables[this.stripe++];
+                                synchronized (table) {
+                                    for (int slot = 0; slot < table.capacity(); slot++) {
+                                        if (table.isOccupied(slot)) {
+                                            this.buffer.add(new SimpleImmutableEntry<>(table.user(slot),
+                                                    View.this.value.get(table.option(slot), table.tickets(slot))));
+                                        }
+                                    }
+                                }
+                            }
+
+                            return this.index < this.buffer.size();
+                        }
+
+                        @Override
+                        public Entry<UserData, V> next() {
+                            if (!this.hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+
+                            return this.buffer.get(this.index++);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return TicketLedger.this.size();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package tv.ender.discord.backend.schedule;
+
+import tv.ender.common.Result;
+import tv.ender.common.TimingWheel;
+import tv.ender.discord.backend.BotInstance;
+import tv.ender.discord.backend.activities.Prediction;
+import tv.ender.discord.backend.activities.Raffle;
+import tv.ender.firebase.backend.UserData;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Lock, settle and reminder deadlines for every timed activity, all driven by one
+ * {@link TimingWheel}. Expired deadlines only hand their action to the given executor, normally
+ * the guild's mailbox, so the wheel thread never runs activity code.
+ */
+public class ActivityScheduler implements AutoCloseable {
+    /* wheel tuning, 100ms ticks with 4 levels of 512 slots span far beyond any activity */
+    public static final Duration DEFAULT_TICK = Duration.ofMillis(100);
+    private static final int WHEEL_SIZE = 512;
+    private static final int WHEEL_LEVELS = 4;
+
+    private static ActivityScheduler instance;
+
+    private final TimingWheel wheel;
+    private final Map<UUID, Timers> timers = new ConcurrentHashMap<>();
+
+    /**
+     * @param wheel The wheel deadlines are kept in, started by the caller
+     */
+    public ActivityScheduler(TimingWheel wheel) {
+        this.wheel = wheel;
+    }
+
+    /**
+     * Stop taking entries at a deadline, replacing any previous lock deadline
+     *
+     * @param activity The activity id
+     * @param at       The deadline in epoch millis
+     * @param executor Runs the action
+     * @param lock     Locks the activity's entries
+     */
+    public void lockAt(UUID activity, long at, Executor executor, Runnable lock) {
+        this.set(activity, Deadline.LOCK, at, executor, lock);
+    }
+
+    /**
+     * Settle at a deadline, replacing any previous settle deadline. Settling drops every other
+     * timer of the activity.
+     *
+     * @param activity The activity id
+     * @param at       The deadline in epoch millis
+     * @param executor Runs the action
+     * @param settle   Settles the activity
+     */
+    public void settleAt(UUID activity, long at, Executor executor, Runnable settle) {
+        this.set(activity, Deadline.SETTLE, at, executor, settle);
+    }
+
+    /**
+     * @param activity The activity id
+     * @param at       When to remind, in epoch millis
+     * @param executor Runs the reminder
+     * @param reminder Sends the reminder
+     */
+    public void remindAt(UUID activity, long at, Executor executor, Runnable reminder) {
+        Timers timers = this.timers.computeIfAbsent(activity, Timers::new);
+
+        synchronized (timers) {
+            timers.reminders.removeIf(timeout -> !timeout.isPending());
+            timers.reminders.add(this.wheel.schedule(at, () -> executor.execute(reminder)));
+        }
+    }
+
+    /**
+     * Move a lock or settle deadline
+     *
+     * @param activity The activity id
+     * @param deadline The deadline to move
+     * @param at       The new deadline in epoch millis
+     * @return Whether the deadline was pending
+     */
+    public boolean reschedule(UUID activity, Deadline deadline, long at) {
+        Timers timers = this.timers.get(activity);
+        if (timers == null) {
+            return false;
+        }
+
+        synchronized (timers) {
+            TimingWheel.Timeout timeout = timers.get(deadline);
+
+            return timeout != null && timeout.reschedule(at);
+        }
+    }
+
+    /**
+     * @param activity The activity id
+     * @param deadline The deadline
+     * @return The pending deadline in epoch millis, or -1 if none is pending
+     */
+    public long getDeadline(UUID activity, Deadline deadline) {
+        Timers timers = this.timers.get(activity);
+        if (timers == null) {
+            return -1;
+        }
+
+        synchronized (timers) {
+            TimingWheel.Timeout timeout = timers.get(deadline);
+
+            return timeout != null && timeout.isPending() ? timeout.getDeadline() : -1;
+        }
+    }
+
+    /**
+     * Drop every pending deadline and reminder of an activity, call when it ends early
+     *
+     * @param activity The activity id
+     */
+    public void cancel(UUID activity) {
+        Timers timers = this.timers.remove(activity);
+
+        if (timers != null) {
+            timers.cancelAll();
+        }
+    }
+
+    /**
+     * @return The number of activities with pending timers
+     */
+    public int getScheduledCount() {
+        return this.timers.size();
+    }
+
+    /**
+     * @return The number of pending timers across all activities
+     */
+    public int getTimerCount() {
+        return this.wheel.size();
+    }
+
+    /**
+     * Lock a raffle's entries and later draw it, removing it from its bot instance
+     *
+     * @param instance  The bot instance holding the raffle
+     * @param raffle    The raffle
+     * @param lockAt    When entries close, in epoch millis
+     * @param settleAt  When the winner is drawn, in epoch millis
+     * @param onSettled Called with the draw's result on the guild's mailbox
+     */
+    public void schedule(BotInstance instance, Raffle raffle, long lockAt, long settleAt, Consumer<Result<UserData>> onSettled) {
+        UUID id = raffle.getIdentifier();
+        Executor executor = executor(instance);
+
+        raffle.getEndTime().set(settleAt);
+        this.lockAt(id, lockAt, executor, raffle::lockEntries);
+        this.settleAt(id, settleAt, executor, () -> {
+            if (instance.getActivities().remove(id, raffle)) {
+                Result<UserData> result = raffle.end();
+                instance.settled();
+                onSettled.accept(result);
+            }
+        });
+    }
+
+    /**
+     * Lock a prediction's entries and refund it if nobody resolved it by the deadline. The outcome
+     * of a prediction is only known to a moderator, so it cannot be settled automatically.
+     *
+     * @param instance The bot instance holding the prediction
+     * @param prediction The prediction
+     * @param lockAt   When entries close, in epoch millis
+     * @param expireAt When an unresolved prediction is cancelled, in epoch millis
+     */
+    public void schedule(BotInstance instance, Prediction prediction, long lockAt, long expireAt) {
+        UUID id = prediction.getIdentifier();
+        Executor executor = executor(instance);
+
+        prediction.getEndTime().set(expireAt);
+        this.lockAt(id, lockAt, executor, prediction::lockEntries);
+        this.settleAt(id, expireAt, executor, () -> {
+            if (instance.getActivities().remove(id, prediction)) {
+                prediction.cancel();
+                instance.settled();
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        this.wheel.close();
+    }
+
+    private void set(UUID activity, Deadline deadline, long at, Executor executor, Runnable action) {
+        Timers timers = this.timers.computeIfAbsent(activity, Timers::new);
+
+        synchronized (timers) {
+            TimingWheel.Timeout previous = timers.get(deadline);
+            if (previous != null) {
+                previous.cancel();
+            }
+
+            timers.set(deadline, this.wheel.schedule(at, () -> this.fire(timers, deadline, executor, action)));
+        }
+    }
+
+    private void fire(Timers timers, Deadline deadline, Executor executor, Runnable action) {
+        if (deadline == Deadline.SETTLE) {
+            this.timers.remove(timers.activity, timers);
+            timers.cancelAll();
+        }
+
+        executor.execute(action);
+    }
+
+    private static Executor executor(BotInstance instance) {
+        return instance.getMailbox() != null ? instance.getMailbox() : Runnable::run;
+    }
+
+    /**
+     * @return The process wide scheduler on a real time wheel
+     */
+    public static synchronized ActivityScheduler get() {
+        if (ActivityScheduler.instance == null) {
+            TimingWheel wheel = new TimingWheel(DEFAULT_TICK, WHEEL_SIZE, WHEEL_LEVELS, Runnable::run).start();
+            ActivityScheduler.instance = new ActivityScheduler(wheel);
+        }
+        return ActivityScheduler.instance;
+    }
+
+    public enum Deadline {
+        LOCK,
+        SETTLE
+    }
+
+    private static class Timers {
+        private final UUID activity;
+        private final List<TimingWheel.Timeout> reminders = new ArrayList<>();
+        private TimingWheel.Timeout lock;
+        private TimingWheel.Timeout settle;
+
+        private Timers(UUID activity) {
+            this.activity = activity;
+        }
+
+        private TimingWheel.Timeout get(Deadline deadline) {
+            return deadline == Deadline.LOCK ? this.lock : this.settle;
+        }
+
+        private void set(Deadline deadline, TimingWheel.Timeout timeout) {
+            if (deadline == Deadline.LOCK) {
+                this.lock = timeout;
+            } else {
+                this.settle = timeout;
+            }
+        }
+
+        private synchronized void cancelAll() {
+            if (this.lock != null) {
+                this.lock.cancel();
+            }
+
+            if (this.settle != null) {
+                this.settle.cancel();
+            }
+
+            this.reminders.forEach(TimingWheel.Timeout::cancel);
+            this.reminders.clear();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package tv.ender.discord.cluster;
+
+import tv.ender.discord.backend.BotInstance;
+import tv.ender.discord.backend.UserCache;
+import tv.ender.discord.backend.activities.Prediction;
+import tv.ender.discord.backend.activities.Raffle;
+import tv.ender.discord.backend.interfaces.IActivity;
+import tv.ender.discord.backend.journal.ActivityJournal;
+import tv.ender.discord.backend.journal.ActivityRecovery;
+import tv.ender.discord.backend.journal.JournalEvent;
+import tv.ender.discord.backend.journal.JournalState;
+import tv.ender.discord.backend.ledger.ParticipantSnapshot;
+import tv.ender.firebase.backend.UserData;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Moves a guild's open activities off a node that is giving the guild up. They are either drained,
+ * cancelled with every entrant refunded, or captured as journal events the next owner restores
+ * exactly as it would after a restart. Either way the entrants' balances are persisted before the
+ * lease is let go, so the next owner loads them as they were left.
+ * <p>
+ * Every step runs on the guild's mailbox so no command is halfway through an activity.
+ */
+public final class ActivityHandoff {
+    private static final Duration PERSIST_TIMEOUT = Duration.ofSeconds(30);
+
+    private ActivityHandoff() {
+    }
+
+    /**
+     * Stop taking entries and describe every open activity for the next owner
+     *
+     * @param instance The guild
+     * @return An open event per activity followed by an enter event per entrant
+     */
+    public static List<JournalEvent> capture(BotInstance instance) {
+        String guildId = instance.getGuildData().getGuildId();
+
+        return instance.getMailbox().submit(() -> {
+            List<JournalEvent> events = new ArrayList<>();
+            Set<UserData> entrants = new HashSet<>();
+            long now = System.currentTimeMillis();
+
+            for (IActivity activity : instance.getActivities().values()) {
+                boolean open = activity.lockEntries();
+
+                ParticipantSnapshot snapshot = activity.snapshot();
+                JournalEvent.Type type = activity instanceof Prediction ? JournalEvent.Type.PREDICTION : JournalEvent.Type.RAFFLE;
+                events.add(JournalEvent.of(type, activity.getIdentifier(), now, guildId, 0, null));
+
+                for (var entry : snapshot.getTickets().entrySet()) {
+                    events.add(JournalEvent.of(JournalEvent.Type.ENTER, activity.getIdentifier(), now, entry.getKey().getDiscordId(),
+                            entry.getValue(), snapshot.getPicks().get(entry.getKey())));
+                }
+
+                /* locked before the handoff, not by it */
+                if (!open) {
+                    events.add(JournalEvent.of(JournalEvent.Type.LOCK, activity.getIdentifier(), now, null, 0, null));
+                }
+
+                entrants.addAll(snapshot.getParticipants());
+            }
+
+            persist(instance.getUserCache(), entrants);
+            return events;
+        }).join();
+    }
+
+    /**
+     * Drop captured activities once the next owner has them, journaling them as ended so a restart
+     * of this node does not bring them back
+     *
+     * @param instance The guild
+     */
+    public static void forget(BotInstance instance) {
+        instance.getMailbox().submit(() -> {
+            for (IActivity activity : instance.getActivities().values()) {
+                ActivityJournal journal = activity instanceof Prediction prediction ? prediction.getJournal() : ((Raffle) activity).getJournal();
+
+                if (journal != null) {
+                    journal.tryWrite(JournalEvent.of(JournalEvent.Type.END, activity.getIdentifier()));
+                }
+            }
+
+            instance.getActivities().clear();
+            return null;
+        }).join();
+    }
+
+    /**
+     * Cancel every open activity, refunding and persisting its entrants
+     *
+     * @param instance The guild
+     */
+    public static void drain(BotInstance instance) {
+        instance.getMailbox().submit(() -> {
+            Set<UserData> entrants = new HashSet<>();
+
+            for (IActivity activity : instance.getActivities().values()) {
+                entrants.addAll(activity.getParticipants());
+                activity.cancel();
+            }
+
+            instance.getActivities().clear();
+            persist(instance.getUserCache(), entrants);
+            return null;
+        }).join();
+    }
+
+    /**
+     * Bring back activities handed off by the previous owner, journaling them here first so a crash
+     * right after the handoff still recovers them
+     *
+     * @param instance The guild
+     * @param handoff  The events captured by the previous owner
+     * @param journal  Where restored activities keep journaling, or null to keep them in memory only
+     * @return The number of activities restored
+     */
+    public static int restore(BotInstance instance, List<JournalEvent> handoff, ActivityJournal journal) {
+        JournalState state = new JournalState();
+
+        for (JournalEvent event : handoff) {
+            state.accept(event);
+
+            if (journal != null) {
+                journal.tryWrite(event);
+            }
+        }
+
+        UserCache users = instance.getUserCache();
+        for (JournalState.ActivityRecord record : state.getActivities()) {
+            instance.getActivities().put(record.getId(), ActivityRecovery.restore(record, users::get, journal));
+        }
+
+        return state.getActivities().size();
+    }
+
+    private static void persist(UserCache users, Set<UserData> entrants) throws InterruptedException {
+        for (UserData user : entrants) {
+            users.markDirty(user);
+        }
+
+        users.flush();
+
+        /* a chunk the flusher took before ours may still be in flight */
+        long deadline = System.nanoTime() + PERSIST_TIMEOUT.toNanos();
+        for (UserData user : entrants) {
+            while (users.isDirty(user.getDiscordId())) {
+                if (System.nanoTime() > deadline) {
+                    System.out.println("Gave up waiting for %s to persist before handoff".formatted(user.getDiscordId()));
+                    return;
+                }
+
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    /**
+     * What happens to a guild's open activities when it moves to another node
+     */
+    public enum Mode {
+        /* cancel them, refunding every entrant */
+        DRAIN,
+        /* hand them to the next owner with the lease */
+        MIGRATE
+    }
+}
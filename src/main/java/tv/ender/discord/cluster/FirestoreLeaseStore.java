@@ -0,0 +1,179 @@
+package tv.ender.discord.cluster;
+
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import tv.ender.common.Result;
+import tv.ender.discord.backend.journal.JournalEvent;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.function.LongSupplier;
+
+/**
+ * Lease store backed by Firestore. Each guild's lease is a document changed only inside a
+ * transaction, so two nodes racing for a guild cannot both win, and the handoff is written and
+ * taken in the same transaction as the lease. Works against the emulator when
+ * FIRESTORE_EMULATOR_HOST is set.
+ * <p>
+ * Expiry is judged by the caller's clock, so node clocks must agree to well within the lease ttl.
+ */
+public class FirestoreLeaseStore implements LeaseStore {
+    /* collections */
+    public static final String LEASES = "leases";
+    public static final String NODES = "nodes";
+
+    /* lease fields */
+    private static final String OWNER = "owner";
+    private static final String EPOCH = "epoch";
+    private static final String EXPIRES_AT = "expiresAt";
+    private static final String HANDOFF = "handoff";
+
+    /* handoff event fields */
+    private static final String TYPE = "type";
+    private static final String ACTIVITY = "activity";
+    private static final String TIMESTAMP = "timestamp";
+    private static final String SUBJECT = "subject";
+    private static final String TICKETS = "tickets";
+    private static final String OPTION = "option";
+
+    private final Firestore db;
+    private final LongSupplier clock;
+
+    public FirestoreLeaseStore(Firestore db) {
+        this(db, System::currentTimeMillis);
+    }
+
+    /**
+     * @param db    The database
+     * @param clock Epoch millis that leases and heartbeats expire against
+     */
+    public FirestoreLeaseStore(Firestore db, LongSupplier clock) {
+        this.db = db;
+        this.clock = clock;
+    }
+
+    @Override
+    public Result<Lease> acquire(String guildId, String nodeId, Duration ttl) throws Exception {
+        DocumentReference reference = this.db.collection(LEASES).document(guildId);
+
+        return this.db.runTransaction(transaction -> {
+            LeaseRecord record = decode(guildId, transaction.get(reference).get());
+            Result<Lease> result = record.acquire(nodeId, this.clock.getAsLong(), ttl);
+
+            if (result.isSuccessful()) {
+                transaction.set(reference, encode(record));
+            }
+
+            return result;
+        }).get();
+    }
+
+    @Override
+    public Result<Lease> renew(Lease lease, Duration ttl) throws Exception {
+        DocumentReference reference = this.db.collection(LEASES).document(lease.getGuildId());
+
+        return this.db.runTransaction(transaction -> {
+            LeaseRecord record = decode(lease.getGuildId(), transaction.get(reference).get());
+            Result<Lease> result = record.renew(lease, this.clock.getAsLong(), ttl);
+
+            if (result.isSuccessful()) {
+                transaction.set(reference, encode(record));
+            }
+
+            return result;
+        }).get();
+    }
+
+    @Override
+    public boolean release(Lease lease, List<JournalEvent> handoff) throws Exception {
+        DocumentReference reference = this.db.collection(LEASES).document(lease.getGuildId());
+
+        return this.db.runTransaction(transaction -> {
+            LeaseRecord record = decode(lease.getGuildId(), transaction.get(reference).get());
+            boolean released = record.release(lease, handoff);
+
+            if (released) {
+                transaction.set(reference, encode(record));
+            }
+
+            return released;
+        }).get();
+    }
+
+    @Override
+    public void heartbeat(String nodeId, Duration ttl) throws Exception {
+        Map<String, Object> node = HashMap.newHashMap(1);
+        node.put(EXPIRES_AT, this.clock.getAsLong() + ttl.toMillis());
+
+        this.db.collection(NODES).document(nodeId).set(node).get();
+    }
+
+    @Override
+    public void leave(String nodeId) throws Exception {
+        this.db.collection(NODES).document(nodeId).delete().get();
+    }
+
+    @Override
+    public Set<String> getLiveNodes() throws Exception {
+        Set<String> live = new TreeSet<>();
+
+        for (QueryDocumentSnapshot node : this.db.collection(NODES).whereGreaterThan(EXPIRES_AT, this.clock.getAsLong()).get().get().getDocuments()) {
+            live.add(node.getId());
+        }
+
+        return live;
+    }
+
+    private static LeaseRecord decode(String guildId, DocumentSnapshot snapshot) {
+        if (!snapshot.exists()) {
+            return LeaseRecord.free(guildId);
+        }
+
+        List<JournalEvent> handoff = new ArrayList<>();
+        if (snapshot.get(HANDOFF) instanceof List<?> events) {
+            for (Object event : events) {
+                Map<?, ?> fields = (Map<?, ?>) event;
+
+                handoff.add(JournalEvent.of(JournalEvent.Type.valueOf((String) fields.get(TYPE)), UUID.fromString((String) fields.get(ACTIVITY)),
+                        ((Number) fields.get(TIMESTAMP)).longValue(), (String) fields.get(SUBJECT), ((Number) fields.get(TICKETS)).intValue(),
+                        (String) fields.get(OPTION)));
+            }
+        }
+
+        Long epoch = snapshot.getLong(EPOCH);
+        Long expiresAt = snapshot.getLong(EXPIRES_AT);
+
+        return new LeaseRecord(guildId, snapshot.getString(OWNER), epoch == null ? 0 : epoch, expiresAt == null ? 0 : expiresAt, handoff);
+    }
+
+    private static Map<String, Object> encode(LeaseRecord record) {
+        List<Map<String, Object>> handoff = new ArrayList<>(record.handoff.size());
+
+        for (JournalEvent event : record.handoff) {
+            Map<String, Object> fields = HashMap.newHashMap(6);
+            fields.put(TYPE, event.getType().name());
+            fields.put(ACTIVITY, event.getActivity().toString());
+            fields.put(TIMESTAMP, event.getTimestamp());
+            fields.put(SUBJECT, event.getSubject());
+            fields.put(TICKETS, (long) event.getTickets());
+            fields.put(OPTION, event.getOption());
+            handoff.add(fields);
+        }
+
+        Map<String, Object> data = HashMap.newHashMap(4);
+        data.put(OWNER, record.owner);
+        data.put(EPOCH, record.epoch);
+        data.put(EXPIRES_AT, record.expiresAt);
+        data.put(HANDOFF, handoff);
+
+        return data;
+    }
+}
@@ -0,0 +1,24 @@
+package tv.ender.discord.cluster;
+
+import tv.ender.discord.backend.BotInstance;
+
+/**
+ * Starts and stops serving guilds as a {@link GuildPartitioner} wins and loses their leases
+ */
+public interface GuildHost {
+    /**
+     * Create the bot instance of a guild this node now owns and start serving it
+     *
+     * @param guildId The guild
+     * @return The bot instance, without activities, any handed off ones are restored into it
+     * @throws Exception If the guild could not be loaded
+     */
+    BotInstance open(String guildId) throws Exception;
+
+    /**
+     * Stop serving a guild this node no longer owns, its activities have already been handed off
+     *
+     * @param instance The bot instance
+     */
+    void close(BotInstance instance);
+}
@@ -0,0 +1,298 @@
+package tv.ender.discord.cluster;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import tv.ender.common.Result;
+import tv.ender.discord.backend.BotInstance;
+import tv.ender.discord.backend.journal.ActivityJournal;
+import tv.ender.discord.backend.journal.JournalEvent;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Splits guilds across backend processes. Live nodes heartbeat into a {@link LeaseStore} and are
+ * placed on a {@link HashRing}, each node leases the guilds the ring maps to it and serves a guild
+ * only while it holds the lease, so exactly one node owns a guild's bot instance and activities.
+ * <p>
+ * When membership changes a node gives up the guilds that moved, draining their activities or
+ * handing them over with the lease, and the new owner picks them up on its next rebalance. A node
+ * that was paused past its lease finds it taken on renewal and drains what it held.
+ */
+public class GuildPartitioner implements AutoCloseable {
+    private final String nodeId;
+    private final LeaseStore leases;
+    private final GuildHost host;
+    private final ActivityHandoff.Mode mode;
+    private final Duration ttl;
+    private final ActivityJournal journal;
+    private final LongSupplier clock;
+    private final Set<String> tracked = ConcurrentHashMap.newKeySet();
+    private final Map<String, Owned> owned = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+    private volatile HashRing ring = new HashRing(List.of());
+
+    /**
+     * @param nodeId  This node's id, unique across the cluster
+     * @param leases  Where leases and heartbeats are kept
+     * @param host    Starts and stops serving guilds
+     * @param mode    What happens to open activities when a guild moves
+     * @param ttl     How long leases and heartbeats last, rebalancing runs three times per ttl
+     * @param journal Where handed over activities keep journaling, or null to keep them in memory only
+     */
+    public GuildPartitioner(String nodeId, LeaseStore leases, GuildHost host, ActivityHandoff.Mode mode, Duration ttl, ActivityJournal journal) {
+        this(nodeId, leases, host, mode, ttl, journal, System::currentTimeMillis);
+    }
+
+    /**
+     * @param nodeId  This node's id, unique across the cluster
+     * @param leases  Where leases and heartbeats are kept
+     * @param host    Starts and stops serving guilds
+     * @param mode    What happens to open activities when a guild moves
+     * @param ttl     How long leases and heartbeats last, rebalancing runs three times per ttl
+     * @param journal Where handed over activities keep journaling, or null to keep them in memory only
+     * @param clock   Epoch millis, the same clock the lease store expires leases against
+     */
+    public GuildPartitioner(String nodeId, LeaseStore leases, GuildHost host, ActivityHandoff.Mode mode, Duration ttl, ActivityJournal journal,
+                            LongSupplier clock) {
+        this.nodeId = nodeId;
+        this.leases = leases;
+        this.host = host;
+        this.mode = mode;
+        this.ttl = ttl;
+        this.journal = journal;
+        this.clock = clock;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "guild-partitioner");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Rebalance now and then every third of the ttl
+     */
+    public void start() {
+        long period = Math.max(1, this.ttl.toMillis() / 3);
+
+        this.executor.scheduleWithFixedDelay(() -> {
+            try {
+                this.rebalance();
+            } catch (Exception e) {
+                System.out.println("Guild rebalance on %s failed: %s".formatted(this.nodeId, e.getMessage()));
+            }
+        }, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param guildIds Guilds the cluster serves, each is owned by whichever node the ring maps it to
+     */
+    public void track(Collection<String> guildIds) {
+        this.tracked.addAll(guildIds);
+    }
+
+    /**
+     * @param guildId A guild the cluster no longer serves, released on the next rebalance
+     */
+    public void untrack(String guildId) {
+        this.tracked.remove(guildId);
+    }
+
+    /**
+     * Heartbeat, then give up guilds that moved away, renew the ones that stayed and lease the ones
+     * that moved here
+     *
+     * @return What changed hands
+     * @throws Exception If the lease store could not be reached
+     */
+    public synchronized Rebalance rebalance() throws Exception {
+        this.leases.heartbeat(this.nodeId, this.ttl);
+
+        Set<String> nodes = this.leases.getLiveNodes();
+        if (!nodes.equals(this.ring.getNodes())) {
+            this.ring = new HashRing(nodes);
+            System.out.println("Node %s sees cluster %s".formatted(this.nodeId, nodes));
+        }
+
+        int acquired = 0;
+        int released = 0;
+        int fenced = 0;
+
+        for (var entry : this.owned.entrySet()) {
+            String guildId = entry.getKey();
+            Owned owned = entry.getValue();
+
+            if (!this.tracked.contains(guildId) || !this.nodeId.equals(this.ring.ownerOf(guildId))) {
+                this.release(guildId, owned);
+                released++;
+                continue;
+            }
+
+            Result<Lease> renewed = this.leases.renew(owned.lease, this.ttl);
+            if (renewed.isSuccessful()) {
+                owned.lease = renewed.getHolder();
+            } else {
+                System.out.println("Node %s lost guild %s: %s".formatted(this.nodeId, guildId, renewed.getMessage()));
+                this.owned.remove(guildId);
+                ActivityHandoff.drain(owned.instance);
+                this.host.close(owned.instance);
+                fenced++;
+            }
+        }
+
+        for (String guildId : this.tracked) {
+            if (this.owned.containsKey(guildId) || !this.nodeId.equals(this.ring.ownerOf(guildId))) {
+                continue;
+            }
+
+            /* fails while the previous owner is still handing over, retried next round */
+            Result<Lease> lease = this.leases.acquire(guildId, this.nodeId, this.ttl);
+            if (!lease.isSuccessful()) {
+                continue;
+            }
+
+            if (this.open(guildId, lease.getHolder())) {
+                acquired++;
+            }
+        }
+
+        return Rebalance.of(acquired, released, fenced, this.owned.size());
+    }
+
+    /**
+     * @param guildId The guild
+     * @return A result holding the guild's bot instance, failing if this node does not hold its lease
+     */
+    public Result<BotInstance> getBotInstance(String guildId) {
+        Owned owned = this.owned.get(guildId);
+
+        if (owned == null) {
+            return Result.fail("Guild %s is served by node %s, not %s".formatted(guildId, this.ring.ownerOf(guildId), this.nodeId));
+        }
+
+        /* stop serving as soon as the lease runs out, another node may already have taken it */
+        if (owned.lease.isExpired(this.clock.getAsLong())) {
+            return Result.fail("Lease on guild %s expired before it could be renewed".formatted(guildId));
+        }
+
+        return Result.pass(owned.instance, "Bot instance is available");
+    }
+
+    /**
+     * @param guildId The guild
+     * @return The node the ring currently maps the guild to, or null before the first rebalance
+     */
+    public String ownerOf(String guildId) {
+        return this.ring.ownerOf(guildId);
+    }
+
+    /**
+     * @return The guilds this node holds leases for
+     */
+    public Set<String> getOwnedGuilds() {
+        return Set.copyOf(this.owned.keySet());
+    }
+
+    public String getNodeId() {
+        return this.nodeId;
+    }
+
+    /**
+     * Stop rebalancing, hand every guild over and leave the cluster so the others take over at once
+     */
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+
+        synchronized (this) {
+            for (var entry : this.owned.entrySet()) {
+                try {
+                    this.release(entry.getKey(), entry.getValue());
+                } catch (Exception e) {
+                    System.out.println("Failed to hand over guild %s: %s".formatted(entry.getKey(), e.getMessage()));
+                }
+            }
+
+            try {
+                this.leases.leave(this.nodeId);
+            } catch (Exception e) {
+                System.out.println("Failed to leave the cluster: " + e.getMessage());
+            }
+        }
+    }
+
+    private boolean open(String guildId, Lease lease) throws Exception {
+        BotInstance instance;
+
+        try {
+            instance = this.host.open(guildId);
+        } catch (Exception e) {
+            /* give the guild and anything handed over with it back for another node or round */
+            System.out.println("Failed to open guild %s: %s".formatted(guildId, e.getMessage()));
+            this.leases.release(lease, lease.getHandoff());
+            return false;
+        }
+
+        int restored = ActivityHandoff.restore(instance, lease.getHandoff(), this.journal);
+        if (restored > 0) {
+            System.out.println("Node %s took over guild %s with %d open activities".formatted(this.nodeId, guildId, restored));
+        }
+
+        this.owned.put(guildId, new Owned(lease, instance));
+        return true;
+    }
+
+    private void release(String guildId, Owned owned) throws Exception {
+        this.owned.remove(guildId);
+
+        List<JournalEvent> handoff = List.of();
+        if (this.mode == ActivityHandoff.Mode.MIGRATE) {
+            handoff = ActivityHandoff.capture(owned.instance);
+        } else {
+            ActivityHandoff.drain(owned.instance);
+        }
+
+        if (!this.leases.release(owned.lease, handoff)) {
+            /* taken while we were handing over, nobody will restore the captured activities */
+            System.out.println("Lease on guild %s was taken during handoff, draining its activities".formatted(guildId));
+            ActivityHandoff.drain(owned.instance);
+        } else if (!handoff.isEmpty()) {
+            ActivityHandoff.forget(owned.instance);
+        }
+
+        this.host.close(owned.instance);
+    }
+
+    /**
+     * A guild this node holds the lease for
+     */
+    private static class Owned {
+        private volatile Lease lease;
+        private final BotInstance instance;
+
+        Owned(Lease lease, BotInstance instance) {
+            this.lease = lease;
+            this.instance = instance;
+        }
+    }
+
+    /**
+     * The outcome of one rebalance
+     */
+    @Getter
+    @AllArgsConstructor(staticName = "of")
+    public static class Rebalance {
+        private final int acquired;
+        private final int released;
+        private final int fenced;
+        private final int owned;
+    }
+}
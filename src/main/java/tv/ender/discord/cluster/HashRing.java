@@ -0,0 +1,92 @@
+package tv.ender.discord.cluster;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Immutable consistent hash ring. Every node is placed at many points so guilds spread evenly, and
+ * adding or removing a node only moves the guilds between it and its neighbours, about 1/n of them.
+ * Lookups are a binary search over a sorted array, membership changes build a new ring.
+ */
+public final class HashRing {
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final Set<String> nodes;
+    private final long[] points;
+    private final String[] owners;
+
+    /**
+     * @param nodes        The node ids
+     * @param virtualNodes The number of points each node is placed at
+     */
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Invalid virtual node count: " + virtualNodes);
+        }
+
+        /* sorted so equal membership always builds the same ring, whatever order it was listed in */
+        this.nodes = Collections.unmodifiableSet(new TreeSet<>(nodes));
+
+        int size = this.nodes.size() * virtualNodes;
+        long[] hashes = new long[size];
+        String[] owners = new String[size];
+        Integer[] order = new Integer[size];
+
+        int i = 0;
+        for (String node : this.nodes) {
+            for (int replica = 0; replica < virtualNodes; replica++, i++) {
+                hashes[i] = hash(node + "#" + replica);
+                owners[i] = node;
+                order[i] = i;
+            }
+        }
+
+        Arrays.sort(order, (a, b) -> hashes[a] != hashes[b] ? Long.compare(hashes[a], hashes[b]) : owners[a].compareTo(owners[b]));
+
+        this.points = new long[size];
+        this.owners = new String[size];
+        for (i = 0; i < size; i++) {
+            this.points[i] = hashes[order[i]];
+            this.owners[i] = owners[order[i]];
+        }
+    }
+
+    public HashRing(Collection<String> nodes) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param key The key, a guild id
+     * @return The node owning the key, or null if the ring is empty
+     */
+    public String ownerOf(String key) {
+        if (this.points.length == 0) {
+            return null;
+        }
+
+        int index = Arrays.binarySearch(this.points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+
+        /* past the last point wraps around to the first */
+        return this.owners[index == this.points.length ? 0 : index];
+    }
+
+    public Set<String> getNodes() {
+        return this.nodes;
+    }
+
+    private static long hash(String key) {
+        return HASH.hashString(key, StandardCharsets.UTF_8).asLong();
+    }
+}
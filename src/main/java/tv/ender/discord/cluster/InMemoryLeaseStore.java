@@ -0,0 +1,84 @@
+package tv.ender.discord.cluster;
+
+import tv.ender.common.Result;
+import tv.ender.discord.backend.journal.JournalEvent;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.LongSupplier;
+
+/**
+ * Lease store shared by nodes in one process, for tests and single machine clusters. Every
+ * operation runs under the store's monitor, which stands in for a Firestore transaction.
+ */
+public class InMemoryLeaseStore implements LeaseStore {
+    private final Map<String, LeaseRecord> leases = new HashMap<>();
+    private final Map<String, Long> nodes = new HashMap<>();
+    private final LongSupplier clock;
+
+    public InMemoryLeaseStore() {
+        this(System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock Epoch millis that leases and heartbeats expire against
+     */
+    public InMemoryLeaseStore(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public synchronized Result<Lease> acquire(String guildId, String nodeId, Duration ttl) {
+        return this.leases.computeIfAbsent(guildId, LeaseRecord::free).acquire(nodeId, this.clock.getAsLong(), ttl);
+    }
+
+    @Override
+    public synchronized Result<Lease> renew(Lease lease, Duration ttl) {
+        return this.leases.computeIfAbsent(lease.getGuildId(), LeaseRecord::free).renew(lease, this.clock.getAsLong(), ttl);
+    }
+
+    @Override
+    public synchronized boolean release(Lease lease, List<JournalEvent> handoff) {
+        LeaseRecord record = this.leases.get(lease.getGuildId());
+
+        return record != null && record.release(lease, handoff);
+    }
+
+    @Override
+    public synchronized void heartbeat(String nodeId, Duration ttl) {
+        this.nodes.put(nodeId, this.clock.getAsLong() + ttl.toMillis());
+    }
+
+    @Override
+    public synchronized void leave(String nodeId) {
+        this.nodes.remove(nodeId);
+    }
+
+    @Override
+    public synchronized Set<String> getLiveNodes() {
+        long now = this.clock.getAsLong();
+        Set<String> live = new TreeSet<>();
+
+        for (var node : this.nodes.entrySet()) {
+            if (now < node.getValue()) {
+                live.add(node.getKey());
+            }
+        }
+
+        return live;
+    }
+
+    /**
+     * @param guildId The guild
+     * @return The node holding the guild, or null if it is free
+     */
+    public synchronized String getOwner(String guildId) {
+        LeaseRecord record = this.leases.get(guildId);
+
+        return record == null || record.expiresAt <= this.clock.getAsLong() ? null : record.owner;
+    }
+}
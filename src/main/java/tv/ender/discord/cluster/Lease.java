@@ -0,0 +1,30 @@
+package tv.ender.discord.cluster;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import tv.ender.discord.backend.journal.JournalEvent;
+
+import java.util.List;
+
+/**
+ * A node's claim on a guild until it expires. The epoch grows every time the guild changes hands,
+ * so a node that was paused past its expiry cannot renew or release a lease someone else now holds.
+ */
+@Getter
+@AllArgsConstructor(staticName = "of")
+public class Lease {
+    private final String guildId;
+    private final String owner;
+    private final long epoch;
+    private final long expiresAt;
+    /* open activities the previous owner handed over, only set when the lease is acquired */
+    private final List<JournalEvent> handoff;
+
+    /**
+     * @param now Epoch millis
+     * @return Whether the lease has run out and can be taken by another node
+     */
+    public boolean isExpired(long now) {
+        return now >= this.expiresAt;
+    }
+}
@@ -0,0 +1,75 @@
+package tv.ender.discord.cluster;
+
+import tv.ender.common.Result;
+import tv.ender.discord.backend.journal.JournalEvent;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * The stored state of a guild's lease and the compare-and-set rules every {@link LeaseStore} applies
+ * to it. Stores load a record, apply one change and write it back atomically.
+ */
+class LeaseRecord {
+    final String guildId;
+    String owner;
+    long epoch;
+    long expiresAt;
+    List<JournalEvent> handoff;
+
+    LeaseRecord(String guildId, String owner, long epoch, long expiresAt, List<JournalEvent> handoff) {
+        this.guildId = guildId;
+        this.owner = owner;
+        this.epoch = epoch;
+        this.expiresAt = expiresAt;
+        this.handoff = handoff;
+    }
+
+    static LeaseRecord free(String guildId) {
+        return new LeaseRecord(guildId, null, 0, 0, List.of());
+    }
+
+    Result<Lease> acquire(String nodeId, long now, Duration ttl) {
+        if (this.owner != null && !this.owner.equals(nodeId) && now < this.expiresAt) {
+            return Result.fail("Guild %s is leased to %s for another %dms".formatted(this.guildId, this.owner, this.expiresAt - now));
+        }
+
+        /* a new owner fences off the old one */
+        if (!nodeId.equals(this.owner)) {
+            this.epoch++;
+        }
+
+        List<JournalEvent> handoff = this.handoff;
+        this.owner = nodeId;
+        this.expiresAt = now + ttl.toMillis();
+        this.handoff = List.of();
+
+        return Result.pass(Lease.of(this.guildId, nodeId, this.epoch, this.expiresAt, handoff), "Lease acquired");
+    }
+
+    Result<Lease> renew(Lease lease, long now, Duration ttl) {
+        if (!this.isHeldBy(lease)) {
+            return Result.fail("Lease on guild %s moved to %s at epoch %d".formatted(this.guildId, this.owner, this.epoch));
+        }
+
+        this.expiresAt = now + ttl.toMillis();
+
+        return Result.pass(Lease.of(this.guildId, this.owner, this.epoch, this.expiresAt, List.of()), "Lease renewed");
+    }
+
+    boolean release(Lease lease, List<JournalEvent> handoff) {
+        if (!this.isHeldBy(lease)) {
+            return false;
+        }
+
+        this.owner = null;
+        this.expiresAt = 0;
+        this.handoff = List.copyOf(handoff);
+
+        return true;
+    }
+
+    private boolean isHeldBy(Lease lease) {
+        return lease.getOwner().equals(this.owner) && lease.getEpoch() == this.epoch;
+    }
+}
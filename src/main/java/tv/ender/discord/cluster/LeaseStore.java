@@ -0,0 +1,66 @@
+package tv.ender.discord.cluster;
+
+import tv.ender.common.Result;
+import tv.ender.discord.backend.journal.JournalEvent;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Shared record of which node owns which guild and which nodes are alive. Every change is a
+ * compare-and-set against the stored lease, so at most one node holds a guild at any time.
+ */
+public interface LeaseStore {
+    /**
+     * Take a guild that is free, expired or already ours
+     *
+     * @param guildId The guild
+     * @param nodeId  The node taking it
+     * @param ttl     How long the lease lasts without renewal
+     * @return A result holding the lease and anything handed off with it, failing while another node holds it
+     * @throws Exception If the store could not be reached
+     */
+    Result<Lease> acquire(String guildId, String nodeId, Duration ttl) throws Exception;
+
+    /**
+     * Extend a lease that has not changed hands
+     *
+     * @param lease The lease
+     * @param ttl   How long the lease lasts from now
+     * @return A result holding the extended lease, failing if another node took the guild
+     * @throws Exception If the store could not be reached
+     */
+    Result<Lease> renew(Lease lease, Duration ttl) throws Exception;
+
+    /**
+     * Give a guild up, leaving its open activities for the next owner
+     *
+     * @param lease   The lease
+     * @param handoff The open activities as journal events, empty if they were drained
+     * @return Whether the lease was still ours to release
+     * @throws Exception If the store could not be reached
+     */
+    boolean release(Lease lease, List<JournalEvent> handoff) throws Exception;
+
+    /**
+     * Announce a node as alive
+     *
+     * @param nodeId The node
+     * @param ttl    How long the node counts as alive without another heartbeat
+     * @throws Exception If the store could not be reached
+     */
+    void heartbeat(String nodeId, Duration ttl) throws Exception;
+
+    /**
+     * @param nodeId The node leaving the cluster
+     * @throws Exception If the store could not be reached
+     */
+    void leave(String nodeId) throws Exception;
+
+    /**
+     * @return The nodes whose heartbeat has not expired
+     * @throws Exception If the store could not be reached
+     */
+    Set<String> getLiveNodes() throws Exception;
+}
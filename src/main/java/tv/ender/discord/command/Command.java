@@ -0,0 +1,16 @@
+package tv.ender.discord.command;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * A chat command handler. Handlers compose their work into the returned {@link Mono} and must
+ * never block the calling thread.
+ */
+@FunctionalInterface
+public interface Command {
+    /**
+     * @param context The invocation
+     * @return Completes once the command has been handled
+     */
+    Mono<Void> execute(CommandContext context);
+}
@@ -0,0 +1,38 @@
+package tv.ender.discord.command;
+
+import discord4j.core.event.domain.message.MessageCreateEvent;
+import discord4j.core.object.entity.Message;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import reactor.core.publisher.Mono;
+import tv.ender.discord.backend.BotInstance;
+
+/**
+ * A single command invocation
+ */
+@Getter
+@AllArgsConstructor(staticName = "of")
+public class CommandContext {
+    private final MessageCreateEvent event;
+    private final ParsedCommand command;
+    /* null for direct messages */
+    private final String guildId;
+    /* null when the guild has no registered bot instance */
+    private final BotInstance botInstance;
+
+    public Message getMessage() {
+        return this.event.getMessage();
+    }
+
+    /**
+     * Reply in the channel the command was sent from
+     *
+     * @param content The reply
+     * @return Completes once the reply is sent
+     */
+    public Mono<Void> reply(String content) {
+        return this.getMessage().getChannel()
+                .flatMap(channel -> channel.createMessage(content))
+                .then();
+    }
+}
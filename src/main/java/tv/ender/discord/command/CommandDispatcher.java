@@ -0,0 +1,180 @@
+package tv.ender.discord.command;
+
+import discord4j.common.util.Snowflake;
+import discord4j.core.event.domain.message.MessageCreateEvent;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import tv.ender.discord.backend.BotInstance;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Routes gateway messages to command handlers. Each message is parsed once against its guild's
+ * prefix, then commands are grouped per guild so every guild gets at most
+ * {@code perGuildConcurrency} handlers in flight and a slow guild cannot starve the others.
+ * Each guild also has its own bounded backlog: once it is full, that guild's newest commands are
+ * dropped rather than left queued in the shared grouping, where they would stall every guild.
+ * Handlers are subscribed off the gateway threads, on the guild's {@link tv.ender.discord.backend.GuildMailbox}
+ * when it has a bot instance so activity operations run in order, so a blocking read never stalls
+ * the event loop. Messages from banned guilds are dropped before parsing.
+ */
+public class CommandDispatcher {
+    public static final String DEFAULT_PREFIX = "!";
+    public static final int DEFAULT_GUILD_BACKLOG = 64;
+    private static final String DIRECT_MESSAGES = "@me";
+
+    private final CommandRegistry registry;
+    private final Function<String, BotInstance> instances;
+    private final int perGuildConcurrency;
+    private final int perGuildBacklog;
+    private final Duration timeout;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder overflowed = new LongAdder();
+
+    /**
+     * @param registry            The command handlers
+     * @param instances           Looks up the bot instance of a guild, returning null if none is registered
+     * @param perGuildConcurrency The most commands handled at once per guild
+     * @param timeout             The longest a single command may take
+     */
+    public CommandDispatcher(CommandRegistry registry, Function<String, BotInstance> instances, int perGuildConcurrency, Duration timeout) {
+        this(registry, instances, perGuildConcurrency, DEFAULT_GUILD_BACKLOG, timeout);
+    }
+
+    /**
+     * @param registry            The command handlers
+     * @param instances           Looks up the bot instance of a guild, returning null if none is registered
+     * @param perGuildConcurrency The most commands handled at once per guild
+     * @param perGuildBacklog     The most commands waiting per guild before its newest are dropped
+     * @param timeout             The longest a single command may take
+     */
+    public CommandDispatcher(CommandRegistry registry, Function<String, BotInstance> instances, int perGuildConcurrency, int perGuildBacklog,
+                             Duration timeout) {
+        this.registry = registry;
+        this.instances = instances;
+        this.perGuildConcurrency = perGuildConcurrency;
+        this.perGuildBacklog = perGuildBacklog;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param events The gateway message stream
+     * @return Emits nothing, completes with the event stream
+     */
+    public Flux<Void> dispatch(Flux<MessageCreateEvent> events) {
+        return events
+                .filter(event -> event.getMessage().getAuthor().map(user -> !user.isBot()).orElse(false))
+                .<Routed>handle((event, sink) -> {
+                    Routed routed = this.route(event);
+
+                    if (routed != null) {
+                        sink.next(routed);
+                    }
+                })
+                .transform(commands -> perGuild(commands, item -> item.context.getGuildId() == null ? DIRECT_MESSAGES : item.context.getGuildId(),
+                        this::execute, this.perGuildConcurrency, this.perGuildBacklog, this::overflow));
+    }
+
+    /**
+     * Run items grouped by guild, each guild with its own concurrency and its own bounded backlog.
+     * A group's backlog always accepts what the grouping hands it, so the grouping's shared prefetch
+     * keeps flowing to other guilds however far behind one guild falls.
+     *
+     * @param items       The items to run
+     * @param guild       The guild an item belongs to
+     * @param execute     Runs an item
+     * @param concurrency The most items run at once per guild
+     * @param backlog     The most items waiting per guild
+     * @param onOverflow  Called with each item dropped because its guild's backlog was full
+     * @param <T>         The type of item
+     * @return Emits nothing, completes with the items
+     */
+    public static <T> Flux<Void> perGuild(Flux<T> items, Function<T, String> guild, Function<T, Mono<Void>> execute, int concurrency, int backlog,
+                                          Consumer<T> onOverflow) {
+        return items
+                .groupBy(guild)
+                /* guild groups never complete, so the outer merge must not cap them */
+                .flatMap(group -> group
+                        .onBackpressureBuffer(backlog, onOverflow, BufferOverflowStrategy.DROP_LATEST)
+                        .flatMap(execute, concurrency), Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return The number of messages dropped because their guild is banned
+     */
+    public long getRejectedCount() {
+        return this.rejected.sum();
+    }
+
+    /**
+     * @return The number of commands dropped because their guild had too many waiting
+     */
+    public long getOverflowCount() {
+        return this.overflowed.sum();
+    }
+
+    private void overflow(Routed routed) {
+        this.overflowed.increment();
+        System.out.printf("Dropped command \"%s\" in guild %s, too many commands waiting%n",
+                routed.context.getCommand().getName(), routed.context.getGuildId());
+    }
+
+    private Routed route(MessageCreateEvent event) {
+        String guildId = event.getGuildId().map(Snowflake::asString).orElse(null);
+        BotInstance instance = guildId == null ? null : this.instances.apply(guildId);
+
+        /* kept current by the guild change feed, no read per message */
+        if (instance != null && instance.getGuildData().isBanned()) {
+            this.rejected.increment();
+            return null;
+        }
+
+        String prefix = DEFAULT_PREFIX;
+        if (instance != null && instance.getGuildData().getBotPrefix() != null) {
+            prefix = instance.getGuildData().getBotPrefix();
+        }
+
+        ParsedCommand parsed = CommandParser.parse(event.getMessage().getContent(), prefix);
+        if (parsed == null) {
+            return null;
+        }
+
+        Command command = this.registry.get(parsed.getName());
+        if (command == null) {
+            return null;
+        }
+
+        return new Routed(CommandContext.of(event, parsed, guildId, instance), command);
+    }
+
+    private Mono<Void> execute(Routed routed) {
+        BotInstance instance = routed.context.getBotInstance();
+        Scheduler scheduler = instance != null ? Schedulers.fromExecutor(instance.getMailbox()) : Schedulers.boundedElastic();
+
+        return Mono.defer(() -> routed.command.execute(routed.context))
+                .subscribeOn(scheduler)
+                .timeout(this.timeout)
+                .onErrorResume(e -> {
+                    System.out.printf("Command \"%s\" failed in guild %s: %s%n",
+                            routed.context.getCommand().getName(), routed.context.getGuildId(), e.getMessage());
+
+                    return Mono.empty();
+                });
+    }
+
+    private static class Routed {
+        private final CommandContext context;
+        private final Command command;
+
+        private Routed(CommandContext context, Command command) {
+            this.context = context;
+            this.command = command;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package tv.ender.discord.command;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits prefixed chat messages into commands
+ */
+public final class CommandParser {
+    private CommandParser() {
+    }
+
+    /**
+     * Parse a message against a guild's prefix
+     *
+     * @param content The message content
+     * @param prefix  The guild's command prefix
+     * @return The parsed command or null if the message is not a command
+     */
+    public static ParsedCommand parse(String content, String prefix) {
+        if (content == null || prefix == null || prefix.isEmpty() || !content.startsWith(prefix)) {
+            return null;
+        }
+
+        List<String> tokens = new ArrayList<>();
+        int length = content.length();
+        int index = prefix.length();
+
+        while (index < length) {
+            while (index < length && Character.isWhitespace(content.charAt(index))) {
+                index++;
+            }
+
+            int start = index;
+            while (index < length && !Character.isWhitespace(content.charAt(index))) {
+                index++;
+            }
+
+            if (index > start) {
+                tokens.add(content.substring(start, index));
+            }
+        }
+
+        /* the name must directly follow the prefix */
+        if (tokens.isEmpty() || Character.isWhitespace(content.charAt(prefix.length()))) {
+            return null;
+        }
+
+        return ParsedCommand.of(tokens.get(0).toLowerCase(Locale.ROOT), List.copyOf(tokens.subList(1, tokens.size())));
+    }
+}
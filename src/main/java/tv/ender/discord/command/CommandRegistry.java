@@ -0,0 +1,31 @@
+package tv.ender.discord.command;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Command names routed to their handlers
+ */
+public class CommandRegistry {
+    private final Map<String, Command> commands = new ConcurrentHashMap<>();
+
+    /**
+     * @param name    The command name, matched case-insensitively
+     * @param command The handler
+     * @return This registry
+     */
+    public CommandRegistry register(String name, Command command) {
+        this.commands.put(name.toLowerCase(Locale.ROOT), command);
+
+        return this;
+    }
+
+    /**
+     * @param name The parsed command name
+     * @return The handler or null if no command has the name
+     */
+    public Command get(String name) {
+        return this.commands.get(name);
+    }
+}
@@ -0,0 +1,16 @@
+package tv.ender.discord.command;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * A message split into its command name and arguments
+ */
+@Data
+@AllArgsConstructor(staticName = "of")
+public class ParsedCommand {
+    private final String name;
+    private final List<String> args;
+}
@@ -0,0 +1,139 @@
+package tv.ender.discord.gateway;
+
+import lombok.Getter;
+
+/**
+ * Which gateway shards this process runs. A count of 0 lets the gateway pick its recommended
+ * shard count; a range needs an explicit count so guild ownership is known before connecting.
+ */
+@Getter
+public class ShardConfig {
+    public static final int AUTO = 0;
+
+    private final int count;
+    private final int first;
+    private final int last;
+
+    /**
+     * @param count The total number of shards across every process, or {@link #AUTO}
+     * @param first The first shard index this process runs
+     * @param last  The last shard index this process runs, inclusive
+     */
+    public ShardConfig(int count, int first, int last) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Shard count must not be negative: " + count);
+        }
+
+        if (count == AUTO && (first != 0 || last != -1)) {
+            throw new IllegalArgumentException("A shard range needs an explicit shard count");
+        }
+
+        if (count != AUTO && (first < 0 || last < first || last >= count)) {
+            throw new IllegalArgumentException("Invalid shard range %d-%d for %d shards".formatted(first, last, count));
+        }
+
+        this.count = count;
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * @return A config running every shard at the gateway's recommended count
+     */
+    public static ShardConfig auto() {
+        return new ShardConfig(AUTO, 0, -1);
+    }
+
+    /**
+     * Reads {@code SHARD_COUNT} and {@code SHARD_RANGE} (e.g. "0-3") from the system properties
+     *
+     * @return The configured shards
+     * @throws IllegalArgumentException If the properties are malformed
+     */
+    public static ShardConfig fromProperties() {
+        String count = System.getProperty("SHARD_COUNT");
+        String range = System.getProperty("SHARD_RANGE");
+
+        if (count == null || count.isBlank()) {
+            if (range != null && !range.isBlank()) {
+                throw new IllegalArgumentException("SHARD_RANGE needs SHARD_COUNT to be set");
+            }
+
+            return ShardConfig.auto();
+        }
+
+        int total = Integer.parseInt(count.trim());
+        if (range == null || range.isBlank()) {
+            return new ShardConfig(total, 0, total - 1);
+        }
+
+        String[] bounds = range.trim().split("-");
+        int first = Integer.parseInt(bounds[0].trim());
+        int last = bounds.length > 1 ? Integer.parseInt(bounds[1].trim()) : first;
+
+        return new ShardConfig(total, first, last);
+    }
+
+    /**
+     * @return Whether the gateway decides the shard count
+     */
+    public boolean isAuto() {
+        return this.count == AUTO;
+    }
+
+    /**
+     * @return Whether this process runs every shard
+     */
+    public boolean isFullRange() {
+        return this.isAuto() || (this.first == 0 && this.last == this.count - 1);
+    }
+
+    /**
+     * @return The shard indices this process runs, empty when the count is automatic
+     */
+    public int[] getIndices() {
+        if (this.isAuto()) {
+            return new int[0];
+        }
+
+        int[] indices = new int[this.last - this.first + 1];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = this.first + i;
+        }
+
+        return indices;
+    }
+
+    /**
+     * Discord routes a guild to shard {@code (guild_id >> 22) % shard_count}
+     *
+     * @param guildId The guild snowflake
+     * @return The shard the guild's events arrive on, 0 when the count is automatic
+     */
+    public int shardFor(String guildId) {
+        return this.isAuto() ? 0 : shardFor(Long.parseLong(guildId), this.count);
+    }
+
+    /**
+     * @param guildId The guild snowflake
+     * @return Whether this process runs the guild's shard
+     */
+    public boolean owns(String guildId) {
+        if (this.isFullRange()) {
+            return true;
+        }
+
+        int shard = this.shardFor(guildId);
+
+        return shard >= this.first && shard <= this.last;
+    }
+
+    public static int shardFor(long guildId, int count) {
+        return (int) ((guildId >>> 22) % count);
+    }
+
+    @Override
+    public String toString() {
+        return this.isAuto() ? "auto" : "%d-%d/%d".formatted(this.first, this.last, this.count);
+    }
+}
@@ -0,0 +1,108 @@
+package tv.ender.discord.gateway;
+
+import tv.ender.common.metrics.Histogram;
+import tv.ender.common.metrics.MetricRegistry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-shard event rate, event lag and gateway latency, also exported through the metric registry.
+ * Recording is a handful of striped counter updates so it can sit on the gateway event path.
+ */
+public class ShardMetrics {
+    private final Map<Integer, Shard> shards = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param shard The shard the event arrived on
+     */
+    public void recordEvent(int shard) {
+        this.shard(shard).events.increment();
+    }
+
+    /**
+     * @param shard     The shard the event arrived on
+     * @param createdAt When the event was created, in epoch millis
+     */
+    public void recordEvent(int shard, long createdAt) {
+        Shard metrics = this.shard(shard);
+        long lag = Math.max(0, System.currentTimeMillis() - createdAt);
+
+        metrics.events.increment();
+        metrics.lag.record(lag);
+        metrics.lagTotal.add(lag);
+        metrics.lagCount.increment();
+        metrics.maxLag.accumulateAndGet(lag, Math::max);
+    }
+
+    /**
+     * @param shard   The shard
+     * @param latency The shard's last heartbeat round trip
+     */
+    public void recordLatency(int shard, Duration latency) {
+        this.shard(shard).latencyMillis = latency.toMillis();
+    }
+
+    /**
+     * Snapshot every shard, rates and lag cover the time since the previous sample
+     *
+     * @return The stats of every shard seen so far in shard order
+     */
+    public List<ShardStats> sample() {
+        long now = System.nanoTime();
+        List<ShardStats> stats = new ArrayList<>(this.shards.size());
+
+        for (var entry : this.shards.entrySet()) {
+            stats.add(entry.getValue().sample(entry.getKey(), now));
+        }
+
+        return stats;
+    }
+
+    private Shard shard(int shard) {
+        Shard metrics = this.shards.get(shard);
+
+        return metrics != null ? metrics : this.shards.computeIfAbsent(shard, Shard::new);
+    }
+
+    private static class Shard {
+        private final LongAdder events = new LongAdder();
+        private final LongAdder lagTotal = new LongAdder();
+        private final LongAdder lagCount = new LongAdder();
+        private final AtomicLong maxLag = new AtomicLong();
+        private final Histogram lag;
+        private volatile long latencyMillis = -1;
+        private long lastEvents;
+        private long lastSampleNanos = System.nanoTime();
+
+        private Shard(int shard) {
+            MetricRegistry registry = MetricRegistry.get();
+            String index = String.valueOf(shard);
+
+            this.lag = registry.histogram("curator_gateway_event_lag_seconds", "Time from message creation to gateway receipt",
+                    1e-3, "shard", index);
+            registry.counter("curator_gateway_events_total", "Gateway events received", this.events::sum, "shard", index);
+            registry.gauge("curator_gateway_latency_seconds", "Last heartbeat round trip", () -> this.latencyMillis < 0 ? Double.NaN : this.latencyMillis / 1000D, "shard", index);
+        }
+
+        private synchronized ShardStats sample(int shard, long now) {
+            long events = this.events.sum();
+            double seconds = Math.max(1, now - this.lastSampleNanos) / 1_000_000_000D;
+            double rate = (events - this.lastEvents) / seconds;
+
+            long lagCount = this.lagCount.sumThenReset();
+            long lagTotal = this.lagTotal.sumThenReset();
+            double averageLag = lagCount == 0 ? 0 : lagTotal / (double) lagCount;
+
+            this.lastEvents = events;
+            this.lastSampleNanos = now;
+
+            return ShardStats.of(shard, events, rate, averageLag, this.maxLag.getAndSet(0), this.latencyMillis);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package tv.ender.discord.gateway;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Point-in-time metrics for a single gateway shard
+ */
+@Data
+@AllArgsConstructor(staticName = "of")
+public class ShardStats {
+    private final int shard;
+    private final long events;
+    private final double eventsPerSecond;
+    private final double averageLagMillis;
+    private final long maxLagMillis;
+    private final long latencyMillis;
+}
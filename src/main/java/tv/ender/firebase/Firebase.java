@@ -1,8 +1,19 @@
 package tv.ender.firebase;
 
 import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.ApiStreamObserver;
 import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldMask;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.WriteBatch;
 import com.google.cloud.firestore.WriteResult;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.FirebaseOptions;
@@ -11,20 +22,47 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 import com.google.gson.stream.JsonWriter;
+import tv.ender.common.metrics.Histogram;
+import tv.ender.common.metrics.MetricRegistry;
 import tv.ender.firebase.backend.GuildData;
 import tv.ender.firebase.backend.UserData;
+import tv.ender.firebase.codec.DocumentCodec;
+import tv.ender.firebase.codec.GuildDataCodec;
+import tv.ender.firebase.codec.UserDataCodec;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileWriter;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
-public class Firebase {
+public class Firebase implements GuildSource {
     private static Firebase instance;
 
     /* collections */
     public static final String USERS = "users";
     public static final String GUILDS = "guilds";
 
+    /* write-behind tuning */
+    private static final int USER_BATCH_SIZE = WriteBehindQueue.MAX_BATCH_SIZE;
+    private static final int USER_MAX_PENDING = 20_000;
+    private static final Duration USER_FLUSH_INTERVAL = Duration.ofSeconds(2);
+
+    /* read tuning */
+    private static final int GET_ALL_CHUNK = 100;
+
+    private WriteBehindQueue<UserData> userQueue;
+
     private Firebase() {
         System.out.println("Initializing Firebase...");
 
@@ -39,7 +77,12 @@ public class Firebase {
                     .build();
 
             FirebaseApp.initializeApp(options);
-            FirestoreClient.getFirestore();
+            Firestore db = FirestoreClient.getFirestore();
+
+            this.userQueue = new WriteBehindQueue<>(batchSink(db, USERS, UserData::getDiscordId, UserDataCodec.INSTANCE),
+                    UserData::getDiscordId, USER_BATCH_SIZE, USER_MAX_PENDING, USER_FLUSH_INTERVAL);
+            Runtime.getRuntime().addShutdownHook(new Thread(this.userQueue::close, "write-behind-shutdown"));
+            this.registerMetrics(USERS, this.userQueue);
 
             System.out.println("Firebase initialized!");
         } catch (Exception ex) {
@@ -82,7 +125,271 @@ public class Firebase {
     public ApiFuture<WriteResult> writeUser(UserData data) {
         var db = FirestoreClient.getFirestore();
 
-        return db.collection(USERS).document(data.getDiscordId()).set(data);
+        return db.collection(USERS).document(data.getDiscordId()).set(UserDataCodec.INSTANCE.encode(data));
+    }
+
+    /**
+     * Reads a user from the database
+     *
+     * @param discordId The user's discord id
+     * @return The user data or null if the user does not exist
+     * @throws Exception If the read failed
+     */
+    public UserData loadUser(String discordId) throws Exception {
+        var db = FirestoreClient.getFirestore();
+        DocumentSnapshot snapshot = db.collection(USERS).document(discordId).get().get();
+
+        return snapshot.exists() ? UserData.fromDocument(snapshot) : null;
+    }
+
+    @Override
+    public void streamGuilds(Consumer<GuildData> consumer) throws Exception {
+        var db = FirestoreClient.getFirestore();
+        BlockingQueue<Object> documents = new LinkedBlockingQueue<>();
+        Object completed = new Object();
+
+        /* the observer runs on grpc threads, hand documents back to the caller before parsing */
+        db.collection(GUILDS).stream(new ApiStreamObserver<>() {
+            @Override
+            public void onNext(DocumentSnapshot value) {
+                documents.add(value);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                documents.add(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                documents.add(completed);
+            }
+        });
+
+        while (true) {
+            Object next = documents.take();
+
+            if (next == completed) {
+                return;
+            } else if (next instanceof Throwable t) {
+                throw new IllegalStateException("Guild stream failed", t);
+            }
+
+            try {
+                consumer.accept(GuildData.fromDocument((DocumentSnapshot) next));
+            } catch (IllegalArgumentException e) {
+                System.out.println("Skipping guild %s: %s".formatted(((DocumentSnapshot) next).getId(), e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Listen for guild documents being added or edited. The first snapshot replays every guild,
+     * later ones carry only what changed.
+     *
+     * @param consumer Called on a firestore thread with every added or modified guild
+     * @return The registration, remove it to stop listening
+     */
+    public ListenerRegistration watchGuilds(Consumer<GuildChange> consumer) {
+        var db = FirestoreClient.getFirestore();
+        AtomicBoolean initial = new AtomicBoolean(true);
+
+        return db.collection(GUILDS).addSnapshotListener((snapshot, error) -> {
+            if (error != null) {
+                System.out.println("Guild change feed failed: " + error.getMessage());
+                return;
+            }
+
+            boolean first = initial.getAndSet(false);
+            for (DocumentChange change : snapshot.getDocumentChanges()) {
+                if (change.getType() == DocumentChange.Type.REMOVED) {
+                    continue;
+                }
+
+                QueryDocumentSnapshot document = change.getDocument();
+                Timestamp updated = document.getUpdateTime();
+                long updatedAt = updated.getSeconds() * 1000 + updated.getNanos() / 1_000_000;
+
+                try {
+                    consumer.accept(GuildChange.of(GuildDataCodec.INSTANCE.decode(document), updatedAt, first));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Skipping guild change %s: %s".formatted(document.getId(), e.getMessage()));
+                }
+            }
+        });
+    }
+
+    @Override
+    public List<UserData> loadTopUsers(String guildId, int limit) throws Exception {
+        var db = FirestoreClient.getFirestore();
+
+        return db.collection(USERS)
+                .whereEqualTo("guildId", guildId)
+                .orderBy("tickets", Query.Direction.DESCENDING)
+                .limit(limit)
+                .get().get()
+                .getDocuments().stream()
+                .map(UserData::fromDocument)
+                .toList();
+    }
+
+    /**
+     * Read one page of a guild's users in document id order
+     *
+     * @param guildId    The guild
+     * @param projection The fields to read and how to map them
+     * @param pageSize   The most users on the page
+     * @param after      The cursor of the previous page, or null for the first page
+     * @return The page, whose cursor is null once the guild has no more users
+     * @throws Exception If the read failed
+     */
+    public <T> Page<T> queryUsers(String guildId, Projection<T> projection, int pageSize, DocumentSnapshot after) throws Exception {
+        var db = FirestoreClient.getFirestore();
+        Query query = db.collection(USERS)
+                .whereEqualTo("guildId", guildId)
+                .orderBy(FieldPath.documentId())
+                .limit(pageSize);
+
+        if (after != null) {
+            query = query.startAfter(after);
+        }
+
+        List<QueryDocumentSnapshot> documents = projection.apply(query).get().get().getDocuments();
+        List<T> items = new ArrayList<>(documents.size());
+
+        for (QueryDocumentSnapshot document : documents) {
+            try {
+                items.add(projection.map(document));
+            } catch (IllegalArgumentException e) {
+                System.out.println("Skipping user %s: %s".formatted(document.getId(), e.getMessage()));
+            }
+        }
+
+        /* a short page means the query ran out, saving a round trip for an empty page */
+        DocumentSnapshot cursor = documents.size() < pageSize ? null : documents.get(documents.size() - 1);
+
+        return Page.of(items, cursor);
+    }
+
+    /**
+     * Stream every user of a guild a page at a time, holding at most one page in memory
+     *
+     * @param guildId    The guild
+     * @param projection The fields to read and how to map them
+     * @param pageSize   The most users per page
+     * @param consumer   Called once per page
+     * @return The number of users read
+     * @throws Exception If a read failed
+     */
+    public <T> long scanUsers(String guildId, Projection<T> projection, int pageSize, Consumer<List<T>> consumer) throws Exception {
+        long count = 0;
+        DocumentSnapshot cursor = null;
+
+        do {
+            Page<T> page = this.queryUsers(guildId, projection, pageSize, cursor);
+            if (!page.getItems().isEmpty()) {
+                consumer.accept(page.getItems());
+            }
+
+            count += page.getItems().size();
+            cursor = page.getCursor();
+        } while (cursor != null);
+
+        return count;
+    }
+
+    /**
+     * Read several users with batched gets instead of one round trip per user
+     *
+     * @param discordIds The users' discord ids
+     * @param projection The fields to read and how to map them
+     * @return The users that exist keyed by discord id
+     * @throws Exception If a read failed
+     */
+    public <T> Map<String, T> getUsers(Collection<String> discordIds, Projection<T> projection) throws Exception {
+        var db = FirestoreClient.getFirestore();
+        List<String> ids = List.copyOf(new LinkedHashSet<>(discordIds));
+        List<ApiFuture<List<DocumentSnapshot>>> futures = new ArrayList<>();
+
+        /* issue every chunk before waiting on any of them */
+        for (int from = 0; from < ids.size(); from += GET_ALL_CHUNK) {
+            List<String> chunk = ids.subList(from, Math.min(from + GET_ALL_CHUNK, ids.size()));
+            DocumentReference[] references = chunk.stream()
+                    .map(id -> db.collection(USERS).document(id))
+                    .toArray(DocumentReference[]::new);
+
+            FieldMask mask = projection.mask();
+            futures.add(mask == null ? db.getAll(references) : db.getAll(references, mask));
+        }
+
+        Map<String, T> users = new LinkedHashMap<>();
+        for (ApiFuture<List<DocumentSnapshot>> future : futures) {
+            for (DocumentSnapshot snapshot : future.get()) {
+                if (!snapshot.exists()) {
+                    continue;
+                }
+
+                try {
+                    users.put(snapshot.getId(), projection.map(snapshot));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Skipping user %s: %s".formatted(snapshot.getId(), e.getMessage()));
+                }
+            }
+        }
+
+        return users;
+    }
+
+    /**
+     * Queues a user to be written to the database. Repeated writes for the same user
+     * before the next flush are coalesced into one.
+     *
+     * @param data The user data
+     * @throws InterruptedException If interrupted while the queue is full
+     */
+    public void queueUser(UserData data) throws InterruptedException {
+        this.userQueue.enqueue(data);
+    }
+
+    /**
+     * @return The write-behind queue for user data
+     */
+    public WriteBehindQueue<UserData> getUserQueue() {
+        return this.userQueue;
+    }
+
+    /**
+     * Creates a sink that commits each chunk as a single Firestore write batch
+     *
+     * @param db         The database
+     * @param collection The collection to write to
+     * @param idFunction The document id of a record
+     * @param codec      Encodes each record to its fields
+     * @return The batch sink
+     */
+    public static <T> WriteBehindQueue.BatchSink<T> batchSink(Firestore db, String collection, Function<T, String> idFunction, DocumentCodec<T> codec) {
+        Histogram latency = MetricRegistry.get().timer("curator_firestore_batch_write_seconds",
+                "Time to commit a write-behind batch", "collection", collection);
+
+        return chunk -> {
+            WriteBatch batch = db.batch();
+
+            for (T record : chunk) {
+                batch.set(db.collection(collection).document(idFunction.apply(record)), codec.encode(record));
+            }
+
+            long start = System.nanoTime();
+            batch.commit().get();
+            latency.recordSince(start);
+        };
+    }
+
+    private void registerMetrics(String collection, WriteBehindQueue<?> queue) {
+        MetricRegistry registry = MetricRegistry.get();
+
+        registry.gauge("curator_firestore_queue_depth", "Records waiting to be written", queue::getPendingCount, "collection", collection);
+        registry.counter("curator_firestore_records_written_total", "Records written by the write-behind queue", queue::getWrittenCount, "collection", collection);
+        registry.counter("curator_firestore_batch_failures_total", "Batches that failed and were requeued", queue::getFailureCount, "collection", collection);
     }
 
     /**
@@ -94,7 +401,7 @@ public class Firebase {
     public ApiFuture<WriteResult> writeGuild(GuildData data) {
         var db = FirestoreClient.getFirestore();
 
-        return db.collection(GUILDS).document(data.getGuildId()).set(data);
+        return db.collection(GUILDS).document(data.getGuildId()).set(GuildDataCodec.INSTANCE.encode(data));
     }
 
 
@@ -0,0 +1,18 @@
+package tv.ender.firebase;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import tv.ender.firebase.backend.GuildData;
+
+/**
+ * A guild document delivered by the change feed
+ */
+@Data
+@AllArgsConstructor(staticName = "of")
+public class GuildChange {
+    private final GuildData guild;
+    /* when firestore committed the change, epoch millis */
+    private final long updatedAt;
+    /* part of the listener's first snapshot, which replays every guild rather than recent edits */
+    private final boolean initial;
+}
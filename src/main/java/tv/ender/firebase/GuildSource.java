@@ -0,0 +1,28 @@
+package tv.ender.firebase;
+
+import tv.ender.firebase.backend.GuildData;
+import tv.ender.firebase.backend.UserData;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Bulk read access to guild records, used to warm up bot instances on startup
+ */
+public interface GuildSource {
+    /**
+     * Stream every guild, blocking until the last one has been handed to the consumer
+     *
+     * @param consumer Called once per parsed guild
+     * @throws Exception If the stream failed
+     */
+    void streamGuilds(Consumer<GuildData> consumer) throws Exception;
+
+    /**
+     * @param guildId The guild
+     * @param limit   The most users to return
+     * @return The guild's users with the most tickets, highest first
+     * @throws Exception If the read failed
+     */
+    List<UserData> loadTopUsers(String guildId, int limit) throws Exception;
+}
@@ -0,0 +1,24 @@
+package tv.ender.firebase;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * One page of a cursor-paginated query
+ *
+ * @param <T> The type of record on the page
+ */
+@Getter
+@AllArgsConstructor(staticName = "of")
+public class Page<T> {
+    private final List<T> items;
+    /* last document read, pass it back to fetch the next page, null once the query is exhausted */
+    private final DocumentSnapshot cursor;
+
+    public boolean hasNext() {
+        return this.cursor != null;
+    }
+}
@@ -0,0 +1,87 @@
+package tv.ender.firebase;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldMask;
+import com.google.cloud.firestore.Query;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import tv.ender.firebase.backend.UserData;
+
+import java.util.function.Function;
+
+/**
+ * The fields a read asks Firestore for and how the trimmed documents are mapped. Selecting fewer
+ * fields shrinks every document on the wire, a balance-only scan moves a fraction of a full user.
+ *
+ * @param <T> The type documents are mapped to
+ */
+@Getter
+public class Projection<T> {
+    /* whole users */
+    public static final Projection<UserData> USER = Projection.of(UserData::fromDocument);
+    /* only the ticket balance and losses, keyed by the document id */
+    public static final Projection<Balance> TICKETS = Projection.of(snapshot -> Balance.of(snapshot.getId(),
+            readInt(snapshot, "tickets"), readInt(snapshot, "losses")), "tickets", "losses");
+
+    private final Function<DocumentSnapshot, T> mapper;
+    /* empty reads whole documents */
+    private final String[] fields;
+
+    private Projection(Function<DocumentSnapshot, T> mapper, String[] fields) {
+        this.mapper = mapper;
+        this.fields = fields;
+    }
+
+    /**
+     * @param mapper Maps a document read with the fields
+     * @param fields The fields to read, none for whole documents
+     * @return The projection
+     */
+    public static <T> Projection<T> of(Function<DocumentSnapshot, T> mapper, String... fields) {
+        return new Projection<>(mapper, fields);
+    }
+
+    /**
+     * @param query The query to trim
+     * @return The query selecting only the projected fields
+     */
+    public Query apply(Query query) {
+        return this.fields.length == 0 ? query : query.select(this.fields);
+    }
+
+    /**
+     * @return The mask for batched gets, or null to read whole documents
+     */
+    public FieldMask mask() {
+        return this.fields.length == 0 ? null : FieldMask.of(this.fields);
+    }
+
+    /**
+     * @param snapshot A document read with this projection
+     * @return The mapped record
+     * @throws IllegalArgumentException If the document is missing a projected field
+     */
+    public T map(DocumentSnapshot snapshot) {
+        return this.mapper.apply(snapshot);
+    }
+
+    private static int readInt(DocumentSnapshot snapshot, String field) {
+        Long value = snapshot.getLong(field);
+        if (value == null) {
+            throw new IllegalArgumentException("Document %s has no %s".formatted(snapshot.getId(), field));
+        }
+
+        return value.intValue();
+    }
+
+    /**
+     * A user's ticket balance and losses without the rest of their record, enough to rank them
+     */
+    @Getter
+    @AllArgsConstructor(staticName = "of")
+    public static class Balance {
+        private final String discordId;
+        private final int tickets;
+        private final int losses;
+    }
+}
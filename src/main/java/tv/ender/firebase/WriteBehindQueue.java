@@ -0,0 +1,342 @@
+package tv.ender.firebase;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Write-behind persistence queue. Dirty records are coalesced by key so only the last write per
+ * record survives, then flushed to a {@link BatchSink} in chunks no larger than the batch limit
+ * once either the batch size or the flush interval is reached. Producers block once the queue
+ * holds {@code maxPending} distinct records.
+ *
+ * @param <T> The type of record being persisted
+ */
+public class WriteBehindQueue<T> implements AutoCloseable {
+    /* firestore rejects batches with more than 500 writes */
+    public static final int MAX_BATCH_SIZE = 500;
+
+    private final BatchSink<T> sink;
+    private final Function<T, String> keyFunction;
+    private final int batchSize;
+    private final int maxPending;
+    private final long flushIntervalNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushNeeded = this.lock.newCondition();
+    private final Condition notFull = this.lock.newCondition();
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final Thread flusher;
+    private final List<Consumer<List<T>>> writeListeners = new CopyOnWriteArrayList<>();
+    private Map<String, T> pending = new LinkedHashMap<>();
+    /* guarded by the lock, set when pending records should not wait for a full batch */
+    private boolean flushRequested;
+
+    /**
+     * @param sink          Where chunks are written
+     * @param keyFunction   The key records are coalesced by
+     * @param batchSize     The number of pending records that triggers a flush, capped at {@link #MAX_BATCH_SIZE}
+     * @param maxPending    The number of pending records at which producers block
+     * @param flushInterval The longest a record waits before being flushed
+     */
+    public WriteBehindQueue(BatchSink<T> sink, Function<T, String> keyFunction, int batchSize, int maxPending, Duration flushInterval) {
+        if (batchSize <= 0 || maxPending < batchSize) {
+            throw new IllegalArgumentException("Invalid batch size %d for max pending %d".formatted(batchSize, maxPending));
+        }
+
+        this.sink = sink;
+        this.keyFunction = keyFunction;
+        this.batchSize = Math.min(batchSize, MAX_BATCH_SIZE);
+        this.maxPending = maxPending;
+        this.flushIntervalNanos = flushInterval.toNanos();
+
+        this.flusher = new Thread(this::run, "write-behind-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Mark a record dirty, replacing any pending write for the same key
+     *
+     * @param record The record to persist
+     * @throws InterruptedException If interrupted while waiting for room in the queue
+     */
+    public void enqueue(T record) throws InterruptedException {
+        String key = this.keyFunction.apply(record);
+
+        this.lock.lockInterruptibly();
+        try {
+            while (this.pending.size() >= this.maxPending && !this.pending.containsKey(key) && this.running.get()) {
+                this.notFull.await();
+            }
+
+            this.pending.put(key, record);
+
+            if (this.pending.size() >= this.batchSize) {
+                this.flushNeeded.signal();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        /* nobody is left to flush once closed */
+        if (!this.running.get()) {
+            this.flush();
+        }
+    }
+
+    /**
+     * Mark a record dirty without waiting for room, for callers that must not block such as those
+     * holding a lock. Records are coalesced by key, so this can only grow the queue past
+     * {@code maxPending} by keys that are not pending yet.
+     *
+     * @param record The record to persist
+     */
+    public void offer(T record) {
+        String key = this.keyFunction.apply(record);
+
+        this.lock.lock();
+        try {
+            this.pending.put(key, record);
+
+            if (this.pending.size() >= this.batchSize) {
+                this.flushNeeded.signal();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        /* nobody is left to flush once closed */
+        if (!this.running.get()) {
+            this.flush();
+        }
+    }
+
+    /**
+     * Write every pending record now on the calling thread
+     *
+     * @return The number of records written
+     */
+    public int flush() {
+        return this.write(this.takePending());
+    }
+
+    /**
+     * Have the flusher write everything pending now instead of waiting for a full batch or the
+     * interval, without waiting for the write
+     */
+    public void flushSoon() {
+        this.lock.lock();
+        try {
+            this.flushRequested = true;
+            this.flushNeeded.signal();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @param key The record key
+     * @return The record waiting to be written for the key, or null if none is pending
+     */
+    public T getPending(String key) {
+        this.lock.lock();
+        try {
+            return this.pending.get(key);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @param writeListener Called with every chunk after it has been written
+     */
+    public void addWriteListener(Consumer<List<T>> writeListener) {
+        this.writeListeners.add(writeListener);
+    }
+
+    public void removeWriteListener(Consumer<List<T>> writeListener) {
+        this.writeListeners.remove(writeListener);
+    }
+
+    /**
+     * @return The number of distinct records waiting to be written
+     */
+    public int getPendingCount() {
+        this.lock.lock();
+        try {
+            return this.pending.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long getWrittenCount() {
+        return this.written.get();
+    }
+
+    public long getBatchCount() {
+        return this.batches.get();
+    }
+
+    public long getFailureCount() {
+        return this.failures.get();
+    }
+
+    /**
+     * Stop the flusher and write anything still pending
+     */
+    @Override
+    public void close() {
+        if (!this.running.getAndSet(false)) {
+            return;
+        }
+
+        this.lock.lock();
+        try {
+            this.flushNeeded.signalAll();
+            this.notFull.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+
+        try {
+            this.flusher.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        this.flush();
+    }
+
+    private void run() {
+        while (this.running.get()) {
+            try {
+                long failed = this.failures.get();
+                this.write(this.awaitPending());
+
+                /* back off instead of spinning on a failing sink */
+                if (this.failures.get() != failed) {
+                    TimeUnit.NANOSECONDS.sleep(this.flushIntervalNanos);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                System.out.println("Write-behind flush failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Wait until a batch is full, the interval elapses or the queue closes, then take everything
+     */
+    private List<T> awaitPending() throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            long remaining = this.flushIntervalNanos;
+
+            while (this.pending.size() < this.batchSize && !this.flushRequested && remaining > 0 && this.running.get()) {
+                remaining = this.flushNeeded.awaitNanos(remaining);
+            }
+
+            return this.swapPending();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private List<T> takePending() {
+        this.lock.lock();
+        try {
+            return this.swapPending();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private List<T> swapPending() {
+        this.flushRequested = false;
+
+        if (this.pending.isEmpty()) {
+            return List.of();
+        }
+
+        List<T> taken = new ArrayList<>(this.pending.values());
+        this.pending = new LinkedHashMap<>();
+        this.notFull.signalAll();
+
+        return taken;
+    }
+
+    private int write(List<T> records) {
+        int count = 0;
+
+        for (int from = 0; from < records.size(); from += this.batchSize) {
+            List<T> chunk = records.subList(from, Math.min(from + this.batchSize, records.size()));
+
+            try {
+                this.sink.write(chunk);
+            } catch (Exception e) {
+                this.failures.incrementAndGet();
+                System.out.println("Failed to write batch of %d records, requeueing: %s".formatted(chunk.size(), e.getMessage()));
+
+                this.requeue(chunk);
+                continue;
+            }
+
+            this.batches.incrementAndGet();
+            this.written.addAndGet(chunk.size());
+            count += chunk.size();
+
+            for (var listener : this.writeListeners) {
+                listener.accept(chunk);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Put failed records back unless a newer write for the same key is already pending
+     */
+    private void requeue(List<T> chunk) {
+        this.lock.lock();
+        try {
+            for (T record : chunk) {
+                this.pending.putIfAbsent(this.keyFunction.apply(record), record);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Destination for a chunk of coalesced writes
+     *
+     * @param <T> The type of record being persisted
+     */
+    @FunctionalInterface
+    public interface BatchSink<T> {
+        /**
+         * Write every record in the chunk atomically
+         *
+         * @param chunk At most {@link #MAX_BATCH_SIZE} records
+         * @throws Exception If the chunk could not be written
+         */
+        void write(List<T> chunk) throws Exception;
+    }
+}
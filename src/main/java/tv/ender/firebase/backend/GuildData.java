@@ -6,23 +6,25 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.Setter;
 import lombok.experimental.Accessors;
+import tv.ender.firebase.codec.GuildDataCodec;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
 
 @Data
 @Accessors(chain = true)
 @AllArgsConstructor(staticName = "of")
 public class GuildData {
     private String guildId;
-    private String guildName;
-    private String botPrefix;
-    private String botStatus;
-    private String activityType;
-    private List<String> adminRoles;
+    /* volatile, the change feed updates config in place while commands read it */
+    private volatile String guildName;
+    private volatile String botPrefix;
+    private volatile String botStatus;
+    private volatile String activityType;
+    private volatile List<String> adminRoles;
     @Setter(AccessLevel.NONE)
-    private boolean banned;
+    private volatile boolean banned;
 
     /**
      * Bans the guild from using the bot
@@ -31,6 +33,48 @@ public class GuildData {
         this.banned = true;
     }
 
+    /**
+     * Copy every config field that differs from a newer version of the guild
+     *
+     * @param source The newer version
+     * @return The names of the fields that changed, empty if none did
+     */
+    public synchronized List<String> update(GuildData source) {
+        List<String> changed = new ArrayList<>();
+
+        if (!Objects.equals(this.guildName, source.guildName)) {
+            this.guildName = source.guildName;
+            changed.add("guildName");
+        }
+
+        if (!Objects.equals(this.botPrefix, source.botPrefix)) {
+            this.botPrefix = source.botPrefix;
+            changed.add("botPrefix");
+        }
+
+        if (!Objects.equals(this.botStatus, source.botStatus)) {
+            this.botStatus = source.botStatus;
+            changed.add("botStatus");
+        }
+
+        if (!Objects.equals(this.activityType, source.activityType)) {
+            this.activityType = source.activityType;
+            changed.add("activityType");
+        }
+
+        if (!Objects.equals(this.adminRoles, source.adminRoles)) {
+            this.adminRoles = source.adminRoles == null ? null : new ArrayList<>(source.adminRoles);
+            changed.add("adminRoles");
+        }
+
+        if (this.banned != source.banned) {
+            this.banned = source.banned;
+            changed.add("banned");
+        }
+
+        return changed;
+    }
+
     /**
      * Creates a GuildData object from a Firestore document snapshot
      *
@@ -39,20 +83,6 @@ public class GuildData {
      * @throws IllegalArgumentException If the document snapshot is invalid
      */
     public static GuildData fromDocument(DocumentSnapshot snapshot) {
-        Map<String, Object> data = snapshot.getData();
-
-        try {
-            String guildId = (String) data.get("guildId");
-            String guildName = (String) data.get("guildName");
-            String botPrefix = (String) data.get("botPrefix");
-            String botStatus = (String) data.get("botStatus");
-            String activityType = (String) data.get("activityType");
-            String[] arrRoles = (String[]) data.get("adminRoles");
-            boolean banned = Boolean.parseBoolean((String) data.get("banned"));
-
-            return GuildData.of(guildId, guildName, botPrefix, botStatus, activityType, new ArrayList<>(List.of(arrRoles)), banned);
-        } catch (Exception e) {
-            throw new IllegalArgumentException("Failed to parse user data from document snapshot", e);
-        }
+        return GuildDataCodec.INSTANCE.decode(snapshot);
     }
 }
@@ -0,0 +1,61 @@
+package tv.ender.firebase.backend;
+
+/**
+ * A ticket balance that can only be moved atomically. Activities must go through
+ * {@link #tryDebit(int)} and {@link #credit(int)} rather than read-modify-write on the balance.
+ */
+public interface TicketWallet {
+    /**
+     * @return The current balance
+     */
+    int getTickets();
+
+    /**
+     * @return The number of debits the balance reflects, wrapping and never 0 once a debit was taken
+     */
+    int getDebits();
+
+    /**
+     * Debit tickets if the balance covers them
+     *
+     * @param amount The number of tickets to take
+     * @return Whether the tickets were taken
+     */
+    default boolean tryDebit(int amount) {
+        return this.debit(amount) != 0;
+    }
+
+    /**
+     * Debit tickets if the balance covers them
+     *
+     * @param amount The number of tickets to take
+     * @return The number of this debit, journaled so recovery can tell whether the balance reflects it, or 0 if nothing was taken
+     */
+    int debit(int amount);
+
+    /**
+     * Apply a journaled debit unless the balance already reflects it
+     *
+     * @param amount The number of tickets the debit took
+     * @param debit  The number {@link #debit(int)} returned
+     * @return Whether the balance now reflects the debit, false if it no longer covers it
+     */
+    boolean replayDebit(int amount, int debit);
+
+    /**
+     * Credit tickets to the balance
+     *
+     * @param amount The number of tickets to give
+     * @return The balance after the credit
+     * @throws ArithmeticException If the balance would overflow, the balance is left unchanged
+     */
+    int credit(int amount);
+
+    /**
+     * Credit as many tickets as the balance can hold
+     *
+     * @param amount The number of tickets to give
+     * @return The number of tickets credited, less than the amount only if the balance is full
+     */
+    int creditUpTo(int amount);
+}
@@ -1,21 +1,188 @@
 package tv.ender.firebase.backend;
 
 import com.google.cloud.firestore.DocumentSnapshot;
-import lombok.AllArgsConstructor;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.experimental.Accessors;
+import tv.ender.firebase.codec.UserDataCodec;
 
-import java.util.Map;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.Consumer;
 
 @Data()
 @Accessors(chain = true)
-@AllArgsConstructor(staticName = "of")
-public class UserData {
+public class UserData implements TicketWallet {
+    private static final VarHandle WALLET;
+
+    static {
+        try {
+            WALLET = MethodHandles.lookup().findVarHandle(UserData.class, "wallet", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private String name;
     private String discordId;
     private String guildId;
-    private int tickets;
+    /* balance in the low half and the number of debits in the high half, read and moved as one value */
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private volatile long wallet;
     private int losses;
+    /* told after every balance change, set by the cache that hands the user out */
+    @Getter(AccessLevel.NONE)
+    @ToString.Exclude
+    private transient volatile Consumer<UserData> balanceListener;
+
+    private UserData(String name, String discordId, String guildId, long wallet, int losses) {
+        this.name = name;
+        this.discordId = discordId;
+        this.guildId = guildId;
+        this.wallet = wallet;
+        this.losses = losses;
+    }
+
+    public static UserData of(String name, String discordId, String guildId, int tickets, int losses) {
+        return UserData.of(name, discordId, guildId, tickets, losses, 0);
+    }
+
+    /**
+     * @param debits The number of debits the balance already reflects, as stored with it
+     */
+    public static UserData of(String name, String discordId, String guildId, int tickets, int losses, int debits) {
+        return new UserData(name, discordId, guildId, wallet(tickets, debits), losses);
+    }
+
+    @Override
+    @ToString.Include
+    public int getTickets() {
+        return tickets(this.wallet);
+    }
+
+    @Override
+    @ToString.Include
+    public int getDebits() {
+        return debits(this.wallet);
+    }
+
+    /**
+     * @return The balance and debit count as of one moment, unpack with {@link #tickets(long)} and {@link #debits(long)}
+     */
+    public long getWallet() {
+        return this.wallet;
+    }
+
+    @Override
+    public int debit(int amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Cannot debit a negative amount: " + amount);
+        }
+
+        long current;
+        int debit;
+        do {
+            current = this.wallet;
+
+            if (amount > tickets(current)) {
+                return 0;
+            }
+
+            /* 0 means no debit, skip it when the count wraps */
+            debit = debits(current) + 1;
+            if (debit == 0) {
+                debit = 1;
+            }
+        } while (!WALLET.compareAndSet(this, current, wallet(tickets(current) - amount, debit)));
+
+        this.balanceChanged();
+        return debit;
+    }
+
+    @Override
+    public boolean replayDebit(int amount, int debit) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Cannot debit a negative amount: " + amount);
+        }
+
+        long current;
+        do {
+            current = this.wallet;
+
+            /* the stored balance already reflects it */
+            if (debit - debits(current) <= 0) {
+                return true;
+            }
+
+            if (amount > tickets(current)) {
+                return false;
+            }
+        } while (!WALLET.compareAndSet(this, current, wallet(tickets(current) - amount, debit)));
+
+        this.balanceChanged();
+        return true;
+    }
+
+    @Override
+    public int credit(int amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Cannot credit a negative amount: " + amount);
+        }
+
+        long current;
+        int credited;
+        do {
+            current = this.wallet;
+            credited = Math.addExact(tickets(current), amount);
+        } while (!WALLET.compareAndSet(this, current, wallet(credited, debits(current))));
+
+        this.balanceChanged();
+        return credited;
+    }
+
+    @Override
+    public int creditUpTo(int amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Cannot credit a negative amount: " + amount);
+        }
+
+        long current;
+        int credited;
+        do {
+            current = this.wallet;
+            credited = Math.min(amount, Integer.MAX_VALUE - tickets(current));
+        } while (!WALLET.compareAndSet(this, current, wallet(tickets(current) + credited, debits(current))));
+
+        if (credited != 0) {
+            this.balanceChanged();
+        }
+
+        return credited;
+    }
+
+    private void balanceChanged() {
+        Consumer<UserData> listener = this.balanceListener;
+
+        if (listener != null) {
+            listener.accept(this);
+        }
+    }
+
+    public static int tickets(long wallet) {
+        return (int) wallet;
+    }
+
+    public static int debits(long wallet) {
+        return (int) (wallet >>> 32);
+    }
+
+    private static long wallet(int tickets, int debits) {
+        return (long) debits << 32 | tickets & 0xFFFFFFFFL;
+    }
 
     /**
      * Creates a UserData object from a Firestore document snapshot
@@ -25,19 +192,7 @@ public class UserData {
      * @throws IllegalArgumentException If the document snapshot is invalid
      */
     public static UserData fromDocument(DocumentSnapshot snapshot) {
-        Map<String, Object> data = snapshot.getData();
-
-        try {
-            String name = (String) data.get("name");
-            String discordId = (String) data.get("discordId");
-            String guildId = (String) data.get("guildId");
-            int tickets = ((Long) data.get("tickets")).intValue();
-            int losses = ((Long) data.get("losses")).intValue();
-
-            return UserData.of(name, discordId, guildId, tickets, losses);
-        } catch (Exception e) {
-            throw new IllegalArgumentException("Failed to parse user data from document snapshot", e);
-        }
+        return UserDataCodec.INSTANCE.decode(snapshot);
     }
 
     @Override
@@ -0,0 +1,39 @@
+package tv.ender.firebase.codec;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+
+import java.util.Map;
+
+/**
+ * Converts a record to and from the field map Firestore stores, without the reflective bean mapper
+ *
+ * @param <T> The type of record
+ */
+public interface DocumentCodec<T> {
+    /**
+     * @param record The record
+     * @return The record's fields, ready for {@code set} or a write batch
+     */
+    Map<String, Object> encode(T record);
+
+    /**
+     * @param fields The fields of a stored document
+     * @return The record
+     * @throws IllegalArgumentException If a field is missing or has the wrong type
+     */
+    T decode(Map<String, Object> fields);
+
+    /**
+     * @param snapshot A stored document
+     * @return The record
+     * @throws IllegalArgumentException If the document does not exist or is malformed
+     */
+    default T decode(DocumentSnapshot snapshot) {
+        Map<String, Object> fields = snapshot.getData();
+        if (fields == null) {
+            throw new IllegalArgumentException("Document %s does not exist".formatted(snapshot.getId()));
+        }
+
+        return this.decode(fields);
+    }
+}
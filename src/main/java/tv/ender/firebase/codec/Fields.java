@@ -0,0 +1,86 @@
+package tv.ender.firebase.codec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typed reads of decoded Firestore values, which arrive as String, Long, Boolean and List
+ */
+final class Fields {
+    private Fields() {
+    }
+
+    static String string(Map<String, Object> fields, String name) {
+        Object value = fields.get(name);
+
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+
+        throw mismatch(name, "string", value);
+    }
+
+    static int integer(Map<String, Object> fields, String name) {
+        Object value = fields.get(name);
+
+        if (value instanceof Number number) {
+            long exact = number.longValue();
+
+            if (exact < Integer.MIN_VALUE || exact > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Field %s is out of range: %d".formatted(name, exact));
+            }
+
+            return (int) exact;
+        }
+
+        throw mismatch(name, "integer", value);
+    }
+
+    static int integer(Map<String, Object> fields, String name, int fallback) {
+        return fields.get(name) == null ? fallback : integer(fields, name);
+    }
+
+    static boolean bool(Map<String, Object> fields, String name) {
+        Object value = fields.get(name);
+
+        if (value == null) {
+            return false;
+        } else if (value instanceof Boolean flag) {
+            return flag;
+        } else if (value instanceof String text) {
+            /* written as a string before the codecs existed */
+            return Boolean.parseBoolean(text);
+        }
+
+        throw mismatch(name, "boolean", value);
+    }
+
+    static List<String> strings(Map<String, Object> fields, String name) {
+        Object value = fields.get(name);
+
+        if (value == null) {
+            return new ArrayList<>();
+        } else if (value instanceof List<?> list) {
+            List<String> strings = new ArrayList<>(list.size());
+
+            for (Object element : list) {
+                if (!(element instanceof String string)) {
+                    throw mismatch(name, "string list", element);
+                }
+
+                strings.add(string);
+            }
+
+            return strings;
+        }
+
+        throw mismatch(name, "string list", value);
+    }
+
+    private static IllegalArgumentException mismatch(String name, String expected, Object value) {
+        String actual = value == null ? "nothing" : value.getClass().getSimpleName();
+
+        return new IllegalArgumentException("Field %s should be a %s but was %s".formatted(name, expected, actual));
+    }
+}
@@ -0,0 +1,57 @@
+package tv.ender.firebase.codec;
+
+import tv.ender.firebase.backend.GuildData;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Field map codec for guilds, stored under the same names the bean mapper used
+ */
+public final class GuildDataCodec implements DocumentCodec<GuildData> {
+    public static final GuildDataCodec INSTANCE = new GuildDataCodec();
+
+    /* fields */
+    public static final String GUILD_ID = "guildId";
+    public static final String GUILD_NAME = "guildName";
+    public static final String BOT_PREFIX = "botPrefix";
+    public static final String BOT_STATUS = "botStatus";
+    public static final String ACTIVITY_TYPE = "activityType";
+    public static final String ADMIN_ROLES = "adminRoles";
+    public static final String BANNED = "banned";
+
+    private static final int FIELD_COUNT = 7;
+
+    private GuildDataCodec() {
+    }
+
+    @Override
+    public Map<String, Object> encode(GuildData guild) {
+        List<String> adminRoles = guild.getAdminRoles();
+
+        Map<String, Object> fields = HashMap.newHashMap(FIELD_COUNT);
+        fields.put(GUILD_ID, guild.getGuildId());
+        fields.put(GUILD_NAME, guild.getGuildName());
+        fields.put(BOT_PREFIX, guild.getBotPrefix());
+        fields.put(BOT_STATUS, guild.getBotStatus());
+        fields.put(ACTIVITY_TYPE, guild.getActivityType());
+        fields.put(ADMIN_ROLES, adminRoles == null ? new ArrayList<>() : new ArrayList<>(adminRoles));
+        fields.put(BANNED, guild.isBanned());
+
+        return fields;
+    }
+
+    @Override
+    public GuildData decode(Map<String, Object> fields) {
+        String guildId = Fields.string(fields, GUILD_ID);
+        if (guildId == null) {
+            throw new IllegalArgumentException("Guild has no " + GUILD_ID);
+        }
+
+        return GuildData.of(guildId, Fields.string(fields, GUILD_NAME), Fields.string(fields, BOT_PREFIX),
+                Fields.string(fields, BOT_STATUS), Fields.string(fields, ACTIVITY_TYPE), Fields.strings(fields, ADMIN_ROLES),
+                Fields.bool(fields, BANNED));
+    }
+}
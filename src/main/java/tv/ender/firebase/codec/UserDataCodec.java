@@ -0,0 +1,53 @@
+package tv.ender.firebase.codec;
+
+import tv.ender.firebase.backend.UserData;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Field map codec for users, stored under the same names the bean mapper used
+ */
+public final class UserDataCodec implements DocumentCodec<UserData> {
+    public static final UserDataCodec INSTANCE = new UserDataCodec();
+
+    /* fields */
+    public static final String NAME = "name";
+    public static final String DISCORD_ID = "discordId";
+    public static final String GUILD_ID = "guildId";
+    public static final String TICKETS = "tickets";
+    public static final String LOSSES = "losses";
+    /* how many debits the stored balance reflects, absent on users written before it existed */
+    public static final String DEBITS = "debits";
+
+    private static final int FIELD_COUNT = 6;
+
+    private UserDataCodec() {
+    }
+
+    @Override
+    public Map<String, Object> encode(UserData user) {
+        Map<String, Object> fields = HashMap.newHashMap(FIELD_COUNT);
+        fields.put(NAME, user.getName());
+        fields.put(DISCORD_ID, user.getDiscordId());
+        fields.put(GUILD_ID, user.getGuildId());
+        /* balance and debit count from the same moment */
+        long wallet = user.getWallet();
+        fields.put(TICKETS, (long) UserData.tickets(wallet));
+        fields.put(LOSSES, (long) user.getLosses());
+        fields.put(DEBITS, (long) UserData.debits(wallet));
+
+        return fields;
+    }
+
+    @Override
+    public UserData decode(Map<String, Object> fields) {
+        String discordId = Fields.string(fields, DISCORD_ID);
+        if (discordId == null) {
+            throw new IllegalArgumentException("User has no " + DISCORD_ID);
+        }
+
+        return UserData.of(Fields.string(fields, NAME), discordId, Fields.string(fields, GUILD_ID),
+                Fields.integer(fields, TICKETS), Fields.integer(fields, LOSSES), Fields.integer(fields, DEBITS, 0));
+    }
+}
@@ -0,0 +1,69 @@
+package tv.ender.simulation;
+
+import tv.ender.discord.backend.UserCache;
+import tv.ender.firebase.WriteBehindQueue;
+import tv.ender.firebase.backend.UserData;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory stand-in for the users collection. Loads hand out copies and writes store copies, so
+ * like Firestore the store only sees a balance once it has been persisted through the write-behind
+ * queue, never the live object the activities are debiting.
+ */
+public class InMemoryUserStore implements UserCache.UserLoader, WriteBehindQueue.BatchSink<UserData> {
+    private final Map<String, UserData> users = new ConcurrentHashMap<>();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+
+    /**
+     * Seed a user as if they were already in the database
+     *
+     * @param user The user
+     */
+    public void put(UserData user) {
+        this.users.put(user.getDiscordId(), copy(user));
+    }
+
+    @Override
+    public UserData load(String discordId) {
+        this.loads.increment();
+        UserData stored = this.users.get(discordId);
+
+        return stored == null ? null : copy(stored);
+    }
+
+    @Override
+    public void write(List<UserData> chunk) {
+        for (UserData user : chunk) {
+            this.users.put(user.getDiscordId(), copy(user));
+        }
+
+        this.writes.add(chunk.size());
+    }
+
+    /**
+     * @param discordId The user's discord id
+     * @return The persisted copy of the user, or null if they do not exist
+     */
+    public UserData get(String discordId) {
+        return this.users.get(discordId);
+    }
+
+    public long getLoadCount() {
+        return this.loads.sum();
+    }
+
+    public long getWriteCount() {
+        return this.writes.sum();
+    }
+
+    private static UserData copy(UserData user) {
+        long wallet = user.getWallet();
+        return UserData.of(user.getName(), user.getDiscordId(), user.getGuildId(), UserData.tickets(wallet), user.getLosses(),
+                UserData.debits(wallet));
+    }
+}
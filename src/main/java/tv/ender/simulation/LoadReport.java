@@ -0,0 +1,58 @@
+package tv.ender.simulation;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Outcome of a {@link LoadSimulator} run. Latencies are in nanoseconds and cover loading the user,
+ * entering and marking them dirty, measured from when the bet was scheduled to arrive.
+ */
+@Getter
+@AllArgsConstructor(staticName = "of")
+public class LoadReport {
+    private final long seed;
+    private final long attempted;
+    private final long accepted;
+    private final long rejected;
+    private final long elapsedNanos;
+    private final long p50Nanos;
+    private final long p99Nanos;
+    private final long p999Nanos;
+    private final long maxNanos;
+    private final long finalTickets;
+    private final int checks;
+    private final List<String> violations;
+
+    /**
+     * @return Accepted bets per second across every burst
+     */
+    public double getThroughput() {
+        return this.elapsedNanos == 0 ? 0 : this.accepted / (this.elapsedNanos / 1e9);
+    }
+
+    /**
+     * @return Whether every invariant held at every check
+     */
+    public boolean isHealthy() {
+        return this.violations.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder()
+                .append("seed %d: %d bets, %d accepted, %d rejected in %.2fs (%.0f bets/s)%n"
+                        .formatted(this.seed, this.attempted, this.accepted, this.rejected, this.elapsedNanos / 1e9, this.getThroughput()))
+                .append("latency p50 %.3fms, p99 %.3fms, p99.9 %.3fms, max %.3fms%n"
+                        .formatted(this.p50Nanos / 1e6, this.p99Nanos / 1e6, this.p999Nanos / 1e6, this.maxNanos / 1e6))
+                .append("%d tickets held by users at the end, %d invariant checks, %d violations"
+                        .formatted(this.finalTickets, this.checks, this.violations.size()));
+
+        for (String violation : this.violations) {
+            out.append(System.lineSeparator()).append("  ").append(violation);
+        }
+
+        return out.toString();
+    }
+}
@@ -0,0 +1,117 @@
+package tv.ender.simulation;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Traffic shape replayed by {@link LoadSimulator}. Steps run in order, each starting once the
+ * previous one has finished, so resets, cancels and settlements between bursts see a quiet guild
+ * while resets scheduled inside a burst race the bets around them.
+ */
+public class LoadScript {
+    private final List<Step> steps = new ArrayList<>();
+
+    public static LoadScript create() {
+        return new LoadScript();
+    }
+
+    /**
+     * A stream going live: a warm up prediction that gets reset, a 20k bet storm over 30 seconds
+     * with resets landing mid-storm, then a cancelled raffle and a settled one
+     *
+     * @return The script
+     */
+    public static LoadScript betStorm() {
+        return LoadScript.create()
+                .openPrediction(4)
+                .burst(2_000, Duration.ofSeconds(5), 0)
+                .reset()
+                .burst(20_000, Duration.ofSeconds(30), 3)
+                .settle(1)
+                .openRaffle()
+                .burst(5_000, Duration.ofSeconds(10), 0)
+                .cancel()
+                .openRaffle()
+                .burst(5_000, Duration.ofSeconds(10), 0)
+                .settle(3);
+    }
+
+    /**
+     * Open a prediction, cancelling whatever is still open
+     *
+     * @param options The number of options bets are spread across
+     */
+    public LoadScript openPrediction(int options) {
+        return this.add(Step.of(Kind.OPEN_PREDICTION, options, Duration.ZERO, 0));
+    }
+
+    /**
+     * Open a raffle, cancelling whatever is still open
+     */
+    public LoadScript openRaffle() {
+        return this.add(Step.of(Kind.OPEN_RAFFLE, 0, Duration.ZERO, 0));
+    }
+
+    /**
+     * Bet against the open activity
+     *
+     * @param bets   The number of bets
+     * @param window How long the bets arrive over
+     * @param resets The number of resets fired at random points during the burst
+     */
+    public LoadScript burst(int bets, Duration window, int resets) {
+        return this.add(Step.of(Kind.BURST, bets, window, resets));
+    }
+
+    public LoadScript reset() {
+        return this.add(Step.of(Kind.RESET, 0, Duration.ZERO, 0));
+    }
+
+    public LoadScript cancel() {
+        return this.add(Step.of(Kind.CANCEL, 0, Duration.ZERO, 0));
+    }
+
+    /**
+     * End the open activity, a prediction pays out a random option and a raffle draws winners
+     *
+     * @param winners The number of raffle winners
+     */
+    public LoadScript settle(int winners) {
+        return this.add(Step.of(Kind.SETTLE, winners, Duration.ZERO, 0));
+    }
+
+    public List<Step> getSteps() {
+        return Collections.unmodifiableList(this.steps);
+    }
+
+    private LoadScript add(Step step) {
+        this.steps.add(step);
+        return this;
+    }
+
+    public enum Kind {
+        OPEN_PREDICTION,
+        OPEN_RAFFLE,
+        BURST,
+        RESET,
+        CANCEL,
+        SETTLE
+    }
+
+    /**
+     * One scripted step, count is the options, bets or winners depending on the kind
+     */
+    @Getter
+    @AllArgsConstructor(staticName = "of")
+    public static class Step {
+        private final Kind kind;
+        private final int count;
+        private final Duration window;
+        private final int resets;
+    }
+}
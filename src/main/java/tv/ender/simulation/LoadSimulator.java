@@ -0,0 +1,539 @@
+package tv.ender.simulation;
+
+import tv.ender.common.ReadWriteLock;
+import tv.ender.common.Result;
+import tv.ender.common.metrics.Histogram;
+import tv.ender.common.metrics.MetricRegistry;
+import tv.ender.discord.backend.BotInstance;
+import tv.ender.discord.backend.GuildExecutor;
+import tv.ender.discord.backend.UserCache;
+import tv.ender.discord.backend.activities.Prediction;
+import tv.ender.discord.backend.activities.Raffle;
+import tv.ender.discord.backend.interfaces.IActivity;
+import tv.ender.discord.backend.ledger.ActivityCounters;
+import tv.ender.discord.backend.ledger.ParticipantSnapshot;
+import tv.ender.firebase.WriteBehindQueue;
+import tv.ender.firebase.backend.GuildData;
+import tv.ender.firebase.backend.UserData;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a {@link LoadScript} against a full {@link BotInstance} whose users are read through the
+ * real cache and persisted through the real write-behind queue into an {@link InMemoryUserStore}.
+ * The population, every bet, its arrival time and every draw come from the seed, so a run with one
+ * client thread replays exactly and a run with many reproduces the same traffic shape.
+ * <p>
+ * Whenever the guild goes quiet the invariants are checked: the tickets held by users plus the open
+ * pot are conserved across bets, refunds and payouts, the activity's counters agree with its entrants,
+ * no balance is negative and every changed balance reaches the store.
+ */
+public class LoadSimulator {
+    private static final String GUILD_ID = "100000000000000000";
+    private static final long USER_ID_BASE = 200000000000000000L;
+    private static final int MEAN_BET = 20;
+    private static final int SWITCH_ODDS = 20;
+    private static final Duration FLUSH_INTERVAL = Duration.ofMillis(100);
+    private static final Duration PERSIST_TIMEOUT = Duration.ofSeconds(10);
+
+    private final long seed;
+    private final int users;
+    private final int threads;
+    private final double speed;
+    private final Dispatch dispatch;
+
+    /**
+     * @param seed     Seeds the population, the bets and every draw
+     * @param users    The number of synthetic users in the guild
+     * @param threads  The number of client threads bets are sent from
+     * @param speed    How fast the script's windows are replayed, 1 is real time and 0 sends every bet as soon as possible
+     * @param dispatch How bets reach the activity
+     */
+    public LoadSimulator(long seed, int users, int threads, double speed, Dispatch dispatch) {
+        if (users <= 0 || threads <= 0 || speed < 0) {
+            throw new IllegalArgumentException("Invalid simulation of %d users on %d threads at speed %f".formatted(users, threads, speed));
+        }
+
+        this.seed = seed;
+        this.users = users;
+        this.threads = threads;
+        this.speed = speed;
+        this.dispatch = dispatch;
+    }
+
+    /**
+     * Replay a script from a fresh guild
+     *
+     * @param script The traffic to replay
+     * @return Throughput, latency and any broken invariants
+     * @throws InterruptedException If interrupted while waiting for bets or persistence
+     */
+    public LoadReport run(LoadScript script) throws InterruptedException {
+        SplittableRandom random = new SplittableRandom(this.seed);
+        InMemoryUserStore store = new InMemoryUserStore();
+        String[] ids = new String[this.users];
+        long tickets = 0;
+
+        for (int i = 0; i < this.users; i++) {
+            UserData user = UserData.of("sim" + i, String.valueOf(USER_ID_BASE + i), GUILD_ID, 100 + random.nextInt(1900), 0);
+
+            ids[i] = user.getDiscordId();
+            tickets += user.getTickets();
+            store.put(user);
+        }
+
+        int maxPending = Math.max(this.users, WriteBehindQueue.MAX_BATCH_SIZE);
+
+        try (WriteBehindQueue<UserData> queue = new WriteBehindQueue<>(store, UserData::getDiscordId, WriteBehindQueue.MAX_BATCH_SIZE, maxPending, FLUSH_INTERVAL);
+             GuildExecutor executor = new GuildExecutor();
+             ExecutorService clients = Executors.newFixedThreadPool(this.threads)) {
+            /* kept as tight as the population on purpose, so evictions race the bets and expose eviction bugs */
+            UserCache cache = new UserCache(store, queue, this.users, Duration.ofHours(1));
+            GuildData guild = GuildData.of(GUILD_ID, "simulation", "!", null, null, List.of(), false);
+            BotInstance instance = BotInstance.of(guild, cache, executor.mailbox(GUILD_ID));
+            cache.addChangeListener(instance.getLeaderboard()::update);
+
+            Run run = new Run(random, ids, tickets, store, queue, instance, clients);
+            for (LoadScript.Step step : script.getSteps()) {
+                run.execute(step);
+            }
+
+            cache.close();
+            return run.report();
+        }
+    }
+
+    /**
+     * Replay the bet storm script and exit non-zero if an invariant broke
+     *
+     * @param args [seed] [users] [client threads] [speed] [mailbox|direct]
+     */
+    public static void main(String[] args) throws InterruptedException {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 42;
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 5_000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        double speed = args.length > 3 ? Double.parseDouble(args[3]) : 1;
+        Dispatch dispatch = args.length > 4 ? Dispatch.valueOf(args[4].toUpperCase()) : Dispatch.MAILBOX;
+
+        LoadReport report = new LoadSimulator(seed, users, threads, speed, dispatch).run(LoadScript.betStorm());
+        System.out.println(report);
+
+        if (!report.isHealthy()) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * How a bet reaches the activity
+     */
+    public enum Dispatch {
+        /* queued on the guild's mailbox like a command, so bets within the guild run one at a time */
+        MAILBOX,
+        /* called straight from the client threads, racing every bet against each other to stress the ledger */
+        DIRECT
+    }
+
+    /**
+     * State of one replay
+     */
+    private class Run {
+        private final SplittableRandom random;
+        private final String[] ids;
+        private final InMemoryUserStore store;
+        private final WriteBehindQueue<UserData> queue;
+        private final BotInstance instance;
+        private final UserCache cache;
+        private final ExecutorService clients;
+        private final Histogram latency = new MetricRegistry().timer("simulation_bet_seconds", "Latency of simulated bets");
+        private final LongAdder attempted = new LongAdder();
+        private final LongAdder accepted = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final List<String> violations = new CopyOnWriteArrayList<>();
+
+        /* tickets that should be held by users plus whatever is in the open pot */
+        private long expected;
+        private long elapsed;
+        private int checks;
+        private int step;
+        private volatile IActivity activity;
+        private UUID identifier;
+        private String[] options;
+
+        Run(SplittableRandom random, String[] ids, long tickets, InMemoryUserStore store, WriteBehindQueue<UserData> queue,
+            BotInstance instance, ExecutorService clients) {
+            this.random = random;
+            this.ids = ids;
+            this.expected = tickets;
+            this.store = store;
+            this.queue = queue;
+            this.instance = instance;
+            this.cache = instance.getUserCache();
+            this.clients = clients;
+        }
+
+        void execute(LoadScript.Step step) throws InterruptedException {
+            this.step++;
+
+            if (this.activity == null && step.getKind() != LoadScript.Kind.OPEN_PREDICTION && step.getKind() != LoadScript.Kind.OPEN_RAFFLE) {
+                throw new IllegalStateException("No activity open for step %d (%s)".formatted(this.step, step.getKind()));
+            }
+
+            switch (step.getKind()) {
+                case OPEN_PREDICTION -> {
+                    this.options = new String[step.getCount()];
+                    for (int i = 0; i < this.options.length; i++) {
+                        this.options[i] = "Option" + (i + 1);
+                    }
+
+                    this.open(new Prediction());
+                }
+                case OPEN_RAFFLE -> {
+                    this.options = null;
+                    this.open(new Raffle());
+                }
+                case BURST -> this.burst(step);
+                case RESET -> this.reset();
+                case CANCEL -> {
+                    this.refund(this.activity::cancel);
+                    this.retire();
+                }
+                case SETTLE -> this.settle(step.getCount());
+            }
+
+            this.check("step %d (%s)".formatted(this.step, step.getKind()));
+        }
+
+        LoadReport report() {
+            return LoadReport.of(LoadSimulator.this.seed, this.attempted.sum(), this.accepted.sum(), this.rejected.sum(), this.elapsed,
+                    this.latency.valueAt(0.5), this.latency.valueAt(0.99), this.latency.valueAt(0.999), this.latency.getMax(),
+                    this.expected, this.checks, List.copyOf(this.violations));
+        }
+
+        private void open(IActivity activity) throws InterruptedException {
+            /* whatever was still running is cancelled, as a moderator starting a new one would */
+            if (this.activity != null) {
+                this.refund(this.activity::cancel);
+                this.retire();
+            }
+
+            this.activity = activity;
+            this.identifier = activity instanceof Prediction prediction ? prediction.getIdentifier() : ((Raffle) activity).getIdentifier();
+            this.instance.getActivities().put(this.identifier, activity);
+        }
+
+        private void retire() {
+            this.instance.getActivities().remove(this.identifier);
+            this.activity = null;
+        }
+
+        private void burst(LoadScript.Step step) throws InterruptedException {
+            int bets = step.getCount();
+            long window = step.getWindow().toNanos();
+            int[] bettors = new int[bets];
+            int[] amounts = new int[bets];
+            int[] picks = new int[bets];
+            long[] arrivals = new long[bets];
+
+            /* viewers stick to their side, the favourite draws the most */
+            int[] sides = new int[this.ids.length];
+            for (int i = 0; this.options != null && i < sides.length; i++) {
+                sides[i] = this.pick();
+            }
+
+            for (int i = 0; i < bets; i++) {
+                /* chatty viewers bet far more often than lurkers, most bets are small and a few try to switch sides */
+                bettors[i] = (int) (this.ids.length * Math.pow(this.random.nextDouble(), 2));
+                amounts[i] = 1 + (int) (-Math.log(1 - this.random.nextDouble()) * MEAN_BET);
+                picks[i] = this.options == null ? -1 : this.random.nextInt(SWITCH_ODDS) == 0 ? this.pick() : sides[bettors[i]];
+                arrivals[i] = window == 0 ? 0 : this.random.nextLong(window);
+            }
+
+            Arrays.sort(arrivals);
+
+            /* resets land after a number of bets rather than at a time, so they race the storm even when unpaced */
+            int[] resets = new int[step.getResets()];
+            for (int i = 0; i < resets.length; i++) {
+                resets[i] = this.random.nextInt(Math.max(1, bets));
+            }
+
+            Arrays.sort(resets);
+
+            AtomicInteger sent = new AtomicInteger();
+            List<Future<?>> clients = new ArrayList<>(LoadSimulator.this.threads);
+            long start = System.nanoTime();
+
+            for (int client = 0; client < LoadSimulator.this.threads; client++) {
+                int first = client;
+
+                clients.add(this.clients.submit(() -> {
+                    for (int i = first; i < bets; i += LoadSimulator.this.threads) {
+                        this.bet(start + this.scale(arrivals[i]), this.ids[bettors[i]], amounts[i], picks[i]);
+                        sent.incrementAndGet();
+                    }
+
+                    return null;
+                }));
+            }
+
+            Thread resetter = Thread.ofVirtual().name("simulation-resetter").start(() -> {
+                try {
+                    for (int after : resets) {
+                        while (sent.get() < after) {
+                            LockSupport.parkNanos(100_000);
+                        }
+
+                        this.reset();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+
+            try {
+                for (Future<?> client : clients) {
+                    client.get();
+                }
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Simulated client failed", e.getCause());
+            }
+
+            resetter.join();
+            this.elapsed += System.nanoTime() - start;
+        }
+
+        private void bet(long arrival, String discordId, int amount, int pick) throws Exception {
+            long now;
+            while ((now = System.nanoTime()) < arrival) {
+                LockSupport.parkNanos(arrival - now);
+            }
+
+            /* paced runs time from the scheduled arrival, so a client falling behind shows up as latency */
+            long begin = LoadSimulator.this.speed > 0 ? arrival : now;
+            Result<UserData> result = LoadSimulator.this.dispatch == Dispatch.MAILBOX
+                    ? this.instance.getMailbox().submit(() -> this.enter(discordId, amount, pick)).join()
+                    : this.enter(discordId, amount, pick);
+
+            this.latency.recordSince(begin);
+            this.attempted.increment();
+            (result.isSuccessful() ? this.accepted : this.rejected).increment();
+        }
+
+        private Result<UserData> enter(String discordId, int amount, int pick) throws InterruptedException {
+            Result<UserData> loaded = this.cache.get(discordId);
+            if (!loaded.isSuccessful()) {
+                return loaded;
+            }
+
+            UserData user = loaded.getHolder();
+            IActivity activity = this.activity;
+            ReadWriteLock lock = activity instanceof Prediction prediction ? prediction.getLock() : ((Raffle) activity).getLock();
+
+            /* entries no longer take the activity lock, hold it so a refund sees the bet and its user marked dirty together */
+            lock.readLock();
+            try {
+                Result<UserData> result = activity instanceof Prediction prediction
+                        ? prediction.enter(user, amount, this.options[pick])
+                        : ((Raffle) activity).enter(user, amount);
+
+                if (result.isSuccessful()) {
+                    this.cache.markDirty(user);
+                }
+
+                return result;
+            } finally {
+                lock.readUnlock();
+            }
+        }
+
+        private void reset() throws InterruptedException {
+            this.refund(() -> {
+                Result<?> result = this.activity instanceof Prediction prediction ? prediction.reset() : ((Raffle) this.activity).reset();
+
+                if (!result.isSuccessful()) {
+                    this.violations.add("step %d: reset rejected: %s".formatted(this.step, result.getMessage()));
+                }
+            });
+        }
+
+        /**
+         * Refund the open activity and persist everyone refunded, holding its lock so no bet can land
+         * between the refund and the refunded users being marked dirty
+         */
+        private void refund(Runnable refund) throws InterruptedException {
+            ReadWriteLock lock = this.activity instanceof Prediction prediction ? prediction.getLock() : ((Raffle) this.activity).getLock();
+
+            lock.writeLock();
+            try {
+                Set<UserData> refunded = this.activity.getParticipants();
+                refund.run();
+                this.persist(refunded);
+            } finally {
+                lock.writeUnlock();
+            }
+        }
+
+        private void settle(int winners) throws InterruptedException {
+            ParticipantSnapshot entrants = this.activity.snapshot();
+            long pot = entrants.getTotalTickets();
+
+            if (this.activity instanceof Prediction prediction) {
+                /* a reset late in the storm can leave options nobody backed, only those can be declared */
+                List<String> backed = Arrays.stream(this.options).filter(entrants.getPicks()::containsValue).toList();
+                if (backed.isEmpty()) {
+                    this.refund(this.activity::cancel);
+                    this.retire();
+                    return;
+                }
+
+                String winning = backed.get(this.random.nextInt(backed.size()));
+                Payout payout = Payout.of(entrants, winning);
+                Result<Set<UserData>> result = prediction.end(winning);
+
+                if (!result.isSuccessful()) {
+                    this.violations.add("step %d: prediction did not end: %s".formatted(this.step, result.getMessage()));
+                } else if (result.getHolder().size() != payout.winners) {
+                    this.violations.add("step %d: %d winners paid, expected %d".formatted(this.step, result.getHolder().size(), payout.winners));
+                }
+
+                this.expected += payout.paid - pot;
+            } else {
+                Result<List<UserData>> result = ((Raffle) this.activity).end(winners, this.random);
+                int drawn = result.isSuccessful() ? result.getHolder().size() : 0;
+
+                if (drawn != Math.min(winners, entrants.size())) {
+                    this.violations.add("step %d: %d raffle winners drawn from %d entrants, expected %d"
+                            .formatted(this.step, drawn, entrants.size(), Math.min(winners, entrants.size())));
+                } else if (drawn > 0 && (!entrants.getParticipants().containsAll(result.getHolder()) || new HashSet<>(result.getHolder()).size() != drawn)) {
+                    this.violations.add("step %d: raffle drew a non-entrant or the same entrant twice".formatted(this.step));
+                }
+
+                /* raffle tickets are spent, the winners take a prize rather than the pot */
+                this.expected -= pot;
+            }
+
+            this.persist(entrants.getParticipants());
+            this.retire();
+        }
+
+        private void persist(Collection<UserData> users) throws InterruptedException {
+            for (UserData user : users) {
+                this.cache.markDirty(user);
+            }
+        }
+
+        private void check(String label) throws InterruptedException {
+            this.checks++;
+            long balances = 0;
+
+            for (String id : this.ids) {
+                UserData user = this.cache.getIfPresent(id);
+                if (user == null) {
+                    user = this.store.get(id);
+                }
+
+                if (user.getTickets() < 0) {
+                    this.violations.add("%s: user %s has %d tickets".formatted(label, id, user.getTickets()));
+                }
+
+                balances += user.getTickets();
+            }
+
+            long pot = 0;
+            if (this.activity != null) {
+                ParticipantSnapshot entrants = this.activity.snapshot();
+                ActivityCounters counters = this.activity.getCounters();
+                long held = entrants.getTickets().values().stream().mapToLong(Integer::longValue).sum();
+                pot = counters.getTotalTickets();
+
+                if (pot != held || entrants.getTotalTickets() != held) {
+                    this.violations.add("%s: pot counter %d and snapshot total %d but entrants hold %d"
+                            .formatted(label, pot, entrants.getTotalTickets(), held));
+                }
+
+                if (counters.getEntrantCount() != entrants.size()) {
+                    this.violations.add("%s: entrant counter %d but %d entrants".formatted(label, counters.getEntrantCount(), entrants.size()));
+                }
+            }
+
+            if (balances + pot != this.expected) {
+                this.violations.add("%s: %d tickets in balances and %d in the pot, expected %d in total"
+                        .formatted(label, balances, pot, this.expected));
+            }
+
+            /* every balance marked dirty must reach the store */
+            this.queue.flush();
+            long deadline = System.nanoTime() + PERSIST_TIMEOUT.toNanos();
+            while (this.cache.getDirtyCount() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+
+            int stale = 0;
+            for (String id : this.ids) {
+                UserData user = this.cache.getIfPresent(id);
+
+                if (user != null && this.store.get(id).getTickets() != user.getTickets()) {
+                    stale++;
+                }
+            }
+
+            if (stale > 0) {
+                this.violations.add("%s: %d balances never reached the store".formatted(label, stale));
+            }
+        }
+
+        private int pick() {
+            return (int) (this.options.length * Math.pow(this.random.nextDouble(), 1.5));
+        }
+
+        private long scale(long offset) {
+            return LoadSimulator.this.speed == 0 ? 0 : (long) (offset / LoadSimulator.this.speed);
+        }
+    }
+
+    /**
+     * What a prediction should pay out, worked out from its entrants independently of the prediction,
+     * rounding each winner's share the same way
+     */
+    private static class Payout {
+        private long paid;
+        private int winners;
+
+        static Payout of(ParticipantSnapshot entrants, String winning) {
+            Payout payout = new Payout();
+            long total = entrants.getTotalTickets();
+            long winningBets = 0;
+
+            for (Map.Entry<UserData, Integer> entry : entrants.getTickets().entrySet()) {
+                if (winning.equals(entrants.getPicks().get(entry.getKey()))) {
+                    winningBets += entry.getValue();
+                    payout.winners++;
+                }
+            }
+
+            for (Map.Entry<UserData, Integer> entry : entrants.getTickets().entrySet()) {
+                if (winning.equals(entrants.getPicks().get(entry.getKey()))) {
+                    payout.paid += Math.round(total * (entry.getValue() / (double) winningBets));
+                }
+            }
+
+            return payout;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package discord;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import tv.ender.common.Result;
+import tv.ender.discord.backend.activities.Prediction;
+import tv.ender.discord.backend.activities.Raffle;
+import tv.ender.discord.backend.interfaces.IActivity;
+import tv.ender.discord.backend.journal.ActivityJournal;
+import tv.ender.discord.backend.journal.ActivityRecovery;
+import tv.ender.discord.backend.journal.JournalEvent;
+import tv.ender.discord.backend.journal.JournalState;
+import tv.ender.firebase.backend.UserData;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class ActivityJournalTest {
+    private Path directory;
+    private ActivityJournal journal;
+    private final Map<String, UserData> users = new HashMap<>();
+
+    @Rule
+    public final Timeout timeout = Timeout.seconds(20);
+
+    @Before
+    public void setup() throws IOException {
+        this.directory = Files.createTempDirectory("journal");
+        this.journal = this.open();
+        this.users.clear();
+    }
+
+    @After
+    public void teardown() throws IOException {
+        this.journal.close();
+
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private ActivityJournal open() throws IOException {
+        return new ActivityJournal(this.directory, 64 * 1024, 0, Duration.ofMillis(5));
+    }
+
+    private ActivityJournal reopen() throws IOException {
+        this.journal.close();
+        this.journal = this.open();
+
+        return this.journal;
+    }
+
+    private UserData user(int id) {
+        return this.users.computeIfAbsent(String.valueOf(id), key -> UserData.of("user" + id, key, "1", 1000, 0));
+    }
+
+    private Result<UserData> lookup(String discordId) {
+        UserData user = this.users.get(discordId);
+
+        return user == null ? Result.fail("unknown user") : Result.pass(user, "found");
+    }
+
+    @Test
+    public void recoversOpenActivities() throws Exception {
+        Prediction prediction = Prediction.open("guild", this.journal);
+        Raffle raffle = Raffle.open("guild", this.journal);
+        Raffle ended = Raffle.open("guild", this.journal);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(prediction.enter(this.user(i), 10, i % 2 == 0 ? "yes" : "no").isSuccessful());
+            assertTrue(raffle.enter(this.user(i), 5).isSuccessful());
+            assertTrue(raffle.enter(this.user(i), 5).isSuccessful());
+            assertTrue(ended.enter(this.user(i), 1).isSuccessful());
+        }
+        assertTrue(ended.end().isSuccessful());
+
+        /* balances are persisted separately, they were debited before the restart */
+        assertEquals(1000 - 10 - 10 - 1, this.user(3).getTickets());
+
+        JournalState state = this.reopen().recover();
+        assertEquals(2, state.getActivities().size());
+        assertNull(state.getActivity(ended.getIdentifier()));
+
+        Prediction restored = (Prediction) ActivityRecovery.restore(state.getActivity(prediction.getIdentifier()), this::lookup, this.journal);
+        Raffle restoredRaffle = (Raffle) ActivityRecovery.restore(state.getActivity(raffle.getIdentifier()), this::lookup, this.journal);
+
+        assertEquals(prediction.getIdentifier(), restored.getIdentifier());
+        assertEquals(100, restored.getTotalTickets());
+        assertEquals("no", restored.getEntrantPick().get(this.user(3)));
+        assertEquals(10, (int) restoredRaffle.getEntrantsTicketsMap().get(this.user(3)));
+        assertEquals(1000 - 21, this.user(3).getTickets());
+
+        /* the restored activity keeps journaling and settles as before */
+        assertTrue(restored.end("yes").isSuccessful());
+        assertEquals(1000 - 21 + 20, this.user(4).getTickets());
+        assertNull(this.reopen().recover().getActivity(prediction.getIdentifier()));
+    }
+
+    @Test
+    public void replaysDebitsTheStoreMissed() throws Exception {
+        Raffle raffle = Raffle.open("guild", this.journal);
+        Raffle other = Raffle.open("guild", this.journal);
+        assertTrue(raffle.enter(this.user(1), 10).isSuccessful());
+        assertTrue(raffle.enter(this.user(2), 10).isSuccessful());
+        assertTrue(other.enter(this.user(2), 30).isSuccessful());
+
+        /* user 1 was never flushed, user 2 was flushed after their first debit only */
+        Map<String, UserData> stored = new HashMap<>();
+        stored.put("1", UserData.of("user1", "1", "1", 1000, 0));
+        stored.put("2", UserData.of("user2", "2", "1", 990, 0, 1));
+
+        JournalState state = this.reopen().recover();
+        List<IActivity> restored = ActivityRecovery.restore(List.of(state.getActivity(raffle.getIdentifier()),
+                state.getActivity(other.getIdentifier())), id -> Result.pass(stored.get(id), "found"), this.journal);
+
+        assertEquals(990, stored.get("1").getTickets());
+        assertEquals(960, stored.get("2").getTickets());
+        assertEquals(20, restored.get(0).getTotalTickets());
+        assertEquals(30, restored.get(1).getTotalTickets());
+
+        /* restoring again takes nothing twice */
+        ActivityRecovery.restore(state.getActivity(raffle.getIdentifier()), id -> Result.pass(stored.get(id), "found"), this.journal);
+        assertEquals(990, stored.get("1").getTickets());
+        assertEquals(960, stored.get("2").getTickets());
+    }
+
+    @Test
+    public void dropsStakesTheBalanceNoLongerCovers() throws Exception {
+        Raffle raffle = Raffle.open("guild", this.journal);
+        assertTrue(raffle.enter(this.user(1), 600).isSuccessful());
+
+        Map<String, UserData> stored = Map.of("1", UserData.of("user1", "1", "1", 100, 0));
+        JournalState state = this.reopen().recover();
+        IActivity restored = ActivityRecovery.restore(state.getActivity(raffle.getIdentifier()), id -> Result.pass(stored.get(id), "found"), this.journal);
+
+        /* no tickets are minted */
+        assertEquals(0, restored.getTotalTickets());
+        assertEquals(100, stored.get("1").getTickets());
+    }
+
+    @Test
+    public void lockSurvivesRestart() throws Exception {
+        Prediction prediction = Prediction.open("guild", this.journal);
+        assertTrue(prediction.enter(this.user(1), 10, "yes").isSuccessful());
+        assertTrue(prediction.lockEntries());
+        assertFalse(prediction.lockEntries());
+
+        JournalState state = this.reopen().recover();
+        assertTrue(state.getActivity(prediction.getIdentifier()).isLocked());
+
+        Prediction restored = (Prediction) ActivityRecovery.restore(state.getActivity(prediction.getIdentifier()), this::lookup, this.journal);
+        assertFalse(restored.enter(this.user(2), 10, "yes").isSuccessful());
+        assertEquals(10, restored.getTotalTickets());
+        assertTrue(restored.end("yes").isSuccessful());
+    }
+
+    @Test
+    public void resetClearsEntries() throws Exception {
+        Raffle raffle = Raffle.open("guild", this.journal);
+        raffle.enter(this.user(1), 50);
+        raffle.reset();
+        raffle.enter(this.user(2), 20);
+
+        JournalState.ActivityRecord record = this.journal.recover().getActivity(raffle.getIdentifier());
+        assertEquals(1, record.getEntries().size());
+        assertEquals(20, record.getEntries().get("2").getTickets());
+        assertEquals("guild", record.getGuildId());
+
+        raffle.cancel();
+        assertTrue(this.reopen().recover().getActivities().isEmpty());
+    }
+
+    @Test
+    public void ignoresTornTail() throws Exception {
+        UUID activity = UUID.randomUUID();
+        this.journal.append(JournalEvent.open(JournalEvent.Type.RAFFLE, activity, "guild"));
+        long end = this.journal.append(JournalEvent.enter(activity, "1", 10, null));
+        this.journal.close();
+
+        /* half written third record */
+        Path segment;
+        try (Stream<Path> files = Files.list(this.directory)) {
+            segment = files.filter(path -> path.toString().endsWith(".log")).findFirst().orElseThrow();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(end);
+            file.writeInt(40);
+            file.writeInt(12345);
+            file.writeByte(2);
+        }
+
+        this.journal = this.open();
+        assertEquals(end, this.journal.getAppended());
+        this.journal.append(JournalEvent.enter(activity, "2", 7, null));
+
+        JournalState state = this.reopen().recover();
+        assertEquals(3, state.getEvents());
+        assertEquals(7, state.getActivity(activity).getEntries().get("2").getTickets());
+    }
+
+    @Test
+    public void snapshotCompactsSegments() throws Exception {
+        UUID open = UUID.randomUUID();
+        UUID closed = UUID.randomUUID();
+        this.journal.append(JournalEvent.open(JournalEvent.Type.PREDICTION, open, "guild"));
+        this.journal.append(JournalEvent.open(JournalEvent.Type.RAFFLE, closed, "guild"));
+
+        /* enough entries to fill several segments */
+        for (int i = 0; i < 20_000; i++) {
+            this.journal.append(JournalEvent.enter(open, String.valueOf(i % 100), 1, "yes"));
+            this.journal.append(JournalEvent.enter(closed, String.valueOf(i % 100), 1, null));
+        }
+        this.journal.append(JournalEvent.of(JournalEvent.Type.END, closed));
+
+        JournalState snapshot = this.journal.snapshot();
+        assertEquals(1, snapshot.getActivities().size());
+
+        this.journal.append(JournalEvent.enter(open, "100", 5, "no"));
+
+        long files;
+        try (Stream<Path> list = Files.list(this.directory)) {
+            files = list.count();
+        }
+        assertEquals(2, files);
+
+        JournalState state = this.reopen().recover();
+        assertEquals(1 + 100 + 1, state.getEvents());
+        assertEquals(200, state.getActivity(open).getEntries().get("7").getTickets());
+        assertEquals(5, state.getActivity(open).getEntries().get("100").getTickets());
+    }
+
+    @Test
+    public void groupsConcurrentSyncs() throws Exception {
+        UUID activity = UUID.randomUUID();
+        Thread[] threads = new Thread[16];
+
+        for (int i = 0; i < threads.length; i++) {
+            int id = i;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 50; j++) {
+                    assertTrue(this.journal.tryWrite(JournalEvent.enter(activity, String.valueOf(id), 1, null)));
+                }
+            });
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(this.journal.getAppended(), this.journal.getDurable());
+        assertTrue(this.journal.getSyncCount() < 16 * 50);
+        assertEquals(800, this.reopen().replay(event -> {}));
+    }
+
+    @Test
+    public void syncCoversRolledSegments() throws Exception {
+        UUID activity = UUID.randomUUID();
+        Thread[] threads = new Thread[8];
+
+        /* a few thousand entries roll several 64k segments, each filled one is forced by the syncer */
+        for (int i = 0; i < threads.length; i++) {
+            int id = i;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 600; j++) {
+                    assertTrue(this.journal.tryWrite(JournalEvent.enter(activity, String.valueOf(id), 1, "yes")));
+                }
+            });
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long segments;
+        try (Stream<Path> files = Files.list(this.directory)) {
+            segments = files.count();
+        }
+
+        assertTrue(segments > 1);
+        assertEquals(this.journal.getAppended(), this.journal.getDurable());
+        assertEquals(4_800, this.reopen().replay(event -> {}));
+    }
+}
@@ -0,0 +1,241 @@
+package discord;
+
+import org.junit.Before;
+import org.junit.Test;
+import tv.ender.common.Result;
+import tv.ender.common.TimingWheel;
+import tv.ender.discord.backend.BotInstance;
+import tv.ender.discord.backend.UserCache;
+import tv.ender.discord.backend.activities.Prediction;
+import tv.ender.discord.backend.activities.Raffle;
+import tv.ender.discord.backend.schedule.ActivityScheduler;
+import tv.ender.firebase.WriteBehindQueue;
+import tv.ender.firebase.backend.GuildData;
+import tv.ender.firebase.backend.UserData;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ActivitySchedulerTest {
+    private static final long START = 1_700_000_000_000L;
+
+    private final AtomicLong clock = new AtomicLong(START);
+    private TimingWheel wheel;
+
+    @Before
+    public void setup() {
+        this.clock.set(START);
+        this.wheel = new TimingWheel(Duration.ofMillis(10), 8, 3, Runnable::run, this.clock::get);
+    }
+
+    private void advance(long millis) {
+        this.clock.addAndGet(millis);
+        this.wheel.advanceTo(this.clock.get());
+    }
+
+    @Test
+    public void firesOnTimeAcrossLevels() {
+        Random random = new Random(7);
+        List<long[]> fired = new ArrayList<>();
+
+        /* 8 slots of 10ms over 3 levels span 5.12s, deadlines go past it to exercise the overflow */
+        for (int i = 0; i < 5_000; i++) {
+            long deadline = START + random.nextLong(1, 20_000);
+            this.wheel.schedule(deadline, () -> fired.add(new long[]{deadline, this.clock.get()}));
+        }
+
+        while (this.wheel.size() > 0) {
+            this.advance(random.nextInt(1, 40));
+        }
+
+        assertEquals(5_000, fired.size());
+        for (long[] timer : fired) {
+            /* never early, late by less than a tick plus the step size */
+            assertTrue(timer[1] >= timer[0]);
+            assertTrue(timer[1] - timer[0] < 50);
+        }
+    }
+
+    @Test
+    public void cancelsAndReschedules() {
+        AtomicInteger runs = new AtomicInteger();
+
+        TimingWheel.Timeout cancelled = this.wheel.schedule(START + 100, runs::incrementAndGet);
+        TimingWheel.Timeout moved = this.wheel.schedule(START + 100, runs::incrementAndGet);
+
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        assertTrue(moved.reschedule(START + 3_000));
+        assertEquals(1, this.wheel.size());
+
+        this.advance(2_000);
+        assertEquals(0, runs.get());
+
+        this.advance(1_000);
+        assertEquals(1, runs.get());
+        assertFalse(moved.isPending());
+        assertFalse(moved.reschedule(START + 5_000));
+        assertEquals(0, this.wheel.size());
+    }
+
+    @Test
+    public void locksAndDrawsRaffle() {
+        ActivityScheduler scheduler = new ActivityScheduler(this.wheel);
+        BotInstance instance = BotInstance.of(GuildData.of("1", "guild", "!", "online", "PLAYING", new ArrayList<>(), false), null, null);
+        Raffle raffle = new Raffle();
+        UserData user = UserData.of("user", "1", "1", 100, 0);
+        AtomicReference<Result<UserData>> settled = new AtomicReference<>();
+        AtomicInteger reminders = new AtomicInteger();
+
+        instance.getActivities().put(raffle.getIdentifier(), raffle);
+        scheduler.schedule(instance, raffle, START + 1_000, START + 2_000, settled::set);
+        scheduler.remindAt(raffle.getIdentifier(), START + 500, Runnable::run, reminders::incrementAndGet);
+        scheduler.remindAt(raffle.getIdentifier(), START + 10_000, Runnable::run, reminders::incrementAndGet);
+
+        assertTrue(raffle.enter(user, 10).isSuccessful());
+        this.advance(600);
+        assertEquals(1, reminders.get());
+
+        /* cheap extension of the entry window */
+        assertTrue(scheduler.reschedule(raffle.getIdentifier(), ActivityScheduler.Deadline.LOCK, START + 1_500));
+        this.advance(600);
+        assertTrue(raffle.enter(user, 10).isSuccessful());
+
+        this.advance(400);
+        assertFalse(raffle.enter(user, 10).isSuccessful());
+        assertNull(settled.get());
+
+        this.advance(500);
+        assertTrue(settled.get().isSuccessful());
+        assertEquals(user, settled.get().getHolder());
+        assertTrue(instance.getActivities().isEmpty());
+
+        /* settling drops the remaining reminder */
+        assertEquals(0, scheduler.getScheduledCount());
+        assertEquals(0, scheduler.getTimerCount());
+    }
+
+    @Test
+    public void refundsUnresolvedPrediction() {
+        ActivityScheduler scheduler = new ActivityScheduler(this.wheel);
+        BotInstance instance = BotInstance.of(GuildData.of("1", "guild", "!", "online", "PLAYING", new ArrayList<>(), false), null, null);
+        Prediction prediction = new Prediction();
+        UserData user = UserData.of("user", "1", "1", 100, 0);
+
+        instance.getActivities().put(prediction.getIdentifier(), prediction);
+        scheduler.schedule(instance, prediction, START + 1_000, START + 5_000);
+        assertEquals(START + 5_000, scheduler.getDeadline(prediction.getIdentifier(), ActivityScheduler.Deadline.SETTLE));
+
+        assertTrue(prediction.enter(user, 40, "yes").isSuccessful());
+        this.advance(1_000);
+        assertFalse(prediction.enter(user, 10, "yes").isSuccessful());
+        assertEquals(60, user.getTickets());
+
+        this.advance(4_000);
+        assertEquals(100, user.getTickets());
+        assertTrue(instance.getActivities().isEmpty());
+    }
+
+    @Test
+    public void expiryDoesNotRefundResolvedPrediction() {
+        ActivityScheduler scheduler = new ActivityScheduler(this.wheel);
+        BotInstance instance = BotInstance.of(GuildData.of("1", "guild", "!", "online", "PLAYING", new ArrayList<>(), false), null, null);
+        UserData first = UserData.of("first", "1", "1", 100, 0);
+        UserData second = UserData.of("second", "2", "1", 100, 0);
+
+        Prediction prediction = instance.openPrediction(scheduler, null, START + 1_000, START + 5_000);
+        assertTrue(prediction.enter(first, 100, "yes").isSuccessful());
+        assertTrue(prediction.enter(second, 100, "no").isSuccessful());
+
+        /* resolved by a moderator while still listed, the expiry must not refund the paid pot */
+        this.advance(2_000);
+        assertTrue(prediction.end("yes").isSuccessful());
+        this.advance(3_000);
+
+        assertEquals(200, first.getTickets());
+        assertEquals(0, second.getTickets());
+        assertTrue(instance.getActivities().isEmpty());
+        assertEquals(0, scheduler.getScheduledCount());
+
+        /* closing early drops the deadlines */
+        Prediction closed = instance.openPrediction(scheduler, null, START + 6_000, START + 9_000);
+        assertTrue(closed.cancel());
+        instance.closeActivity(scheduler, closed);
+        assertTrue(instance.getActivities().isEmpty());
+        assertEquals(0, scheduler.getTimerCount());
+    }
+
+    @Test
+    public void settledBalancesReachBatchSink() throws InterruptedException {
+        BlockingQueue<Map<String, Integer>> batches = new LinkedBlockingQueue<>();
+        Map<String, Integer> stored = new ConcurrentHashMap<>(Map.of("1", 100, "2", 100));
+
+        /* far longer than the test, only a settlement can get the payouts out in time */
+        try (WriteBehindQueue<UserData> queue = new WriteBehindQueue<>(chunk -> {
+            Map<String, Integer> batch = new HashMap<>();
+            chunk.forEach(user -> batch.put(user.getDiscordId(), user.getTickets()));
+            batches.add(batch);
+        }, UserData::getDiscordId, 500, 1000, Duration.ofMinutes(5))) {
+            UserCache cache = new UserCache(id -> UserData.of("user" + id, id, "1", stored.get(id), 0), queue, 100, Duration.ofMinutes(1));
+            ActivityScheduler scheduler = new ActivityScheduler(this.wheel);
+            BotInstance instance = BotInstance.of(GuildData.of("1", "guild", "!", "online", "PLAYING", new ArrayList<>(), false), cache, null);
+            UserData first = cache.get("1").getHolder();
+            UserData second = cache.get("2").getHolder();
+
+            Prediction prediction = instance.openPrediction(scheduler, null, START + 1_000, START + 5_000);
+            assertTrue(prediction.enter(first, 40, "yes").isSuccessful());
+            assertTrue(prediction.enter(second, 60, "no").isSuccessful());
+
+            assertTrue(prediction.end("yes").isSuccessful());
+            instance.closeActivity(scheduler, prediction);
+            assertEquals(Map.of("1", 160, "2", 40), batches.poll(5, TimeUnit.SECONDS));
+
+            /* an expired prediction's refunds go out the same way */
+            Prediction expired = instance.openPrediction(scheduler, null, START + 1_000, START + 5_000);
+            assertTrue(expired.enter(first, 10, "yes").isSuccessful());
+            this.advance(5_000);
+            assertEquals(Map.of("1", 160), batches.poll(5, TimeUnit.SECONDS));
+            assertEquals(0, cache.getDirtyCount());
+        }
+    }
+
+    @Test
+    public void holdsManyActivities() {
+        ActivityScheduler scheduler = new ActivityScheduler(this.wheel);
+        AtomicInteger locked = new AtomicInteger();
+        List<UUID> ids = new ArrayList<>();
+
+        for (int i = 0; i < 50_000; i++) {
+            UUID id = UUID.randomUUID();
+            ids.add(id);
+            scheduler.lockAt(id, START + 1_000 + i % 3_000, Runnable::run, locked::incrementAndGet);
+            scheduler.settleAt(id, START + 10_000 + i % 3_000, Runnable::run, () -> {});
+        }
+
+        for (int i = 0; i < ids.size(); i += 2) {
+            scheduler.cancel(ids.get(i));
+        }
+
+        assertEquals(25_000, scheduler.getScheduledCount());
+        this.advance(4_000);
+        assertEquals(25_000, locked.get());
+
+        this.advance(10_000);
+        assertEquals(0, scheduler.getScheduledCount());
+        assertEquals(0, scheduler.getTimerCount());
+    }
+}
@@ -0,0 +1,69 @@
+package discord;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import tv.ender.discord.command.CommandDispatcher;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CommandDispatcherTest {
+    private static final int COMMANDS = 1_000;
+    private static final int BACKLOG = 16;
+
+    @Rule
+    public final Timeout timeout = Timeout.seconds(10);
+
+    @Test
+    public void blockedGuildDoesNotStarveOthers() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger slow = new AtomicInteger();
+        AtomicInteger fast = new AtomicInteger();
+        AtomicInteger dropped = new AtomicInteger();
+
+        /* the stuck guild's commands arrive first, far more than the grouping prefetches */
+        Flux<String> commands = Flux.concat(Flux.range(0, COMMANDS).map(i -> "stuck"), Flux.range(0, COMMANDS).map(i -> "busy"));
+
+        Disposable dispatch = CommandDispatcher.perGuild(commands, guild -> guild, guild -> {
+            if (guild.equals("busy")) {
+                return Mono.fromRunnable(fast::incrementAndGet);
+            }
+
+            return Mono.<Void>fromRunnable(() -> {
+                try {
+                    release.await();
+                    slow.incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }).subscribeOn(Schedulers.boundedElastic());
+        }, 1, BACKLOG, guild -> dropped.incrementAndGet()).subscribe();
+
+        try {
+            /* served while every handler of the stuck guild is still blocked */
+            while (fast.get() < COMMANDS) {
+                Thread.sleep(1);
+            }
+
+            assertEquals(0, slow.get());
+            assertEquals(COMMANDS - BACKLOG - 1, dropped.get());
+
+            release.countDown();
+            while (slow.get() < BACKLOG + 1) {
+                Thread.sleep(1);
+            }
+
+            assertEquals(COMMANDS, slow.get() + dropped.get());
+        } finally {
+            release.countDown();
+            dispatch.dispose();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package discord;
+
+import org.junit.Test;
+import tv.ender.discord.command.CommandParser;
+import tv.ender.discord.command.ParsedCommand;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CommandParserTest {
+    @Test
+    public void parseNameAndArgs() {
+        ParsedCommand command = CommandParser.parse("!Bet  50   Option1", "!");
+
+        assertNotNull(command);
+        assertEquals("bet", command.getName());
+        assertEquals(List.of("50", "Option1"), command.getArgs());
+    }
+
+    @Test
+    public void parseGuildPrefix() {
+        ParsedCommand command = CommandParser.parse("c!ping", "c!");
+
+        assertNotNull(command);
+        assertEquals("ping", command.getName());
+        assertTrue(command.getArgs().isEmpty());
+    }
+
+    @Test
+    public void ignoreOtherPrefix() {
+        assertNull(CommandParser.parse("!ping", "c!"));
+    }
+
+    @Test
+    public void ignoreBarePrefix() {
+        assertNull(CommandParser.parse("!", "!"));
+        assertNull(CommandParser.parse("!   ", "!"));
+        assertNull(CommandParser.parse("! ping", "!"));
+    }
+}
@@ -0,0 +1,107 @@
+package discord;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import tv.ender.discord.backend.BotInstance;
+import tv.ender.discord.backend.GuildConfigSync;
+import tv.ender.firebase.GuildChange;
+import tv.ender.firebase.backend.GuildData;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class GuildConfigSyncTest {
+    private static final String GUILD = "1090379681330630748";
+
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+    private BotInstance instance;
+    private GuildConfigSync sync;
+
+    @Rule
+    public final Timeout timeout = Timeout.seconds(10);
+
+    @Before
+    public void setup() {
+        this.instance = BotInstance.of(guild("!", false), null, null);
+        /* long window so only explicit flushes apply edits */
+        this.sync = new GuildConfigSync(id -> id.equals(GUILD) ? this.instance : null, Duration.ofMinutes(1), this.clock::get);
+    }
+
+    @After
+    public void teardown() {
+        this.sync.close();
+    }
+
+    @Test
+    public void coalescesBurstIntoNewestVersion() {
+        this.sync.accept(GuildChange.of(guild("?", false), 999_000, false));
+        this.sync.accept(GuildChange.of(guild("$", false), 999_500, false));
+        /* delivered late, older than what is queued */
+        this.sync.accept(GuildChange.of(guild("#", false), 999_200, false));
+
+        assertEquals("!", this.instance.getGuildData().getBotPrefix());
+        assertEquals(1, this.sync.flush());
+        assertEquals("$", this.instance.getGuildData().getBotPrefix());
+
+        GuildConfigSync.Stats stats = this.sync.sample();
+        assertEquals(3, stats.getReceived());
+        assertEquals(2, stats.getCoalesced());
+        assertEquals(1, stats.getApplied());
+        assertEquals(500, stats.getMaxLagMillis());
+    }
+
+    @Test
+    public void banSkipsDebounce() {
+        this.sync.accept(GuildChange.of(guild("?", true), 999_000, false));
+
+        assertTrue(this.instance.getGuildData().isBanned());
+        assertEquals("?", this.instance.getGuildData().getBotPrefix());
+        assertEquals(0, this.sync.sample().getPending());
+
+        /* a stale edit cannot lift the ban */
+        this.sync.accept(GuildChange.of(guild("!", false), 998_000, false));
+        this.sync.flush();
+        assertTrue(this.instance.getGuildData().isBanned());
+    }
+
+    @Test
+    public void appliesDebouncedEditsOnItsOwn() throws Exception {
+        GuildConfigSync fast = new GuildConfigSync(id -> this.instance, Duration.ofMillis(20), this.clock::get);
+        GuildData edited = guild("!", false);
+        edited.getAdminRoles().add("42");
+
+        fast.accept(GuildChange.of(edited, 1_000_000, false));
+        while (!this.instance.getGuildData().getAdminRoles().contains("42")) {
+            Thread.sleep(5);
+        }
+
+        fast.close();
+    }
+
+    @Test
+    public void ignoresUnservedGuilds() {
+        GuildData other = guild("?", true).setGuildId("1");
+        this.sync.accept(GuildChange.of(other, 999_000, true));
+
+        assertEquals(0, this.sync.flush());
+        assertFalse(this.instance.getGuildData().isBanned());
+        /* the initial snapshot replays old commits and is left out of lag */
+        assertEquals(0, this.sync.sample().getMaxLagMillis());
+    }
+
+    private static GuildData guild(String prefix, boolean banned) {
+        GuildData guild = GuildData.of(GUILD, "Ender", prefix, "online", "PLAYING", new ArrayList<>(List.of("1")), false);
+        if (banned) {
+            guild.ban();
+        }
+
+        return guild;
+    }
+}
@@ -0,0 +1,138 @@
+package discord;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import tv.ender.discord.backend.GuildExecutor;
+import tv.ender.discord.backend.GuildMailbox;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GuildExecutorTest {
+    private static final int GUILDS = 5_000;
+    private static final int COMMANDS_PER_GUILD = 20;
+    private static final int PRODUCERS = 16;
+
+    private GuildExecutor executor;
+
+    @Rule
+    public final Timeout timeout = Timeout.seconds(60);
+
+    @Before
+    public void setup() {
+        this.executor = new GuildExecutor();
+    }
+
+    @After
+    public void teardown() {
+        this.executor.close();
+    }
+
+    /**
+     * Per-guild state only ever touched from the guild's mailbox
+     */
+    private static class Guild {
+        final GuildMailbox mailbox;
+        final AtomicBoolean running = new AtomicBoolean();
+        int lastCommand = -1;
+        int handled;
+        boolean outOfOrder;
+        boolean overlapped;
+
+        Guild(GuildMailbox mailbox) {
+            this.mailbox = mailbox;
+        }
+    }
+
+    @Test
+    public void simulateGuildCommandStorm() throws InterruptedException {
+        Guild[] guilds = new Guild[GUILDS];
+        for (int i = 0; i < GUILDS; i++) {
+            guilds[i] = new Guild(this.executor.mailbox(String.valueOf(i)));
+        }
+
+        CountDownLatch done = new CountDownLatch(GUILDS * COMMANDS_PER_GUILD);
+        Thread[] producers = new Thread[PRODUCERS];
+        long start = System.nanoTime();
+
+        /* each producer owns a slice of guilds so per-guild submission order is known */
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            producers[p] = new Thread(() -> {
+                for (int command = 0; command < COMMANDS_PER_GUILD; command++) {
+                    for (int g = producer; g < GUILDS; g += PRODUCERS) {
+                        final Guild guild = guilds[g];
+                        final int sequence = command;
+
+                        guild.mailbox.execute(() -> {
+                            if (!guild.running.compareAndSet(false, true)) {
+                                guild.overlapped = true;
+                            }
+
+                            /* simulate a blocking read */
+                            try {
+                                Thread.sleep(1);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+
+                            if (sequence != guild.lastCommand + 1) {
+                                guild.outOfOrder = true;
+                            }
+                            guild.lastCommand = sequence;
+                            guild.handled++;
+
+                            guild.running.set(false);
+                            done.countDown();
+                        });
+                    }
+                }
+            });
+            producers[p].start();
+        }
+
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        done.await();
+
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("Handled %d commands across %d guilds in %dms%n", GUILDS * COMMANDS_PER_GUILD, GUILDS, elapsed / 1_000_000);
+
+        for (Guild guild : guilds) {
+            assertEquals(COMMANDS_PER_GUILD, guild.handled);
+            assertFalse(guild.outOfOrder);
+            assertFalse(guild.overlapped);
+        }
+    }
+
+    @Test
+    public void submitReturnsResult() throws ExecutionException, InterruptedException {
+        GuildMailbox mailbox = this.executor.mailbox("1");
+        AtomicInteger counter = new AtomicInteger();
+
+        for (int i = 0; i < 100; i++) {
+            mailbox.execute(counter::incrementAndGet);
+        }
+
+        assertEquals(100, (int) mailbox.submit(counter::get).get());
+    }
+
+    @Test
+    public void failedTaskDoesNotStallMailbox() throws ExecutionException, InterruptedException {
+        GuildMailbox mailbox = this.executor.mailbox("1");
+
+        mailbox.execute(() -> {
+            throw new IllegalStateException("boom");
+        });
+
+        assertEquals("ok", mailbox.submit(() -> "ok").get());
+    }
+}
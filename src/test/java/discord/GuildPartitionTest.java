@@ -0,0 +1,278 @@
+package discord;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import tv.ender.discord.backend.BotInstance;
+import tv.ender.discord.backend.GuildExecutor;
+import tv.ender.discord.backend.UserCache;
+import tv.ender.discord.backend.activities.Prediction;
+import tv.ender.discord.backend.interfaces.IActivity;
+import tv.ender.discord.cluster.ActivityHandoff;
+import tv.ender.discord.cluster.GuildHost;
+import tv.ender.discord.cluster.GuildPartitioner;
+import tv.ender.discord.cluster.HashRing;
+import tv.ender.discord.cluster.InMemoryLeaseStore;
+import tv.ender.firebase.WriteBehindQueue;
+import tv.ender.firebase.backend.GuildData;
+import tv.ender.firebase.backend.UserData;
+import tv.ender.simulation.InMemoryUserStore;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class GuildPartitionTest {
+    private static final Duration TTL = Duration.ofSeconds(10);
+
+    /* in-process cluster sharing one lease store and one users collection */
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final InMemoryLeaseStore leases = new InMemoryLeaseStore(this.now::get);
+    private final InMemoryUserStore users = new InMemoryUserStore();
+    private final List<WriteBehindQueue<UserData>> queues = new ArrayList<>();
+    private GuildExecutor executor;
+
+    @Rule
+    public final Timeout timeout = Timeout.seconds(30);
+
+    @Before
+    public void setup() {
+        this.executor = new GuildExecutor();
+
+        for (int i = 0; i < 10; i++) {
+            this.users.put(UserData.of("user" + i, userId(i), "1", 100, 0));
+        }
+    }
+
+    @After
+    public void teardown() {
+        this.queues.forEach(WriteBehindQueue::close);
+        this.executor.close();
+    }
+
+    private GuildPartitioner node(String nodeId, ActivityHandoff.Mode mode) {
+        WriteBehindQueue<UserData> queue = new WriteBehindQueue<>(this.users, UserData::getDiscordId, 500, 1000, Duration.ofMinutes(1));
+        this.queues.add(queue);
+
+        GuildHost host = new GuildHost() {
+            @Override
+            public BotInstance open(String guildId) {
+                UserCache cache = new UserCache(GuildPartitionTest.this.users, queue, 1000, Duration.ofMinutes(10));
+                GuildData guild = GuildData.of(guildId, "guild" + guildId, "!", null, null, List.of(), false);
+
+                return BotInstance.of(guild, cache, GuildPartitionTest.this.executor.mailbox(guildId));
+            }
+
+            @Override
+            public void close(BotInstance instance) {
+                instance.getUserCache().close();
+            }
+        };
+
+        return new GuildPartitioner(nodeId, this.leases, host, mode, TTL, null, this.now::get);
+    }
+
+    private static String guildId(int i) {
+        return String.valueOf(300000000000000000L + i);
+    }
+
+    private static String userId(int i) {
+        return String.valueOf(200000000000000000L + i);
+    }
+
+    /* first guild the ring maps to the node once the given nodes are live */
+    private static String guildOwnedBy(String node, String... nodes) {
+        HashRing ring = new HashRing(Set.of(nodes));
+
+        for (int i = 0; ; i++) {
+            if (node.equals(ring.ownerOf(guildId(i)))) {
+                return guildId(i);
+            }
+        }
+    }
+
+    @Test
+    public void spreadsGuildsAndMovesFewOnJoin() {
+        HashRing three = new HashRing(List.of("a", "b", "c"));
+        HashRing four = new HashRing(List.of("d", "c", "b", "a"));
+        Map<String, Integer> shares = new HashMap<>();
+        int moved = 0;
+
+        for (int i = 0; i < 3000; i++) {
+            String before = three.ownerOf(guildId(i));
+            String after = four.ownerOf(guildId(i));
+            shares.merge(before, 1, Integer::sum);
+
+            if (!before.equals(after)) {
+                /* only the new node takes guilds, nothing shuffles between the old ones */
+                assertEquals("d", after);
+                moved++;
+            }
+        }
+
+        for (int share : shares.values()) {
+            assertTrue("share " + share, share > 750 && share < 1250);
+        }
+
+        assertTrue("moved " + moved, moved > 450 && moved < 1050);
+        assertEquals(three.ownerOf(guildId(1)), new HashRing(List.of("c", "a", "b")).ownerOf(guildId(1)));
+        assertNull(new HashRing(List.of()).ownerOf(guildId(1)));
+    }
+
+    @Test
+    public void leasesEachGuildToExactlyOneNode() throws Exception {
+        List<GuildPartitioner> nodes = List.of(this.node("a", ActivityHandoff.Mode.MIGRATE),
+                this.node("b", ActivityHandoff.Mode.MIGRATE), this.node("c", ActivityHandoff.Mode.MIGRATE));
+        List<String> guilds = new ArrayList<>();
+
+        for (int i = 0; i < 300; i++) {
+            guilds.add(guildId(i));
+        }
+
+        nodes.forEach(node -> node.track(guilds));
+
+        /* a grabs everything before the others are seen, then gives up what moved */
+        for (int round = 0; round < 3; round++) {
+            for (GuildPartitioner node : nodes) {
+                node.rebalance();
+            }
+        }
+
+        Set<String> owned = new HashSet<>();
+        for (GuildPartitioner node : nodes) {
+            assertTrue(node.getOwnedGuilds().size() > 50);
+
+            for (String guildId : node.getOwnedGuilds()) {
+                assertTrue("owned twice " + guildId, owned.add(guildId));
+                assertEquals(node.getNodeId(), node.ownerOf(guildId));
+                assertEquals(node.getNodeId(), this.leases.getOwner(guildId));
+                assertTrue(node.getBotInstance(guildId).isSuccessful());
+            }
+        }
+
+        assertEquals(300, owned.size());
+
+        for (String guildId : guilds) {
+            long serving = nodes.stream().filter(node -> node.getBotInstance(guildId).isSuccessful()).count();
+            assertEquals(1, serving);
+        }
+    }
+
+    @Test
+    public void migratesOpenPredictionWhenNodeJoins() throws Exception {
+        String guildId = guildOwnedBy("b", "a", "b");
+        GuildPartitioner a = this.node("a", ActivityHandoff.Mode.MIGRATE);
+        GuildPartitioner b = this.node("b", ActivityHandoff.Mode.MIGRATE);
+        a.track(List.of(guildId));
+        b.track(List.of(guildId));
+
+        assertEquals(1, a.rebalance().getAcquired());
+        BotInstance first = a.getBotInstance(guildId).getHolder();
+        Prediction prediction = new Prediction();
+        first.getActivities().put(prediction.getIdentifier(), prediction);
+
+        for (int i = 0; i < 3; i++) {
+            UserData user = first.getUserCache().get(userId(i)).getHolder();
+            assertTrue(prediction.enter(user, 10 * (i + 1), i == 0 ? "Option1" : "Option2").isSuccessful());
+            first.getUserCache().markDirty(user);
+        }
+
+        /* b cannot take the guild while a still holds it */
+        assertEquals(0, b.rebalance().getAcquired());
+        assertEquals(1, a.rebalance().getReleased());
+        assertFalse(a.getBotInstance(guildId).isSuccessful());
+        assertTrue(first.getActivities().isEmpty());
+
+        /* balances were persisted debited before the lease was let go */
+        assertEquals(90, this.users.get(userId(0)).getTickets());
+        assertEquals(70, this.users.get(userId(2)).getTickets());
+
+        assertEquals(1, b.rebalance().getAcquired());
+        BotInstance second = b.getBotInstance(guildId).getHolder();
+        IActivity restored = second.getActivities().get(prediction.getIdentifier());
+
+        assertTrue(restored instanceof Prediction);
+        assertEquals(60, restored.getTotalTickets());
+        assertEquals(3, restored.getEntrantCount());
+        assertEquals("Option2", ((Prediction) restored).getEntrantPick().get(second.getUserCache().get(userId(1)).getHolder()));
+
+        /* the new owner keeps taking entries and settles against the balances it loaded */
+        UserData late = second.getUserCache().get(userId(3)).getHolder();
+        assertTrue(((Prediction) restored).enter(late, 40, "Option1").isSuccessful());
+        assertTrue(((Prediction) restored).end("Option1").isSuccessful());
+
+        long total = 0;
+        for (int i = 0; i < 10; i++) {
+            total += second.getUserCache().get(userId(i)).getHolder().getTickets();
+        }
+
+        assertEquals(1000, total);
+    }
+
+    @Test
+    public void drainsActivitiesWhenNodeLeaves() throws Exception {
+        String guildId = guildOwnedBy("b", "a", "b");
+        GuildPartitioner a = this.node("a", ActivityHandoff.Mode.DRAIN);
+        GuildPartitioner b = this.node("b", ActivityHandoff.Mode.DRAIN);
+        a.track(List.of(guildId));
+        b.track(List.of(guildId));
+
+        a.rebalance();
+        b.rebalance();
+        a.rebalance();
+        assertEquals(1, b.rebalance().getAcquired());
+
+        BotInstance instance = b.getBotInstance(guildId).getHolder();
+        Prediction prediction = new Prediction();
+        instance.getActivities().put(prediction.getIdentifier(), prediction);
+        UserData user = instance.getUserCache().get(userId(5)).getHolder();
+        assertTrue(prediction.enter(user, 25, "Option1").isSuccessful());
+
+        /* leaving hands the guild back at once instead of waiting for the lease to expire */
+        b.close();
+        assertEquals(100, this.users.get(userId(5)).getTickets());
+        assertEquals(100, user.getTickets());
+
+        assertEquals(1, a.rebalance().getAcquired());
+        assertTrue(a.getBotInstance(guildId).getHolder().getActivities().isEmpty());
+        assertEquals(Set.of("a"), this.leases.getLiveNodes());
+    }
+
+    @Test
+    public void takesOverExpiredLeaseAndFencesOldOwner() throws Exception {
+        String guildId = guildOwnedBy("a", "a", "b");
+        GuildPartitioner a = this.node("a", ActivityHandoff.Mode.MIGRATE);
+        GuildPartitioner b = this.node("b", ActivityHandoff.Mode.MIGRATE);
+        a.track(List.of(guildId));
+        b.track(List.of(guildId));
+
+        assertEquals(1, a.rebalance().getAcquired());
+
+        /* a stalls past its lease, b only sees itself and takes the guild */
+        this.now.addAndGet(TTL.toMillis() * 2);
+        assertFalse(a.getBotInstance(guildId).isSuccessful());
+        assertEquals(1, b.rebalance().getAcquired());
+        assertEquals("b", this.leases.getOwner(guildId));
+
+        /* a wakes up, its renewal is refused and it stops serving */
+        GuildPartitioner.Rebalance rebalance = a.rebalance();
+        assertEquals(1, rebalance.getFenced());
+        assertEquals(0, rebalance.getAcquired());
+        assertTrue(a.getOwnedGuilds().isEmpty());
+
+        /* with both alive the ring hands the guild back to a */
+        assertEquals(1, b.rebalance().getReleased());
+        assertEquals(1, a.rebalance().getAcquired());
+        assertTrue(a.getBotInstance(guildId).isSuccessful());
+        assertFalse(b.getBotInstance(guildId).isSuccessful());
+    }
+}
@@ -0,0 +1,100 @@
+package discord;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import tv.ender.discord.backend.BotInstance;
+import tv.ender.discord.backend.GuildWarmup;
+import tv.ender.discord.backend.UserCache;
+import tv.ender.firebase.GuildSource;
+import tv.ender.firebase.WriteBehindQueue;
+import tv.ender.firebase.backend.GuildData;
+import tv.ender.firebase.backend.UserData;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+public class GuildWarmupTest {
+    private final Map<String, BotInstance> registered = new ConcurrentHashMap<>();
+    private WriteBehindQueue<UserData> queue;
+
+    @Rule
+    public final Timeout timeout = Timeout.seconds(10);
+
+    @Before
+    public void setup() {
+        this.registered.clear();
+        this.queue = new WriteBehindQueue<>(chunk -> {}, UserData::getDiscordId, 500, 1000, Duration.ofMinutes(1));
+    }
+
+    @After
+    public void teardown() {
+        this.queue.close();
+    }
+
+    /* in-memory stand-in for the guilds and users collections */
+    private GuildSource createSource(int guilds, String brokenGuild) {
+        return new GuildSource() {
+            @Override
+            public void streamGuilds(Consumer<GuildData> consumer) {
+                for (int i = 0; i < guilds; i++) {
+                    consumer.accept(GuildData.of(String.valueOf(i), "guild" + i, "!", "online", "PLAYING", new ArrayList<>(), false));
+                }
+            }
+
+            @Override
+            public List<UserData> loadTopUsers(String guildId, int limit) {
+                if (guildId.equals(brokenGuild)) {
+                    throw new IllegalStateException("unavailable");
+                }
+
+                List<UserData> users = new ArrayList<>();
+                for (int i = 0; i < limit; i++) {
+                    users.add(UserData.of("user" + i, guildId + "-" + i, guildId, 1000 - i, 0));
+                }
+
+                return users;
+            }
+        };
+    }
+
+    private BotInstance createInstance(GuildData guild) {
+        UserCache cache = new UserCache(discordId -> null, this.queue, 100, Duration.ofMinutes(1));
+
+        return BotInstance.of(guild, cache, null);
+    }
+
+    @Test
+    public void warmsEveryGuild() throws Exception {
+        var warmup = new GuildWarmup(this.createSource(200, null), this::createInstance, 4, 5);
+
+        var report = warmup.run(instance -> this.registered.put(instance.getGuildData().getGuildId(), instance));
+
+        assertEquals(200, report.getGuilds());
+        assertEquals(0, report.getFailed());
+        assertEquals(1000, report.getUsersPrefetched());
+        assertEquals(200, this.registered.size());
+        assertNotNull(this.registered.get("7").getUserCache().getIfPresent("7-0"));
+
+        System.out.println(report);
+    }
+
+    @Test
+    public void skipsFailedGuild() throws Exception {
+        var warmup = new GuildWarmup(this.createSource(10, "3"), this::createInstance, 2, 5);
+
+        var report = warmup.run(instance -> this.registered.put(instance.getGuildData().getGuildId(), instance));
+
+        assertEquals(9, report.getGuilds());
+        assertEquals(1, report.getFailed());
+        assertFalse(this.registered.containsKey("3"));
+    }
+}
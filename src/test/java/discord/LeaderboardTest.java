@@ -0,0 +1,152 @@
+package discord;
+
+import org.junit.Test;
+import tv.ender.common.RankTree;
+import tv.ender.discord.backend.Leaderboard;
+import tv.ender.discord.backend.UserCache;
+import tv.ender.firebase.Projection;
+import tv.ender.firebase.WriteBehindQueue;
+import tv.ender.firebase.backend.UserData;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class LeaderboardTest {
+    private static final Comparator<UserData> BY_TICKETS = Comparator.comparingInt(UserData::getTickets).reversed()
+            .thenComparing(UserData::getDiscordId);
+
+    @Test
+    public void rankTreeMatchesSortedSet() {
+        SplittableRandom random = new SplittableRandom(3);
+        RankTree<Integer> tree = new RankTree<>(Comparator.naturalOrder());
+        TreeSet<Integer> expected = new TreeSet<>();
+
+        for (int i = 0; i < 20_000; i++) {
+            int key = random.nextInt(2_000);
+
+            if (random.nextBoolean()) {
+                assertEquals(expected.add(key), tree.insert(key));
+            } else {
+                assertEquals(expected.remove(key), tree.remove(key));
+            }
+        }
+
+        List<Integer> sorted = new ArrayList<>(expected);
+        assertEquals(sorted.size(), tree.size());
+        assertEquals(sorted.subList(0, 50), tree.first(50));
+
+        for (int i = 0; i < sorted.size(); i += 37) {
+            assertEquals(sorted.get(i), tree.select(i));
+            assertEquals(i, tree.rank(sorted.get(i)));
+        }
+
+        assertEquals(-1, tree.rank(-1));
+    }
+
+    @Test
+    public void tracksBalanceChanges() {
+        SplittableRandom random = new SplittableRandom(11);
+        Leaderboard leaderboard = new Leaderboard();
+        List<UserData> users = new ArrayList<>();
+
+        for (int i = 0; i < 500; i++) {
+            UserData user = UserData.of("user" + i, String.valueOf(1000 + i), "guild", random.nextInt(100), random.nextInt(10));
+            users.add(user);
+            leaderboard.update(user);
+        }
+
+        /* churn balances the way deposits and payouts do, re-indexing after each change */
+        for (int i = 0; i < 2_000; i++) {
+            UserData user = users.get(random.nextInt(users.size()));
+
+            if (random.nextBoolean()) {
+                user.credit(random.nextInt(50));
+            } else if (user.tryDebit(random.nextInt(50))) {
+                user.setLosses(user.getLosses() + 1);
+            }
+
+            leaderboard.update(user);
+        }
+
+        List<UserData> sorted = new ArrayList<>(users);
+        sorted.sort(BY_TICKETS);
+
+        List<Leaderboard.Standing> top = leaderboard.top(Leaderboard.Metric.TICKETS, 10);
+        assertEquals(10, top.size());
+        for (int i = 0; i < top.size(); i++) {
+            assertEquals(i + 1, top.get(i).getRank());
+            assertEquals(sorted.get(i).getDiscordId(), top.get(i).getDiscordId());
+            assertEquals(sorted.get(i).getTickets(), top.get(i).getScore());
+        }
+
+        for (int i = 0; i < sorted.size(); i += 23) {
+            assertEquals(i + 1, leaderboard.rank(Leaderboard.Metric.TICKETS, sorted.get(i).getDiscordId()));
+        }
+
+        sorted.sort(Comparator.comparingInt(UserData::getLosses).reversed().thenComparing(UserData::getDiscordId));
+        assertEquals(sorted.get(0).getDiscordId(), leaderboard.top(Leaderboard.Metric.LOSSES, 1).get(0).getDiscordId());
+        assertEquals(1, leaderboard.rank(Leaderboard.Metric.LOSSES, sorted.get(0).getDiscordId()));
+
+        assertTrue(leaderboard.remove(sorted.get(0).getDiscordId()));
+        assertEquals(-1, leaderboard.rank(Leaderboard.Metric.LOSSES, sorted.get(0).getDiscordId()));
+        assertEquals(499, leaderboard.size());
+    }
+
+    @Test
+    public void followsUserCache() throws Exception {
+        WriteBehindQueue<UserData> queue = new WriteBehindQueue<>(chunk -> {
+        }, UserData::getDiscordId, 10, 100, Duration.ofMinutes(1));
+        UserCache cache = new UserCache(id -> UserData.of("loaded", id, "guild", 50, 0), queue, 100, Duration.ofMinutes(1));
+        Leaderboard leaderboard = new Leaderboard();
+        cache.addChangeListener(leaderboard::update);
+
+        UserData first = cache.get("1").getHolder();
+        cache.put(UserData.of("put", "2", "guild", 10, 0));
+        assertEquals(1, leaderboard.rank(Leaderboard.Metric.TICKETS, "1"));
+
+        /* a balance change is visible before the user is marked dirty */
+        first.tryDebit(45);
+        assertEquals(1, leaderboard.rank(Leaderboard.Metric.TICKETS, "2"));
+        assertEquals(2, leaderboard.rank(Leaderboard.Metric.TICKETS, "1"));
+
+        first.credit(100);
+        assertEquals(1, leaderboard.rank(Leaderboard.Metric.TICKETS, "1"));
+        assertEquals(105, leaderboard.top(Leaderboard.Metric.TICKETS, 1).get(0).getScore());
+
+        cache.close();
+        queue.close();
+    }
+
+    @Test
+    public void seedRanksUnloadedUsers() {
+        Leaderboard leaderboard = new Leaderboard();
+        leaderboard.update(UserData.of("loaded", "1", "guild", 5, 0));
+
+        /* partial until the balance scan is done, loaded users are ranked meanwhile */
+        assertFalse(leaderboard.isSeeded());
+        assertEquals(1, leaderboard.rank(Leaderboard.Metric.TICKETS, "1"));
+
+        /* the stored balance of a loaded user is older than the one in memory */
+        assertEquals(2, leaderboard.seed(List.of(Projection.Balance.of("1", 90, 0), Projection.Balance.of("2", 40, 3),
+                Projection.Balance.of("3", 60, 1))));
+
+        assertEquals(3, leaderboard.size());
+        assertEquals(3, leaderboard.rank(Leaderboard.Metric.TICKETS, "1"));
+        assertEquals(1, leaderboard.rank(Leaderboard.Metric.TICKETS, "3"));
+        assertEquals("2", leaderboard.top(Leaderboard.Metric.LOSSES, 1).get(0).getDiscordId());
+
+        /* a later update replaces what was seeded */
+        leaderboard.update(UserData.of("loaded", "2", "guild", 100, 3));
+        assertEquals(1, leaderboard.rank(Leaderboard.Metric.TICKETS, "2"));
+        assertEquals(3, leaderboard.size());
+
+        leaderboard.markSeeded();
+        assertTrue(leaderboard.isSeeded());
+    }
+}
@@ -0,0 +1,90 @@
+package discord;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import tv.ender.simulation.LoadReport;
+import tv.ender.simulation.LoadScript;
+import tv.ender.simulation.LoadSimulator;
+
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+public class LoadSimulatorTest {
+    @Rule
+    public final Timeout timeout = Timeout.seconds(60);
+
+    /* the bet storm shape scaled down and unpaced */
+    private static LoadScript storm() {
+        return LoadScript.create()
+                .openPrediction(4)
+                .burst(500, Duration.ofSeconds(5), 0)
+                .reset()
+                .burst(5_000, Duration.ofSeconds(30), 3)
+                .settle(1)
+                .openRaffle()
+                .burst(1_000, Duration.ofSeconds(10), 0)
+                .cancel()
+                .openRaffle()
+                .burst(1_000, Duration.ofSeconds(10), 0)
+                .settle(3);
+    }
+
+    @Test
+    public void conservesTicketsRacingBets() throws InterruptedException {
+        LoadReport report = new LoadSimulator(7, 500, 8, 0, LoadSimulator.Dispatch.DIRECT).run(storm());
+        System.out.println(report);
+
+        assertTrue(report.toString(), report.isHealthy());
+        assertEquals(7_500, report.getAttempted());
+        assertEquals(report.getAttempted(), report.getAccepted() + report.getRejected());
+        assertTrue(report.getAccepted() > 0);
+        assertEquals(11, report.getChecks());
+        assertTrue(report.getP99Nanos() <= report.getMaxNanos());
+    }
+
+    @Test
+    public void conservesTicketsThroughMailbox() throws InterruptedException {
+        LoadReport report = new LoadSimulator(11, 500, 4, 0, LoadSimulator.Dispatch.MAILBOX).run(storm());
+
+        assertTrue(report.toString(), report.isHealthy());
+        assertEquals(7_500, report.getAttempted());
+    }
+
+    @Test
+    public void settlesPredictionNobodyBacked() throws InterruptedException {
+        /* a reset at the very end of a storm leaves a prediction like this one */
+        LoadScript script = LoadScript.create()
+                .openPrediction(3)
+                .settle(1)
+                .openRaffle()
+                .burst(200, Duration.ofSeconds(1), 0)
+                .settle(1);
+
+        LoadReport report = new LoadSimulator(5, 50, 2, 0, LoadSimulator.Dispatch.DIRECT).run(script);
+
+        assertTrue(report.toString(), report.isHealthy());
+        assertEquals(5, report.getChecks());
+    }
+
+    @Test
+    public void replaysFromSeed() throws InterruptedException {
+        LoadScript script = LoadScript.create()
+                .openPrediction(3)
+                .burst(2_000, Duration.ofSeconds(10), 0)
+                .settle(1)
+                .openRaffle()
+                .burst(2_000, Duration.ofSeconds(10), 0)
+                .settle(2);
+
+        LoadReport first = new LoadSimulator(42, 200, 1, 0, LoadSimulator.Dispatch.DIRECT).run(script);
+        LoadReport second = new LoadSimulator(42, 200, 1, 0, LoadSimulator.Dispatch.DIRECT).run(script);
+        LoadReport other = new LoadSimulator(43, 200, 1, 0, LoadSimulator.Dispatch.DIRECT).run(script);
+
+        assertTrue(first.isHealthy());
+        assertEquals(first.getAccepted(), second.getAccepted());
+        assertEquals(first.getFinalTickets(), second.getFinalTickets());
+        assertNotEquals(first.getFinalTickets(), other.getFinalTickets());
+    }
+}
@@ -0,0 +1,83 @@
+package discord;
+
+import org.junit.Test;
+import tv.ender.common.metrics.Counter;
+import tv.ender.common.metrics.Histogram;
+import tv.ender.common.metrics.MetricRegistry;
+import tv.ender.common.metrics.MetricsServer;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.*;
+
+public class MetricRegistryTest {
+    @Test
+    public void histogramQuantilesWithinPrecision() {
+        Histogram histogram = new MetricRegistry().timer("test_seconds", "Test");
+        SplittableRandom random = new SplittableRandom(5);
+        long[] values = new long[100_000];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextLong(1, 10_000_000_000L);
+            histogram.record(values[i]);
+        }
+
+        Arrays.sort(values);
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            long exact = values[(int) Math.ceil(quantile * values.length) - 1];
+            long reported = histogram.valueAt(quantile);
+
+            /* 32 sub-buckets per power of two bound the error to about 3% */
+            assertTrue("p%s was %d, expected %d".formatted(quantile, reported, exact),
+                    reported >= exact && reported <= exact * 1.04);
+        }
+
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals(values[values.length - 1], histogram.valueAt(1));
+    }
+
+    @Test
+    public void scrapesPrometheusText() {
+        MetricRegistry registry = new MetricRegistry();
+        Counter counter = registry.counter("test_entries_total", "Entries", "activity", "raffle");
+        assertSame(counter, registry.counter("test_entries_total", "Entries", "activity", "raffle"));
+
+        counter.add(3);
+        registry.gauge("test_depth", "Depth", () -> 7, "queue", "say \"hi\"");
+        registry.timer("test_seconds", "Latency").record(1_500_000_000L);
+
+        String scrape = registry.scrape();
+        assertTrue(scrape.contains("# TYPE test_entries_total counter\ntest_entries_total{activity=\"raffle\"} 3\n"));
+        assertTrue(scrape.contains("test_depth{queue=\"say \\\"hi\\\"\"} 7\n"));
+        assertTrue(scrape.contains("# TYPE test_seconds summary\n"));
+        assertTrue(scrape.contains("test_seconds_count 1\n"));
+        assertTrue(scrape.contains("test_seconds_sum 1.5\n"));
+
+        assertThrows(IllegalArgumentException.class, () -> registry.gauge("test_entries_total", "Wrong type", () -> 1));
+        assertTrue(registry.remove("test_depth", "queue", "say \"hi\""));
+        assertFalse(registry.scrape().contains("test_depth"));
+    }
+
+    @Test
+    public void servesScrapeEndpoint() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("test_requests_total", "Requests").increment();
+
+        try (MetricsServer server = new MetricsServer(registry, new InetSocketAddress("127.0.0.1", 0)).start()) {
+            HttpResponse<String> response = HttpClient.newHttpClient().send(
+                    HttpRequest.newBuilder(URI.create("http://127.0.0.1:%d/metrics".formatted(server.getPort()))).build(),
+                    HttpResponse.BodyHandlers.ofString());
+
+            assertEquals(200, response.statusCode());
+            assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain; version=0.0.4"));
+            assertTrue(response.body().contains("test_requests_total 1\n"));
+        }
+    }
+}
@@ -4,6 +4,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.Timeout;
+import tv.ender.discord.backend.activities.ActivityState;
 import tv.ender.discord.backend.activities.Prediction;
 import tv.ender.common.Result;
 import tv.ender.firebase.backend.UserData;
@@ -39,7 +40,11 @@ public class PredictionTest {
     }
 
     private UserData createUserData() {
-        return UserData.of(randomString(8), randomId(8), randomId(18), rand.nextInt(1, 1024), 0);
+        return this.createUserData(rand.nextInt(1, 1024));
+    }
+
+    private UserData createUserData(int tickets) {
+        return UserData.of(randomString(8), randomId(8), randomId(18), tickets, 0);
     }
 
     @Test
@@ -187,6 +192,69 @@ public class PredictionTest {
         System.out.println(result.getMessage());
     }
 
+    @Test
+    public void settlesOnlyOnce() {
+        var first = createUserData(100);
+        var second = createUserData(100);
+        var prediction = createPrediction();
+
+        prediction.enter(first, 100, "Option1");
+        prediction.enter(second, 100, "Option2");
+
+        assertTrue(prediction.end("Option1").isSuccessful());
+        assertEquals(200, first.getTickets());
+        assertEquals(0, prediction.getTotalTickets());
+        assertEquals(0, prediction.getEntrantCount());
+
+        assertFalse(prediction.end("Option1").isSuccessful());
+        assertEquals(200, first.getTickets());
+        assertEquals(0, second.getTickets());
+    }
+
+    @Test
+    public void fullBalanceDoesNotStopPayouts() {
+        var rich = createUserData(Integer.MAX_VALUE - 10);
+        var other = createUserData(100);
+        var loser = createUserData(1_000);
+        var prediction = createPrediction();
+
+        prediction.enter(rich, 10, "Option1");
+        prediction.enter(other, 10, "Option1");
+        prediction.enter(loser, 1_000, "Option2");
+
+        /* each winner is owed 510, the first balance only has room for 20 */
+        var result = prediction.end("Option1");
+        assertTrue(result.isSuccessful());
+        assertEquals(2, result.getHolder().size());
+        assertEquals(Integer.MAX_VALUE, rich.getTickets());
+        assertEquals(600, other.getTickets());
+        assertEquals(0, loser.getTickets());
+    }
+
+    @Test
+    public void settledPotIsNotRefunded() {
+        var first = createUserData(100);
+        var second = createUserData(100);
+        var prediction = createPrediction();
+
+        prediction.enter(first, 100, "Option1");
+        prediction.enter(second, 100, "Option2");
+        assertTrue(prediction.end("Option1").isSuccessful());
+
+        assertFalse(prediction.cancel());
+        assertFalse(prediction.reset().isSuccessful());
+        assertEquals(ActivityState.SETTLED, prediction.getState());
+        assertEquals(200, first.getTickets());
+        assertEquals(0, second.getTickets());
+
+        var cancelled = createPrediction();
+        cancelled.enter(first, 50, "Option1");
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        assertFalse(cancelled.end("Option1").isSuccessful());
+        assertEquals(200, first.getTickets());
+    }
+
     @Test
     public void failIncorrectWinningOption() {
         var randomUser = dataMap.iterator().next();
@@ -202,7 +270,7 @@ public class PredictionTest {
 
     @Test
     public void passEnterMultipleTimes() {
-        var randomUser = dataMap.iterator().next().setTickets(100);
+        var randomUser = createUserData(100);
         var prediction = createPrediction();
 
         int ticketsBet = 0;
@@ -220,7 +288,7 @@ public class PredictionTest {
 
     @Test
     public void resetPrediction() {
-        var randomUser = dataMap.iterator().next().setTickets(100);
+        var randomUser = createUserData(100);
         var prediction = createPrediction();
 
         prediction.enter(randomUser, 100, "Option1");
@@ -238,6 +306,24 @@ public class PredictionTest {
         assertTrue(result.isSuccessful());
     }
 
+    @Test
+    public void oddsTrackBets() {
+        var first = createUserData(300);
+        var second = createUserData(100);
+        var prediction = createPrediction();
+
+        prediction.enter(first, 300, "Option1");
+        prediction.enter(second, 100, "Option2");
+
+        var odds = prediction.getOdds();
+
+        assertEquals(2, odds.size());
+        assertEquals("Option1", odds.get(0).getOption());
+        assertEquals(75D, odds.get(0).getPercentage(), 0.001);
+        assertEquals(4D, odds.get(1).getMultiplier(), 0.001);
+        assertEquals(1, odds.get(1).getBettors());
+    }
+
     private static String randomString(int length) {
         if (length < 1) {
             throw new IllegalArgumentException("Length must be positive");
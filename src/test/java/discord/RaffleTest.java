@@ -0,0 +1,127 @@
+package discord;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import tv.ender.common.Result;
+import tv.ender.discord.backend.activities.Raffle;
+import tv.ender.firebase.backend.UserData;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.*;
+
+public class RaffleTest {
+    private final List<UserData> users = new ArrayList<>();
+
+    @Rule
+    public final Timeout timeout = Timeout.seconds(10);
+
+    @Before
+    public void setup() {
+        this.users.clear();
+
+        for (int i = 0; i < 50; i++) {
+            this.users.add(UserData.of("user" + i, String.valueOf(100000000000000000L + i), "1", 100, 0));
+        }
+    }
+
+    private Raffle createRaffle() {
+        Raffle raffle = new Raffle();
+
+        for (int i = 0; i < this.users.size(); i++) {
+            raffle.enter(this.users.get(i), i + 1);
+        }
+
+        return raffle;
+    }
+
+    @Test
+    public void drawDistinctWinners() {
+        Raffle raffle = this.createRaffle();
+
+        Result<List<UserData>> result = raffle.end(10, new SplittableRandom());
+
+        assertTrue(result.isSuccessful());
+        assertEquals(10, result.getHolder().size());
+        assertEquals(10, new HashSet<>(result.getHolder()).size());
+
+        System.out.println(result.getMessage());
+    }
+
+    @Test
+    public void drawIsReplayableWithSeed() {
+        var first = this.createRaffle().end(5, new SplittableRandom(42)).getHolder();
+        this.setup();
+        var second = this.createRaffle().end(5, new SplittableRandom(42)).getHolder();
+
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void drawStopsWhenEntrantsRunOut() {
+        Raffle raffle = this.createRaffle();
+
+        var result = raffle.end(this.users.size() + 10, new SplittableRandom());
+
+        assertTrue(result.isSuccessful());
+        assertEquals(this.users.size(), result.getHolder().size());
+    }
+
+    @Test
+    public void drawsOnceAndSpendsThePot() {
+        Raffle raffle = this.createRaffle();
+
+        assertFalse(raffle.end(0, new SplittableRandom()).isSuccessful());
+        assertEquals(1275, raffle.getTotalTickets());
+
+        assertTrue(raffle.end(3, new SplittableRandom()).isSuccessful());
+        assertEquals(0, raffle.getTotalTickets());
+        assertEquals(0, raffle.getEntrantCount());
+        assertTrue(raffle.getParticipants().isEmpty());
+
+        assertFalse(raffle.end(3, new SplittableRandom()).isSuccessful());
+        assertFalse(raffle.enter(this.users.get(0), 1).isSuccessful());
+
+        /* the drawn pot is not refunded on top of the draw */
+        long balances = this.users.stream().mapToLong(UserData::getTickets).sum();
+        assertFalse(raffle.cancel());
+        assertFalse(raffle.reset().isSuccessful());
+        assertEquals(balances, this.users.stream().mapToLong(UserData::getTickets).sum());
+    }
+
+    @Test
+    public void failNoEntrants() {
+        var result = new Raffle().end();
+
+        assertFalse(result.isSuccessful());
+
+        System.out.println(result.getMessage());
+    }
+
+    @Test
+    public void failNotEnoughTickets() {
+        var result = new Raffle().enter(this.users.get(0), 101);
+
+        assertFalse(result.isSuccessful());
+        assertEquals(100, this.users.get(0).getTickets());
+    }
+
+    @Test
+    public void resetRaffle() {
+        Raffle raffle = this.createRaffle();
+
+        assertEquals(99, this.users.get(0).getTickets());
+
+        assertTrue(raffle.reset().isSuccessful());
+        assertEquals(0, raffle.getParticipants().size());
+
+        for (UserData user : this.users) {
+            assertEquals(100, user.getTickets());
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package discord;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import tv.ender.common.LockSite;
+import tv.ender.common.ReadWriteLock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ReadWriteLockTest {
+    @Rule
+    public final Timeout timeout = Timeout.seconds(20);
+
+    /* guarded pair, a torn read sees them differ */
+    private long first;
+    private long second;
+
+    @Test
+    public void reentrantInBothModes() throws Exception {
+        for (ReadWriteLock.Mode mode : ReadWriteLock.Mode.values()) {
+            ReadWriteLock lock = new ReadWriteLock("test-reentrant", mode);
+
+            lock.readLock();
+            lock.readLock();
+            lock.readUnlock();
+            lock.readUnlock();
+
+            lock.writeLock();
+            lock.writeLock();
+            lock.readLock();
+            lock.writeUnlock();
+            lock.writeUnlock();
+
+            /* downgraded, other readers get in but writers wait */
+            assertFalse(tryWriteElsewhere(lock));
+            assertTrue(tryReadElsewhere(lock));
+            lock.readUnlock();
+            assertTrue(tryWriteElsewhere(lock));
+
+            lock.readLock();
+            lock.readLock();
+            lock.releaseAnyReadLocks();
+            assertTrue(tryWriteElsewhere(lock));
+
+            assertThrows(IllegalMonitorStateException.class, lock::readUnlock);
+            assertThrows(IllegalMonitorStateException.class, lock::writeUnlock);
+        }
+    }
+
+    @Test
+    public void refusesUpgrade() {
+        ReadWriteLock lock = new ReadWriteLock("test-upgrade", ReadWriteLock.Mode.STAMPED);
+
+        lock.readLock();
+        assertThrows(IllegalStateException.class, lock::writeLock);
+        lock.readUnlock();
+    }
+
+    @Test
+    public void optimisticReadsNeverSeeTornWrites() throws Exception {
+        ReadWriteLock lock = new ReadWriteLock("test-optimistic", ReadWriteLock.Mode.STAMPED);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger torn = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+
+        threads.add(Thread.ofPlatform().start(() -> {
+            while (running.get()) {
+                lock.writeLock();
+                try {
+                    this.first++;
+                    Thread.onSpinWait();
+                    this.second++;
+                } finally {
+                    lock.writeUnlock();
+                }
+            }
+        }));
+
+        for (int i = 0; i < 3; i++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int read = 0; read < 200_000; read++) {
+                    if (lock.read(() -> this.first - this.second) != 0) {
+                        torn.incrementAndGet();
+                    }
+                }
+            }));
+        }
+
+        for (int i = 1; i < threads.size(); i++) {
+            threads.get(i).join();
+        }
+
+        running.set(false);
+        threads.get(0).join();
+
+        assertEquals(0, torn.get());
+    }
+
+    @Test
+    public void recordsContendedWaits() throws Exception {
+        ReadWriteLock lock = new ReadWriteLock("test-contended");
+        LockSite site = lock.getSite();
+        CountDownLatch waiting = new CountDownLatch(1);
+
+        lock.writeLock();
+        Thread reader = Thread.ofPlatform().start(() -> {
+            waiting.countDown();
+            lock.readLock();
+            lock.readUnlock();
+        });
+
+        waiting.await();
+        Thread.sleep(50);
+        lock.writeUnlock();
+        reader.join();
+
+        assertEquals(1, site.getReadWait().getCount());
+        assertTrue(site.getReadWait().getMax() >= 10_000_000L);
+        assertTrue(site.getContention() > 0);
+        assertTrue(LockSite.getSites().contains(site));
+    }
+
+    @Test
+    public void samplesUncontendedAcquires() throws Exception {
+        ReadWriteLock lock = new ReadWriteLock("test-sampled");
+        List<ReadWriteLock> others = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            others.add(new ReadWriteLock("test-sampled-other"));
+        }
+
+        LockSite site = lock.getSite();
+
+        /* a fresh thread, so its first acquire is a sampled one */
+        Thread.ofPlatform().start(() -> {
+            for (int i = 0; i < ReadWriteLock.SAMPLE_RATE * 3; i++) {
+                lock.readLock();
+                lock.readLock();
+                lock.readUnlock();
+                lock.readUnlock();
+            }
+
+            for (int i = 0; i < ReadWriteLock.SAMPLE_RATE * 2; i++) {
+                lock.writeLock();
+                lock.writeUnlock();
+            }
+        }).join();
+
+        assertEquals(3, site.getReadHold().getCount());
+        assertEquals(2, site.getWriteHold().getCount());
+        assertEquals(0, site.getContention(), 0);
+
+        /* many locks held at once, released out of order */
+        others.forEach(ReadWriteLock::readLock);
+        for (int i = 0; i < others.size(); i += 2) {
+            others.get(i).readUnlock();
+        }
+
+        assertTrue(tryWriteElsewhere(others.get(0)));
+        assertFalse(tryWriteElsewhere(others.get(1)));
+
+        for (int i = 1; i < others.size(); i += 2) {
+            others.get(i).readUnlock();
+            assertTrue(tryWriteElsewhere(others.get(i)));
+        }
+
+        assertThrows(IllegalMonitorStateException.class, others.get(3)::readUnlock);
+    }
+
+    @Test
+    public void siteModeIsConfigurable() {
+        System.setProperty("LOCK_MODES", "test-configured = stamped, other=reentrant");
+        try {
+            assertEquals(ReadWriteLock.Mode.STAMPED, new ReadWriteLock("test-configured").getMode());
+            assertEquals(ReadWriteLock.Mode.REENTRANT, new ReadWriteLock("test-unconfigured").getMode());
+        } finally {
+            System.clearProperty("LOCK_MODES");
+        }
+    }
+
+    private static boolean tryWriteElsewhere(ReadWriteLock lock) throws InterruptedException {
+        AtomicBoolean acquired = new AtomicBoolean();
+
+        Thread.ofPlatform().start(() -> {
+            if (lock.getWriteLock().tryLock()) {
+                acquired.set(true);
+                lock.getWriteLock().unlock();
+            }
+        }).join();
+
+        return acquired.get();
+    }
+
+    private static boolean tryReadElsewhere(ReadWriteLock lock) throws InterruptedException {
+        AtomicBoolean acquired = new AtomicBoolean();
+
+        Thread.ofPlatform().start(() -> {
+            if (lock.getReadLock().tryLock()) {
+                acquired.set(true);
+                lock.getReadLock().unlock();
+            }
+        }).join();
+
+        return acquired.get();
+    }
+}
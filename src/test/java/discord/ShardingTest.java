@@ -0,0 +1,116 @@
+package discord;
+
+import org.junit.After;
+import org.junit.Test;
+import tv.ender.discord.gateway.ShardConfig;
+import tv.ender.discord.gateway.ShardMetrics;
+import tv.ender.discord.gateway.ShardStats;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ShardingTest {
+    @After
+    public void teardown() {
+        System.clearProperty("SHARD_COUNT");
+        System.clearProperty("SHARD_RANGE");
+    }
+
+    /* builds a guild snowflake that discord would route to the given shard */
+    private static String guildOnShard(int shard, int count, int salt) {
+        long timestamp = (long) salt * count + shard;
+
+        return String.valueOf(timestamp << 22 | salt & 0x3FFFFF);
+    }
+
+    @Test
+    public void routesGuildsLikeDiscord() {
+        /* shard is taken from the creation timestamp bits, not the low worker bits */
+        assertEquals(2, ShardConfig.shardFor(81384788765712384L, 16));
+        assertEquals(ShardConfig.shardFor(81384788765712384L, 16), ShardConfig.shardFor(81384788765712384L | 0x3FFFFF, 16));
+
+        ShardConfig config = new ShardConfig(16, 0, 15);
+        for (int shard = 0; shard < 16; shard++) {
+            assertEquals(shard, config.shardFor(guildOnShard(shard, 16, 12345 + shard)));
+        }
+    }
+
+    @Test
+    public void ownsOnlyItsRange() {
+        ShardConfig config = new ShardConfig(8, 2, 4);
+
+        assertArrayEquals(new int[]{2, 3, 4}, config.getIndices());
+        assertFalse(config.isFullRange());
+
+        for (int shard = 0; shard < 8; shard++) {
+            boolean expected = shard >= 2 && shard <= 4;
+            assertEquals(expected, config.owns(guildOnShard(shard, 8, 99)));
+        }
+    }
+
+    @Test
+    public void readsProperties() {
+        assertTrue(ShardConfig.fromProperties().isAuto());
+        assertTrue(ShardConfig.auto().owns("81384788765712384"));
+
+        System.setProperty("SHARD_COUNT", "4");
+        assertTrue(ShardConfig.fromProperties().isFullRange());
+
+        System.setProperty("SHARD_RANGE", "1-2");
+        ShardConfig config = ShardConfig.fromProperties();
+        assertEquals(4, config.getCount());
+        assertEquals(1, config.getFirst());
+        assertEquals(2, config.getLast());
+
+        System.clearProperty("SHARD_COUNT");
+        assertThrows(IllegalArgumentException.class, ShardConfig::fromProperties);
+        assertThrows(IllegalArgumentException.class, () -> new ShardConfig(4, 2, 4));
+    }
+
+    @Test
+    public void tracksEventsPerShard() throws Exception {
+        ShardMetrics metrics = new ShardMetrics();
+        ExecutorService gateway = Executors.newFixedThreadPool(4);
+
+        /* fake gateway, one connection per shard pushing events concurrently */
+        for (int shard = 0; shard < 4; shard++) {
+            int index = shard;
+            gateway.execute(() -> {
+                for (int i = 0; i < 1000 * (index + 1); i++) {
+                    if (i % 10 == 0) {
+                        metrics.recordEvent(index, System.currentTimeMillis() - 50);
+                    } else {
+                        metrics.recordEvent(index);
+                    }
+                }
+            });
+        }
+
+        gateway.shutdown();
+        assertTrue(gateway.awaitTermination(5, TimeUnit.SECONDS));
+        metrics.recordLatency(2, Duration.ofMillis(42));
+
+        List<ShardStats> stats = metrics.sample();
+        assertEquals(4, stats.size());
+
+        for (ShardStats shard : stats) {
+            assertEquals(1000L * (shard.getShard() + 1), shard.getEvents());
+            assertTrue(shard.getEventsPerSecond() > 0);
+            assertTrue(shard.getAverageLagMillis() >= 50);
+            assertTrue(shard.getMaxLagMillis() >= 50);
+        }
+
+        assertEquals(42, stats.get(2).getLatencyMillis());
+        assertEquals(-1, stats.get(0).getLatencyMillis());
+
+        /* lag resets each sample, totals keep counting */
+        ShardStats next = metrics.sample().get(0);
+        assertEquals(1000, next.getEvents());
+        assertEquals(0, next.getMaxLagMillis());
+    }
+}
@@ -0,0 +1,206 @@
+package discord;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import tv.ender.discord.backend.activities.Prediction;
+import tv.ender.discord.backend.activities.Raffle;
+import tv.ender.discord.backend.interfaces.IActivity;
+import tv.ender.discord.backend.ledger.ParticipantSnapshot;
+import tv.ender.discord.backend.ledger.Stake;
+import tv.ender.discord.backend.ledger.TicketLedger;
+import tv.ender.firebase.backend.UserData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class TicketLedgerTest {
+    @Rule
+    public final Timeout timeout = Timeout.seconds(20);
+
+    private static UserData user(long id, int tickets) {
+        return UserData.of("user" + id, String.valueOf(id), "1", tickets, 0);
+    }
+
+    @Test
+    public void growsAndKeepsEveryEntrant() {
+        TicketLedger ledger = new TicketLedger(new AtomicBoolean(true));
+        List<UserData> users = new ArrayList<>();
+
+        /* sequential snowflakes from one worker only differ in their low bits */
+        for (int i = 0; i < 100_000; i++) {
+            UserData user = user(1090379681330630748L + i, 100);
+            users.add(user);
+            assertTrue(ledger.deposit(user, 1 + i % 10, i % 2 == 0 ? "yes" : "no").isSuccessful());
+        }
+
+        assertEquals(100_000, ledger.size());
+        assertEquals(100_000, ledger.getTickets().size());
+
+        for (int i = 0; i < users.size(); i++) {
+            Stake stake = ledger.getStake(users.get(i));
+            assertEquals(1 + i % 10, stake.getTickets());
+            assertEquals(i % 2 == 0 ? "yes" : "no", ledger.getPicks().get(users.get(i)));
+        }
+
+        long iterated = 0;
+        for (var entry : ledger.getTickets().entrySet()) {
+            iterated += entry.getValue();
+        }
+        assertEquals(ledger.getTotal(), iterated);
+
+        Map<UserData, Integer> drained = ledger.drain();
+        assertEquals(100_000, drained.size());
+        assertEquals(0, ledger.size());
+        assertEquals(0, ledger.getTotal());
+        assertNull(ledger.getStake(users.get(0)));
+    }
+
+    @Test
+    public void countersTrackEntries() {
+        IActivity raffle = new Raffle();
+        UserData first = user(81384788765712384L, 100);
+        UserData second = user(81384788765712385L, 100);
+
+        ((Raffle) raffle).enter(first, 10);
+        ((Raffle) raffle).enter(first, 5);
+        ((Raffle) raffle).enter(second, 20);
+        ((Raffle) raffle).enter(second, 500);
+
+        assertEquals(35, raffle.getTotalTickets());
+        assertEquals(2, raffle.getEntrantCount());
+        assertEquals(3, raffle.getCounters().getDepositCount());
+
+        ((Raffle) raffle).reset();
+        assertEquals(0, raffle.getTotalTickets());
+        assertEquals(0, raffle.getEntrantCount());
+        assertEquals(3, raffle.getCounters().getDepositCount());
+    }
+
+    @Test
+    public void snapshotsArePointInTime() {
+        Prediction prediction = new Prediction();
+        UserData first = user(81384788765712384L, 100);
+        UserData second = user(81384788765712385L, 100);
+
+        prediction.enter(first, 10, "yes");
+        ParticipantSnapshot before = prediction.snapshot();
+
+        /* cached while nothing changes */
+        assertSame(before, prediction.snapshot());
+
+        prediction.enter(second, 20, "no");
+        ParticipantSnapshot after = prediction.snapshot();
+
+        assertNotSame(before, after);
+        assertTrue(after.getEpoch() > before.getEpoch());
+        assertEquals(1, before.size());
+        assertEquals(10, before.getTotalTickets());
+        assertEquals(2, after.getParticipants().size());
+        assertEquals("no", after.getPicks().get(second));
+        assertThrows(UnsupportedOperationException.class, () -> after.getTickets().put(first, 1));
+
+        prediction.reset();
+        assertEquals(0, prediction.snapshot().size());
+        assertEquals(2, after.size());
+    }
+
+    @Test
+    public void snapshotsStayConsistentUnderDeposits() throws Exception {
+        TicketLedger ledger = new TicketLedger(new AtomicBoolean(true));
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread[] writers = new Thread[4];
+
+        for (int i = 0; i < writers.length; i++) {
+            long base = 81384788765712384L + i * 1_000_000L;
+            writers[i] = new Thread(() -> {
+                for (int j = 0; running.get(); j++) {
+                    ledger.deposit(user(base + j % 5_000, 1_000_000), 1, null);
+                }
+            });
+            writers[i].start();
+        }
+
+        /* a torn copy would disagree with its own total or with the ledger at its epoch */
+        for (int i = 0; i < 200; i++) {
+            ParticipantSnapshot snapshot = ledger.snapshot();
+            long sum = 0;
+            for (int tickets : snapshot.getTickets().values()) {
+                sum += tickets;
+            }
+
+            assertEquals(snapshot.getTotalTickets(), sum);
+        }
+
+        running.set(false);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        ParticipantSnapshot last = ledger.snapshot();
+        assertEquals(ledger.getEpoch(), last.getEpoch());
+        assertEquals(ledger.getTotal(), last.getTotalTickets());
+    }
+
+    @Test
+    public void rejectsInvalidIds() {
+        TicketLedger ledger = new TicketLedger(new AtomicBoolean(true));
+        UserData user = UserData.of("user", "not-a-snowflake", "1", 100, 0);
+
+        assertFalse(ledger.deposit(user, 10).isSuccessful());
+        assertEquals(100, user.getTickets());
+        assertNull(ledger.getStake(user));
+        assertFalse(ledger.getTickets().containsKey(user));
+    }
+
+    @Test
+    public void creditRefusesToOverflow() {
+        UserData user = user(81384788765712384L, Integer.MAX_VALUE - 5);
+
+        assertThrows(ArithmeticException.class, () -> user.credit(10));
+        assertEquals(Integer.MAX_VALUE - 5, user.getTickets());
+        assertEquals(Integer.MAX_VALUE, user.credit(5));
+    }
+
+    @Test
+    public void conservesTicketsUnderContention() throws Exception {
+        TicketLedger ledger = new TicketLedger(new AtomicBoolean(true));
+        List<UserData> users = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            users.add(user(81384788765712384L + i, 1_000));
+        }
+
+        AtomicLong accepted = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int thread = 0; thread < 8; thread++) {
+            int offset = thread;
+            executor.execute(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    UserData user = users.get((i * 7 + offset) % users.size());
+
+                    if (ledger.deposit(user, 3, null).isSuccessful()) {
+                        accepted.addAndGet(3);
+                    }
+                }
+            });
+        }
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(15, TimeUnit.SECONDS));
+
+        long balances = users.stream().mapToLong(UserData::getTickets).sum();
+        assertEquals(accepted.get(), ledger.getTotal());
+        assertEquals(1_000L * users.size(), balances + ledger.getTotal());
+
+        ledger.refundAll();
+        assertEquals(1_000L * users.size(), users.stream().mapToLong(UserData::getTickets).sum());
+    }
+}
@@ -0,0 +1,179 @@
+package discord;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import tv.ender.discord.backend.UserCache;
+import tv.ender.discord.backend.activities.Prediction;
+import tv.ender.firebase.WriteBehindQueue;
+import tv.ender.firebase.backend.UserData;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class UserCacheTest {
+    /* in-memory stand-in for the users collection */
+    private final Map<String, Integer> store = new ConcurrentHashMap<>();
+    private final AtomicInteger loads = new AtomicInteger();
+    private WriteBehindQueue<UserData> queue;
+
+    @Rule
+    public final Timeout timeout = Timeout.seconds(10);
+
+    @Before
+    public void setup() {
+        this.store.clear();
+        this.loads.set(0);
+        this.queue = new WriteBehindQueue<>(chunk -> chunk.forEach(user -> this.store.put(user.getDiscordId(), user.getTickets())),
+                UserData::getDiscordId, 500, 1000, Duration.ofMinutes(1));
+
+        for (int i = 0; i < 10; i++) {
+            this.store.put(String.valueOf(i), 100);
+        }
+    }
+
+    @After
+    public void teardown() {
+        this.queue.close();
+    }
+
+    private UserCache createCache(long maximumSize) {
+        return new UserCache(discordId -> {
+            this.loads.incrementAndGet();
+            Thread.sleep(20);
+
+            Integer tickets = this.store.get(discordId);
+            return tickets == null ? null : UserData.of("user" + discordId, discordId, "1", tickets, 0);
+        }, this.queue, maximumSize, Duration.ofMinutes(10));
+    }
+
+    @Test
+    public void coalescesConcurrentMisses() throws InterruptedException {
+        UserCache cache = this.createCache(100);
+        Thread[] threads = new Thread[8];
+        CountDownLatch start = new CountDownLatch(1);
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                assertTrue(cache.get("1").isSuccessful());
+            });
+            threads[i].start();
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, this.loads.get());
+    }
+
+    @Test
+    public void failMissingUser() {
+        var result = this.createCache(100).get("missing");
+
+        assertFalse(result.isSuccessful());
+
+        System.out.println(result.getMessage());
+    }
+
+    @Test
+    public void dirtyUserSurvivesEviction() throws InterruptedException {
+        UserCache cache = this.createCache(1);
+
+        UserData user = cache.get("1").getHolder();
+        user.tryDebit(40);
+        cache.markDirty(user);
+
+        /* push the dirty user out of the cache */
+        cache.get("2");
+
+        assertSame(user, cache.get("1").getHolder());
+        assertEquals(60, cache.get("1").getHolder().getTickets());
+        assertEquals(1, cache.getDirtyCount());
+    }
+
+    @Test
+    public void stakedUserSurvivesEvictionOncePersisted() throws InterruptedException {
+        UserCache cache = this.createCache(1);
+        Prediction prediction = new Prediction();
+
+        UserData user = cache.get("1").getHolder();
+        assertTrue(prediction.enter(user, 40, "yes").isSuccessful());
+        cache.markDirty(user);
+
+        /* the debit lands and the user is pushed out while their stake is still open */
+        this.queue.flush();
+        cache.get("2");
+        assertEquals(0, cache.getDirtyCount());
+
+        UserData reloaded = cache.get("1").getHolder();
+        assertSame(user, reloaded);
+        assertTrue(prediction.enter(reloaded, 10, "yes").isSuccessful());
+
+        /* paid out on the copy every later lookup sees */
+        assertTrue(prediction.end("yes").isSuccessful());
+        assertEquals(100, cache.get("1").getHolder().getTickets());
+    }
+
+    @Test
+    public void balanceChangesPersistWithoutMarkDirty() throws InterruptedException {
+        UserCache cache = this.createCache(1);
+        Prediction prediction = new Prediction();
+
+        UserData winner = cache.get("1").getHolder();
+        UserData loser = cache.get("2").getHolder();
+        assertTrue(prediction.enter(winner, 40, "yes").isSuccessful());
+        assertTrue(prediction.enter(loser, 60, "no").isSuccessful());
+
+        /* the debits pin both users, even the one already pushed out of the cache */
+        assertTrue(cache.isDirty("1"));
+        assertEquals(2, cache.getDirtyCount());
+
+        assertTrue(prediction.end("yes").isSuccessful());
+        this.queue.flush();
+
+        assertEquals(0, cache.getDirtyCount());
+        assertEquals(160, (int) this.store.get("1"));
+        assertEquals(40, (int) this.store.get("2"));
+    }
+
+    @Test
+    public void unpinsOncePersisted() throws InterruptedException {
+        UserCache cache = this.createCache(100);
+
+        UserData user = cache.get("1").getHolder();
+        user.credit(5);
+        cache.markDirty(user);
+
+        this.queue.flush();
+
+        assertEquals(0, cache.getDirtyCount());
+        assertEquals(105, (int) this.store.get("1"));
+    }
+
+    @Test
+    public void tracksHitRate() {
+        UserCache cache = this.createCache(100);
+
+        cache.get("1");
+        cache.get("1");
+        cache.get("1");
+        cache.get("1");
+
+        assertEquals(0.75, cache.getHitRate(), 0.001);
+    }
+}
@@ -0,0 +1,76 @@
+package firebase;
+
+import org.junit.Test;
+import tv.ender.firebase.backend.GuildData;
+import tv.ender.firebase.backend.UserData;
+import tv.ender.firebase.codec.GuildDataCodec;
+import tv.ender.firebase.codec.UserDataCodec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DocumentCodecTest {
+    @Test
+    public void userRoundTrip() {
+        UserData user = UserData.of("ItWasEnder", "125681531824898049", "1090379681330630748", 200, 3);
+        Map<String, Object> fields = UserDataCodec.INSTANCE.encode(user);
+
+        /* firestore stores every integer as a long */
+        assertEquals(200L, fields.get(UserDataCodec.TICKETS));
+
+        UserData decoded = UserDataCodec.INSTANCE.decode(fields);
+        assertEquals(user.getName(), decoded.getName());
+        assertEquals(user.getGuildId(), decoded.getGuildId());
+        assertEquals(200, decoded.getTickets());
+        assertEquals(3, decoded.getLosses());
+    }
+
+    @Test
+    public void guildRoundTrip() {
+        GuildData guild = GuildData.of("1090379681330630748", "Ender", "!", "online", "PLAYING", new ArrayList<>(List.of("1", "2")), false);
+        guild.ban();
+
+        GuildData decoded = GuildDataCodec.INSTANCE.decode(GuildDataCodec.INSTANCE.encode(guild));
+        assertEquals(guild.getGuildName(), decoded.getGuildName());
+        assertEquals(guild.getBotPrefix(), decoded.getBotPrefix());
+        assertEquals(guild.getActivityType(), decoded.getActivityType());
+        assertEquals(guild.getAdminRoles(), decoded.getAdminRoles());
+        assertTrue(decoded.isBanned());
+    }
+
+    @Test
+    public void decodesStoredGuild() {
+        /* the shape firestore hands back, roles as a list and a legacy string flag */
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(GuildDataCodec.GUILD_ID, "1");
+        fields.put(GuildDataCodec.ADMIN_ROLES, List.of("10", "20"));
+        fields.put(GuildDataCodec.BANNED, "true");
+
+        GuildData guild = GuildDataCodec.INSTANCE.decode(fields);
+        assertEquals(List.of("10", "20"), guild.getAdminRoles());
+        assertTrue(guild.isBanned());
+
+        /* decoded lists stay editable */
+        guild.getAdminRoles().add("30");
+    }
+
+    @Test
+    public void rejectsMalformedFields() {
+        Map<String, Object> user = new HashMap<>(UserDataCodec.INSTANCE.encode(UserData.of("a", "1", "2", 5, 0)));
+        user.put(UserDataCodec.TICKETS, "5");
+        assertThrows(IllegalArgumentException.class, () -> UserDataCodec.INSTANCE.decode(user));
+
+        user.put(UserDataCodec.TICKETS, 5L);
+        user.remove(UserDataCodec.DISCORD_ID);
+        assertThrows(IllegalArgumentException.class, () -> UserDataCodec.INSTANCE.decode(user));
+
+        Map<String, Object> guild = new HashMap<>();
+        guild.put(GuildDataCodec.GUILD_ID, "1");
+        guild.put(GuildDataCodec.ADMIN_ROLES, List.of(1L));
+        assertThrows(IllegalArgumentException.class, () -> GuildDataCodec.INSTANCE.decode(guild));
+    }
+}
@@ -11,8 +11,14 @@ import org.junit.Test;
 import org.junit.rules.Timeout;
 import tv.ender.App;
 import tv.ender.firebase.Firebase;
+import tv.ender.firebase.Projection;
 import tv.ender.firebase.backend.UserData;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import static org.junit.Assert.*;
 
 public class FirebaseDatabaseTest {
@@ -68,4 +74,32 @@ public class FirebaseDatabaseTest {
             fail();
         }
     }
+
+    @Test
+    public void pagesGuildUsers() throws Exception {
+        Firebase firebase = Firebase.get();
+        firebase.writeUser(data).get();
+
+        Set<String> seen = new HashSet<>();
+        long count = firebase.scanUsers(data.getGuildId(), Projection.TICKETS, 2, page -> {
+            assertTrue(page.size() <= 2);
+            page.forEach(balance -> assertTrue(seen.add(balance.getDiscordId())));
+        });
+
+        assertEquals(seen.size(), count);
+        assertTrue(seen.contains(data.getDiscordId()));
+    }
+
+    @Test
+    public void batchedGetAll() throws Exception {
+        Firebase firebase = Firebase.get();
+        firebase.writeUser(data).get();
+
+        Map<String, UserData> users = firebase.getUsers(List.of(data.getDiscordId(), "0"), Projection.USER);
+        assertEquals(1, users.size());
+        assertEquals(data.getTickets(), users.get(data.getDiscordId()).getTickets());
+
+        Map<String, Projection.Balance> balances = firebase.getUsers(List.of(data.getDiscordId()), Projection.TICKETS);
+        assertEquals(data.getTickets(), balances.get(data.getDiscordId()).getTickets());
+    }
 }
@@ -0,0 +1,103 @@
+package firebase;
+
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import tv.ender.common.Result;
+import tv.ender.discord.backend.journal.JournalEvent;
+import tv.ender.discord.cluster.FirestoreLeaseStore;
+import tv.ender.discord.cluster.Lease;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+
+/**
+ * Runs against the Firestore emulator, start it with {@code gcloud emulators firestore start} and
+ * export FIRESTORE_EMULATOR_HOST, skipped otherwise
+ */
+public class FirestoreLeaseStoreTest {
+    private static final Duration TTL = Duration.ofSeconds(10);
+
+    private final AtomicLong now = new AtomicLong(System.currentTimeMillis());
+    private Firestore db;
+    private FirestoreLeaseStore store;
+    private String guildId;
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    @Before
+    public void setup() {
+        String host = System.getenv("FIRESTORE_EMULATOR_HOST");
+        assumeNotNull(host);
+
+        this.db = FirestoreOptions.newBuilder().setProjectId("curator-test").setEmulatorHost(host).build().getService();
+        this.store = new FirestoreLeaseStore(this.db, this.now::get);
+        this.guildId = UUID.randomUUID().toString();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (this.db != null) {
+            this.db.close();
+        }
+    }
+
+    @Test
+    public void leasesToOneNodeUntilExpired() throws Exception {
+        Result<Lease> first = this.store.acquire(this.guildId, "a", TTL);
+        assertTrue(first.isSuccessful());
+        assertFalse(this.store.acquire(this.guildId, "b", TTL).isSuccessful());
+        assertTrue(this.store.renew(first.getHolder(), TTL).isSuccessful());
+
+        this.now.addAndGet(TTL.toMillis() * 2);
+        Result<Lease> second = this.store.acquire(this.guildId, "b", TTL);
+        assertTrue(second.isSuccessful());
+        assertTrue(second.getHolder().getEpoch() > first.getHolder().getEpoch());
+
+        /* the old owner is fenced off */
+        assertFalse(this.store.renew(first.getHolder(), TTL).isSuccessful());
+        assertFalse(this.store.release(first.getHolder(), List.of()));
+    }
+
+    @Test
+    public void handsActivitiesOverWithTheLease() throws Exception {
+        UUID activity = UUID.randomUUID();
+        List<JournalEvent> handoff = List.of(JournalEvent.of(JournalEvent.Type.PREDICTION, activity, 1, this.guildId, 0, null),
+                JournalEvent.of(JournalEvent.Type.ENTER, activity, 2, "125681531824898049", 25, "Option1"));
+
+        Lease lease = this.store.acquire(this.guildId, "a", TTL).getHolder();
+        assertTrue(this.store.release(lease, handoff));
+
+        Lease taken = this.store.acquire(this.guildId, "b", TTL).getHolder();
+        assertEquals(2, taken.getHandoff().size());
+        assertEquals(JournalEvent.Type.ENTER, taken.getHandoff().get(1).getType());
+        assertEquals(activity, taken.getHandoff().get(1).getActivity());
+        assertEquals(25, taken.getHandoff().get(1).getTickets());
+        assertEquals("Option1", taken.getHandoff().get(1).getOption());
+
+        /* taken once, a later owner starts empty */
+        assertTrue(this.store.release(taken, List.of()));
+        assertTrue(this.store.acquire(this.guildId, "c", TTL).getHolder().getHandoff().isEmpty());
+    }
+
+    @Test
+    public void tracksLiveNodes() throws Exception {
+        String node = UUID.randomUUID().toString();
+
+        this.store.heartbeat(node, TTL);
+        assertTrue(this.store.getLiveNodes().contains(node));
+
+        this.store.leave(node);
+        assertFalse(this.store.getLiveNodes().contains(node));
+    }
+}
@@ -0,0 +1,137 @@
+package firebase;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import tv.ender.firebase.WriteBehindQueue;
+import tv.ender.firebase.backend.UserData;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class WriteBehindQueueTest {
+    /* in-memory stand-in for the users collection */
+    private final Map<String, Integer> store = new ConcurrentHashMap<>();
+    private final List<Integer> chunkSizes = new CopyOnWriteArrayList<>();
+
+    @Rule
+    public final Timeout timeout = Timeout.seconds(10);
+
+    @Before
+    public void setup() {
+        this.store.clear();
+        this.chunkSizes.clear();
+    }
+
+    private WriteBehindQueue<UserData> createQueue(int batchSize, int maxPending, Duration interval) {
+        return new WriteBehindQueue<>(chunk -> {
+            this.chunkSizes.add(chunk.size());
+            chunk.forEach(user -> this.store.put(user.getDiscordId(), user.getTickets()));
+        }, UserData::getDiscordId, batchSize, maxPending, interval);
+    }
+
+    private static UserData user(int id, int tickets) {
+        return UserData.of("user" + id, String.valueOf(id), "1", tickets, 0);
+    }
+
+    @Test
+    public void coalescesWritesPerUser() throws InterruptedException {
+        try (var queue = this.createQueue(500, 1000, Duration.ofMinutes(1))) {
+            for (int i = 0; i < 10; i++) {
+                queue.enqueue(user(1, i));
+            }
+
+            assertEquals(1, queue.getPendingCount());
+            assertEquals(1, queue.flush());
+        }
+
+        assertEquals(9, (int) this.store.get("1"));
+    }
+
+    @Test
+    public void chunksWithinBatchLimit() throws InterruptedException {
+        try (var queue = this.createQueue(10_000, 10_000, Duration.ofMinutes(1))) {
+            for (int i = 0; i < 1201; i++) {
+                queue.enqueue(user(i, 1));
+            }
+
+            queue.flush();
+        }
+
+        /* the flusher wakes once 500 are pending and may split the writes anywhere, never above the limit */
+        assertEquals(1201, this.store.size());
+        assertEquals(1201, this.chunkSizes.stream().mapToInt(Integer::intValue).sum());
+        assertTrue(this.chunkSizes.size() >= 3);
+
+        for (int size : this.chunkSizes) {
+            assertTrue("chunk of " + size, size <= WriteBehindQueue.MAX_BATCH_SIZE);
+        }
+    }
+
+    @Test
+    public void flushesOnInterval() throws InterruptedException {
+        try (var queue = this.createQueue(500, 1000, Duration.ofMillis(50))) {
+            queue.enqueue(user(1, 5));
+
+            while (this.store.isEmpty()) {
+                Thread.sleep(10);
+            }
+        }
+
+        assertEquals(5, (int) this.store.get("1"));
+    }
+
+    @Test
+    public void flushesOnClose() throws InterruptedException {
+        var queue = this.createQueue(500, 1000, Duration.ofMinutes(1));
+        queue.enqueue(user(1, 5));
+        queue.enqueue(user(2, 5));
+
+        queue.close();
+
+        assertEquals(2, this.store.size());
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    @Test
+    public void requeuesFailedChunks() throws InterruptedException {
+        AtomicBoolean failing = new AtomicBoolean(true);
+        var queue = new WriteBehindQueue<UserData>(chunk -> {
+            if (failing.get()) {
+                throw new IllegalStateException("unavailable");
+            }
+
+            chunk.forEach(user -> this.store.put(user.getDiscordId(), user.getTickets()));
+        }, UserData::getDiscordId, 500, 1000, Duration.ofMinutes(1));
+
+        queue.enqueue(user(1, 5));
+        assertEquals(0, queue.flush());
+        assertEquals(1, queue.getPendingCount());
+        assertEquals(1, queue.getFailureCount());
+
+        failing.set(false);
+        queue.close();
+
+        assertEquals(5, (int) this.store.get("1"));
+    }
+
+    @Test
+    public void blocksWhenFull() throws InterruptedException {
+        try (var queue = this.createQueue(2, 2, Duration.ofMinutes(1))) {
+            queue.enqueue(user(1, 1));
+            queue.enqueue(user(2, 1));
+
+            /* the flusher drains the full batch, letting the third producer in */
+            queue.enqueue(user(3, 1));
+        }
+
+        assertEquals(3, this.store.size());
+    }
+}